@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
+import org.apache.nifi.attribute.expression.language.evaluation.util.SharedSubExpression;
+import org.apache.nifi.attribute.expression.language.evaluation.util.SubExpressionResults;
+import org.apache.nifi.flowfile.FlowFile;
+
+/**
+ * <p>
+ * The read-only Map against which an Expression is evaluated. Values are resolved lazily, in order of precedence,
+ * from the additional attributes, the attributes of the FlowFile, the FlowFile's core properties (flowFileId,
+ * fileSize, entryDate and lineageStartDate), the environment variables and the system properties. Nothing is
+ * copied to create the map, and the environment and system properties are consulted only if a name is not
+ * found on the FlowFile.
+ * </p>
+ *
+ * <p>
+ * Environment variables and system properties are read from a snapshot taken when this class is loaded, so that
+ * lookups do not contend on the synchronized system Properties. A system property that is not part of the snapshot
+ * is still looked up, so that properties set after startup can be referenced.
+ * </p>
+ *
+ * <p>
+ * Iterating over the map, which is only necessary for Expressions that match attribute names, merges all of the
+ * sources into a single map the first time that it is needed.
+ * </p>
+ *
+ * <p>
+ * The map also holds the results of the sub-expressions that are shared by the queries of a {@link RuleSetCompiler}.
+ * Because FlowFiles are immutable, those results remain valid for as long as the same FlowFile is evaluated, so they
+ * are kept for each thread until that thread evaluates a different FlowFile or {@link RuleSetCompiler#releaseResults()}
+ * is called. Results are not kept when there is no FlowFile or when additional attributes are supplied.
+ * </p>
+ */
+final class ExpressionAttributeMap extends AbstractMap<String, String> implements SubExpressionResults {
+
+    private static final Map<String, String> ENVIRONMENT_SNAPSHOT = createEnvironmentSnapshot();
+    private static final ThreadLocal<FlowFileResults> FLOWFILE_RESULTS = new ThreadLocal<>();
+
+    private final FlowFile flowFile;
+    private final Map<String, String> additionalAttributes;
+    private Map<String, String> flowFileAttributes;
+    private Map<String, String> merged;
+    private Map<SharedSubExpression, QueryResult<?>> subExpressionResults;
+
+    ExpressionAttributeMap(final FlowFile flowFile, final Map<String, String> additionalAttributes) {
+        this.flowFile = flowFile;
+        this.additionalAttributes = additionalAttributes;
+    }
+
+    private static Map<String, String> createEnvironmentSnapshot() {
+        final Map<String, String> snapshot = new HashMap<>();
+        final Properties sysProps = System.getProperties();
+        for (final String name : sysProps.stringPropertyNames()) {
+            snapshot.put(name, sysProps.getProperty(name));
+        }
+
+        // environment variables take precedence over system properties
+        snapshot.putAll(System.getenv());
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    @Override
+    public String get(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null Keys are not allowed");
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        final String name = (String) key;
+        if (additionalAttributes != null) {
+            final String value = additionalAttributes.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        if (flowFile != null) {
+            if (flowFileAttributes == null) {
+                flowFileAttributes = flowFile.getAttributes();
+            }
+
+            final String value = flowFileAttributes.get(name);
+            if (value != null) {
+                return value;
+            }
+
+            final String coreValue = getCoreProperty(flowFile, name);
+            if (coreValue != null) {
+                return coreValue;
+            }
+        }
+
+        final String environmentValue = ENVIRONMENT_SNAPSHOT.get(name);
+        if (environmentValue != null) {
+            return environmentValue;
+        }
+
+        return System.getProperty(name);
+    }
+
+    private static String getCoreProperty(final FlowFile flowFile, final String name) {
+        switch (name) {
+            case "flowFileId":
+                return String.valueOf(flowFile.getId());
+            case "fileSize":
+                return String.valueOf(flowFile.getSize());
+            case "entryDate":
+                return String.valueOf(flowFile.getEntryDate());
+            case "lineageStartDate":
+                return String.valueOf(flowFile.getLineageStartDate());
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public QueryResult<?> getResult(final SharedSubExpression subExpression) {
+        final Map<SharedSubExpression, QueryResult<?>> results = getSubExpressionResults();
+        return results == null ? null : results.get(subExpression);
+    }
+
+    @Override
+    public void putResult(final SharedSubExpression subExpression, final QueryResult<?> result) {
+        final Map<SharedSubExpression, QueryResult<?>> results = getSubExpressionResults();
+        if (results != null) {
+            results.put(subExpression, result);
+        }
+    }
+
+    private Map<SharedSubExpression, QueryResult<?>> getSubExpressionResults() {
+        if (flowFile == null || additionalAttributes != null) {
+            return null;
+        }
+
+        if (subExpressionResults == null) {
+            FlowFileResults flowFileResults = FLOWFILE_RESULTS.get();
+            if (flowFileResults == null || flowFileResults.getFlowFile() != flowFile) {
+                flowFileResults = new FlowFileResults(flowFile);
+                FLOWFILE_RESULTS.set(flowFileResults);
+            }
+            subExpressionResults = flowFileResults.getResults();
+        }
+
+        return subExpressionResults;
+    }
+
+    /**
+     * Discards the results of shared sub-expressions that are kept for the current thread
+     */
+    static void clearSubExpressionResults() {
+        FLOWFILE_RESULTS.remove();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key != null && get(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (merged == null) {
+            final Map<String, String> map = new LinkedHashMap<>();
+            final Properties sysProps = System.getProperties();
+            for (final String name : sysProps.stringPropertyNames()) {
+                map.put(name, sysProps.getProperty(name));
+            }
+            map.putAll(ENVIRONMENT_SNAPSHOT);
+
+            if (flowFile != null) {
+                map.put("flowFileId", String.valueOf(flowFile.getId()));
+                map.put("fileSize", String.valueOf(flowFile.getSize()));
+                map.put("entryDate", String.valueOf(flowFile.getEntryDate()));
+                map.put("lineageStartDate", String.valueOf(flowFile.getLineageStartDate()));
+                map.putAll(flowFile.getAttributes());
+            }
+
+            if (additionalAttributes != null) {
+                map.putAll(additionalAttributes);
+            }
+
+            merged = Collections.unmodifiableMap(map);
+        }
+
+        return merged.entrySet();
+    }
+
+
+    /**
+     * The results of shared sub-expressions for the FlowFile most recently evaluated on a thread. The FlowFile is
+     * referenced weakly so that it is not kept from being garbage collected.
+     */
+    private static class FlowFileResults {
+        private final WeakReference<FlowFile> flowFileReference;
+        private final Map<SharedSubExpression, QueryResult<?>> results = new IdentityHashMap<>();
+
+        public FlowFileResults(final FlowFile flowFile) {
+            this.flowFileReference = new WeakReference<>(flowFile);
+        }
+
+        public FlowFile getFlowFile() {
+            return flowFileReference.get();
+        }
+
+        public Map<SharedSubExpression, QueryResult<?>> getResults() {
+            return results;
+        }
+    }
+}
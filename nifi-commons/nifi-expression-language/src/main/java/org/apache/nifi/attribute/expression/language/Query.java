@@ -18,13 +18,9 @@ package org.apache.nifi.attribute.expression.language;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.nifi.attribute.expression.language.antlr.AttributeExpressionLexer;
@@ -369,6 +365,15 @@ public class Query {
 
     static String evaluateExpression(final Tree tree, final String queryText, final Map<String, String> expressionMap, final AttributeValueDecorator decorator) throws ProcessException {
         final Object evaluated = Query.fromTree(tree, queryText).evaluate(expressionMap).getValue();
+        return toExpressionResult(evaluated, decorator);
+    }
+
+    static String evaluateExpression(final Evaluator<?> evaluator, final Map<String, String> expressionMap, final AttributeValueDecorator decorator) throws ProcessException {
+        final Object evaluated = evaluator.evaluate(expressionMap).getValue();
+        return toExpressionResult(evaluated, decorator);
+    }
+
+    private static String toExpressionResult(final Object evaluated, final AttributeValueDecorator decorator) {
         if (evaluated == null) {
             return null;
         }
@@ -431,148 +436,134 @@ public class Query {
     }
 
     static Map<String, String> createExpressionMap(final FlowFile flowFile, final Map<String, String> additionalAttributes) {
-        final Map<String, String> attributeMap = flowFile == null ? Collections.emptyMap() : flowFile.getAttributes();
-        final Map<String, String> additionalOrEmpty = additionalAttributes == null ? Collections.emptyMap() : additionalAttributes;
-        final Map<String, String> envMap = System.getenv();
-        final Map<?, ?> sysProps = System.getProperties();
-
-        final Map<String, String> flowFileProps = new HashMap<>();
-        if (flowFile != null) {
-            flowFileProps.put("flowFileId", String.valueOf(flowFile.getId()));
-            flowFileProps.put("fileSize", String.valueOf(flowFile.getSize()));
-            flowFileProps.put("entryDate", String.valueOf(flowFile.getEntryDate()));
-            flowFileProps.put("lineageStartDate", String.valueOf(flowFile.getLineageStartDate()));
-        }
-
-        return wrap(additionalOrEmpty, attributeMap, flowFileProps, envMap, sysProps);
+        return new ExpressionAttributeMap(flowFile, additionalAttributes);
     }
 
-    private static Map<String, String> wrap(final Map<String, String> additional, final Map<String, String> attributes, final Map<String, String> flowFileProps,
-        final Map<String, String> env, final Map<?, ?> sysProps) {
-        @SuppressWarnings("rawtypes")
-        final Map[] maps = new Map[] {additional, attributes, flowFileProps, env, sysProps};
-
-        return new Map<String, String>() {
-            @Override
-            public int size() {
-                int size = 0;
-                for (final Map<?, ?> map : maps) {
-                    size += map.size();
-                }
-                return size;
-            }
+    public static Query fromTree(final Tree tree, final String text) {
+        return new Query(text, tree, buildEvaluator(tree));
+    }
 
-            @Override
-            public boolean isEmpty() {
-                for (final Map<?, ?> map : maps) {
-                    if (!map.isEmpty()) {
-                        return false;
-                    }
-                }
-                return true;
-            }
+    /**
+     * Builds an Evaluator for the given tree that can be used for any number of evaluations, including concurrent ones,
+     * if the expression allows it. Evaluators that reference multiple attributes, and the reducing functions that are
+     * applied to them, keep track of the values that they have evaluated, so such expressions must be built anew for
+     * each evaluation.
+     *
+     * @param tree the tree of the expression
+     * @return an Evaluator that can be reused, or <code>null</code> if the expression must be built for each evaluation
+     */
+    static Evaluator<?> buildReusableEvaluator(final Tree tree) {
+        return buildReusableEvaluator(tree, null);
+    }
 
-            @Override
-            public boolean containsKey(final Object key) {
-                if (key == null) {
-                    return false;
-                }
-                if (!(key instanceof String)) {
-                    return false;
-                }
+    /**
+     * Builds an Evaluator as {@link #buildReusableEvaluator(Tree)} does, sharing the results of its sub-expressions with
+     * the other queries prepared by the given compiler
+     *
+     * @param tree the tree of the expression
+     * @param compiler the compiler of the rule set that the expression belongs to, or <code>null</code> if results are not to be shared
+     * @return an Evaluator that can be reused, or <code>null</code> if the expression must be built for each evaluation
+     */
+    static Evaluator<?> buildReusableEvaluator(final Tree tree, final RuleSetCompiler compiler) {
+        if (!isReusable(tree)) {
+            return null;
+        }
 
-                for (final Map<?, ?> map : maps) {
-                    if (map.containsKey(key)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
+        return buildEvaluator(tree, compiler);
+    }
 
-            @Override
-            public boolean containsValue(final Object value) {
-                for (final Map<?, ?> map : maps) {
-                    if (map.containsValue(value)) {
-                        return true;
-                    }
+    /**
+     * Records with the given compiler each occurrence of a sub-expression of the given tree that may be shared
+     *
+     * @param tree the tree of a reusable expression
+     * @param compiler the compiler of the rule set that the expression belongs to
+     */
+    static void addSubExpressionOccurrences(final Tree tree, final RuleSetCompiler compiler) {
+        if (tree.getType() == EXPRESSION) {
+            for (int i = 1; i < tree.getChildCount(); i++) {
+                final String key = getSubExpressionKey(tree, i);
+                if (key != null) {
+                    compiler.addOccurrence(key);
                 }
-                return false;
             }
+        }
 
-            @Override
-            @SuppressWarnings("rawtypes")
-            public String get(final Object key) {
-                if (key == null) {
-                    throw new IllegalArgumentException("Null Keys are not allowed");
-                }
-                if (!(key instanceof String)) {
-                    return null;
-                }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            addSubExpressionOccurrences(tree.getChild(i), compiler);
+        }
+    }
 
-                for (final Map map : maps) {
-                    final Object val = map.get(key);
-                    if (val != null) {
-                        return String.valueOf(val);
-                    }
-                }
+    /**
+     * Returns a canonical representation of the function chain of the given EXPRESSION tree up to and including
+     * the child at the given index, such as <code>kafka.topic:toLower()</code> within
+     * <code>${kafka.topic:toLower():equals('a')}</code>, or <code>null</code> if its result may differ between
+     * evaluations against the same FlowFile and so cannot be shared.
+     */
+    private static String getSubExpressionKey(final Tree tree, final int lastChildIndex) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= lastChildIndex; i++) {
+            if (!appendSubExpressionKey(tree.getChild(i), sb)) {
                 return null;
             }
+        }
+        return sb.toString();
+    }
 
-            @Override
-            public String put(String key, String value) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public String remove(final Object key) {
-                throw new UnsupportedOperationException();
-            }
+    private static boolean appendSubExpressionKey(final Tree tree, final StringBuilder sb) {
+        switch (tree.getType()) {
+            case MULTI_ATTRIBUTE_REFERENCE:
+            case COUNT:
+            case JOIN:
+            case UUID:
+            case NOW:
+            case NEXT_INT:
+            case RANDOM:
+                return false;
+        }
 
-            @Override
-            public void putAll(final Map<? extends String, ? extends String> m) {
-                throw new UnsupportedOperationException();
-            }
+        // literals that embed expressions are built along with the literal, so their sub-expressions are not known here
+        final String text = tree.getText();
+        if (text != null && text.contains("${")) {
+            return false;
+        }
 
-            @Override
-            public void clear() {
-                throw new UnsupportedOperationException();
+        // the length of the text is included so that the text of a literal cannot be mistaken for the structure of the tree
+        sb.append('(').append(tree.getType());
+        if (text != null) {
+            sb.append(' ').append(text.length()).append(':').append(text);
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!appendSubExpressionKey(tree.getChild(i), sb)) {
+                return false;
             }
+        }
+        sb.append(')');
+        return true;
+    }
 
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Set<String> keySet() {
-                final Set<String> keySet = new HashSet<>();
-                for (final Map map : maps) {
-                    keySet.addAll(map.keySet());
-                }
-                return keySet;
-            }
+    private static boolean isReusable(final Tree tree) {
+        final int type = tree.getType();
+        if (type == MULTI_ATTRIBUTE_REFERENCE || type == COUNT || type == JOIN) {
+            return false;
+        }
 
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Collection<String> values() {
-                final Set<String> values = new HashSet<>();
-                for (final Map map : maps) {
-                    values.addAll(map.values());
+        // literals may embed expressions of their own, which are built along with the literal
+        final String text = tree.getText();
+        if (text != null && text.contains("${")) {
+            for (final Range range : extractExpressionRanges(text)) {
+                if (!isReusable(compileTree(text.substring(range.getStart(), range.getEnd() + 1)))) {
+                    return false;
                 }
-                return values;
             }
+        }
 
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Set<java.util.Map.Entry<String, String>> entrySet() {
-                final Set<java.util.Map.Entry<String, String>> entrySet = new HashSet<>();
-                for (final Map map : maps) {
-                    entrySet.addAll(map.entrySet());
-                }
-                return entrySet;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!isReusable(tree.getChild(i))) {
+                return false;
             }
+        }
 
-        };
-    }
-
-    public static Query fromTree(final Tree tree, final String text) {
-        return new Query(text, tree, buildEvaluator(tree));
+        return true;
     }
 
     public static Tree compileTree(final String query) throws AttributeExpressionLanguageParsingException {
@@ -594,6 +585,10 @@ public class Query {
     }
 
     public static PreparedQuery prepare(final String query) throws AttributeExpressionLanguageParsingException {
+        return prepare(query, null);
+    }
+
+    static PreparedQuery prepare(final String query, final RuleSetCompiler compiler) throws AttributeExpressionLanguageParsingException {
         if (query == null) {
             return new EmptyPreparedQuery(null);
         }
@@ -627,7 +622,7 @@ public class Query {
                 substrings.add(treeText);
             }
 
-            return new StandardPreparedQuery(substrings, trees);
+            return new StandardPreparedQuery(substrings, trees, compiler);
         } catch (final AttributeExpressionLanguageParsingException e) {
             return new InvalidPreparedQuery(query, e.getMessage());
         }
@@ -773,12 +768,16 @@ public class Query {
     }
 
     private static Evaluator<?> buildEvaluator(final Tree tree) {
+        return buildEvaluator(tree, null);
+    }
+
+    private static Evaluator<?> buildEvaluator(final Tree tree, final RuleSetCompiler compiler) {
         switch (tree.getType()) {
             case EXPRESSION: {
-                return buildExpressionEvaluator(tree);
+                return buildExpressionEvaluator(tree, compiler);
             }
             case ATTRIBUTE_REFERENCE: {
-                final Evaluator<?> childEvaluator = buildEvaluator(tree.getChild(0));
+                final Evaluator<?> childEvaluator = buildEvaluator(tree.getChild(0), compiler);
                 if (childEvaluator instanceof MultiAttributeEvaluator) {
                     return childEvaluator;
                 }
@@ -848,7 +847,7 @@ public class Query {
                 return new NowEvaluator();
             }
             case TO_LITERAL: {
-                final Evaluator<?> argEvaluator = buildEvaluator(tree.getChild(0));
+                final Evaluator<?> argEvaluator = buildEvaluator(tree.getChild(0), compiler);
                 return new ToLiteralEvaluator(argEvaluator);
             }
             case IP: {
@@ -910,14 +909,14 @@ public class Query {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private static Evaluator<?> buildExpressionEvaluator(final Tree tree) {
+    private static Evaluator<?> buildExpressionEvaluator(final Tree tree, final RuleSetCompiler compiler) {
         if (tree.getChildCount() == 0) {
             throw new AttributeExpressionLanguageParsingException("EXPRESSION tree node has no children");
         }
 
         final Evaluator<?> evaluator;
         if (tree.getChildCount() == 1) {
-            evaluator = buildEvaluator(tree.getChild(0));
+            evaluator = buildEvaluator(tree.getChild(0), compiler);
         } else {
             // we can chain together functions in the form of:
             // ${x:trim():substring(1,2):trim()}
@@ -925,7 +924,7 @@ public class Query {
             // subject is the function to its left (the first trim()), and its subject is the value of
             // the 'x' attribute. We accomplish this logic by iterating over all of the children of the
             // tree from the right-most child going left-ward.
-            evaluator = buildFunctionExpressionEvaluator(tree, 0);
+            evaluator = buildFunctionExpressionEvaluator(tree, 0, compiler);
         }
 
         Evaluator<?> chosenEvaluator = evaluator;
@@ -981,24 +980,31 @@ public class Query {
         return chosenEvaluator;
     }
 
-    private static Evaluator<?> buildFunctionExpressionEvaluator(final Tree tree, final int offset) {
+    private static Evaluator<?> buildFunctionExpressionEvaluator(final Tree tree, final int offset, final RuleSetCompiler compiler) {
         if (tree.getChildCount() == 0) {
             throw new AttributeExpressionLanguageParsingException("EXPRESSION tree node has no children");
         }
         final int firstChildIndex = tree.getChildCount() - offset - 1;
         if (firstChildIndex == 0) {
-            return buildEvaluator(tree.getChild(0));
+            return buildEvaluator(tree.getChild(0), compiler);
         }
 
         final Tree functionTree = tree.getChild(firstChildIndex);
-        final Evaluator<?> subjectEvaluator = buildFunctionExpressionEvaluator(tree, offset + 1);
+        final Evaluator<?> subjectEvaluator = buildFunctionExpressionEvaluator(tree, offset + 1, compiler);
 
         final Tree functionNameTree = functionTree.getChild(0);
         final List<Evaluator<?>> argEvaluators = new ArrayList<>();
         for (int i = 1; i < functionTree.getChildCount(); i++) {
-            argEvaluators.add(buildEvaluator(functionTree.getChild(i)));
+            argEvaluators.add(buildEvaluator(functionTree.getChild(i), compiler));
         }
-        return buildFunctionEvaluator(functionNameTree, subjectEvaluator, argEvaluators);
+
+        final Evaluator<?> evaluator = buildFunctionEvaluator(functionNameTree, subjectEvaluator, argEvaluators);
+        if (compiler == null) {
+            return evaluator;
+        }
+
+        final String subExpressionKey = getSubExpressionKey(tree, firstChildIndex);
+        return subExpressionKey == null ? evaluator : compiler.memoize(subExpressionKey, evaluator);
     }
 
     private static List<Evaluator<?>> verifyArgCount(final List<Evaluator<?>> args, final int count, final String functionName) {
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.util.SharedSubExpression;
+import org.apache.nifi.attribute.expression.language.exception.AttributeExpressionLanguageParsingException;
+
+/**
+ * <p>
+ * Prepares a set of related queries, such as all of the properties and rules of a single Processor, so that the
+ * sub-expressions that they have in common are evaluated only once for each FlowFile. For example, if many routing
+ * rules begin with <code>${kafka.topic:toLower()}</code>, the topic is lower-cased once for a FlowFile, and each
+ * rule uses that result.
+ * </p>
+ *
+ * <p>
+ * The sub-expressions that may be shared are the leading parts of function chains, such as
+ * <code>${kafka.topic:toLower()}</code> within <code>${kafka.topic:toLower():equals('a')}</code>, whose result depends only
+ * upon the FlowFile. Sub-expressions that reference multiple attributes or call <code>now()</code>, <code>random()</code>,
+ * <code>nextInt()</code> or <code>UUID()</code> are never shared. Results are retained only while the same FlowFile
+ * is evaluated on the same thread, and not when additional attributes are supplied, since they may change the result.
+ * A thread should call {@link #releaseResults()} once it has finished evaluating a rule set, so that the results for its
+ * last FlowFile are not retained.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe. Queries may be prepared at any time; a sub-expression becomes shared as soon as a second
+ * query containing it has been prepared. Preparing the same query again returns the query that was already prepared, so
+ * a value that is prepared repeatedly, for instance once for each FlowFile, neither counts as another occurrence of its
+ * sub-expressions nor adds to the memory held by the compiler. Once {@link #MAX_PREPARED_QUERIES} distinct queries have
+ * been prepared, further queries are prepared without sharing their sub-expressions.
+ * </p>
+ */
+public class RuleSetCompiler {
+
+    /**
+     * The number of distinct queries that a compiler shares sub-expressions among, at most
+     */
+    public static final int MAX_PREPARED_QUERIES = 10000;
+
+    private final ConcurrentMap<String, PreparedQuery> preparedQueries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SharedSubExpression> subExpressions = new ConcurrentHashMap<>();
+
+    /**
+     * Prepares the given query, sharing its sub-expressions with those of the other queries prepared by this compiler
+     *
+     * @param query the query to prepare
+     * @return the prepared query
+     * @throws AttributeExpressionLanguageParsingException if the query is not valid
+     */
+    public PreparedQuery prepare(final String query) throws AttributeExpressionLanguageParsingException {
+        if (query == null) {
+            return Query.prepare(null);
+        }
+
+        final PreparedQuery preparedQuery = preparedQueries.get(query);
+        if (preparedQuery != null) {
+            return preparedQuery;
+        }
+
+        if (preparedQueries.size() >= MAX_PREPARED_QUERIES) {
+            return Query.prepare(query);
+        }
+
+        // Parse the query without holding any lock of the map. If another thread prepares the same query concurrently, only the
+        // query that is added to the map counts as an occurrence of its sub-expressions, so that they are counted only once.
+        final PreparedQuery prepared = Query.prepare(query, this);
+        final PreparedQuery existing = preparedQueries.putIfAbsent(query, prepared);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (prepared instanceof StandardPreparedQuery) {
+            ((StandardPreparedQuery) prepared).addSubExpressionOccurrences(this);
+        }
+        return prepared;
+    }
+
+    /**
+     * Discards the results of shared sub-expressions that are retained for the FlowFile most recently evaluated on the
+     * current thread. This should be called when the thread has finished evaluating the queries of a rule set, such as when
+     * a Processor's onTrigger method returns.
+     */
+    public static void releaseResults() {
+        ExpressionAttributeMap.clearSubExpressionResults();
+    }
+
+    void addOccurrence(final String key) {
+        getSubExpression(key).addOccurrence();
+    }
+
+    Evaluator<?> memoize(final String key, final Evaluator<?> evaluator) {
+        return getSubExpression(key).memoize(evaluator);
+    }
+
+    private SharedSubExpression getSubExpression(final String key) {
+        SharedSubExpression subExpression = subExpressions.get(key);
+        if (subExpression == null) {
+            subExpression = new SharedSubExpression(key);
+            final SharedSubExpression existing = subExpressions.putIfAbsent(key, subExpression);
+            if (existing != null) {
+                subExpression = existing;
+            }
+        }
+
+        return subExpression;
+    }
+
+    /**
+     * @return the number of sub-expressions that occur in more than one place among the prepared queries
+     */
+    public int getSharedSubExpressionCount() {
+        int count = 0;
+        for (final SharedSubExpression subExpression : subExpressions.values()) {
+            if (subExpression.isShared()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of times that shared sub-expressions have been evaluated
+     */
+    public long getSubExpressionEvaluationCount() {
+        long count = 0L;
+        for (final SharedSubExpression subExpression : subExpressions.values()) {
+            count += subExpression.getEvaluationCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of times that the result of a shared sub-expression was reused rather than evaluated
+     */
+    public long getSubExpressionHitCount() {
+        long count = 0L;
+        for (final SharedSubExpression subExpression : subExpressions.values()) {
+            count += subExpression.getHitCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of distinct queries whose sub-expressions are shared by this compiler
+     */
+    public int getPreparedQueryCount() {
+        return preparedQueries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RuleSetCompiler[queries=" + preparedQueries.size() + ", subExpressions=" + subExpressions.size() + ", shared=" + getSharedSubExpressionCount() + "]";
+    }
+}
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.expression.AttributeValueDecorator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.exception.ProcessException;
@@ -32,9 +33,42 @@ public class StandardPreparedQuery implements PreparedQuery {
     private final List<String> queryStrings;
     private final Map<String, Tree> trees;
 
+    // Evaluators that are built once and shared by all evaluations, keyed by expression. Expressions that are
+    // not present must have their Evaluators built from the tree for each evaluation.
+    private final Map<String, Evaluator<?>> evaluators;
+
     public StandardPreparedQuery(final List<String> queryStrings, final Map<String, Tree> trees) {
+        this(queryStrings, trees, null);
+    }
+
+    /**
+     * @param queryStrings the literal text and expressions that make up the query, in order
+     * @param trees the trees of the expressions, keyed by expression
+     * @param compiler the compiler of the rule set that the query belongs to, or <code>null</code> if the query does not share sub-expressions with other queries
+     */
+    public StandardPreparedQuery(final List<String> queryStrings, final Map<String, Tree> trees, final RuleSetCompiler compiler) {
         this.queryStrings = new ArrayList<>(queryStrings);
         this.trees = new HashMap<>(trees);
+
+        this.evaluators = new HashMap<>();
+        for (final Map.Entry<String, Tree> entry : trees.entrySet()) {
+            final Evaluator<?> evaluator = Query.buildReusableEvaluator(entry.getValue(), compiler);
+            if (evaluator != null) {
+                evaluators.put(entry.getKey(), evaluator);
+            }
+        }
+    }
+
+    /**
+     * Records with the given compiler the occurrences of the sub-expressions of this query whose results may be shared.
+     * This must be called only once for each query that the compiler prepares.
+     *
+     * @param compiler the compiler of the rule set that the query belongs to
+     */
+    void addSubExpressionOccurrences(final RuleSetCompiler compiler) {
+        for (final String expression : evaluators.keySet()) {
+            Query.addSubExpressionOccurrences(trees.get(expression), compiler);
+        }
     }
 
     @Override
@@ -50,7 +84,8 @@ public class StandardPreparedQuery implements PreparedQuery {
             if (tree == null) {
                 sb.append(val);
             } else {
-                final String evaluated = Query.evaluateExpression(tree, val, attributes, decorator);
+                final Evaluator<?> evaluator = evaluators.get(val);
+                final String evaluated = evaluator == null ? Query.evaluateExpression(tree, val, attributes, decorator) : Query.evaluateExpression(evaluator, attributes, decorator);
                 if (evaluated != null) {
                     sb.append(evaluated);
                 }
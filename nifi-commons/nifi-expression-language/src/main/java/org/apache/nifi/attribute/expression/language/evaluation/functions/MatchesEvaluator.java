@@ -24,6 +24,7 @@ import org.apache.nifi.attribute.expression.language.evaluation.BooleanQueryResu
 import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
 import org.apache.nifi.attribute.expression.language.evaluation.literals.StringLiteralEvaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.util.RegexPatternCache;
 
 public class MatchesEvaluator extends BooleanEvaluator {
 
@@ -37,7 +38,7 @@ public class MatchesEvaluator extends BooleanEvaluator {
         this.search = search;
 
         // if the search string is a literal, we don't need to evaluate it each time; we can just
-        // pre-compile it. Otherwise, it must be compiled every time.
+        // pre-compile it. Otherwise, it is obtained from the shared Pattern cache each time.
         if (search instanceof StringLiteralEvaluator) {
             this.compiledPattern = Pattern.compile(search.evaluate(null).getValue());
         } else {
@@ -53,7 +54,7 @@ public class MatchesEvaluator extends BooleanEvaluator {
         }
         final Pattern pattern;
         if (compiledPattern == null) {
-            pattern = Pattern.compile(search.evaluate(attributes).getValue());
+            pattern = RegexPatternCache.getInstance().getPattern(search.evaluate(attributes).getValue());
         } else {
             pattern = compiledPattern;
         }
@@ -22,6 +22,7 @@ import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
 import org.apache.nifi.attribute.expression.language.evaluation.StringEvaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.StringQueryResult;
+import org.apache.nifi.attribute.expression.language.evaluation.util.RegexPatternCache;
 
 public class ReplaceAllEvaluator extends StringEvaluator {
 
@@ -44,7 +45,7 @@ public class ReplaceAllEvaluator extends StringEvaluator {
         final String searchValue = search.evaluate(attributes).getValue();
         final String replacementValue = replacement.evaluate(attributes).getValue();
 
-        return new StringQueryResult(subjectValue.replaceAll(searchValue, replacementValue));
+        return new StringQueryResult(RegexPatternCache.getInstance().getPattern(searchValue).matcher(subjectValue).replaceAll(replacementValue));
     }
 
     @Override
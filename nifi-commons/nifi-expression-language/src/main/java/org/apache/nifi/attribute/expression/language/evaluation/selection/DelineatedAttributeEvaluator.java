@@ -21,6 +21,7 @@ import java.util.Map;
 import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
 import org.apache.nifi.attribute.expression.language.evaluation.StringQueryResult;
+import org.apache.nifi.attribute.expression.language.evaluation.util.RegexPatternCache;
 
 public class DelineatedAttributeEvaluator extends MultiAttributeEvaluator {
 
@@ -52,7 +53,7 @@ public class DelineatedAttributeEvaluator extends MultiAttributeEvaluator {
                 return new StringQueryResult(null);
             }
 
-            delineatedValues = subjectValue.getValue().split(delimiterValue.getValue());
+            delineatedValues = RegexPatternCache.getInstance().getPattern(delimiterValue.getValue()).split(subjectValue.getValue());
         }
 
         if (evaluationCount > delineatedValues.length) {
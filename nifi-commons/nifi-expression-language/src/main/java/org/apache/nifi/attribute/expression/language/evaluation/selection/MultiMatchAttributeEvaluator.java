@@ -24,6 +24,7 @@ import java.util.regex.Pattern;
 import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
 import org.apache.nifi.attribute.expression.language.evaluation.StringQueryResult;
+import org.apache.nifi.attribute.expression.language.evaluation.util.RegexPatternCache;
 
 public class MultiMatchAttributeEvaluator extends MultiAttributeEvaluator {
 
@@ -35,7 +36,7 @@ public class MultiMatchAttributeEvaluator extends MultiAttributeEvaluator {
     public MultiMatchAttributeEvaluator(final List<String> attributeRegexes, final int evaluationType) {
         this.attributePatterns = new ArrayList<>();
         for (final String regex : attributeRegexes) {
-            attributePatterns.add(Pattern.compile(regex));
+            attributePatterns.add(RegexPatternCache.getInstance().getPattern(regex));
         }
 
         this.evaluationType = evaluationType;
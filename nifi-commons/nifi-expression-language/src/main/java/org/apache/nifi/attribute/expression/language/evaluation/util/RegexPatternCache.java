@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.evaluation.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A bounded, thread-safe cache of compiled regular expressions, keyed by the regular expression. Expression Language
+ * functions whose regular expression is not a literal, such as <code>${filename:matches(${pattern.attr})}</code>, obtain
+ * their Pattern from this cache rather than compiling it every time that they are evaluated.
+ * </p>
+ *
+ * <p>
+ * Lookups do not lock. When the cache grows beyond its maximum size, a single thread evicts the least recently used
+ * Patterns, removing enough of them to leave some room so that eviction does not happen on every miss. Because threads
+ * that miss concurrently may each add a Pattern before eviction runs, the size of the cache may briefly exceed its
+ * maximum by the number of such threads.
+ * </p>
+ */
+public final class RegexPatternCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final RegexPatternCache SHARED_CACHE = new RegexPatternCache(DEFAULT_MAX_SIZE);
+
+    private final int maxSize;
+    private final int evictToSize;
+    private final ConcurrentMap<String, CachedPattern> patterns = new ConcurrentHashMap<>();
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maxSize the maximum number of Patterns to hold
+     */
+    public RegexPatternCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size of the Pattern cache must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.evictToSize = maxSize - Math.max(1, maxSize / 10);
+    }
+
+    /**
+     * @return the cache that is shared by all Expression Language functions
+     */
+    public static RegexPatternCache getInstance() {
+        return SHARED_CACHE;
+    }
+
+    /**
+     * Returns the compiled form of the given regular expression, compiling it only if it is not already cached
+     *
+     * @param regex the regular expression
+     * @return the compiled Pattern
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is not valid
+     */
+    public Pattern getPattern(final String regex) {
+        final CachedPattern cached = patterns.get(regex);
+        if (cached != null) {
+            hitCount.increment();
+            cached.touch();
+            return cached.getPattern();
+        }
+
+        missCount.increment();
+        final Pattern pattern = Pattern.compile(regex);
+        final CachedPattern existing = patterns.putIfAbsent(regex, new CachedPattern(pattern));
+        if (existing != null) {
+            // another thread compiled the same regular expression concurrently
+            existing.touch();
+            return existing.getPattern();
+        }
+
+        if (patterns.size() > maxSize) {
+            evict();
+        }
+
+        return pattern;
+    }
+
+    private void evict() {
+        // if another thread is already evicting, there is no need to wait for it
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            final int toRemove = patterns.size() - evictToSize;
+            if (toRemove <= 0) {
+                return;
+            }
+
+            // snapshot the access times so that the ordering does not change while sorting
+            final List<EvictionCandidate> candidates = new ArrayList<>(patterns.size());
+            for (final Map.Entry<String, CachedPattern> entry : patterns.entrySet()) {
+                candidates.add(new EvictionCandidate(entry.getKey(), entry.getValue()));
+            }
+
+            Collections.sort(candidates, new Comparator<EvictionCandidate>() {
+                @Override
+                public int compare(final EvictionCandidate o1, final EvictionCandidate o2) {
+                    return Long.compare(o1.lastAccess, o2.lastAccess);
+                }
+            });
+
+            for (int i = 0; i < toRemove && i < candidates.size(); i++) {
+                final EvictionCandidate candidate = candidates.get(i);
+                if (patterns.remove(candidate.regex, candidate.cachedPattern)) {
+                    evictionCount.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times that a requested Pattern was found in the cache
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return the number of times that a requested Pattern had to be compiled
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of Patterns that have been removed from the cache to keep it within its maximum size
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return the number of Patterns currently cached
+     */
+    public int size() {
+        return patterns.size();
+    }
+
+    /**
+     * @return the maximum number of Patterns to hold
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "RegexPatternCache[size=" + patterns.size() + ", maxSize=" + maxSize + ", hits=" + hitCount.sum() + ", misses=" + missCount.sum() + "]";
+    }
+
+
+    private static class CachedPattern {
+        private final Pattern pattern;
+        private volatile long lastAccess;
+
+        public CachedPattern(final Pattern pattern) {
+            this.pattern = pattern;
+            this.lastAccess = System.nanoTime();
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        public void touch() {
+            lastAccess = System.nanoTime();
+        }
+    }
+
+    private static class EvictionCandidate {
+        private final String regex;
+        private final CachedPattern cachedPattern;
+        private final long lastAccess;
+
+        public EvictionCandidate(final String regex, final CachedPattern cachedPattern) {
+            this.regex = regex;
+            this.cachedPattern = cachedPattern;
+            this.lastAccess = cachedPattern.getLastAccess();
+        }
+    }
+}
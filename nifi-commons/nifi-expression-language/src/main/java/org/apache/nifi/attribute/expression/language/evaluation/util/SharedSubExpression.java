@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.evaluation.util;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.nifi.attribute.expression.language.evaluation.BooleanEvaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.DateEvaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.NumberEvaluator;
+import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
+import org.apache.nifi.attribute.expression.language.evaluation.StringEvaluator;
+
+/**
+ * <p>
+ * A deterministic sub-expression, such as <code>${kafka.topic:toLower()}</code>, that may appear in several of the
+ * Expressions of a rule set. Each occurrence of the sub-expression is evaluated by an Evaluator returned from
+ * {@link #memoize(Evaluator)}. Once the sub-expression has occurred more than once, those Evaluators retain its result
+ * in the {@link SubExpressionResults} that they are evaluated against, so that it is evaluated only once for each FlowFile.
+ * </p>
+ *
+ * <p>
+ * A sub-expression that occurs only once is evaluated directly, as retaining its result would only add overhead.
+ * </p>
+ */
+public class SharedSubExpression {
+
+    private final String key;
+    private final AtomicInteger occurrences = new AtomicInteger(0);
+    private volatile boolean shared = false;
+
+    private final LongAdder evaluationCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+
+    /**
+     * @param key a canonical representation of the sub-expression; sub-expressions with the same key must produce the same result
+     */
+    public SharedSubExpression(final String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Records another occurrence of this sub-expression
+     */
+    public void addOccurrence() {
+        if (occurrences.incrementAndGet() > 1) {
+            shared = true;
+        }
+    }
+
+    /**
+     * @return the number of times that this sub-expression occurs in the rule set
+     */
+    public int getOccurrences() {
+        return occurrences.get();
+    }
+
+    /**
+     * @return <code>true</code> if this sub-expression occurs more than once in the rule set
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return the number of times that this sub-expression has been evaluated while shared
+     */
+    public long getEvaluationCount() {
+        return evaluationCount.sum();
+    }
+
+    /**
+     * @return the number of times that a retained result of this sub-expression was used instead of evaluating it
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @param evaluator an Evaluator for this sub-expression
+     * @return an Evaluator of the same result type that uses the retained result of this sub-expression when one is available
+     */
+    @SuppressWarnings("unchecked")
+    public Evaluator<?> memoize(final Evaluator<?> evaluator) {
+        switch (evaluator.getResultType()) {
+            case STRING:
+                return new MemoizedStringEvaluator(this, (Evaluator<String>) evaluator);
+            case BOOLEAN:
+                return new MemoizedBooleanEvaluator(this, (Evaluator<Boolean>) evaluator);
+            case NUMBER:
+                return new MemoizedNumberEvaluator(this, (Evaluator<Long>) evaluator);
+            case DATE:
+                return new MemoizedDateEvaluator(this, (Evaluator<Date>) evaluator);
+            default:
+                return evaluator;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> QueryResult<T> evaluate(final Evaluator<T> evaluator, final Map<String, String> attributes) {
+        if (!shared || !(attributes instanceof SubExpressionResults)) {
+            return evaluator.evaluate(attributes);
+        }
+
+        final SubExpressionResults results = (SubExpressionResults) attributes;
+        final QueryResult<?> retained = results.getResult(this);
+        if (retained != null) {
+            hitCount.increment();
+            return (QueryResult<T>) retained;
+        }
+
+        evaluationCount.increment();
+        final QueryResult<T> result = evaluator.evaluate(attributes);
+        results.putResult(this, result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedSubExpression[key=" + key + ", occurrences=" + occurrences.get() + "]";
+    }
+
+
+    private static class MemoizedStringEvaluator extends StringEvaluator {
+        private final SharedSubExpression subExpression;
+        private final Evaluator<String> evaluator;
+
+        public MemoizedStringEvaluator(final SharedSubExpression subExpression, final Evaluator<String> evaluator) {
+            this.subExpression = subExpression;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public QueryResult<String> evaluate(final Map<String, String> attributes) {
+            return subExpression.evaluate(evaluator, attributes);
+        }
+
+        @Override
+        public Evaluator<?> getSubjectEvaluator() {
+            return evaluator.getSubjectEvaluator();
+        }
+
+        @Override
+        public String getToken() {
+            return evaluator.getToken();
+        }
+
+        @Override
+        public void setToken(final String token) {
+            evaluator.setToken(token);
+        }
+    }
+
+    private static class MemoizedBooleanEvaluator extends BooleanEvaluator {
+        private final SharedSubExpression subExpression;
+        private final Evaluator<Boolean> evaluator;
+
+        public MemoizedBooleanEvaluator(final SharedSubExpression subExpression, final Evaluator<Boolean> evaluator) {
+            this.subExpression = subExpression;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public QueryResult<Boolean> evaluate(final Map<String, String> attributes) {
+            return subExpression.evaluate(evaluator, attributes);
+        }
+
+        @Override
+        public Evaluator<?> getSubjectEvaluator() {
+            return evaluator.getSubjectEvaluator();
+        }
+
+        @Override
+        public String getToken() {
+            return evaluator.getToken();
+        }
+
+        @Override
+        public void setToken(final String token) {
+            evaluator.setToken(token);
+        }
+    }
+
+    private static class MemoizedNumberEvaluator extends NumberEvaluator {
+        private final SharedSubExpression subExpression;
+        private final Evaluator<Long> evaluator;
+
+        public MemoizedNumberEvaluator(final SharedSubExpression subExpression, final Evaluator<Long> evaluator) {
+            this.subExpression = subExpression;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public QueryResult<Long> evaluate(final Map<String, String> attributes) {
+            return subExpression.evaluate(evaluator, attributes);
+        }
+
+        @Override
+        public Evaluator<?> getSubjectEvaluator() {
+            return evaluator.getSubjectEvaluator();
+        }
+
+        @Override
+        public String getToken() {
+            return evaluator.getToken();
+        }
+
+        @Override
+        public void setToken(final String token) {
+            evaluator.setToken(token);
+        }
+    }
+
+    private static class MemoizedDateEvaluator extends DateEvaluator {
+        private final SharedSubExpression subExpression;
+        private final Evaluator<Date> evaluator;
+
+        public MemoizedDateEvaluator(final SharedSubExpression subExpression, final Evaluator<Date> evaluator) {
+            this.subExpression = subExpression;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public QueryResult<Date> evaluate(final Map<String, String> attributes) {
+            return subExpression.evaluate(evaluator, attributes);
+        }
+
+        @Override
+        public Evaluator<?> getSubjectEvaluator() {
+            return evaluator.getSubjectEvaluator();
+        }
+
+        @Override
+        public String getToken() {
+            return evaluator.getToken();
+        }
+
+        @Override
+        public void setToken(final String token) {
+            evaluator.setToken(token);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.evaluation.util;
+
+import org.apache.nifi.attribute.expression.language.evaluation.QueryResult;
+
+/**
+ * Implemented by the attribute maps that Expressions are evaluated against in order to hold the results of
+ * shared sub-expressions, so that a sub-expression that appears in several Expressions is evaluated only once
+ * for the same FlowFile.
+ */
+public interface SubExpressionResults {
+
+    /**
+     * @param subExpression the sub-expression
+     * @return the result of the sub-expression, or <code>null</code> if it has not yet been evaluated or its result cannot be retained
+     */
+    QueryResult<?> getResult(SharedSubExpression subExpression);
+
+    /**
+     * Retains the result of the given sub-expression, if results can be retained
+     *
+     * @param subExpression the sub-expression
+     * @param result the result of evaluating the sub-expression
+     */
+    void putResult(SharedSubExpression subExpression, QueryResult<?> result);
+}
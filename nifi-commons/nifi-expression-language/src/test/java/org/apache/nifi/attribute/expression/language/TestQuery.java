@@ -795,6 +795,33 @@ public class TestQuery {
         assertEquals("good-bye", Query.compile("${hello}").evaluate().getValue());
     }
 
+    @Test
+    public void testExpressionMapPrecedence() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("a", "flowfile");
+        attributes.put("b", "flowfile");
+        attributes.put("fileSize", "attribute");
+        attributes.put("java.version", "attribute");
+
+        final FlowFile mockFlowFile = Mockito.mock(FlowFile.class);
+        Mockito.when(mockFlowFile.getAttributes()).thenReturn(attributes);
+        Mockito.when(mockFlowFile.getId()).thenReturn(1L);
+        Mockito.when(mockFlowFile.getEntryDate()).thenReturn(12345L);
+        Mockito.when(mockFlowFile.getSize()).thenReturn(1L);
+        Mockito.when(mockFlowFile.getLineageStartDate()).thenReturn(12345L);
+
+        final Map<String, String> additional = Collections.singletonMap("a", "additional");
+        assertEquals("additional flowfile attribute 12345 attribute",
+            Query.prepare("${a} ${b} ${fileSize} ${entryDate} ${java.version}").evaluateExpressions(mockFlowFile, additional, null));
+        assertEquals(System.getProperty("java.version"), Query.prepare("${java.version}").evaluateExpressions());
+
+        // system properties set after startup are found, while names that are found nowhere remain null
+        System.setProperty("nifi.test.expression.map", "late");
+        assertEquals("late", Query.prepare("${nifi.test.expression.map}").evaluateExpressions(mockFlowFile, null));
+        assertEquals("true", Query.prepare("${nifi.test.missing:isNull()}").evaluateExpressions(mockFlowFile, null));
+        assertEquals("2", Query.prepare("${allMatchingAttributes('[ab]'):count()}").evaluateExpressions(mockFlowFile, null));
+    }
+
     @Test
     public void testAnyAttribute() {
         final Map<String, String> attributes = new HashMap<>();
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestRuleSetCompiler {
+
+    private FlowFile createFlowFile(final String topic) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("kafka.topic", topic);
+
+        final FlowFile flowFile = Mockito.mock(FlowFile.class);
+        Mockito.when(flowFile.getAttributes()).thenReturn(attributes);
+        return flowFile;
+    }
+
+    @Test
+    public void testSharedSubExpressionEvaluatedOncePerFlowFile() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${kafka.topic:toLower():equals('orders')}");
+        final PreparedQuery second = compiler.prepare("${kafka.topic:toLower():startsWith('ord')}");
+        final PreparedQuery third = compiler.prepare("${kafka.topic:toLower()}-${kafka.topic:toUpper()}");
+        assertEquals(1, compiler.getSharedSubExpressionCount());
+
+        final FlowFile flowFile = createFlowFile("Orders");
+        assertEquals("true", first.evaluateExpressions(flowFile));
+        assertEquals("true", second.evaluateExpressions(flowFile));
+        assertEquals("orders-ORDERS", third.evaluateExpressions(flowFile));
+        assertEquals(1L, compiler.getSubExpressionEvaluationCount());
+        assertEquals(2L, compiler.getSubExpressionHitCount());
+
+        // a different FlowFile must not see the results of the previous one
+        final FlowFile other = createFlowFile("Payments");
+        assertEquals("false", first.evaluateExpressions(other));
+        assertEquals("payments-PAYMENTS", third.evaluateExpressions(other));
+        assertEquals(2L, compiler.getSubExpressionEvaluationCount());
+        assertEquals(3L, compiler.getSubExpressionHitCount());
+    }
+
+    @Test
+    public void testPreparingSameQueryAgainDoesNotShare() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${kafka.topic:toLower():equals('orders')}");
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, compiler.prepare("${kafka.topic:toLower():equals('orders')}"));
+        }
+
+        assertEquals(1, compiler.getPreparedQueryCount());
+        assertEquals(0, compiler.getSharedSubExpressionCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentPreparationOfSameQueryDoesNotShare() throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            final RuleSetCompiler compiler = new RuleSetCompiler();
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<PreparedQuery> prepared = Collections.synchronizedList(new ArrayList<PreparedQuery>());
+
+            final Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final InterruptedException ie) {
+                            return;
+                        }
+                        prepared.add(compiler.prepare("${kafka.topic:toLower():equals('orders')}"));
+                    }
+                });
+                threads[i].start();
+            }
+
+            start.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(threads.length, prepared.size());
+            for (final PreparedQuery query : prepared) {
+                assertSame(prepared.get(0), query);
+            }
+            assertEquals(1, compiler.getPreparedQueryCount());
+            assertEquals(0, compiler.getSharedSubExpressionCount());
+        }
+    }
+
+    @Test
+    public void testReleaseResults() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${kafka.topic:toLower():equals('orders')}");
+        final PreparedQuery second = compiler.prepare("${kafka.topic:toLower():startsWith('ord')}");
+
+        final FlowFile flowFile = createFlowFile("Orders");
+        assertEquals("true", first.evaluateExpressions(flowFile));
+        assertEquals("true", second.evaluateExpressions(flowFile));
+        assertEquals(1L, compiler.getSubExpressionEvaluationCount());
+
+        // once released, the results for the FlowFile are no longer available and must be evaluated again
+        RuleSetCompiler.releaseResults();
+        assertEquals("true", second.evaluateExpressions(flowFile));
+        assertEquals(2L, compiler.getSubExpressionEvaluationCount());
+        assertEquals(1L, compiler.getSubExpressionHitCount());
+        RuleSetCompiler.releaseResults();
+    }
+
+    @Test
+    public void testPreparedQueriesAreBounded() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        for (int i = 0; i < RuleSetCompiler.MAX_PREPARED_QUERIES + 10; i++) {
+            compiler.prepare("${kafka.topic:toLower():equals('" + i + "')}");
+        }
+        assertEquals(RuleSetCompiler.MAX_PREPARED_QUERIES, compiler.getPreparedQueryCount());
+
+        // queries beyond the bound are still evaluated correctly
+        final PreparedQuery query = compiler.prepare("${kafka.topic:toLower():equals('orders')}");
+        assertEquals("true", query.evaluateExpressions(createFlowFile("Orders")));
+        assertEquals(RuleSetCompiler.MAX_PREPARED_QUERIES, compiler.getPreparedQueryCount());
+    }
+
+    @Test
+    public void testResultsNotSharedWithAdditionalAttributes() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${kafka.topic:toLower()}");
+        final PreparedQuery second = compiler.prepare("${kafka.topic:toLower():length()}");
+
+        final FlowFile flowFile = createFlowFile("Orders");
+        assertEquals("orders", first.evaluateExpressions(flowFile));
+        assertEquals("7", second.evaluateExpressions(flowFile, Collections.singletonMap("kafka.topic", "Returns"), null));
+        assertEquals("orders", first.evaluateExpressions(flowFile));
+        assertEquals(1L, compiler.getSubExpressionHitCount());
+    }
+
+    @Test
+    public void testNonDeterministicSubExpressionsNotShared() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${nextInt():plus(1)}");
+        final PreparedQuery second = compiler.prepare("${nextInt():plus(1):plus(0)}");
+        final PreparedQuery third = compiler.prepare("${allMatchingAttributes('kafka.*'):toLower():join(',')}");
+        final PreparedQuery fourth = compiler.prepare("${allMatchingAttributes('kafka.*'):toLower():join(', ')}");
+        assertEquals(0, compiler.getSharedSubExpressionCount());
+
+        final FlowFile flowFile = createFlowFile("Orders");
+        assertNotEquals(first.evaluateExpressions(flowFile), second.evaluateExpressions(flowFile));
+        assertEquals("orders", third.evaluateExpressions(flowFile));
+        assertEquals("orders", fourth.evaluateExpressions(flowFile));
+    }
+
+    @Test
+    public void testLiteralsDoNotCollideWithStructure() {
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final PreparedQuery first = compiler.prepare("${kafka.topic:append('a'):append('b')}");
+        final PreparedQuery second = compiler.prepare("${kafka.topic:append(\"a'):append('b\")}");
+
+        final FlowFile flowFile = createFlowFile("x");
+        assertEquals("xab", first.evaluateExpressions(flowFile));
+        assertEquals("xa'):append('b", second.evaluateExpressions(flowFile));
+    }
+
+    @Test
+    @Ignore("For local testing of performance only")
+    public void testManyRulesPerformance() {
+        final List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            rules.add("${kafka.topic:toLower():substringAfter('.'):equals('topic" + i + "')}");
+        }
+
+        final RuleSetCompiler compiler = new RuleSetCompiler();
+        final List<PreparedQuery> sharedQueries = new ArrayList<>();
+        final List<PreparedQuery> queries = new ArrayList<>();
+        for (final String rule : rules) {
+            sharedQueries.add(compiler.prepare(rule));
+            queries.add(Query.prepare(rule));
+        }
+
+        for (int j = 0; j < 3; j++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10000; i++) {
+                final FlowFile flowFile = createFlowFile("Prefix.Topic" + i % 200);
+                for (final PreparedQuery query : queries) {
+                    query.evaluateExpressions(flowFile);
+                }
+            }
+            final long independentMillis = (System.nanoTime() - start) / 1000000L;
+
+            start = System.nanoTime();
+            for (int i = 0; i < 10000; i++) {
+                final FlowFile flowFile = createFlowFile("Prefix.Topic" + i % 200);
+                for (final PreparedQuery query : sharedQueries) {
+                    query.evaluateExpressions(flowFile);
+                }
+            }
+            final long sharedMillis = (System.nanoTime() - start) / 1000000L;
+
+            System.out.println("Independent: " + independentMillis + " millis; shared: " + sharedMillis + " millis");
+        }
+    }
+}
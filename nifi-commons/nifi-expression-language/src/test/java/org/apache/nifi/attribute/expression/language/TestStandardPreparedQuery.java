@@ -18,8 +18,14 @@ package org.apache.nifi.attribute.expression.language;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Ignore;
@@ -84,6 +90,85 @@ public class TestStandardPreparedQuery {
 
     }
 
+    @Test
+    public void testMultiAttributeExpressionsEvaluatedRepeatedly() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("a", "x");
+        attributes.put("b", "y");
+
+        final StandardPreparedQuery join = (StandardPreparedQuery) Query.prepare("${allAttributes('a', 'b'):join(',')}");
+        final StandardPreparedQuery any = (StandardPreparedQuery) Query.prepare("${anyAttribute('a', 'b'):equals('y')}");
+        final StandardPreparedQuery embedded = (StandardPreparedQuery) Query.prepare("${literal(\"${allMatchingAttributes('[ab]'):count()}\"):plus(1)}");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("x,y", join.evaluateExpressions(attributes, null));
+            assertEquals("true", any.evaluateExpressions(attributes, null));
+            assertEquals("3", embedded.evaluateExpressions(attributes, null));
+        }
+    }
+
+    @Test
+    public void testConcurrentEvaluations() throws Exception {
+        final StandardPreparedQuery prepared = (StandardPreparedQuery) Query.prepare("${name:substringBefore('-'):toUpper()} ${id:plus(1)}");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        final Map<String, String> attributes = new HashMap<>();
+                        for (int i = 0; i < 10000; i++) {
+                            attributes.put("name", "thread" + thread + "-" + i);
+                            attributes.put("id", String.valueOf(i));
+                            assertEquals("THREAD" + thread + " " + (i + 1), prepared.evaluateExpressions(attributes, null));
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (final Future<Boolean> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Ignore("For local testing of performance only")
+    public void testCommonFunctionsPerformance() {
+        final Map<String, String> attrs = new HashMap<>();
+        attrs.put("filename", "data-2016-05-01.csv");
+        attrs.put("timestamp", "2016/05/01 12:34:56");
+
+        final String[] queries = new String[] {
+            "${filename:equals('data-2016-05-01.csv')}",
+            "${filename:substring(5, 15)}",
+            "${filename:matches('data-\\d{4}-\\d{2}-\\d{2}\\.csv')}",
+            "${timestamp:toDate('yyyy/MM/dd HH:mm:ss'):toNumber()}",
+            "${timestamp:toDate('yyyy/MM/dd HH:mm:ss'):format('yyyyMMdd')}"
+        };
+
+        for (final String query : queries) {
+            final StandardPreparedQuery prepared = (StandardPreparedQuery) Query.prepare(query);
+
+            // warm up before measuring
+            for (int i = 0; i < 100000; i++) {
+                prepared.evaluateExpressions(attrs, null);
+            }
+
+            final long start = System.nanoTime();
+            for (int i = 0; i < 1000000; i++) {
+                prepared.evaluateExpressions(attrs, null);
+            }
+            final long nanos = System.nanoTime() - start;
+            System.out.println(query + ": " + (nanos / 1000000) + " nanos per evaluation");
+        }
+    }
+
     private String evaluate(final String query, final Map<String, String> attrs) {
         final String evaluated = ((StandardPreparedQuery) Query.prepare(query)).evaluateExpressions(attrs, null);
         return evaluated;
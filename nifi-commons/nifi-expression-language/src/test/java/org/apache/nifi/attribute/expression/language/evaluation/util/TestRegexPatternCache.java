@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.evaluation.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.nifi.attribute.expression.language.PreparedQuery;
+import org.apache.nifi.attribute.expression.language.Query;
+import org.junit.Test;
+
+public class TestRegexPatternCache {
+
+    @Test
+    public void testPatternCompiledOnce() {
+        final RegexPatternCache cache = new RegexPatternCache(10);
+        final Pattern first = cache.getPattern("a.*b");
+        final Pattern second = cache.getPattern("a.*b");
+
+        assertSame(first, second);
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPatternsEvicted() throws InterruptedException {
+        final RegexPatternCache cache = new RegexPatternCache(3);
+        final Pattern a = cache.getPattern("a");
+        Thread.sleep(2L);
+        cache.getPattern("b");
+        Thread.sleep(2L);
+        cache.getPattern("c");
+        Thread.sleep(2L);
+
+        // using "a" again makes "b" the least recently used
+        assertSame(a, cache.getPattern("a"));
+        Thread.sleep(2L);
+        cache.getPattern("d");
+
+        // exceeding the maximum size evicts the least recently used Patterns, leaving room for more
+        assertEquals(2, cache.size());
+        assertEquals(2L, cache.getEvictionCount());
+
+        final long misses = cache.getMissCount();
+        assertSame(a, cache.getPattern("a"));
+        cache.getPattern("b");
+        assertEquals(misses + 1, cache.getMissCount());
+        assertTrue(cache.size() <= cache.getMaxSize());
+    }
+
+    @Test
+    public void testInvalidPatternNotCached() {
+        final RegexPatternCache cache = new RegexPatternCache(10);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getPattern("[a-");
+            } catch (final PatternSyntaxException pse) {
+                // expected
+            }
+        }
+
+        assertEquals(0, cache.size());
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    @Test
+    public void testDynamicRegexUsesSharedCache() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "abc.txt");
+        attributes.put("pattern.attr", "a.*\\.txt");
+
+        final RegexPatternCache cache = RegexPatternCache.getInstance();
+        final PreparedQuery query = Query.prepare("${filename:matches(${pattern.attr})}:${filename:find(${pattern.attr})}:${filename:replaceAll(${pattern.attr}, 'x')}");
+        assertEquals("true:true:x", query.evaluateExpressions(attributes));
+
+        final long hits = cache.getHitCount();
+        final long misses = cache.getMissCount();
+        assertEquals("true:true:x", query.evaluateExpressions(attributes));
+        assertEquals(hits + 3, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+
+        final Pattern pattern = cache.getPattern("a.*\\.txt");
+        attributes.put("pattern.attr", "b.*");
+        assertEquals("false:true:ax", query.evaluateExpressions(attributes));
+        assertNotSame(pattern, cache.getPattern("b.*"));
+    }
+}
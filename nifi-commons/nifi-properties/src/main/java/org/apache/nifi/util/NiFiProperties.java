@@ -72,6 +72,7 @@ public class NiFiProperties extends Properties {
     public static final String ADMINISTRATIVE_YIELD_DURATION = "nifi.administrative.yield.duration";
     public static final String PERSISTENT_STATE_DIRECTORY = "nifi.persistent.state.directory";
     public static final String BORED_YIELD_DURATION = "nifi.bored.yield.duration";
+    public static final String TIMER_DRIVEN_SCHEDULER = "nifi.timer.driven.scheduler";
     public static final String PROCESSOR_SCHEDULING_TIMEOUT = "nifi.processor.scheduling.timeout";
 
     // content repository properties
@@ -85,6 +86,7 @@ public class NiFiProperties extends Properties {
     public static final String CONTENT_ARCHIVE_ENABLED = "nifi.content.repository.archive.enabled";
     public static final String CONTENT_ARCHIVE_CLEANUP_FREQUENCY = "nifi.content.repository.archive.cleanup.frequency";
     public static final String CONTENT_VIEWER_URL = "nifi.content.viewer.url";
+    public static final String CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE = "nifi.content.repository.mapped.read.cache.size";
 
     // flowfile repository properties
     public static final String FLOWFILE_REPOSITORY_IMPLEMENTATION = "nifi.flowfile.repository.implementation";
@@ -92,8 +94,12 @@ public class NiFiProperties extends Properties {
     public static final String FLOWFILE_REPOSITORY_DIRECTORY = "nifi.flowfile.repository.directory";
     public static final String FLOWFILE_REPOSITORY_PARTITIONS = "nifi.flowfile.repository.partitions";
     public static final String FLOWFILE_REPOSITORY_CHECKPOINT_INTERVAL = "nifi.flowfile.repository.checkpoint.interval";
+    public static final String FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW = "nifi.flowfile.repository.group.commit.window";
     public static final String FLOWFILE_SWAP_MANAGER_IMPLEMENTATION = "nifi.swap.manager.implementation";
     public static final String QUEUE_SWAP_THRESHOLD = "nifi.queue.swap.threshold";
+    public static final String QUEUE_FIFO_WITHOUT_PRIORITIZERS = "nifi.queue.fifo.without.prioritizers";
+    public static final String QUEUE_OFF_HEAP_ATTRIBUTES = "nifi.queue.off.heap.attributes";
+    public static final String QUEUE_OFF_HEAP_ATTRIBUTES_MAX_SIZE = "nifi.queue.off.heap.attributes.max.size";
     public static final String SWAP_IN_THREADS = "nifi.swap.in.threads";
     public static final String SWAP_IN_PERIOD = "nifi.swap.in.period";
     public static final String SWAP_OUT_THREADS = "nifi.swap.out.threads";
@@ -109,10 +115,17 @@ public class NiFiProperties extends Properties {
     public static final String PROVENANCE_QUERY_THREAD_POOL_SIZE = "nifi.provenance.repository.query.threads";
     public static final String PROVENANCE_INDEX_THREAD_POOL_SIZE = "nifi.provenance.repository.index.threads";
     public static final String PROVENANCE_COMPRESS_ON_ROLLOVER = "nifi.provenance.repository.compress.on.rollover";
+    public static final String PROVENANCE_COLUMNAR_EVENT_FILES = "nifi.provenance.repository.columnar.event.files";
     public static final String PROVENANCE_INDEXED_FIELDS = "nifi.provenance.repository.indexed.fields";
     public static final String PROVENANCE_INDEXED_ATTRIBUTES = "nifi.provenance.repository.indexed.attributes";
     public static final String PROVENANCE_INDEX_SHARD_SIZE = "nifi.provenance.repository.index.shard.size";
     public static final String PROVENANCE_JOURNAL_COUNT = "nifi.provenance.repository.journal.count";
+    public static final String PROVENANCE_COLD_REPO_DIRECTORY_PREFIX = "nifi.provenance.repository.cold.directory.";
+    public static final String PROVENANCE_COLD_STORAGE_AGE = "nifi.provenance.repository.cold.storage.age";
+    public static final String PROVENANCE_POLICY_DEFAULT = "nifi.provenance.policy.default";
+    public static final String PROVENANCE_POLICY_COMPONENT_PREFIX = "nifi.provenance.policy.component.";
+    public static final String PROVENANCE_ASYNC_BUFFER_SIZE = "nifi.provenance.async.buffer.size";
+    public static final String PROVENANCE_ASYNC_WRITER_THREADS = "nifi.provenance.async.writer.threads";
 
     // component status repository properties
     public static final String COMPONENT_STATUS_REPOSITORY_IMPLEMENTATION = "nifi.components.status.repository.implementation";
@@ -203,9 +216,16 @@ public class NiFiProperties extends Properties {
     public static final String DEFAULT_NAR_LIBRARY_DIR = "./lib";
     public static final String DEFAULT_FLOWFILE_REPO_PARTITIONS = "256";
     public static final String DEFAULT_FLOWFILE_CHECKPOINT_INTERVAL = "2 min";
+    public static final String DEFAULT_FLOWFILE_GROUP_COMMIT_WINDOW = "0 millis";
     public static final int DEFAULT_MAX_FLOWFILES_PER_CLAIM = 100;
+    public static final String DEFAULT_CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE = "0";
     public static final int DEFAULT_QUEUE_SWAP_THRESHOLD = 20000;
+    public static final boolean DEFAULT_QUEUE_FIFO_WITHOUT_PRIORITIZERS = false;
+    public static final boolean DEFAULT_QUEUE_OFF_HEAP_ATTRIBUTES = false;
+    public static final String DEFAULT_QUEUE_OFF_HEAP_ATTRIBUTES_MAX_SIZE = "128 MB";
     public static final String DEFAULT_SWAP_STORAGE_LOCATION = "./flowfile_repository/swap";
+    public static final String DEFAULT_PROVENANCE_POLICY = "full";
+    public static final int DEFAULT_PROVENANCE_ASYNC_WRITER_THREADS = 1;
     public static final String DEFAULT_SWAP_IN_PERIOD = "1 sec";
     public static final String DEFAULT_SWAP_OUT_PERIOD = "5 sec";
     public static final int DEFAULT_SWAP_IN_THREADS = 4;
@@ -214,6 +234,9 @@ public class NiFiProperties extends Properties {
     public static final String DEFAULT_PERSISTENT_STATE_DIRECTORY = "./conf/state";
     public static final String DEFAULT_COMPONENT_STATUS_SNAPSHOT_FREQUENCY = "5 mins";
     public static final String DEFAULT_BORED_YIELD_DURATION = "10 millis";
+    public static final String TIMER_DRIVEN_SCHEDULER_TIMER = "timer";
+    public static final String TIMER_DRIVEN_SCHEDULER_WORK_STEALING = "work-stealing";
+    public static final String DEFAULT_TIMER_DRIVEN_SCHEDULER = TIMER_DRIVEN_SCHEDULER_TIMER;
     public static final String DEFAULT_ZOOKEEPER_CONNECT_TIMEOUT = "3 secs";
     public static final String DEFAULT_ZOOKEEPER_SESSION_TIMEOUT = "3 secs";
     public static final String DEFAULT_ZOOKEEPER_ROOT_NODE = "/nifi";
@@ -343,6 +366,42 @@ public class NiFiProperties extends Properties {
         }
     }
 
+    /**
+     * @return <code>true</code> if FlowFiles should be pulled from a queue that has no prioritizers in the order in which they were added to it
+     */
+    public boolean isQueueFifoWithoutPrioritizers() {
+        final String value = getProperty(QUEUE_FIFO_WITHOUT_PRIORITIZERS);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_QUEUE_FIFO_WITHOUT_PRIORITIZERS;
+        }
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * @return <code>true</code> if the attributes of queued FlowFiles should be stored in direct (off-heap) memory
+     */
+    public boolean isQueueOffHeapAttributes() {
+        final String value = getProperty(QUEUE_OFF_HEAP_ATTRIBUTES);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_QUEUE_OFF_HEAP_ATTRIBUTES;
+        }
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * @return the maximum amount of direct memory that may hold the attributes of queued FlowFiles
+     */
+    public String getQueueOffHeapAttributesMaxSize() {
+        final String value = getProperty(QUEUE_OFF_HEAP_ATTRIBUTES_MAX_SIZE);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_QUEUE_OFF_HEAP_ATTRIBUTES_MAX_SIZE;
+        }
+
+        return value.trim();
+    }
+
     public Integer getIntegerProperty(final String propertyName, final Integer defaultValue) {
         final String value = getProperty(propertyName);
         if (value == null) {
@@ -898,6 +957,72 @@ public class NiFiProperties extends Properties {
         return provenanceRepositoryPaths;
     }
 
+    /**
+     * Returns the cold provenance repository paths, to which provenance event files and indices are moved once they
+     * are older than the cold storage age. This method returns a mapping of repository name to repository paths. It
+     * simply returns the values configured. No directories will be created as a result of this operation.
+     *
+     * @return the name and paths of all cold provenance repository locations
+     */
+    public Map<String, Path> getProvenanceRepositoryColdPaths() {
+        final Map<String, Path> coldRepositoryPaths = new HashMap<>();
+
+        for (String propertyName : stringPropertyNames()) {
+            if (StringUtils.startsWith(propertyName, PROVENANCE_COLD_REPO_DIRECTORY_PREFIX)) {
+                final String key = StringUtils.substringAfter(propertyName, PROVENANCE_COLD_REPO_DIRECTORY_PREFIX);
+                coldRepositoryPaths.put(key, Paths.get(getProperty(propertyName)));
+            }
+        }
+        return coldRepositoryPaths;
+    }
+
+    /**
+     * @return the provenance policy that applies to components that do not have a policy of their own
+     */
+    public String getDefaultProvenancePolicy() {
+        final String value = getProperty(PROVENANCE_POLICY_DEFAULT);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_PROVENANCE_POLICY;
+        }
+
+        return value.trim();
+    }
+
+    /**
+     * Returns the provenance policies that are configured for individual components. This method returns a mapping of component identifier to the
+     * configured policy. The policies are not validated.
+     *
+     * @return the component identifiers and policies of all components that have a provenance policy configured
+     */
+    public Map<String, String> getComponentProvenancePolicies() {
+        final Map<String, String> policies = new HashMap<>();
+
+        for (final String propertyName : stringPropertyNames()) {
+            if (StringUtils.startsWith(propertyName, PROVENANCE_POLICY_COMPONENT_PREFIX)) {
+                final String componentId = StringUtils.substringAfter(propertyName, PROVENANCE_POLICY_COMPONENT_PREFIX);
+                policies.put(componentId, getProperty(propertyName).trim());
+            }
+        }
+        return policies;
+    }
+
+    /**
+     * @return the amount of memory that Provenance Events handed off by sessions may occupy while waiting to be written to the
+     *         Provenance Repository, or <code>null</code> if sessions should write their events to the repository themselves
+     */
+    public String getProvenanceAsyncBufferSize() {
+        final String value = getProperty(PROVENANCE_ASYNC_BUFFER_SIZE);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+
+        return value.trim();
+    }
+
+    public int getProvenanceAsyncWriterThreads() {
+        return getIntegerProperty(PROVENANCE_ASYNC_WRITER_THREADS, DEFAULT_PROVENANCE_ASYNC_WRITER_THREADS);
+    }
+
     public int getMaxFlowFilesPerClaim() {
         try {
             return Integer.parseInt(getProperty(MAX_FLOWFILES_PER_CLAIM));
@@ -927,6 +1052,15 @@ public class NiFiProperties extends Properties {
         return getProperty(BORED_YIELD_DURATION, DEFAULT_BORED_YIELD_DURATION);
     }
 
+    /**
+     * @return the scheduler that runs Timer-Driven components: either {@value #TIMER_DRIVEN_SCHEDULER_TIMER}, which
+     *         checks each component for work on a timer, or {@value #TIMER_DRIVEN_SCHEDULER_WORK_STEALING}, which runs
+     *         a component when work arrives in its incoming Connections
+     */
+    public String getTimerDrivenScheduler() {
+        return getProperty(TIMER_DRIVEN_SCHEDULER, DEFAULT_TIMER_DRIVEN_SCHEDULER).trim();
+    }
+
     public File getStateManagementConfigFile() {
         return new File(getProperty(STATE_MANAGEMENT_CONFIG_FILE, DEFAULT_STATE_MANAGEMENT_CONFIG_FILE));
     }
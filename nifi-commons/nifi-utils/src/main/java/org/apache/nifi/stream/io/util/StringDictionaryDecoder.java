@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.stream.io.util;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Strings that were written by a {@link StringDictionaryEncoder}. A decoder must be used to read a single stream,
+ * starting at the beginning of the values that were written by the corresponding encoder.
+ *
+ * <p>
+ * NOT THREAD SAFE
+ * </p>
+ */
+public class StringDictionaryDecoder {
+
+    private final List<String> entries = new ArrayList<>();
+
+    public String read(final DataInput in) throws IOException {
+        final int token = VarIntUtils.readVarInt(in);
+        if (token == StringDictionaryEncoder.LITERAL) {
+            return VarIntUtils.readString(in);
+        }
+
+        if (token == StringDictionaryEncoder.LITERAL_ADDED) {
+            final String value = VarIntUtils.readString(in);
+            entries.add(value);
+            return value;
+        }
+
+        final int identifier = token - StringDictionaryEncoder.FIRST_REFERENCE;
+        if (identifier < 0 || identifier >= entries.size()) {
+            throw new IOException("Encountered reference to dictionary entry " + identifier + " but dictionary has only " + entries.size() + " entries");
+        }
+
+        return entries.get(identifier);
+    }
+
+    /**
+     * @return the number of entries in the dictionary
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+}
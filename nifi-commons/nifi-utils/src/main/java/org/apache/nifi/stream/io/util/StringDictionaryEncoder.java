@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.stream.io.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Writes Strings to a stream such that a String that has already been written to the stream can be referenced by a
+ * small integer identifier instead of being written again. The dictionary is built up as the stream is written, so it
+ * does not need to be known in advance: the first time that a String is added to the dictionary, it is written in full,
+ * and a {@link StringDictionaryDecoder} that reads the same stream from the beginning will assign it the same identifier.
+ * </p>
+ *
+ * <p>
+ * Because the identifiers are assigned implicitly, an encoder and its decoder must see exactly the same sequence of values,
+ * so a new encoder must be used for each stream, and the stream must be read from its beginning.
+ * </p>
+ *
+ * <p>
+ * The dictionary is bounded by the maximum number of entries given to the constructor. Once it is full, any value that
+ * is not already in the dictionary is simply written in full.
+ * </p>
+ *
+ * <p>
+ * NOT THREAD SAFE
+ * </p>
+ */
+public class StringDictionaryEncoder {
+
+    static final int LITERAL = 0;
+    static final int LITERAL_ADDED = 1;
+    static final int FIRST_REFERENCE = 2;
+
+    private static final int MAX_CANDIDATE_LENGTH = 256;
+
+    private final int maxEntries;
+    private final Map<String, Integer> identifiers = new HashMap<>();
+    private final Set<String> candidates = new HashSet<>();
+
+    public StringDictionaryEncoder(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Writes the given value, adding it to the dictionary if it is not already present
+     *
+     * @param value the value to write
+     * @param out the output to write to
+     * @throws IOException if unable to write to the output
+     */
+    public void write(final String value, final DataOutput out) throws IOException {
+        write(value, true, out);
+    }
+
+    /**
+     * Writes the given value. If the value is not already present in the dictionary, it is added only if it has
+     * been written before. This is appropriate for values that may or may not repeat, such as attribute values, because
+     * it avoids filling the dictionary with values that occur only once, such as identifiers.
+     *
+     * @param value the value to write
+     * @param out the output to write to
+     * @throws IOException if unable to write to the output
+     */
+    public void writeIfRepeated(final String value, final DataOutput out) throws IOException {
+        if (identifiers.containsKey(value)) {
+            write(value, true, out);
+            return;
+        }
+
+        if (value.length() > MAX_CANDIDATE_LENGTH) {
+            write(value, false, out);
+            return;
+        }
+
+        if (candidates.remove(value)) {
+            write(value, true, out);
+        } else {
+            // bound the number of candidates that we track; a value that is seen again after clearing
+            // the candidates will simply be considered a candidate again.
+            if (candidates.size() >= maxEntries) {
+                candidates.clear();
+            }
+            candidates.add(value);
+            write(value, false, out);
+        }
+    }
+
+    private void write(final String value, final boolean addIfAbsent, final DataOutput out) throws IOException {
+        final Integer identifier = identifiers.get(value);
+        if (identifier != null) {
+            VarIntUtils.writeVarInt(identifier + FIRST_REFERENCE, out);
+            return;
+        }
+
+        if (addIfAbsent && identifiers.size() < maxEntries) {
+            identifiers.put(value, identifiers.size());
+            VarIntUtils.writeVarInt(LITERAL_ADDED, out);
+        } else {
+            VarIntUtils.writeVarInt(LITERAL, out);
+        }
+
+        VarIntUtils.writeString(value, out);
+    }
+
+    /**
+     * @return the number of entries in the dictionary
+     */
+    public int getEntryCount() {
+        return identifiers.size();
+    }
+}
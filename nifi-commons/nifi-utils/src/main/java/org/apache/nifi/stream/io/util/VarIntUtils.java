@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.stream.io.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility methods for writing integers using a variable-length encoding, in which each byte holds 7 bits of the value and
+ * the high-order bit indicates whether or not more bytes follow. Small, non-negative values therefore require fewer bytes
+ * than they would using {@link DataOutput#writeInt(int)} or {@link DataOutput#writeLong(long)}. Signed values are
+ * written using ZigZag encoding so that values close to zero are small regardless of their sign.
+ */
+public class VarIntUtils {
+
+    private VarIntUtils() {
+    }
+
+    public static void writeVarInt(final int value, final DataOutput out) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    public static int readVarInt(final DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Variable-length integer is malformed: more than 5 bytes were encountered");
+    }
+
+    public static void writeVarLong(final long value, final DataOutput out) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0L) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    public static long readVarLong(final DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Variable-length long is malformed: more than 10 bytes were encountered");
+    }
+
+    public static void writeSignedVarLong(final long value, final DataOutput out) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63), out);
+    }
+
+    public static long readSignedVarLong(final DataInput in) throws IOException {
+        final long encoded = readVarLong(in);
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /**
+     * Writes the given String as a variable-length byte count followed by the UTF-8 encoding of the String
+     *
+     * @param value the value to write
+     * @param out the output to write to
+     * @throws IOException if unable to write to the output
+     */
+    public static void writeString(final String value, final DataOutput out) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length, out);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String that was written via {@link #writeString(String, DataOutput)}
+     *
+     * @param in the input to read from
+     * @return the String that was read
+     * @throws IOException if unable to read from the input
+     */
+    public static String readString(final DataInput in) throws IOException {
+        final int length = readVarInt(in);
+        if (length < 0) {
+            throw new EOFException("Expected String of length " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A histogram of latencies that can be updated concurrently without locking. Latencies are counted in buckets
+ * whose upper bounds are powers of two nanoseconds, so percentiles are accurate to within a factor of two, which
+ * is sufficient to see where time is being spent while using a small, fixed amount of memory.
+ * </p>
+ *
+ * <p>
+ * Thread-safe
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong(0L);
+    private final AtomicLong totalNanos = new AtomicLong(0L);
+    private final AtomicLong maxNanos = new AtomicLong(0L);
+
+    /**
+     * Records a single latency
+     *
+     * @param nanos the latency, in nanoseconds. Negative values are treated as 0.
+     */
+    public void record(final long nanos) {
+        final long latency = Math.max(0L, nanos);
+        buckets.incrementAndGet(getBucketIndex(latency));
+        count.incrementAndGet();
+        totalNanos.addAndGet(latency);
+
+        long max = maxNanos.get();
+        while (latency > max && !maxNanos.compareAndSet(max, latency)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private static int getBucketIndex(final long nanos) {
+        // bucket i holds latencies in the range (2^(i-1), 2^i]
+        return nanos <= 1L ? 0 : BUCKET_COUNT - Long.numberOfLeadingZeros(nanos - 1L);
+    }
+
+    /**
+     * @return the number of latencies that have been recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param timeUnit the desired time unit
+     * @return the largest latency that has been recorded
+     */
+    public long getMax(final TimeUnit timeUnit) {
+        return timeUnit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timeUnit the desired time unit
+     * @return the mean of the latencies that have been recorded, or 0 if none have been recorded
+     */
+    public long getMean(final TimeUnit timeUnit) {
+        final long recorded = count.get();
+        return recorded == 0L ? 0L : timeUnit.convert(totalNanos.get() / recorded, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the latencies that have been recorded. The value returned is
+     * at most twice the true value, and never more than the largest latency recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param timeUnit the desired time unit
+     * @return an upper bound for the given percentile, or 0 if no latencies have been recorded
+     */
+    public long getPercentile(final double percentile, final TimeUnit timeUnit) {
+        if (percentile < 0D || percentile > 100D) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100 but was " + percentile);
+        }
+
+        long total = 0L;
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100D));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                final long upperBound = i == 0 ? 1L : (i >= 63 ? Long.MAX_VALUE : 1L << i);
+                return timeUnit.convert(Math.min(upperBound, maxNanos.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        return getMax(timeUnit);
+    }
+
+    /**
+     * Clears all of the latencies that have been recorded. Latencies that are recorded concurrently with this method
+     * may or may not be retained.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        totalNanos.set(0L);
+        maxNanos.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + getCount()
+            + ", mean=" + getMean(TimeUnit.MICROSECONDS) + " micros"
+            + ", p50=" + getPercentile(50D, TimeUnit.MICROSECONDS) + " micros"
+            + ", p99=" + getPercentile(99D, TimeUnit.MICROSECONDS) + " micros"
+            + ", max=" + getMax(TimeUnit.MICROSECONDS) + " micros]";
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.stream.io.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class StringDictionaryEncoderTest {
+
+    @Test
+    public void testVarIntRoundTrip() throws IOException {
+        final long[] values = new long[] {0L, 1L, 127L, 128L, 16383L, 16384L, Integer.MAX_VALUE, Long.MAX_VALUE, -1L, Long.MIN_VALUE};
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        for (final long value : values) {
+            VarIntUtils.writeVarInt((int) value, out);
+            VarIntUtils.writeVarLong(value, out);
+            VarIntUtils.writeSignedVarLong(value, out);
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (final long value : values) {
+            assertEquals((int) value, VarIntUtils.readVarInt(in));
+            assertEquals(value, VarIntUtils.readVarLong(in));
+            assertEquals(value, VarIntUtils.readSignedVarLong(in));
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final StringDictionaryEncoder encoder = new StringDictionaryEncoder(1000);
+        final List<String> written = new ArrayList<>();
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        for (int i = 0; i < 100; i++) {
+            encoder.write("filename", out);
+            encoder.writeIfRepeated("file-" + i, out);
+            encoder.write("mime.type", out);
+            encoder.writeIfRepeated("text/plain", out);
+            encoder.write("uuid", out);
+            encoder.writeIfRepeated(UUID.randomUUID().toString(), out);
+
+            written.add("filename");
+            written.add("file-" + i);
+            written.add("mime.type");
+            written.add("text/plain");
+            written.add("uuid");
+        }
+
+        // only the keys and the single repeated value should have been added to the dictionary
+        assertEquals(4, encoder.getEntryCount());
+
+        final StringDictionaryDecoder decoder = new StringDictionaryDecoder();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 5; j++) {
+                assertEquals(written.get(i * 5 + j), decoder.read(in));
+            }
+            assertEquals(36, decoder.read(in).length());
+        }
+
+        assertEquals(-1, in.read());
+        assertEquals(4, decoder.getEntryCount());
+    }
+
+    @Test
+    public void testDictionaryIsBounded() throws IOException {
+        final StringDictionaryEncoder encoder = new StringDictionaryEncoder(10);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        for (int i = 0; i < 100; i++) {
+            encoder.write("value-" + i, out);
+            encoder.write("value-" + i, out);
+        }
+
+        assertEquals(10, encoder.getEntryCount());
+
+        final StringDictionaryDecoder decoder = new StringDictionaryDecoder();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value-" + i, decoder.read(in));
+            assertEquals("value-" + i, decoder.read(in));
+        }
+        assertEquals(10, decoder.getEntryCount());
+    }
+}
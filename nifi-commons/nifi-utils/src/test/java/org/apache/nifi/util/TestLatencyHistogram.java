@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(0L, histogram.getPercentile(99D, TimeUnit.NANOSECONDS));
+        assertEquals(0L, histogram.getMax(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPercentilesAreUpperBounds() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(500500L, histogram.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(1000000L, histogram.getMax(TimeUnit.NANOSECONDS));
+
+        final long p50 = histogram.getPercentile(50D, TimeUnit.NANOSECONDS);
+        assertTrue(p50 >= 500000L && p50 <= 1000000L);
+
+        final long p99 = histogram.getPercentile(99D, TimeUnit.NANOSECONDS);
+        assertTrue(p99 >= 990000L && p99 <= 1000000L);
+
+        assertEquals(1000000L, histogram.getPercentile(100D, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testReset() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5L));
+        histogram.record(-1L);
+        assertEquals(2L, histogram.getCount());
+        assertEquals(5L, histogram.getMax(TimeUnit.MILLISECONDS));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getMax(TimeUnit.MILLISECONDS));
+    }
+}
@@ -46,10 +46,16 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -57,6 +63,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.nifi.stream.io.BufferedInputStream;
@@ -72,6 +79,17 @@ import org.slf4j.LoggerFactory;
  * updates for a given Record at any one time.
  * </p>
  *
+ * <p>
+ * As of version 2, the snapshot is split into a number of shards, one per
+ * partition, which are written and read in parallel. The snapshot file itself
+ * then holds only the header, the swap locations and the generation of the
+ * shards that it refers to. Shards are written before the snapshot file is
+ * renamed into place, and the shards of older generations are deleted only
+ * afterward, so a failure during a checkpoint always leaves a complete
+ * snapshot. Version 1 snapshots, which hold all records inline, can still be
+ * recovered.
+ * </p>
+ *
  * @param <T> type of record this WAL is for
  */
 public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepository<T> {
@@ -97,6 +115,9 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
     private static final Logger logger = LoggerFactory.getLogger(MinimalLockingWriteAheadLog.class);
 
+    private static final String SNAPSHOT_SHARD_PREFIX = "snapshot.shard-";
+    private static final Pattern SNAPSHOT_SHARD_PATTERN = Pattern.compile("snapshot\\.shard-(\\d+)-\\d+");
+
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final Lock readLock = rwLock.readLock(); // required to update a partition
     private final Lock writeLock = rwLock.writeLock(); // required for checkpoint
@@ -104,6 +125,14 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
     private volatile boolean updated = false;
     private volatile boolean recovered = false;
 
+    // generation of the snapshot shards that the current snapshot refers to; guarded by checkpoint/recovery
+    private long snapshotGeneration = 0L;
+
+    private volatile long snapshotRecoveryNanos = 0L;
+    private volatile long journalRecoveryNanos = 0L;
+    private volatile long recordsRecoveredFromSnapshot = 0L;
+    private volatile long transactionsRecoveredFromJournals = 0L;
+
     public MinimalLockingWriteAheadLog(final Path path, final int partitionCount, final SerDe<T> serde, final SyncListener syncListener) throws IOException {
         this(new TreeSet<>(Collections.singleton(path)), partitionCount, serde, syncListener);
     }
@@ -290,7 +319,11 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         writeLock.lock();
         try {
             Long maxTransactionId = recoverFromSnapshot(recordMap);
+            final long journalRecoveryStart = System.nanoTime();
+            snapshotRecoveryNanos = journalRecoveryStart - recoverStart;
+
             recoverFromEdits(recordMap, maxTransactionId);
+            journalRecoveryNanos = System.nanoTime() - journalRecoveryStart;
 
             for (final Partition<T> partition : partitions) {
                 final long transId = partition.getMaxRecoveredTransactionId();
@@ -307,7 +340,9 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         }
         final long recoverNanos = System.nanoTime() - recoverStart;
         final long recoveryMillis = TimeUnit.MILLISECONDS.convert(recoverNanos, TimeUnit.NANOSECONDS);
-        logger.info("Successfully recovered {} records in {} milliseconds", recordMap.size(), recoveryMillis);
+        logger.info("Successfully recovered {} records in {} milliseconds ({} records from Snapshot in {} millis, {} transactions from Journals in {} millis)",
+                new Object[] {recordMap.size(), recoveryMillis, recordsRecoveredFromSnapshot, getSnapshotRecoveryMillis(),
+                    transactionsRecoveredFromJournals, getJournalRecoveryMillis()});
         checkpoint();
 
         recovered = true;
@@ -363,23 +398,18 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             dataIn.readUTF(); // ignore serde class name for now
             final int serdeVersion = dataIn.readInt();
             final long maxTransactionId = dataIn.readLong();
-            final int numRecords = dataIn.readInt();
-
-            for (int i = 0; i < numRecords; i++) {
-                final T record = serde.deserializeRecord(dataIn, serdeVersion);
-                if (record == null) {
-                    throw new EOFException();
-                }
-
-                final UpdateType updateType = serde.getUpdateType(record);
-                if (updateType == UpdateType.DELETE) {
-                    logger.warn("While recovering from snapshot, found record with type 'DELETE'; this record will not be restored");
-                    continue;
-                }
 
-                logger.trace("Recovered from snapshot: {}", record);
-                recordMap.put(serde.getRecordIdentifier(record), record);
+            final int numRecords;
+            if (waliImplementationVersion < 2) {
+                numRecords = dataIn.readInt();
+                recoverSnapshotRecords(dataIn, serdeVersion, numRecords, recordMap);
+            } else {
+                final long generation = dataIn.readLong();
+                final int shardCount = dataIn.readInt();
+                numRecords = recoverFromSnapshotShards(generation, shardCount, recordMap);
+                this.snapshotGeneration = generation;
             }
+            this.recordsRecoveredFromSnapshot = numRecords;
 
             final int numSwapRecords = dataIn.readInt();
             final Set<String> swapLocations = new HashSet<>();
@@ -394,6 +424,160 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         }
     }
 
+    private void recoverSnapshotRecords(final DataInputStream dataIn, final int serdeVersion, final int numRecords, final Map<Object, T> recordMap) throws IOException {
+        for (int i = 0; i < numRecords; i++) {
+            final T record = serde.deserializeRecord(dataIn, serdeVersion);
+            if (record == null) {
+                throw new EOFException();
+            }
+
+            final UpdateType updateType = serde.getUpdateType(record);
+            if (updateType == UpdateType.DELETE) {
+                logger.warn("While recovering from snapshot, found record with type 'DELETE'; this record will not be restored");
+                continue;
+            }
+
+            logger.trace("Recovered from snapshot: {}", record);
+            recordMap.put(serde.getRecordIdentifier(record), record);
+        }
+    }
+
+    private int recoverFromSnapshotShards(final long generation, final int shardCount, final Map<Object, T> recordMap) throws IOException {
+        final List<Callable<Integer>> tasks = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            final Path shardPath = getSnapshotShardPath(generation, i);
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return recoverFromSnapshotShard(shardPath, recordMap);
+                }
+            });
+        }
+
+        int numRecords = 0;
+        for (final Integer shardRecords : invokeAll("recover Snapshot", tasks)) {
+            numRecords += shardRecords;
+        }
+        return numRecords;
+    }
+
+    private int recoverFromSnapshotShard(final Path shardPath, final Map<Object, T> recordMap) throws IOException {
+        try (final DataInputStream dataIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(shardPath, StandardOpenOption.READ)))) {
+            final String waliImplementationClass = dataIn.readUTF();
+            if (!waliImplementationClass.equals(MinimalLockingWriteAheadLog.class.getName())) {
+                throw new IOException("Snapshot Shard located at " + shardPath + " was written using the "
+                        + waliImplementationClass + " class; cannot restore using " + getClass().getName());
+            }
+
+            dataIn.readInt(); // version is validated by the snapshot that refers to this shard
+            dataIn.readUTF(); // ignore serde class name for now
+            final int serdeVersion = dataIn.readInt();
+            final int numRecords = dataIn.readInt();
+
+            recoverSnapshotRecords(dataIn, serdeVersion, numRecords, recordMap);
+            logger.debug("{} restored {} Records from Snapshot Shard {}", new Object[] {this, numRecords, shardPath});
+            return numRecords;
+        }
+    }
+
+    private void writeSnapshotShard(final Path shardPath, final List<T> records) throws IOException {
+        try (final FileOutputStream fileOut = new FileOutputStream(shardPath.toFile())) {
+            final DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(fileOut));
+            dataOut.writeUTF(MinimalLockingWriteAheadLog.class.getName());
+            dataOut.writeInt(getVersion());
+            dataOut.writeUTF(serde.getClass().getName());
+            dataOut.writeInt(serde.getVersion());
+            dataOut.writeInt(records.size());
+
+            for (final T record : records) {
+                logger.trace("Checkpointing {}", record);
+                serde.serializeRecord(record, dataOut);
+            }
+
+            dataOut.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    private Path getSnapshotShardPath(final long generation, final int shardIndex) {
+        return basePath.resolve(SNAPSHOT_SHARD_PREFIX + generation + "-" + shardIndex);
+    }
+
+    private void deleteSnapshotShards(final long generationToKeep) {
+        final File[] children = basePath.toFile().listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (final File child : children) {
+            final Matcher matcher = SNAPSHOT_SHARD_PATTERN.matcher(child.getName());
+            if (matcher.matches() && Long.parseLong(matcher.group(1)) != generationToKeep && !child.delete()) {
+                logger.warn("{} failed to delete old Snapshot Shard {}", this, child);
+            }
+        }
+    }
+
+    /**
+     * Runs the given tasks using a number of threads that is no larger than the number of
+     * available processors, waiting for all of them to complete.
+     *
+     * @param description a description of the action being performed, for logging and thread names
+     * @param tasks the tasks to run
+     * @return the results of the tasks, in the same order as the tasks
+     * @throws IOException if any of the tasks fails or the thread is interrupted
+     */
+    private <R> List<R> invokeAll(final String description, final List<Callable<R>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            try {
+                return Collections.singletonList(tasks.get(0).call());
+            } catch (final IOException | RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        final int threadCount = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = defaultFactory.newThread(r);
+                thread.setName("Write-Ahead Log " + description + " Thread-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            final List<Future<R>> futures = executor.invokeAll(tasks);
+            final List<R> results = new ArrayList<>(futures.size());
+            for (final Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to " + description);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to " + description, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Recovers records from the edit logs via the Partitions. Returns a boolean
      * if recovery of a Partition requires the Write-Ahead Log be checkpointed
@@ -412,6 +596,7 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         // populate a map of the next transaction id for each partition to the
         // partition that has that next transaction id.
         final SortedMap<Long, Partition<T>> transactionMap = new TreeMap<>();
+        long transactionsRecovered = 0L;
         for (final Partition<T> partition : partitions) {
             Long transactionId;
             boolean keepTransaction;
@@ -450,6 +635,7 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
                 for (final Object id : idsRemoved) {
                     modifiableRecordMap.remove(id);
                 }
+                transactionsRecovered++;
             } catch (final EOFException e) {
                 logger.error("{} unexpectedly reached End-of-File when reading from {} for Transaction ID {}; "
                         + "assuming crash and ignoring this transaction",
@@ -475,16 +661,20 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         for (final Partition<T> partition : partitions) {
             partition.endRecovery();
         }
+
+        this.transactionsRecoveredFromJournals = transactionsRecovered;
     }
 
     @Override
     public synchronized int checkpoint() throws IOException {
-        final Set<T> records;
+        final List<T> records;
         final Set<String> swapLocations;
         final long maxTransactionId;
 
         final long startNanos = System.nanoTime();
 
+        final long generation;
+        final int shardCount;
         FileOutputStream fileOut = null;
         DataOutputStream dataOut = null;
 
@@ -505,8 +695,9 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
                 // last transaction ID that the records represent,
                 // and roll over the partitions to new write-ahead logs.
                 // Then, outside of the write lock, we will serialize the data
-                // to disk, and then remove the old Partition data.
-                records = new HashSet<>(recordMap.values());
+                // to disk, and then remove the old Partition data. The copy is
+                // a simple array copy of references so that it is as cheap as possible.
+                records = new ArrayList<>(recordMap.values());
                 maxTransactionId = transactionIdGenerator.get() - 1;
 
                 swapLocations = new HashSet<>(externalLocations);
@@ -531,6 +722,24 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
             stopTheWorldNanos = System.nanoTime() - stopTheWorldStart;
 
+            // write each shard of the snapshot in parallel. The shards must be fully written before
+            // the .partial file is written, as the snapshot is only valid once all of its shards exist.
+            generation = snapshotGeneration + 1;
+            shardCount = partitions.length;
+            final List<Callable<Void>> shardTasks = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                final Path shardPath = getSnapshotShardPath(generation, i);
+                final List<T> shardRecords = records.subList(records.size() * i / shardCount, records.size() * (i + 1) / shardCount);
+                shardTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        writeSnapshotShard(shardPath, shardRecords);
+                        return null;
+                    }
+                });
+            }
+            invokeAll("write Snapshot", shardTasks);
+
             // perform checkpoint, writing to .partial file
             fileOut = new FileOutputStream(partialPath.toFile());
             dataOut = new DataOutputStream(fileOut);
@@ -539,12 +748,8 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             dataOut.writeUTF(serde.getClass().getName());
             dataOut.writeInt(serde.getVersion());
             dataOut.writeLong(maxTransactionId);
-            dataOut.writeInt(records.size());
-
-            for (final T record : records) {
-                logger.trace("Checkpointing {}", record);
-                serde.serializeRecord(record, dataOut);
-            }
+            dataOut.writeLong(generation);
+            dataOut.writeInt(shardCount);
 
             dataOut.writeInt(swapLocations.size());
             for (final String swapLocation : swapLocations) {
@@ -567,6 +772,10 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         Files.deleteIfExists(snapshotPath);
         Files.move(partialPath, snapshotPath);
 
+        // now that the new snapshot is in place, the shards of the previous snapshot are no longer needed
+        snapshotGeneration = generation;
+        deleteSnapshotShards(generation);
+
         // clear all of the edit logs
         final long partitionStart = System.nanoTime();
         for (final Partition<T> partition : partitions) {
@@ -588,9 +797,9 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         final long partitionMillis = TimeUnit.MILLISECONDS.convert(partitionEnd - partitionStart, TimeUnit.NANOSECONDS);
         final long stopTheWorldMillis = TimeUnit.NANOSECONDS.toMillis(stopTheWorldNanos);
 
-        logger.info("{} checkpointed with {} Records and {} Swap Files in {} milliseconds (Stop-the-world "
+        logger.info("{} checkpointed with {} Records in {} Snapshot Shards and {} Swap Files in {} milliseconds (Stop-the-world "
                 + "time = {} milliseconds, Clear Edit Logs time = {} millis), max Transaction ID {}",
-                new Object[]{this, records.size(), swapLocations.size(), millis, stopTheWorldMillis, partitionMillis, maxTransactionId});
+                new Object[]{this, records.size(), shardCount, swapLocations.size(), millis, stopTheWorldMillis, partitionMillis, maxTransactionId});
 
         return records.size();
     }
@@ -609,7 +818,35 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
     }
 
     public int getVersion() {
-        return 1;
+        return 2;
+    }
+
+    /**
+     * @return the number of milliseconds that it took to recover records from the snapshot
+     */
+    public long getSnapshotRecoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshotRecoveryNanos);
+    }
+
+    /**
+     * @return the number of milliseconds that it took to replay the journals after recovering from the snapshot
+     */
+    public long getJournalRecoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(journalRecoveryNanos);
+    }
+
+    /**
+     * @return the number of records that were recovered from the snapshot
+     */
+    public long getRecordsRecoveredFromSnapshot() {
+        return recordsRecoveredFromSnapshot;
+    }
+
+    /**
+     * @return the number of transactions that were replayed from the journals during recovery
+     */
+    public long getTransactionsRecoveredFromJournals() {
+        return transactionsRecoveredFromJournals;
     }
 
     /**
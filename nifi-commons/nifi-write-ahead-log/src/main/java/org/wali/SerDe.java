@@ -48,6 +48,12 @@ public interface SerDe<T> {
      * {@link DataOutputStream}.
      * </p>
      *
+     * <p>
+     * The snapshot may be split into several shards that are written
+     * concurrently, so this method may be called by several threads at once,
+     * each with a different {@link DataOutputStream}.
+     * </p>
+     *
      * @param record to serialize
      * @param out to write to
      * @throws IOException if failed to write
@@ -79,6 +85,12 @@ public interface SerDe<T> {
      * record. If no data is available, returns <code>null</code>.
      * </p>
      *
+     * <p>
+     * The shards of a snapshot may be read concurrently, so this method may be
+     * called by several threads at once, each with a different
+     * {@link DataInputStream}.
+     * </p>
+     *
      * @param in stream to read from
      * @param version the version of the SerDe that was used to serialize the
      * record
@@ -612,6 +612,93 @@ public class TestMinimalLockingWriteAheadLog {
     }
 
 
+    @Test
+    public void testRecoverFromShardedSnapshot() throws IOException {
+        final int numPartitions = 4;
+        final Path path = Paths.get("target/minimal-locking-repo-sharded-snapshot");
+        deleteRecursively(path.toFile());
+        Files.createDirectories(path);
+
+        final DummyRecordSerde serde = new DummyRecordSerde();
+        final MinimalLockingWriteAheadLog<DummyRecord> writeRepo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, null);
+        assertTrue(writeRepo.recoverRecords().isEmpty());
+
+        for (int i = 0; i < 1000; i++) {
+            final DummyRecord record = new DummyRecord(String.valueOf(i), UpdateType.CREATE);
+            record.setProperty("i", String.valueOf(i));
+            writeRepo.update(Collections.singleton(record), false);
+        }
+
+        assertEquals(1000, writeRepo.checkpoint());
+        assertEquals(1000, writeRepo.checkpoint());
+
+        // add some records that exist only in the journals
+        for (int i = 1000; i < 1100; i++) {
+            final DummyRecord record = new DummyRecord(String.valueOf(i), UpdateType.CREATE);
+            record.setProperty("i", String.valueOf(i));
+            writeRepo.update(Collections.singleton(record), false);
+        }
+        writeRepo.shutdown();
+
+        // only the shards of the latest checkpoint should remain
+        final File[] shards = path.toFile().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.getName().startsWith("snapshot.shard-");
+            }
+        });
+        assertEquals(numPartitions, shards.length);
+
+        final MinimalLockingWriteAheadLog<DummyRecord> recoverRepo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, null);
+        final Collection<DummyRecord> records = recoverRepo.recoverRecords();
+        assertEquals(1100, records.size());
+        for (final DummyRecord record : records) {
+            assertEquals(record.getId(), record.getProperty("i"));
+        }
+
+        assertEquals(1000L, recoverRepo.getRecordsRecoveredFromSnapshot());
+        assertEquals(100L, recoverRepo.getTransactionsRecoveredFromJournals());
+        recoverRepo.shutdown();
+    }
+
+    @Test
+    public void testRecoverFromVersion1Snapshot() throws IOException {
+        final Path path = Paths.get("target/minimal-locking-repo-version-1-snapshot");
+        deleteRecursively(path.toFile());
+        Files.createDirectories(path);
+
+        // write a snapshot in the original, non-sharded format
+        final DummyRecordSerde serde = new DummyRecordSerde();
+        try (final DataOutputStream dataOut = new DataOutputStream(Files.newOutputStream(path.resolve("snapshot")))) {
+            dataOut.writeUTF(MinimalLockingWriteAheadLog.class.getName());
+            dataOut.writeInt(1);
+            dataOut.writeUTF(DummyRecordSerde.class.getName());
+            dataOut.writeInt(serde.getVersion());
+            dataOut.writeLong(9L);
+            dataOut.writeInt(10);
+            for (int i = 0; i < 10; i++) {
+                final DummyRecord record = new DummyRecord(String.valueOf(i), UpdateType.CREATE);
+                record.setProperty("i", String.valueOf(i));
+                serde.serializeRecord(record, dataOut);
+            }
+            dataOut.writeInt(0);
+        }
+
+        final MinimalLockingWriteAheadLog<DummyRecord> recoverRepo = new MinimalLockingWriteAheadLog<>(path, 2, serde, null);
+        final Collection<DummyRecord> records = recoverRepo.recoverRecords();
+        assertEquals(10, records.size());
+        for (final DummyRecord record : records) {
+            assertEquals(record.getId(), record.getProperty("i"));
+        }
+        recoverRepo.shutdown();
+
+        // recovery performs a checkpoint, so the snapshot should now be sharded
+        final MinimalLockingWriteAheadLog<DummyRecord> shardedRepo = new MinimalLockingWriteAheadLog<>(path, 2, serde, null);
+        assertEquals(10, shardedRepo.recoverRecords().size());
+        assertEquals(10L, shardedRepo.getRecordsRecoveredFromSnapshot());
+        shardedRepo.shutdown();
+    }
+
     private static class InsertThread extends Thread {
 
         private final List<List<DummyRecord>> records;
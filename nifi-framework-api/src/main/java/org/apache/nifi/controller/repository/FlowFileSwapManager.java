@@ -78,6 +78,18 @@ public interface FlowFileSwapManager {
      */
     SwapContents swapIn(String swapLocation, FlowFileQueue flowFileQueue) throws IncompleteSwapFileException, IOException;
 
+    /**
+     * Provides a hint that the swap file at the given location is expected to be swapped in soon, so that
+     * its contents may be read in the background before {@link #swapIn(String, FlowFileQueue)} is called.
+     * Prefetching must not update the FlowFile Repository or remove the swap file. The default implementation
+     * does nothing.
+     *
+     * @param swapLocation the location of the swap file
+     * @param flowFileQueue the queue to which the FlowFiles belong
+     */
+    default void prefetch(String swapLocation, FlowFileQueue flowFileQueue) {
+    }
+
     /**
      * Determines swap files that exist for the given FlowFileQueue
      *
@@ -44,6 +44,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -77,7 +78,9 @@ public final class StandardConnection implements Connection {
         relationships = new AtomicReference<>(Collections.unmodifiableCollection(builder.relationships));
         scheduler = builder.scheduler;
         flowFileQueue = new StandardFlowFileQueue(id, this, builder.flowFileRepository, builder.provenanceRepository, builder.resourceClaimManager,
-            scheduler, builder.swapManager, builder.eventReporter, NiFiProperties.getInstance().getQueueSwapThreshold());
+            scheduler, builder.swapManager, builder.eventReporter, NiFiProperties.getInstance().getQueueSwapThreshold(), builder.swapInExecutor, builder.swapOutExecutor,
+            NiFiProperties.getInstance().isQueueFifoWithoutPrioritizers(),
+            NiFiProperties.TIMER_DRIVEN_SCHEDULER_WORK_STEALING.equalsIgnoreCase(NiFiProperties.getInstance().getTimerDrivenScheduler()));
         hashCode = new HashCodeBuilder(7, 67).append(id).toHashCode();
     }
 
@@ -293,6 +296,8 @@ public final class StandardConnection implements Connection {
         private Connectable destination;
         private Collection<Relationship> relationships;
         private FlowFileSwapManager swapManager;
+        private ExecutorService swapInExecutor;
+        private ExecutorService swapOutExecutor;
         private EventReporter eventReporter;
         private FlowFileRepository flowFileRepository;
         private ProvenanceEventRepository provenanceRepository;
@@ -348,6 +353,16 @@ public final class StandardConnection implements Connection {
             return this;
         }
 
+        public Builder swapInExecutor(final ExecutorService swapInExecutor) {
+            this.swapInExecutor = swapInExecutor;
+            return this;
+        }
+
+        public Builder swapOutExecutor(final ExecutorService swapOutExecutor) {
+            this.swapOutExecutor = swapOutExecutor;
+            return this;
+        }
+
         public Builder eventReporter(final EventReporter eventReporter) {
             this.eventReporter = eventReporter;
             return this;
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.nifi.controller.repository.FlowFileRecord;
+
+/**
+ * <p>
+ * A Queue of FlowFileRecords that is used as the active queue of a connection that has no prioritizers,
+ * when FIFO order is enabled (see nifi.queue.fifo.without.prioritizers). FlowFiles are returned in the order in which they were added, using an array-backed ring buffer, so
+ * that no comparisons are necessary in order to add or remove a FlowFile.
+ * </p>
+ *
+ * <p>
+ * FlowFiles that are penalized at the time that they are added are held separately, ordered by the time
+ * at which their penalty expires. Once the penalty has expired, they are moved to the front of the queue.
+ * Penalized FlowFiles are returned from {@link #poll()} only if no other FlowFiles are available, which
+ * mirrors the ordering of the PriorityQueue that is otherwise used by {@link StandardFlowFileQueue}.
+ * </p>
+ *
+ * <p>
+ * NOT THREAD SAFE
+ * </p>
+ */
+final class FifoFlowFileQueue extends AbstractQueue<FlowFileRecord> {
+
+    private static final Comparator<FlowFileRecord> PENALTY_COMPARATOR = new Comparator<FlowFileRecord>() {
+        @Override
+        public int compare(final FlowFileRecord o1, final FlowFileRecord o2) {
+            final int penaltyComparison = Long.compare(o1.getPenaltyExpirationMillis(), o2.getPenaltyExpirationMillis());
+            if (penaltyComparison != 0) {
+                return penaltyComparison;
+            }
+
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    };
+
+    private final ArrayDeque<FlowFileRecord> ready;
+    private final PriorityQueue<FlowFileRecord> penalized = new PriorityQueue<>(16, PENALTY_COMPARATOR);
+
+    public FifoFlowFileQueue(final int initialCapacity) {
+        ready = new ArrayDeque<>(initialCapacity);
+    }
+
+    @Override
+    public boolean offer(final FlowFileRecord flowFile) {
+        if (flowFile.isPenalized()) {
+            return penalized.offer(flowFile);
+        }
+
+        return ready.offer(flowFile);
+    }
+
+    @Override
+    public FlowFileRecord poll() {
+        releaseExpiredPenalties();
+
+        final FlowFileRecord flowFile = ready.poll();
+        if (flowFile != null) {
+            return flowFile;
+        }
+
+        return penalized.poll();
+    }
+
+    @Override
+    public FlowFileRecord peek() {
+        releaseExpiredPenalties();
+
+        final FlowFileRecord flowFile = ready.peek();
+        if (flowFile != null) {
+            return flowFile;
+        }
+
+        return penalized.peek();
+    }
+
+    /**
+     * Adds the given FlowFiles back to the front of the queue, so that the first FlowFile in the given List
+     * will be the next FlowFile returned by {@link #poll()}. This is used when FlowFiles that were pulled from
+     * the queue are returned to it without being processed.
+     *
+     * @param flowFiles the FlowFiles to add back to the front of the queue
+     */
+    public void requeue(final List<FlowFileRecord> flowFiles) {
+        final ListIterator<FlowFileRecord> itr = flowFiles.listIterator(flowFiles.size());
+        while (itr.hasPrevious()) {
+            final FlowFileRecord flowFile = itr.previous();
+            if (flowFile.isPenalized()) {
+                penalized.offer(flowFile);
+            } else {
+                ready.addFirst(flowFile);
+            }
+        }
+    }
+
+    private void releaseExpiredPenalties() {
+        FlowFileRecord head = penalized.peek();
+        if (head == null || head.isPenalized()) {
+            return;
+        }
+
+        // FlowFiles are released in order of penalty expiration, and the first to be released
+        // should be at the front of the queue, so we add them in reverse order.
+        final List<FlowFileRecord> released = new ArrayList<>();
+        while (head != null && !head.isPenalized()) {
+            released.add(penalized.poll());
+            head = penalized.peek();
+        }
+
+        for (int i = released.size() - 1; i >= 0; i--) {
+            ready.addFirst(released.get(i));
+        }
+    }
+
+    @Override
+    public int size() {
+        return ready.size() + penalized.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ready.isEmpty() && penalized.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        ready.clear();
+        penalized.clear();
+    }
+
+    /**
+     * @return an Iterator that returns the FlowFiles that are not penalized, in the order in which
+     *         they will be polled, followed by the penalized FlowFiles, in no particular order. The Iterator
+     *         does not support removal.
+     */
+    @Override
+    public Iterator<FlowFileRecord> iterator() {
+        final Iterator<FlowFileRecord> readyItr = ready.iterator();
+        final Iterator<FlowFileRecord> penalizedItr = penalized.iterator();
+
+        return new Iterator<FlowFileRecord>() {
+            @Override
+            public boolean hasNext() {
+                return readyItr.hasNext() || penalizedItr.hasNext();
+            }
+
+            @Override
+            public FlowFileRecord next() {
+                if (readyItr.hasNext()) {
+                    return readyItr.next();
+                }
+                if (penalizedItr.hasNext()) {
+                    return penalizedItr.next();
+                }
+
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
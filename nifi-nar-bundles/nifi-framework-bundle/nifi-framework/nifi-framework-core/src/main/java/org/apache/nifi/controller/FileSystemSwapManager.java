@@ -33,10 +33,25 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.nifi.controller.queue.FlowFileQueue;
 import org.apache.nifi.controller.queue.QueueSize;
@@ -57,6 +72,9 @@ import org.apache.nifi.controller.swap.StandardSwapSummary;
 import org.apache.nifi.events.EventReporter;
 import org.apache.nifi.reporting.Severity;
 import org.apache.nifi.stream.io.BufferedOutputStream;
+import org.apache.nifi.stream.io.util.StringDictionaryDecoder;
+import org.apache.nifi.stream.io.util.StringDictionaryEncoder;
+import org.apache.nifi.stream.io.util.VarIntUtils;
 import org.apache.nifi.util.NiFiProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,7 +90,16 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     private static final Pattern SWAP_FILE_PATTERN = Pattern.compile("\\d+-.+\\.swap");
     private static final Pattern TEMP_SWAP_FILE_PATTERN = Pattern.compile("\\d+-.+\\.swap\\.part");
 
-    public static final int SWAP_ENCODING_VERSION = 10;
+    public static final int SWAP_ENCODING_VERSION = 11;
+
+    // Version 11 writes FlowFiles in compressed, column-oriented blocks
+    private static final int FIRST_BLOCK_ENCODING_VERSION = 11;
+    private static final int SWAP_BLOCK_SIZE = 1000;
+    private static final int COMPRESSION_BUFFER_SIZE = 65536;
+    private static final int MAX_DICTIONARY_ENTRIES = 16384;
+    private static final int NO_CLAIM = 0;
+    private static final int CLAIM = 1;
+    private static final int LOSS_TOLERANT_CLAIM = 2;
     public static final String EVENT_CATEGORY = "Swap FlowFiles";
     private static final Logger logger = LoggerFactory.getLogger(FileSystemSwapManager.class);
 
@@ -83,6 +110,10 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     private EventReporter eventReporter;
     private ResourceClaimManager claimManager;
 
+    // Swap Files that are being read, or have been read, in the background because they are expected to be swapped in soon
+    private final ConcurrentMap<String, Future<SwapContents>> prefetchedSwapContents = new ConcurrentHashMap<>();
+    private volatile ExecutorService prefetchExecutor;
+
     public FileSystemSwapManager() {
         final NiFiProperties properties = NiFiProperties.getInstance();
         final Path flowFileRepoPath = properties.getFlowFileRepositoryPath();
@@ -130,10 +161,72 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     }
 
 
+    @Override
+    public void prefetch(final String swapLocation, final FlowFileQueue flowFileQueue) {
+        if (prefetchedSwapContents.containsKey(swapLocation)) {
+            return;
+        }
+
+        final FutureTask<SwapContents> prefetchTask = new FutureTask<>(new Callable<SwapContents>() {
+            @Override
+            public SwapContents call() throws Exception {
+                return peek(swapLocation, flowFileQueue);
+            }
+        });
+
+        if (prefetchedSwapContents.putIfAbsent(swapLocation, prefetchTask) == null) {
+            getPrefetchExecutor().execute(prefetchTask);
+        }
+    }
+
+    private ExecutorService getPrefetchExecutor() {
+        ExecutorService executor = prefetchExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = prefetchExecutor;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = Executors.defaultThreadFactory().newThread(r);
+                            thread.setName("Swap Prefetch Thread");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    prefetchExecutor = executor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Returns the contents of the given Swap File that were read in the background, if a prefetch was requested and it
+     * was successful; otherwise, reads the Swap File
+     */
+    private SwapContents getPrefetchedContents(final String swapLocation, final FlowFileQueue flowFileQueue) throws IOException {
+        final Future<SwapContents> future = prefetchedSwapContents.remove(swapLocation);
+        if (future != null) {
+            try {
+                return future.get();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for Swap File " + swapLocation + " to be read", ie);
+            } catch (final ExecutionException | CancellationException e) {
+                // If the Swap File could not be read in the background, read it again so that any failure is reported to the caller.
+                logger.debug("Failed to prefetch Swap File {}; will read the Swap File again", swapLocation, e);
+            }
+        }
+
+        return peek(swapLocation, flowFileQueue);
+    }
+
     @Override
     public SwapContents swapIn(final String swapLocation, final FlowFileQueue flowFileQueue) throws IOException {
         final File swapFile = new File(swapLocation);
-        final SwapContents swapContents = peek(swapLocation, flowFileQueue);
+        final SwapContents swapContents = getPrefetchedContents(swapLocation, flowFileQueue);
         flowFileRepository.swapFlowFilesIn(swapFile.getAbsolutePath(), swapContents.getFlowFiles(), flowFileQueue);
 
         if (!swapFile.delete()) {
@@ -163,6 +256,11 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
 
     @Override
     public void purge() {
+        for (final Future<SwapContents> future : prefetchedSwapContents.values()) {
+            future.cancel(false);
+        }
+        prefetchedSwapContents.clear();
+
         final File[] swapFiles = storageDirectory.listFiles(new FilenameFilter() {
             @Override
             public boolean accept(final File dir, final String name) {
@@ -313,37 +411,7 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
 
             out.writeLong(maxRecordId);
 
-            for (final FlowFileRecord flowFile : toSwap) {
-                out.writeLong(flowFile.getId());
-                out.writeLong(flowFile.getEntryDate());
-                out.writeLong(flowFile.getLineageStartDate());
-                out.writeLong(flowFile.getLineageStartIndex());
-                out.writeLong(flowFile.getLastQueueDate());
-                out.writeLong(flowFile.getQueueDateIndex());
-                out.writeLong(flowFile.getSize());
-
-                final ContentClaim claim = flowFile.getContentClaim();
-                if (claim == null) {
-                    out.writeBoolean(false);
-                } else {
-                    out.writeBoolean(true);
-                    final ResourceClaim resourceClaim = claim.getResourceClaim();
-                    out.writeUTF(resourceClaim.getId());
-                    out.writeUTF(resourceClaim.getContainer());
-                    out.writeUTF(resourceClaim.getSection());
-                    out.writeLong(claim.getOffset());
-                    out.writeLong(claim.getLength());
-                    out.writeLong(flowFile.getContentClaimOffset());
-                    out.writeBoolean(resourceClaim.isLossTolerant());
-                }
-
-                final Map<String, String> attributes = flowFile.getAttributes();
-                out.writeInt(attributes.size());
-                for (final Map.Entry<String, String> entry : attributes.entrySet()) {
-                    writeString(entry.getKey(), out);
-                    writeString(entry.getValue(), out);
-                }
-            }
+            serializeFlowFileBlocks(toSwap, out);
         } finally {
             out.flush();
         }
@@ -353,22 +421,90 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         return toSwap.size();
     }
 
-    private static void writeString(final String toWrite, final OutputStream out) throws IOException {
-        final byte[] bytes = toWrite.getBytes(StandardCharsets.UTF_8);
-        final int utflen = bytes.length;
+    /**
+     * Writes the given FlowFiles in blocks of up to {@link #SWAP_BLOCK_SIZE} FlowFiles. Within a block, each field is written
+     * for all of the FlowFiles before the next field is written, so that similar values are adjacent to one another. Identifiers
+     * and dates are delta-encoded, and Strings are dictionary-encoded, before the whole body is compressed.
+     */
+    private static void serializeFlowFileBlocks(final List<FlowFileRecord> toSwap, final OutputStream destination) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream compressedOut = new DeflaterOutputStream(destination, deflater, COMPRESSION_BUFFER_SIZE);
+            final DataOutputStream out = new DataOutputStream(compressedOut);
 
-        if (utflen < 65535) {
-            out.write(utflen >>> 8);
-            out.write(utflen);
-            out.write(bytes);
-        } else {
-            out.write(255);
-            out.write(255);
-            out.write(utflen >>> 24);
-            out.write(utflen >>> 16);
-            out.write(utflen >>> 8);
-            out.write(utflen);
-            out.write(bytes);
+            final StringDictionaryEncoder claimEncoder = new StringDictionaryEncoder(MAX_DICTIONARY_ENTRIES);
+            final StringDictionaryEncoder attributeEncoder = new StringDictionaryEncoder(MAX_DICTIONARY_ENTRIES);
+
+            for (int blockStart = 0; blockStart < toSwap.size(); blockStart += SWAP_BLOCK_SIZE) {
+                final List<FlowFileRecord> block = toSwap.subList(blockStart, Math.min(toSwap.size(), blockStart + SWAP_BLOCK_SIZE));
+                VarIntUtils.writeVarInt(block.size(), out);
+
+                long previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getId() - previous, out);
+                    previous = flowFile.getId();
+                }
+                previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getEntryDate() - previous, out);
+                    previous = flowFile.getEntryDate();
+                }
+                previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getLineageStartDate() - previous, out);
+                    previous = flowFile.getLineageStartDate();
+                }
+                previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getLineageStartIndex() - previous, out);
+                    previous = flowFile.getLineageStartIndex();
+                }
+                previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getLastQueueDate() - previous, out);
+                    previous = flowFile.getLastQueueDate();
+                }
+                previous = 0L;
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeSignedVarLong(flowFile.getQueueDateIndex() - previous, out);
+                    previous = flowFile.getQueueDateIndex();
+                }
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeVarLong(flowFile.getSize(), out);
+                }
+
+                for (final FlowFileRecord flowFile : block) {
+                    final ContentClaim claim = flowFile.getContentClaim();
+                    if (claim == null) {
+                        out.writeByte(NO_CLAIM);
+                        continue;
+                    }
+
+                    final ResourceClaim resourceClaim = claim.getResourceClaim();
+                    out.writeByte(resourceClaim.isLossTolerant() ? LOSS_TOLERANT_CLAIM : CLAIM);
+                    claimEncoder.write(resourceClaim.getContainer(), out);
+                    claimEncoder.write(resourceClaim.getSection(), out);
+                    claimEncoder.writeIfRepeated(resourceClaim.getId(), out);
+                    VarIntUtils.writeVarLong(claim.getOffset(), out);
+                    VarIntUtils.writeSignedVarLong(claim.getLength(), out);
+                    VarIntUtils.writeVarLong(flowFile.getContentClaimOffset(), out);
+                }
+
+                for (final FlowFileRecord flowFile : block) {
+                    VarIntUtils.writeVarInt(flowFile.getAttributes().size(), out);
+                }
+                for (final FlowFileRecord flowFile : block) {
+                    for (final Map.Entry<String, String> entry : flowFile.getAttributes().entrySet()) {
+                        attributeEncoder.write(entry.getKey(), out);
+                        attributeEncoder.writeIfRepeated(entry.getValue(), out);
+                    }
+                }
+            }
+
+            out.flush();
+            compressedOut.finish();
+        } finally {
+            deflater.end();
         }
     }
 
@@ -407,6 +543,10 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
 
     private static SwapContents deserializeFlowFiles(final DataInputStream in, final QueueSize queueSize, final Long maxRecordId,
         final int serializationVersion, final boolean incrementContentClaims, final ResourceClaimManager claimManager, final String location) throws IOException {
+        if (serializationVersion >= FIRST_BLOCK_ENCODING_VERSION) {
+            return deserializeFlowFileBlocks(in, queueSize, maxRecordId, incrementContentClaims, claimManager, location);
+        }
+
         final List<FlowFileRecord> flowFiles = new ArrayList<>(queueSize.getObjectCount());
         final List<ResourceClaim> resourceClaims = new ArrayList<>(queueSize.getObjectCount());
         Long maxId = maxRecordId;
@@ -546,6 +686,142 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         return new StandardSwapContents(swapSummary, flowFiles);
     }
 
+    private static SwapContents deserializeFlowFileBlocks(final InputStream in, final QueueSize queueSize, final Long maxRecordId,
+        final boolean incrementContentClaims, final ResourceClaimManager claimManager, final String location) throws IOException {
+        final int numRecords = queueSize.getObjectCount();
+        final List<FlowFileRecord> flowFiles = new ArrayList<>(numRecords);
+        final List<ResourceClaim> resourceClaims = new ArrayList<>(numRecords);
+        Long maxId = maxRecordId;
+
+        final Inflater inflater = new Inflater();
+        try {
+            final DataInputStream dis = new DataInputStream(new InflaterInputStream(in, inflater, COMPRESSION_BUFFER_SIZE));
+            final StringDictionaryDecoder claimDecoder = new StringDictionaryDecoder();
+            final StringDictionaryDecoder attributeDecoder = new StringDictionaryDecoder();
+
+            // Many FlowFiles typically reference the same Resource Claim, so we create a single Resource Claim for each.
+            final Map<String, ResourceClaim> claimsByKey = new HashMap<>();
+
+            while (flowFiles.size() < numRecords) {
+                // Read all of the columns of the block before adding any of its FlowFiles. If the Swap File ends prematurely,
+                // only the FlowFiles of the blocks that were read fully are returned.
+                final StandardFlowFileRecord.Builder[] builders;
+                final ResourceClaim[] claims;
+
+                try {
+                    final int blockSize = VarIntUtils.readVarInt(dis);
+                    if (blockSize < 1 || blockSize > numRecords - flowFiles.size()) {
+                        throw new IOException("Swap File " + location + " is corrupt: found a block of " + blockSize + " FlowFiles but expected at most "
+                            + (numRecords - flowFiles.size()) + " more FlowFiles");
+                    }
+
+                    builders = new StandardFlowFileRecord.Builder[blockSize];
+                    long previous = 0L;
+                    for (int i = 0; i < blockSize; i++) {
+                        previous += VarIntUtils.readSignedVarLong(dis);
+                        builders[i] = new StandardFlowFileRecord.Builder().id(previous);
+                        if (maxId == null || previous > maxId) {
+                            maxId = previous;
+                        }
+                    }
+
+                    previous = 0L;
+                    for (int i = 0; i < blockSize; i++) {
+                        previous += VarIntUtils.readSignedVarLong(dis);
+                        builders[i].entryDate(previous);
+                    }
+
+                    final long[] lineageStartDates = readDeltaColumn(dis, blockSize);
+                    final long[] lineageStartIndices = readDeltaColumn(dis, blockSize);
+                    for (int i = 0; i < blockSize; i++) {
+                        builders[i].lineageStart(lineageStartDates[i], lineageStartIndices[i]);
+                    }
+
+                    final long[] lastQueueDates = readDeltaColumn(dis, blockSize);
+                    final long[] queueDateIndices = readDeltaColumn(dis, blockSize);
+                    for (int i = 0; i < blockSize; i++) {
+                        builders[i].lastQueued(lastQueueDates[i], queueDateIndices[i]);
+                    }
+
+                    for (int i = 0; i < blockSize; i++) {
+                        builders[i].size(VarIntUtils.readVarLong(dis));
+                    }
+
+                    claims = new ResourceClaim[blockSize];
+                    for (int i = 0; i < blockSize; i++) {
+                        final int claimType = dis.readUnsignedByte();
+                        if (claimType == NO_CLAIM) {
+                            continue;
+                        }
+
+                        final String container = claimDecoder.read(dis);
+                        final String section = claimDecoder.read(dis);
+                        final String claimId = claimDecoder.read(dis);
+                        final boolean lossTolerant = claimType == LOSS_TOLERANT_CLAIM;
+
+                        final String claimKey = container + "/" + section + "/" + claimId + "/" + lossTolerant;
+                        ResourceClaim resourceClaim = claimsByKey.get(claimKey);
+                        if (resourceClaim == null) {
+                            resourceClaim = claimManager.newResourceClaim(container, section, claimId, lossTolerant);
+                            claimsByKey.put(claimKey, resourceClaim);
+                        }
+
+                        final StandardContentClaim claim = new StandardContentClaim(resourceClaim, VarIntUtils.readVarLong(dis));
+                        claim.setLength(VarIntUtils.readSignedVarLong(dis));
+
+                        claims[i] = resourceClaim;
+                        builders[i].contentClaim(claim);
+                        builders[i].contentClaimOffset(VarIntUtils.readVarLong(dis));
+                    }
+
+                    final int[] attributeCounts = new int[blockSize];
+                    for (int i = 0; i < blockSize; i++) {
+                        attributeCounts[i] = VarIntUtils.readVarInt(dis);
+                    }
+
+                    for (int i = 0; i < blockSize; i++) {
+                        for (int j = 0; j < attributeCounts[i]; j++) {
+                            final String key = attributeDecoder.read(dis);
+                            final String value = attributeDecoder.read(dis);
+                            builders[i].addAttribute(key, value);
+                        }
+                    }
+                } catch (final EOFException eof) {
+                    final SwapSummary swapSummary = new StandardSwapSummary(queueSize, maxId, resourceClaims);
+                    final SwapContents partialContents = new StandardSwapContents(swapSummary, flowFiles);
+                    throw new IncompleteSwapFileException(location, partialContents);
+                }
+
+                for (int i = 0; i < builders.length; i++) {
+                    final ResourceClaim resourceClaim = claims[i];
+                    if (resourceClaim != null) {
+                        if (incrementContentClaims) {
+                            claimManager.incrementClaimantCount(resourceClaim);
+                        }
+                        resourceClaims.add(resourceClaim);
+                    }
+
+                    flowFiles.add(builders[i].build());
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+
+        final SwapSummary swapSummary = new StandardSwapSummary(queueSize, maxId, resourceClaims);
+        return new StandardSwapContents(swapSummary, flowFiles);
+    }
+
+    private static long[] readDeltaColumn(final DataInputStream in, final int count) throws IOException {
+        final long[] values = new long[count];
+        long previous = 0L;
+        for (int i = 0; i < count; i++) {
+            previous += VarIntUtils.readSignedVarLong(in);
+            values[i] = previous;
+        }
+        return values;
+    }
+
     private static String readString(final InputStream in) throws IOException {
         final Integer numBytes = readFieldLength(in);
         if (numBytes == null) {
@@ -111,6 +111,9 @@ import org.apache.nifi.controller.repository.FlowFileEventRepository;
 import org.apache.nifi.controller.repository.FlowFileRecord;
 import org.apache.nifi.controller.repository.FlowFileRepository;
 import org.apache.nifi.controller.repository.FlowFileSwapManager;
+import org.apache.nifi.controller.repository.OffHeapAttributeArena;
+import org.apache.nifi.controller.repository.AsyncProvenanceEventRepository;
+import org.apache.nifi.controller.repository.ProvenancePolicies;
 import org.apache.nifi.controller.repository.QueueProvider;
 import org.apache.nifi.controller.repository.RepositoryRecord;
 import org.apache.nifi.controller.repository.RepositoryStatusReport;
@@ -132,6 +135,7 @@ import org.apache.nifi.controller.scheduling.ProcessContextFactory;
 import org.apache.nifi.controller.scheduling.QuartzSchedulingAgent;
 import org.apache.nifi.controller.scheduling.StandardProcessScheduler;
 import org.apache.nifi.controller.scheduling.TimerDrivenSchedulingAgent;
+import org.apache.nifi.controller.scheduling.WorkStealingSchedulingAgent;
 import org.apache.nifi.controller.serialization.FlowSerializationException;
 import org.apache.nifi.controller.serialization.FlowSerializer;
 import org.apache.nifi.controller.serialization.FlowSynchronizationException;
@@ -176,6 +180,7 @@ import org.apache.nifi.logging.ReportingTaskLogObserver;
 import org.apache.nifi.nar.ExtensionManager;
 import org.apache.nifi.nar.NarCloseable;
 import org.apache.nifi.nar.NarThreadContextClassLoader;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.GhostProcessor;
 import org.apache.nifi.processor.Processor;
 import org.apache.nifi.processor.ProcessorInitializationContext;
@@ -185,6 +190,7 @@ import org.apache.nifi.processor.StandardProcessorInitializationContext;
 import org.apache.nifi.processor.StandardValidationContextFactory;
 import org.apache.nifi.provenance.ProvenanceRepository;
 import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventRepository;
 import org.apache.nifi.provenance.ProvenanceEventType;
 import org.apache.nifi.provenance.ProvenanceAuthorizableFactory;
 import org.apache.nifi.provenance.StandardProvenanceEventRecord;
@@ -268,6 +274,7 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
     private final FlowFileRepository flowFileRepository;
     private final FlowFileEventRepository flowFileEventRepository;
     private final ProvenanceRepository provenanceRepository;
+    private final AsyncProvenanceEventRepository asyncProvenanceRepository;
     private final BulletinRepository bulletinRepository;
     private final StandardProcessScheduler processScheduler;
     private final SnippetManager snippetManager;
@@ -323,6 +330,12 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
 
 
     private final ScheduledExecutorService clusterTaskExecutor = new FlowEngine(3, "Clustering Tasks", true);
+
+    // performs the swap I/O for all FlowFile Queues, so that it is not performed by the threads that add FlowFiles to, or pull them from, the queues
+    private final ScheduledExecutorService swapInExecutor;
+    private final ScheduledExecutorService swapOutExecutor;
+    // holds the attributes of FlowFiles transferred to queues off of the heap, or null if attributes are kept on the heap
+    private final OffHeapAttributeArena attributeArena;
     private final ResourceClaimManager resourceClaimManager = new StandardResourceClaimManager();
 
     // guarded by rwLock
@@ -436,6 +449,10 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
 
         timerDrivenEngineRef = new AtomicReference<>(new FlowEngine(maxTimerDrivenThreads.get(), "Timer-Driven Process"));
         eventDrivenEngineRef = new AtomicReference<>(new FlowEngine(maxEventDrivenThreads.get(), "Event-Driven Process"));
+        swapInExecutor = new FlowEngine(Math.max(1, properties.getSwapInThreads()), "Swap In", true);
+        swapOutExecutor = new FlowEngine(Math.max(1, properties.getSwapOutThreads()), "Swap Out", true);
+        attributeArena = properties.isQueueOffHeapAttributes() ? new OffHeapAttributeArena(OffHeapAttributeArena.DEFAULT_SLAB_SIZE,
+            DataUnit.parseDataSize(properties.getQueueOffHeapAttributesMaxSize(), DataUnit.B).longValue()) : null;
 
         final FlowFileRepository flowFileRepo = createFlowFileRepository(properties, resourceClaimManager);
         flowFileRepository = flowFileRepo;
@@ -451,6 +468,14 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
             throw new RuntimeException("Unable to create Provenance Repository", e);
         }
 
+        final String provenanceAsyncBufferSize = properties.getProvenanceAsyncBufferSize();
+        if (provenanceAsyncBufferSize == null) {
+            asyncProvenanceRepository = null;
+        } else {
+            asyncProvenanceRepository = new AsyncProvenanceEventRepository(provenanceRepository,
+                DataUnit.parseDataSize(provenanceAsyncBufferSize, DataUnit.B).longValue(), properties.getProvenanceAsyncWriterThreads());
+        }
+
         try {
             this.contentRepository = createContentRepository(properties);
         } catch (final Exception e) {
@@ -466,13 +491,27 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
         processScheduler = new StandardProcessScheduler(this, encryptor, stateManagerProvider);
         eventDrivenWorkerQueue = new EventDrivenWorkerQueue(false, false, processScheduler);
 
-        final ProcessContextFactory contextFactory = new ProcessContextFactory(contentRepository, flowFileRepository, flowFileEventRepository, counterRepositoryRef.get(), provenanceRepository);
+        final ProvenancePolicies provenancePolicies = ProvenancePolicies.fromProperties(properties);
+        // sessions hand their events off to the asynchronous repository, if configured, so that they do not wait for the Provenance Repository
+        final ProvenanceEventRepository sessionProvenanceRepository = asyncProvenanceRepository == null ? provenanceRepository : asyncProvenanceRepository;
+        final ProcessContextFactory contextFactory = new ProcessContextFactory(contentRepository, flowFileRepository, flowFileEventRepository, counterRepositoryRef.get(),
+            sessionProvenanceRepository, attributeArena, provenancePolicies);
         processScheduler.setSchedulingAgent(SchedulingStrategy.EVENT_DRIVEN, new EventDrivenSchedulingAgent(
             eventDrivenEngineRef.get(), this, stateManagerProvider, eventDrivenWorkerQueue, contextFactory, maxEventDrivenThreads.get(), encryptor));
 
         final QuartzSchedulingAgent quartzSchedulingAgent = new QuartzSchedulingAgent(this, timerDrivenEngineRef.get(), contextFactory, encryptor);
         final TimerDrivenSchedulingAgent timerDrivenAgent = new TimerDrivenSchedulingAgent(this, timerDrivenEngineRef.get(), contextFactory, encryptor);
-        processScheduler.setSchedulingAgent(SchedulingStrategy.TIMER_DRIVEN, timerDrivenAgent);
+        final String timerDrivenScheduler = properties.getTimerDrivenScheduler();
+        if (NiFiProperties.TIMER_DRIVEN_SCHEDULER_WORK_STEALING.equalsIgnoreCase(timerDrivenScheduler)) {
+            // components that run on the primary node only remain on the timer, as they are not signaled when the primary node changes
+            processScheduler.setSchedulingAgent(SchedulingStrategy.TIMER_DRIVEN, new WorkStealingSchedulingAgent(
+                this, timerDrivenEngineRef.get(), contextFactory, encryptor, maxTimerDrivenThreads.get()));
+        } else if (NiFiProperties.TIMER_DRIVEN_SCHEDULER_TIMER.equalsIgnoreCase(timerDrivenScheduler)) {
+            processScheduler.setSchedulingAgent(SchedulingStrategy.TIMER_DRIVEN, timerDrivenAgent);
+        } else {
+            throw new RuntimeException("Invalid value for " + NiFiProperties.TIMER_DRIVEN_SCHEDULER + " property: " + timerDrivenScheduler + "; must be either "
+                + NiFiProperties.TIMER_DRIVEN_SCHEDULER_TIMER + " or " + NiFiProperties.TIMER_DRIVEN_SCHEDULER_WORK_STEALING);
+        }
         processScheduler.setSchedulingAgent(SchedulingStrategy.PRIMARY_NODE_ONLY, timerDrivenAgent);
         processScheduler.setSchedulingAgent(SchedulingStrategy.CRON_DRIVEN, quartzSchedulingAgent);
         processScheduler.scheduleFrameworkTask(new ExpireFlowFiles(this, contextFactory), "Expire FlowFiles", 30L, 30L, TimeUnit.SECONDS);
@@ -557,6 +596,19 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
             zooKeeperStateServer = null;
         }
 
+        if (provenancePolicies != null && provenancePolicies.isAggregating()) {
+            // register the summaries of components that have not committed a session since their aggregation period elapsed
+            timerDrivenEngineRef.get().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    final List<ProvenanceEventRecord> summaries = provenancePolicies.drainExpiredSummaries();
+                    if (!summaries.isEmpty()) {
+                        provenanceRepository.registerEvents(summaries);
+                    }
+                }
+            }, 5L, 5L, TimeUnit.SECONDS);
+        }
+
         componentStatusRepository = createComponentStatusRepository();
         timerDrivenEngineRef.get().scheduleWithFixedDelay(new Runnable() {
             @Override
@@ -565,6 +617,16 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
             }
         }, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
 
+        // when debug logging is enabled, periodically log the latencies of the queues, so that the time spent on swap I/O can be seen
+        timerDrivenEngineRef.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (LOG.isDebugEnabled()) {
+                    logQueueLatencies();
+                }
+            }
+        }, 5L, 5L, TimeUnit.MINUTES);
+
         heartbeatBeanRef.set(new HeartbeatBean(rootGroup, false, new NodeConnectionStatus(nodeId, DisconnectionCode.NOT_YET_CONNECTED)));
 
         if (configuredForClustering) {
@@ -885,6 +947,8 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
                 .source(requireNonNull(source))
                 .destination(destination)
                 .swapManager(swapManager)
+                .swapInExecutor(swapInExecutor)
+                .swapOutExecutor(swapOutExecutor)
                 .eventReporter(eventReporter)
                 .resourceClaimManager(resourceClaimManager)
                 .flowFileRepository(flowFileRepository)
@@ -1265,6 +1329,8 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
             }
 
             clusterTaskExecutor.shutdownNow();
+            swapInExecutor.shutdown();
+            swapOutExecutor.shutdown();
 
             if (zooKeeperStateServer != null) {
                 zooKeeperStateServer.shutdown();
@@ -1294,6 +1360,10 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
             try {
                 this.timerDrivenEngineRef.get().awaitTermination(gracefulShutdownSeconds / 2, TimeUnit.SECONDS);
                 this.eventDrivenEngineRef.get().awaitTermination(gracefulShutdownSeconds / 2, TimeUnit.SECONDS);
+
+                // allow any swap files that are being written or read to finish before the FlowFile Repository is closed
+                swapOutExecutor.awaitTermination(gracefulShutdownSeconds / 2, TimeUnit.SECONDS);
+                swapInExecutor.awaitTermination(gracefulShutdownSeconds / 2, TimeUnit.SECONDS);
             } catch (final InterruptedException ie) {
                 LOG.info("Interrupted while waiting for controller termination.");
             }
@@ -1323,6 +1393,18 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
                 contentRepository.shutdown();
             }
 
+            if (asyncProvenanceRepository != null) {
+                try {
+                    // write any events that sessions have handed off before closing the Provenance Repository
+                    asyncProvenanceRepository.close();
+                } catch (final IOException ioe) {
+                    LOG.warn("There was a problem writing the remaining Provenance Events to the Provenance Repository: " + ioe.toString());
+                    if (LOG.isDebugEnabled()) {
+                        LOG.warn("", ioe);
+                    }
+                }
+            }
+
             if (provenanceRepository != null) {
                 try {
                     provenanceRepository.close();
@@ -1394,6 +1476,7 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
         writeLock.lock();
         try {
             setMaxThreadCount(maxThreadCount, this.timerDrivenEngineRef.get(), this.maxTimerDrivenThreads);
+            processScheduler.setMaxThreadCount(SchedulingStrategy.TIMER_DRIVEN, maxThreadCount);
         } finally {
             writeLock.unlock();
         }
@@ -3955,6 +4038,31 @@ public class FlowController implements EventAccess, ControllerServiceProvider, R
         return StatusHistoryUtil.createStatusHistoryDTO(componentStatusRepository.getRemoteProcessGroupStatusHistory(remoteGroupId, startTime, endTime, preferredDataPoints));
     }
 
+    /**
+     * Logs, at debug level, the latencies of each queue that has written or read swap files
+     */
+    private void logQueueLatencies() {
+        final ProcessGroup rootGroup = getGroup(getRootGroupId());
+        if (rootGroup == null) {
+            return;
+        }
+
+        for (final Connection connection : rootGroup.findAllConnections()) {
+            final FlowFileQueue queue = connection.getFlowFileQueue();
+            if (!(queue instanceof StandardFlowFileQueue)) {
+                continue;
+            }
+
+            final StandardFlowFileQueue standardQueue = (StandardFlowFileQueue) queue;
+            if (standardQueue.getSwapOutLatency().getCount() == 0L && standardQueue.getSwapInLatency().getCount() == 0L) {
+                continue;
+            }
+
+            LOG.debug("Latencies for {}: Put {}, Poll {}, Swap Out {}, Swap In {}", new Object[] {connection, standardQueue.getPutLatency(),
+                standardQueue.getPollLatency(), standardQueue.getSwapOutLatency(), standardQueue.getSwapInLatency()});
+        }
+    }
+
     @Override
     public Collection<FlowFileQueue> getAllQueues() {
         final Collection<Connection> connections = getGroup(getRootGroupId()).findAllConnections();
@@ -16,6 +16,7 @@
  */
 package org.apache.nifi.controller;
 
+import org.apache.nifi.connectable.Connectable;
 import org.apache.nifi.connectable.Connection;
 import org.apache.nifi.controller.queue.DropFlowFileState;
 import org.apache.nifi.controller.queue.DropFlowFileStatus;
@@ -51,6 +52,7 @@ import org.apache.nifi.provenance.ProvenanceEventType;
 import org.apache.nifi.reporting.Severity;
 import org.apache.nifi.scheduling.SchedulingStrategy;
 import org.apache.nifi.util.FormatUtils;
+import org.apache.nifi.util.LatencyHistogram;
 import org.apache.nifi.util.concurrency.TimedLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +60,7 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -68,8 +71,14 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -84,16 +93,32 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
     public static final int MAX_EXPIRED_RECORDS_PER_ITERATION = 100000;
     public static final int SWAP_RECORD_POLL_SIZE = 10000;
 
+    // The maximum number of swap files per queue that may be waiting to be written in the background. Once this many are
+    // waiting, a thread that needs to swap out more FlowFiles waits for the oldest to be written, so that FlowFiles waiting
+    // to be swapped out cannot exhaust the Java heap.
+    private static final int MAX_PENDING_SWAP_OUTS = 4;
+    private static final int INCOMING_PARTITION_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
     private static final Logger logger = LoggerFactory.getLogger(StandardFlowFileQueue.class);
 
-    private PriorityQueue<FlowFileRecord> activeQueue = null;
+    // a FifoFlowFileQueue if FIFO order is enabled and no prioritizers are configured, or a PriorityQueue otherwise
+    private Queue<FlowFileRecord> activeQueue = null;
+    private final boolean fifoWithoutPrioritizers;
+
+    // FlowFiles that have been added to the queue without obtaining the write lock. These are accounted for
+    // in the active queue size but must be drained into the activeQueue (via drainIncomingPartitions) before
+    // the activeQueue is inspected. Each thread appends to the partition chosen by its thread id so that
+    // concurrent producers do not contend with one another or with consumers; draining merges the partitions
+    // back into queue-date order.
+    private final ConcurrentLinkedQueue<FlowFileRecord>[] incomingPartitions;
 
     // guarded by lock
     private ArrayList<FlowFileRecord> swapQueue = null;
 
     private final AtomicReference<FlowFileQueueSize> size = new AtomicReference<>(new FlowFileQueueSize(0, 0L, 0, 0L, 0, 0, 0L));
 
-    private boolean swapMode = false;
+    // written only with the write lock held, but read without the lock by put/putAll
+    private volatile boolean swapMode = false;
 
     public static final int DEFAULT_BACKPRESSURE_COUNT = 10000;
     public static final String DEFAULT_BACKPRESSURE_SIZE = "1 GB";
@@ -103,11 +128,26 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
     private final EventReporter eventReporter;
     private final Connection connection;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final List<FlowFilePrioritizer> priorities;
     private final int swapThreshold;
     private final FlowFileSwapManager swapManager;
     private final List<String> swapLocations = new ArrayList<>();
+
+    // Swap I/O is performed by these executors, if provided, rather than by the threads that put FlowFiles onto, or poll them
+    // from, the queue. FlowFiles that are being swapped out are held in pendingSwapOuts, in the order in which they were swapped
+    // out, until they have been written. At most one swap file at a time is swapped in, starting when the active queue drops
+    // below the low watermark; its contents are added to the active queue once they have been read. All guarded by lock.
+    private final ExecutorService swapInExecutor;
+    private final ExecutorService swapOutExecutor;
+    private final ArrayDeque<PendingSwapOut> pendingSwapOuts = new ArrayDeque<>();
+    private String pendingSwapInLocation;
+    private Future<SwapContents> pendingSwapIn;
+
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+    private final LatencyHistogram swapOutLatency = new LatencyHistogram();
+    private final LatencyHistogram swapInLatency = new LatencyHistogram();
     private final TimedLock readLock;
     private final TimedLock writeLock;
     private final String identifier;
@@ -120,10 +160,53 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
     // SCHEDULER CANNOT BE NOTIFIED OF EVENTS WITH THE WRITE LOCK HELD! DOING SO WILL RESULT IN A DEADLOCK!
     private final ProcessScheduler scheduler;
+    // whether Timer-Driven components are run by an agent that is signaled by events, as Event-Driven components are
+    private final boolean timerDrivenEvents;
 
     public StandardFlowFileQueue(final String identifier, final Connection connection, final FlowFileRepository flowFileRepo, final ProvenanceEventRepository provRepo,
         final ResourceClaimManager resourceClaimManager, final ProcessScheduler scheduler, final FlowFileSwapManager swapManager, final EventReporter eventReporter, final int swapThreshold) {
-        activeQueue = new PriorityQueue<>(20, new Prioritizer(new ArrayList<FlowFilePrioritizer>()));
+        this(identifier, connection, flowFileRepo, provRepo, resourceClaimManager, scheduler, swapManager, eventReporter, swapThreshold, null, null);
+    }
+
+    /**
+     * Creates a queue that performs swap I/O using the given executors. If either executor is <code>null</code>, the corresponding
+     * swap I/O is performed by the thread that causes the FlowFiles to be swapped, while holding the queue's lock.
+     */
+    public StandardFlowFileQueue(final String identifier, final Connection connection, final FlowFileRepository flowFileRepo, final ProvenanceEventRepository provRepo,
+        final ResourceClaimManager resourceClaimManager, final ProcessScheduler scheduler, final FlowFileSwapManager swapManager, final EventReporter eventReporter, final int swapThreshold,
+        final ExecutorService swapInExecutor, final ExecutorService swapOutExecutor) {
+        this(identifier, connection, flowFileRepo, provRepo, resourceClaimManager, scheduler, swapManager, eventReporter, swapThreshold, swapInExecutor, swapOutExecutor, false);
+    }
+
+    /**
+     * Creates a queue that performs swap I/O using the given executors and that orders FlowFiles as described below. Timer-Driven components
+     * are not notified when FlowFiles are added to or acknowledged from the queue.
+     */
+    public StandardFlowFileQueue(final String identifier, final Connection connection, final FlowFileRepository flowFileRepo, final ProvenanceEventRepository provRepo,
+        final ResourceClaimManager resourceClaimManager, final ProcessScheduler scheduler, final FlowFileSwapManager swapManager, final EventReporter eventReporter, final int swapThreshold,
+        final ExecutorService swapInExecutor, final ExecutorService swapOutExecutor, final boolean fifoWithoutPrioritizers) {
+        this(identifier, connection, flowFileRepo, provRepo, resourceClaimManager, scheduler, swapManager, eventReporter, swapThreshold, swapInExecutor, swapOutExecutor,
+            fifoWithoutPrioritizers, false);
+    }
+
+    /**
+     * Creates a queue that performs swap I/O using the given executors, as above. If <code>fifoWithoutPrioritizers</code> is <code>true</code>,
+     * FlowFiles are pulled from the queue in the order in which they were added to it whenever no prioritizers are configured. Otherwise, FlowFiles
+     * that are not ordered by the prioritizers are ordered by their content claims and then by their identifiers. Event-Driven components are
+     * notified when FlowFiles are added to the queue or acknowledged; if <code>timerDrivenEvents</code> is <code>true</code>, because Timer-Driven
+     * components are run by an agent that is signaled by these events, Timer-Driven components are notified as well.
+     */
+    @SuppressWarnings("unchecked")
+    public StandardFlowFileQueue(final String identifier, final Connection connection, final FlowFileRepository flowFileRepo, final ProvenanceEventRepository provRepo,
+        final ResourceClaimManager resourceClaimManager, final ProcessScheduler scheduler, final FlowFileSwapManager swapManager, final EventReporter eventReporter, final int swapThreshold,
+        final ExecutorService swapInExecutor, final ExecutorService swapOutExecutor, final boolean fifoWithoutPrioritizers, final boolean timerDrivenEvents) {
+        this.fifoWithoutPrioritizers = fifoWithoutPrioritizers;
+        this.timerDrivenEvents = timerDrivenEvents;
+        activeQueue = createActiveQueue(Collections.<FlowFilePrioritizer> emptyList(), 20);
+        incomingPartitions = new ConcurrentLinkedQueue[INCOMING_PARTITION_COUNT];
+        for (int i = 0; i < incomingPartitions.length; i++) {
+            incomingPartitions[i] = new ConcurrentLinkedQueue<>();
+        }
         priorities = new ArrayList<>();
         swapQueue = new ArrayList<>();
         this.eventReporter = eventReporter;
@@ -136,6 +219,8 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         this.swapThreshold = swapThreshold;
         this.scheduler = scheduler;
         this.connection = connection;
+        this.swapInExecutor = swapInExecutor;
+        this.swapOutExecutor = swapOutExecutor;
 
         readLock = new TimedLock(this.lock.readLock(), identifier + " Read Lock", 100);
         writeLock = new TimedLock(this.lock.writeLock(), identifier + " Write Lock", 100);
@@ -155,8 +240,16 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
     public void setPriorities(final List<FlowFilePrioritizer> newPriorities) {
         writeLock.lock();
         try {
-            final PriorityQueue<FlowFileRecord> newQueue = new PriorityQueue<>(Math.max(20, activeQueue.size()), new Prioritizer(newPriorities));
-            newQueue.addAll(activeQueue);
+            drainIncomingPartitions();
+            final Queue<FlowFileRecord> newQueue = createActiveQueue(newPriorities, Math.max(20, activeQueue.size()));
+            if (newQueue instanceof FifoFlowFileQueue && !(activeQueue instanceof FifoFlowFileQueue)) {
+                // preserve the order in which the FlowFiles would have been pulled from the queue
+                final List<FlowFileRecord> ordered = new ArrayList<>(activeQueue);
+                Collections.sort(ordered, new Prioritizer(priorities));
+                newQueue.addAll(ordered);
+            } else {
+                newQueue.addAll(activeQueue);
+            }
             activeQueue = newQueue;
             priorities.clear();
             priorities.addAll(newPriorities);
@@ -165,6 +258,33 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         }
     }
 
+    /**
+     * Creates the Queue that holds the active FlowFiles. If FIFO order is enabled and there are no prioritizers, the
+     * FlowFiles are processed in the order in which they were enqueued, so we use a FIFO queue that avoids the cost of
+     * comparing FlowFiles in order to add them to, or remove them from, a heap.
+     */
+    private Queue<FlowFileRecord> createActiveQueue(final List<FlowFilePrioritizer> prioritizers, final int initialCapacity) {
+        if (fifoWithoutPrioritizers && prioritizers.isEmpty()) {
+            return new FifoFlowFileQueue(initialCapacity);
+        }
+
+        return new PriorityQueue<>(initialCapacity, new Prioritizer(prioritizers));
+    }
+
+    /**
+     * Returns FlowFiles that were pulled from the active queue but not processed, so that they will be the
+     * next FlowFiles pulled from the queue.
+     *
+     * This method MUST be called with the writeLock held.
+     */
+    private void requeue(final List<FlowFileRecord> flowFiles) {
+        if (activeQueue instanceof FifoFlowFileQueue) {
+            ((FifoFlowFileQueue) activeQueue).requeue(flowFiles);
+        } else {
+            activeQueue.addAll(flowFiles);
+        }
+    }
+
     @Override
     public void setBackPressureObjectThreshold(final long threshold) {
         boolean updated = false;
@@ -222,15 +342,41 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         return size.get().activeQueueSize();
     }
 
+    /**
+     * @return the latencies of adding FlowFiles to the queue when the queue's lock must be obtained, including any time spent swapping FlowFiles out
+     */
+    public LatencyHistogram getPutLatency() {
+        return putLatency;
+    }
+
+    /**
+     * @return the latencies of pulling FlowFiles from the queue, including any time spent swapping FlowFiles in
+     */
+    public LatencyHistogram getPollLatency() {
+        return pollLatency;
+    }
+
+    /**
+     * @return the latencies of writing swap files, whether performed in the background or not
+     */
+    public LatencyHistogram getSwapOutLatency() {
+        return swapOutLatency;
+    }
+
+    /**
+     * @return the latencies of reading swap files, whether performed in the background or not
+     */
+    public LatencyHistogram getSwapInLatency() {
+        return swapInLatency;
+    }
+
     @Override
     public void acknowledge(final FlowFileRecord flowFile) {
         incrementUnacknowledgedQueueSize(-1, -flowFile.getSize());
 
-        if (connection.getSource().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
-            // queue was full but no longer is. Notify that the source may now be available to run,
-            // because of back pressure caused by this queue.
-            scheduler.registerEvent(connection.getSource());
-        }
+        // queue was full but no longer is. Notify that the source may now be available to run,
+        // because of back pressure caused by this queue.
+        registerEvent(connection.getSource());
     }
 
     @Override
@@ -242,11 +388,9 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
         incrementUnacknowledgedQueueSize(-flowFiles.size(), -totalSize);
 
-        if (connection.getSource().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
-            // it's possible that queue was full but no longer is. Notify that the source may now be available to run,
-            // because of back pressure caused by this queue.
-            scheduler.registerEvent(connection.getSource());
-        }
+        // it's possible that queue was full but no longer is. Notify that the source may now be available to run,
+        // because of back pressure caused by this queue.
+        registerEvent(connection.getSource());
     }
 
     @Override
@@ -271,10 +415,37 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
     }
 
 
+    private void registerEvent(final Connectable connectable) {
+        if (scheduler == null) {
+            return;
+        }
+
+        // only notify components whose scheduling agent acts upon the event, so that the timer agent adds no work to put or acknowledge
+        final SchedulingStrategy schedulingStrategy = connectable.getSchedulingStrategy();
+        if (schedulingStrategy == SchedulingStrategy.EVENT_DRIVEN || (timerDrivenEvents && schedulingStrategy == SchedulingStrategy.TIMER_DRIVEN)) {
+            scheduler.registerEvent(connectable);
+        }
+    }
+
     @Override
     public void put(final FlowFileRecord file) {
+        final long start = System.nanoTime();
+        if (!swapMode && tryIncrementActiveQueueSize(1, file.getSize())) {
+            getIncomingPartition().offer(file);
+            putLatency.record(System.nanoTime() - start);
+        } else {
+            putWithLock(file);
+        }
+
+        // notify the destination that it has work to do; the scheduling agent of the destination determines whether it is run as a result
+        registerEvent(connection.getDestination());
+    }
+
+    private void putWithLock(final FlowFileRecord file) {
+        final long start = System.nanoTime();
         writeLock.lock();
         try {
+            drainIncomingPartitions();
             if (swapMode || activeQueue.size() >= swapThreshold) {
                 swapQueue.add(file);
                 incrementSwapQueueSize(1, file.getSize(), 0);
@@ -286,10 +457,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             }
         } finally {
             writeLock.unlock("put(FlowFileRecord)");
-        }
-
-        if (connection.getDestination().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
-            scheduler.registerEvent(connection.getDestination());
+            putLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -301,8 +469,23 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             bytes += flowFile.getSize();
         }
 
+        final long start = System.nanoTime();
+        if (!swapMode && tryIncrementActiveQueueSize(numFiles, bytes)) {
+            getIncomingPartition().addAll(files);
+            putLatency.record(System.nanoTime() - start);
+        } else {
+            putAllWithLock(files, numFiles, bytes);
+        }
+
+        // notify the destination that it has work to do; the scheduling agent of the destination determines whether it is run as a result
+        registerEvent(connection.getDestination());
+    }
+
+    private void putAllWithLock(final Collection<FlowFileRecord> files, final int numFiles, final long bytes) {
+        final long start = System.nanoTime();
         writeLock.lock();
         try {
+            drainIncomingPartitions();
             if (swapMode || activeQueue.size() >= swapThreshold - numFiles) {
                 swapQueue.addAll(files);
                 incrementSwapQueueSize(numFiles, bytes, 0);
@@ -314,13 +497,111 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             }
         } finally {
             writeLock.unlock("putAll");
+            putLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private Queue<FlowFileRecord> getIncomingPartition() {
+        return incomingPartitions[(int) (Thread.currentThread().getId() % incomingPartitions.length)];
+    }
+
+    /**
+     * Moves any FlowFiles that were added to the incoming partitions without the lock into the active queue.
+     * The sizes of these FlowFiles have already been accounted for, so the queue size is not updated.
+     *
+     * If there are no prioritizers, the activeQueue hands out FlowFiles in the order in which they are added to it,
+     * so the FlowFiles from different partitions are merged by the date (and index) at which they were queued. Otherwise,
+     * the PriorityQueue orders them and the order in which they are added does not matter.
+     *
+     * This method MUST be called with the writeLock held.
+     */
+    private void drainIncomingPartitions() {
+        if (!(activeQueue instanceof FifoFlowFileQueue)) {
+            for (final Queue<FlowFileRecord> partition : incomingPartitions) {
+                FlowFileRecord flowFile;
+                while ((flowFile = partition.poll()) != null) {
+                    activeQueue.add(flowFile);
+                }
+            }
+            return;
+        }
+
+        // each partition holds its FlowFiles in the order in which they were put, so the partitions are merged, not sorted
+        List<DrainedPartition> drained = null;
+        for (final Queue<FlowFileRecord> partition : incomingPartitions) {
+            FlowFileRecord flowFile = partition.poll();
+            if (flowFile == null) {
+                continue;
+            }
+
+            final List<FlowFileRecord> flowFiles = new ArrayList<>();
+            do {
+                flowFiles.add(flowFile);
+            } while ((flowFile = partition.poll()) != null);
+
+            if (drained == null) {
+                drained = new ArrayList<>();
+            }
+            drained.add(new DrainedPartition(drained.size(), flowFiles));
+        }
+
+        if (drained == null) {
+            return;
+        }
+        if (drained.size() == 1) {
+            activeQueue.addAll(drained.get(0).flowFiles);
+            return;
+        }
+
+        final PriorityQueue<DrainedPartition> heads = new PriorityQueue<>(drained);
+        while (!heads.isEmpty()) {
+            final DrainedPartition partition = heads.poll();
+            activeQueue.add(partition.flowFiles.get(partition.position++));
+            if (partition.position < partition.flowFiles.size()) {
+                heads.add(partition);
+            }
+        }
+    }
+
+    /**
+     * The FlowFiles drained from one incoming partition, ordered by the FlowFile that is next to be merged into the
+     * active queue and then by partition, so that FlowFiles queued at the same time and index keep the partition order.
+     */
+    private static final class DrainedPartition implements Comparable<DrainedPartition> {
+        private final int index;
+        private final List<FlowFileRecord> flowFiles;
+        private int position = 0;
+
+        private DrainedPartition(final int index, final List<FlowFileRecord> flowFiles) {
+            this.index = index;
+            this.flowFiles = flowFiles;
         }
 
-        if (connection.getDestination().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
-            scheduler.registerEvent(connection.getDestination());
+        @Override
+        public int compareTo(final DrainedPartition other) {
+            final int comparison = QUEUE_DATE_ORDER.compare(flowFiles.get(position), other.flowFiles.get(other.position));
+            return comparison != 0 ? comparison : Integer.compare(index, other.index);
         }
     }
 
+    /**
+     * Orders FlowFiles by the date at which they were last queued, and then by their queue date index, as the
+     * FirstInFirstOutPrioritizer does. A FlowFile without a queue date is ordered after those that have one.
+     */
+    private static final Comparator<FlowFileRecord> QUEUE_DATE_ORDER = new Comparator<FlowFileRecord>() {
+        @Override
+        public int compare(final FlowFileRecord f1, final FlowFileRecord f2) {
+            final Long date1 = f1.getLastQueueDate();
+            final Long date2 = f2.getLastQueueDate();
+            final int dateComparison = Long.compare(date1 == null ? Long.MAX_VALUE : date1, date2 == null ? Long.MAX_VALUE : date2);
+            if (dateComparison != 0) {
+                return dateComparison;
+            }
+
+            return Long.compare(f1.getQueueDateIndex(), f2.getQueueDateIndex());
+        }
+    };
+
 
     private boolean isLaterThan(final Long maxAge) {
         if (maxAge == null) {
@@ -348,12 +629,14 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
         // First check if we have any records Pre-Fetched.
         final long expirationMillis = expirationPeriod.get().getMillis();
+        final long start = System.nanoTime();
         writeLock.lock();
         try {
             flowFile = doPoll(expiredRecords, expirationMillis);
             return flowFile;
         } finally {
             writeLock.unlock("poll(Set)");
+            pollLatency.record(System.nanoTime() - start);
 
             if (flowFile != null) {
                 incrementUnacknowledgedQueueSize(1, flowFile.getSize());
@@ -365,6 +648,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         FlowFileRecord flowFile;
         boolean isExpired;
 
+        drainIncomingPartitions();
         migrateSwapToActive();
 
         long expiredBytes = 0L;
@@ -403,16 +687,19 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         final List<FlowFileRecord> records = new ArrayList<>(Math.min(1024, maxResults));
 
         // First check if we have any records Pre-Fetched.
+        final long start = System.nanoTime();
         writeLock.lock();
         try {
             doPoll(records, maxResults, expiredRecords);
         } finally {
             writeLock.unlock("poll(int, Set)");
+            pollLatency.record(System.nanoTime() - start);
         }
         return records;
     }
 
     private void doPoll(final List<FlowFileRecord> records, int maxResults, final Set<FlowFileRecord> expiredRecords) {
+        drainIncomingPartitions();
         migrateSwapToActive();
 
         final long bytesDrained = drainQueue(activeQueue, records, maxResults, expiredRecords);
@@ -447,7 +734,14 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         // Swap Queue to the Active Queue. However, we don't do this if there are FlowFiles already swapped out
         // to disk, because we want them to be swapped back in in the same order that they were swapped out.
 
+        completePendingSwapOuts(false);
+
         if (activeQueue.size() > swapThreshold - SWAP_RECORD_POLL_SIZE) {
+            // As the active queue drains toward the point at which the next swap file is needed (the low watermark), start reading
+            // that swap file in the background so that swapping it in does not require reading it while holding the lock.
+            if (activeQueue.size() <= swapThreshold - SWAP_RECORD_POLL_SIZE / 2) {
+                startSwapIn();
+            }
             return;
         }
 
@@ -456,53 +750,33 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         // swap queue to the active queue, and we never run out of FlowFiles in the active queue (because destination cannot
         // keep up with queue), we will end up always processing the new FlowFiles first instead of the FlowFiles that arrived
         // first.
-        if (!swapLocations.isEmpty()) {
-            final String swapLocation = swapLocations.remove(0);
-            boolean partialContents = false;
-            SwapContents swapContents = null;
-            try {
-                swapContents = swapManager.swapIn(swapLocation, this);
-            } catch (final IncompleteSwapFileException isfe) {
-                logger.error("Failed to swap in all FlowFiles from Swap File {}; Swap File ended prematurely. The records that were present will still be swapped in", swapLocation);
-                logger.error("", isfe);
-                swapContents = isfe.getPartialContents();
-                partialContents = true;
-            } catch (final FileNotFoundException fnfe) {
-                logger.error("Failed to swap in FlowFiles from Swap File {} because the Swap File can no longer be found", swapLocation);
-                if (eventReporter != null) {
-                    eventReporter.reportEvent(Severity.ERROR, "Swap File", "Failed to swap in FlowFiles from Swap File " + swapLocation + " because the Swap File can no longer be found");
-                }
-                return;
-            } catch (final IOException ioe) {
-                logger.error("Failed to swap in FlowFiles from Swap File {}; Swap File appears to be corrupt!", swapLocation);
-                logger.error("", ioe);
-                if (eventReporter != null) {
-                    eventReporter.reportEvent(Severity.ERROR, "Swap File", "Failed to swap in FlowFiles from Swap File " +
-                        swapLocation + "; Swap File appears to be corrupt! Some FlowFiles in the queue may not be accessible. See logs for more information.");
-                }
-                return;
+        startSwapIn();
+        if (pendingSwapIn != null) {
+            // If the swap file is still being read, there is no need to wait for it unless there is nothing else to pull.
+            if (pendingSwapIn.isDone() || activeQueue.isEmpty()) {
+                final String swapLocation = pendingSwapInLocation;
+                final Future<SwapContents> future = pendingSwapIn;
+                pendingSwapInLocation = null;
+                pendingSwapIn = null;
+                swapIn(swapLocation, future);
             }
+            return;
+        }
 
-            final QueueSize swapSize = swapContents.getSummary().getQueueSize();
-            final long contentSize = swapSize.getByteCount();
-            final int flowFileCount = swapSize.getObjectCount();
-            incrementSwapQueueSize(-flowFileCount, -contentSize, -1);
+        if (!swapLocations.isEmpty()) {
+            swapIn(swapLocations.remove(0), null);
+            return;
+        }
 
-            if (partialContents) {
-                // if we have partial results, we need to calculate the content size of the flowfiles
-                // actually swapped back in.
-                long contentSizeSwappedIn = 0L;
-                for (final FlowFileRecord swappedIn : swapContents.getFlowFiles()) {
-                    contentSizeSwappedIn += swappedIn.getSize();
+        if (!pendingSwapOuts.isEmpty()) {
+            // The FlowFiles that were swapped out first are still being written. If there is nothing else to pull, wait for
+            // them to be written so that they can be swapped back in.
+            if (activeQueue.isEmpty()) {
+                completePendingSwapOuts(true);
+                if (!swapLocations.isEmpty()) {
+                    swapIn(swapLocations.remove(0), null);
                 }
-
-                incrementActiveQueueSize(swapContents.getFlowFiles().size(), contentSizeSwappedIn);
-            } else {
-                // we swapped in the whole swap file. We can just use the info that we got from the summary.
-                incrementActiveQueueSize(flowFileCount, contentSize);
             }
-
-            activeQueue.addAll(swapContents.getFlowFiles());
             return;
         }
 
@@ -539,6 +813,242 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         }
     }
 
+    /**
+     * Begins reading the next swap file in the background, if there is a swap file to read and a swap-in executor. If there is
+     * no swap-in executor, the Swap Manager is given a hint that the swap file will be needed soon.
+     *
+     * This method MUST be called with the writeLock held.
+     */
+    private void startSwapIn() {
+        if (pendingSwapIn != null || swapLocations.isEmpty()) {
+            return;
+        }
+
+        if (swapInExecutor == null) {
+            swapManager.prefetch(swapLocations.get(0), this);
+            return;
+        }
+
+        final String swapLocation = swapLocations.get(0);
+        final Future<SwapContents> future;
+        try {
+            future = swapInExecutor.submit(new Callable<SwapContents>() {
+                @Override
+                public SwapContents call() throws IOException {
+                    final long start = System.nanoTime();
+                    try {
+                        return swapManager.swapIn(swapLocation, StandardFlowFileQueue.this);
+                    } finally {
+                        swapInLatency.record(System.nanoTime() - start);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException ree) {
+            // the executor has been shut down, so the swap file will be swapped in synchronously when it is needed.
+            return;
+        }
+
+        swapLocations.remove(0);
+        pendingSwapInLocation = swapLocation;
+        pendingSwapIn = future;
+    }
+
+    /**
+     * Swaps in the FlowFiles from the given swap location and adds them to the active queue. If the given Future is
+     * <code>null</code>, the swap file is read by this thread; otherwise, the FlowFiles are obtained from the Future,
+     * waiting for it to complete if necessary.
+     *
+     * This method MUST be called with the writeLock held.
+     */
+    private void swapIn(final String swapLocation, final Future<SwapContents> future) {
+        boolean partialContents = false;
+        SwapContents swapContents = null;
+        try {
+            if (future == null) {
+                final long start = System.nanoTime();
+                try {
+                    swapContents = swapManager.swapIn(swapLocation, this);
+                } finally {
+                    swapInLatency.record(System.nanoTime() - start);
+                }
+            } else {
+                swapContents = getUninterruptibly(future);
+            }
+        } catch (final IncompleteSwapFileException isfe) {
+            logger.error("Failed to swap in all FlowFiles from Swap File {}; Swap File ended prematurely. The records that were present will still be swapped in", swapLocation);
+            logger.error("", isfe);
+            swapContents = isfe.getPartialContents();
+            partialContents = true;
+        } catch (final FileNotFoundException fnfe) {
+            logger.error("Failed to swap in FlowFiles from Swap File {} because the Swap File can no longer be found", swapLocation);
+            if (eventReporter != null) {
+                eventReporter.reportEvent(Severity.ERROR, "Swap File", "Failed to swap in FlowFiles from Swap File " + swapLocation + " because the Swap File can no longer be found");
+            }
+            return;
+        } catch (final IOException ioe) {
+            logger.error("Failed to swap in FlowFiles from Swap File {}; Swap File appears to be corrupt!", swapLocation);
+            logger.error("", ioe);
+            if (eventReporter != null) {
+                eventReporter.reportEvent(Severity.ERROR, "Swap File", "Failed to swap in FlowFiles from Swap File " +
+                    swapLocation + "; Swap File appears to be corrupt! Some FlowFiles in the queue may not be accessible. See logs for more information.");
+            }
+            return;
+        }
+
+        final QueueSize swapSize = swapContents.getSummary().getQueueSize();
+        final long contentSize = swapSize.getByteCount();
+        final int flowFileCount = swapSize.getObjectCount();
+        incrementSwapQueueSize(-flowFileCount, -contentSize, -1);
+
+        if (partialContents) {
+            // if we have partial results, we need to calculate the content size of the flowfiles
+            // actually swapped back in.
+            long contentSizeSwappedIn = 0L;
+            for (final FlowFileRecord swappedIn : swapContents.getFlowFiles()) {
+                contentSizeSwappedIn += swappedIn.getSize();
+            }
+
+            incrementActiveQueueSize(swapContents.getFlowFiles().size(), contentSizeSwappedIn);
+        } else {
+            // we swapped in the whole swap file. We can just use the info that we got from the summary.
+            incrementActiveQueueSize(flowFileCount, contentSize);
+        }
+
+        activeQueue.addAll(swapContents.getFlowFiles());
+    }
+
+    /**
+     * Waits for the given Future to complete, unwrapping any IOException that it failed with. If this thread is interrupted
+     * while waiting, it continues to wait, because the FlowFiles have already been removed from the swap file, and then
+     * restores the interrupt status.
+     */
+    private static <T> T getUninterruptibly(final Future<T> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (final InterruptedException ie) {
+                    interrupted = true;
+                } catch (final ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves the swap files that have been written in the background onto the list of swap locations, in the order in which
+     * they were swapped out. If a swap file could not be written, its FlowFiles are returned to the swap queue.
+     *
+     * This method MUST be called with the writeLock held.
+     *
+     * @param wait if <code>true</code>, waits for all pending swap files to be written; otherwise, stops at the first swap file
+     *            that has not yet been written
+     */
+    private void completePendingSwapOuts(final boolean wait) {
+        PendingSwapOut pending;
+        while ((pending = pendingSwapOuts.peek()) != null) {
+            if (!wait && !pending.future.isDone()) {
+                return;
+            }
+
+            pendingSwapOuts.poll();
+            try {
+                swapLocations.add(getUninterruptibly(pending.future));
+            } catch (final IOException | RuntimeException e) {
+                // the FlowFiles are still accounted for as swapped out, but no longer as a swap file.
+                swapQueue.addAll(0, pending.flowFiles);
+                incrementSwapQueueSize(0, 0L, -1);
+                reportSwapOutFailure(e);
+            }
+        }
+    }
+
+    private void reportSwapOutFailure(final Exception e) {
+        logger.error("FlowFile Queue with identifier {} has {} FlowFiles queued up. Attempted to spill FlowFile information over to disk in order to avoid exhausting "
+            + "the Java heap space but failed to write information to disk due to {}", getIdentifier(), getQueueSize().getObjectCount(), e.toString());
+        logger.error("", e);
+        if (eventReporter != null) {
+            eventReporter.reportEvent(Severity.ERROR, "Failed to Overflow to Disk", "Flowfile Queue with identifier " + getIdentifier() + " has " + getQueueSize().getObjectCount() +
+                " queued up. Attempted to spill FlowFile information over to disk in order to avoid exhausting the Java heap space but failed to write information to disk. "
+                + "See logs for more information.");
+        }
+    }
+
+    /**
+     * Waits for any swap I/O that is being performed in the background to complete, so that all of the FlowFiles in the queue
+     * are either in memory or in one of the swap files in swapLocations.
+     *
+     * This method MUST be called with the writeLock held.
+     */
+    private void completePendingSwaps() {
+        if (pendingSwapIn != null) {
+            final String swapLocation = pendingSwapInLocation;
+            final Future<SwapContents> future = pendingSwapIn;
+            pendingSwapInLocation = null;
+            pendingSwapIn = null;
+            swapIn(swapLocation, future);
+        }
+
+        completePendingSwapOuts(true);
+    }
+
+    /**
+     * Writes the given FlowFiles to a swap file in the background. If the maximum number of swap files are already waiting to be
+     * written, waits for the oldest of them to be written first.
+     *
+     * This method MUST be called with the writeLock held.
+     *
+     * @return <code>true</code> if the FlowFiles will be written in the background, <code>false</code> if the swap-out executor
+     *         will not accept the task
+     */
+    private boolean submitSwapOut(final List<FlowFileRecord> toSwap) {
+        while (pendingSwapOuts.size() >= MAX_PENDING_SWAP_OUTS) {
+            final PendingSwapOut oldest = pendingSwapOuts.peek();
+            try {
+                getUninterruptibly(oldest.future);
+            } catch (final IOException | RuntimeException e) {
+                // handled by completePendingSwapOuts
+            }
+            completePendingSwapOuts(false);
+        }
+
+        final Future<String> future;
+        try {
+            future = swapOutExecutor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    final long start = System.nanoTime();
+                    try {
+                        return swapManager.swapOut(toSwap, StandardFlowFileQueue.this);
+                    } finally {
+                        swapOutLatency.record(System.nanoTime() - start);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException ree) {
+            return false;
+        }
+
+        pendingSwapOuts.add(new PendingSwapOut(toSwap, future));
+        return true;
+    }
+
     /**
      * This method MUST be called with the write lock held
      */
@@ -555,11 +1065,33 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             originalSwapQueueBytes += flowFile.getSize();
         }
 
-        // Create a new Priority queue with the prioritizers that are set, but reverse the
-        // prioritizers because we want to pull the lowest-priority FlowFiles to swap out
-        final PriorityQueue<FlowFileRecord> tempQueue = new PriorityQueue<>(activeQueue.size() + swapQueue.size(), Collections.reverseOrder(new Prioritizer(priorities)));
-        tempQueue.addAll(activeQueue);
-        tempQueue.addAll(swapQueue);
+        // FlowFiles may be added to the incoming partitions concurrently, so we must update the active queue size
+        // based on the difference that we make to the active queue rather than setting it to an absolute value.
+        final int originalActiveQueueCount = activeQueue.size();
+        long originalActiveQueueBytes = 0L;
+        for (final FlowFileRecord flowFile : activeQueue) {
+            originalActiveQueueBytes += flowFile.getSize();
+        }
+
+        // Create a temporary queue that returns the lowest-priority FlowFiles first, because those are the FlowFiles
+        // that we want to swap out. If there are no prioritizers, the FlowFiles in the active queue followed by those in
+        // the swap queue are already in priority order, so we simply reverse them instead of sorting them.
+        final boolean fifo = activeQueue instanceof FifoFlowFileQueue;
+        final Queue<FlowFileRecord> tempQueue;
+        if (fifo) {
+            final ArrayDeque<FlowFileRecord> reversed = new ArrayDeque<>(activeQueue.size() + swapQueue.size());
+            for (final FlowFileRecord flowFile : activeQueue) {
+                reversed.addFirst(flowFile);
+            }
+            for (final FlowFileRecord flowFile : swapQueue) {
+                reversed.addFirst(flowFile);
+            }
+            tempQueue = reversed;
+        } else {
+            tempQueue = new PriorityQueue<>(activeQueue.size() + swapQueue.size(), Collections.reverseOrder(new Prioritizer(priorities)));
+            tempQueue.addAll(activeQueue);
+            tempQueue.addAll(swapQueue);
+        }
 
         long bytesSwappedOut = 0L;
         int flowFilesSwappedOut = 0;
@@ -576,10 +1108,28 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
             try {
                 Collections.reverse(toSwap); // currently ordered in reverse priority order based on the ordering of the temp queue.
-                final String swapLocation = swapManager.swapOut(toSwap, this);
-                swapLocations.add(swapLocation);
+
+                if (swapOutExecutor == null || !submitSwapOut(toSwap)) {
+                    // Swap files that are written synchronously must not be ordered ahead of those still being written in the background.
+                    completePendingSwapOuts(true);
+
+                    final long start = System.nanoTime();
+                    try {
+                        final String swapLocation = swapManager.swapOut(toSwap, this);
+                        swapLocations.add(swapLocation);
+                    } finally {
+                        swapOutLatency.record(System.nanoTime() - start);
+                    }
+                }
             } catch (final IOException ioe) {
-                tempQueue.addAll(toSwap); // if we failed, we must add the FlowFiles back to the queue.
+                // if we failed, we must add the FlowFiles back to the queue.
+                if (fifo) {
+                    for (final FlowFileRecord flowFile : toSwap) {
+                        ((ArrayDeque<FlowFileRecord>) tempQueue).addFirst(flowFile);
+                    }
+                } else {
+                    tempQueue.addAll(toSwap);
+                }
                 logger.error("FlowFile Queue with identifier {} has {} FlowFiles queued up. Attempted to spill FlowFile information over to disk in order to avoid exhausting "
                     + "the Java heap space but failed to write information to disk due to {}", getIdentifier(), getQueueSize().getObjectCount(), ioe.toString());
                 logger.error("", ioe);
@@ -609,7 +1159,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         activeQueue.clear();
         FlowFileRecord toRequeue;
         long activeQueueBytes = 0L;
-        while ((toRequeue = tempQueue.poll()) != null) {
+        while ((toRequeue = fifo ? ((ArrayDeque<FlowFileRecord>) tempQueue).pollLast() : tempQueue.poll()) != null) {
             activeQueue.offer(toRequeue);
             activeQueueBytes += toRequeue.getSize();
         }
@@ -621,7 +1171,9 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             final int addedSwapRecords = swapQueue.size() - originalSwapQueueCount;
             final long addedSwapBytes = updatedSwapQueueBytes - originalSwapQueueBytes;
 
-            final FlowFileQueueSize newSize = new FlowFileQueueSize(activeQueue.size(), activeQueueBytes,
+            final FlowFileQueueSize newSize = new FlowFileQueueSize(
+                originalSize.activeQueueCount + activeQueue.size() - originalActiveQueueCount,
+                originalSize.activeQueueBytes + activeQueueBytes - originalActiveQueueBytes,
                 originalSize.swappedCount + addedSwapRecords + flowFilesSwappedOut,
                 originalSize.swappedBytes + addedSwapBytes + bytesSwappedOut,
                 originalSize.swapFiles + numSwapFiles,
@@ -662,8 +1214,10 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         long bytesPulled = 0L;
         int flowFilesPulled = 0;
 
+        final long start = System.nanoTime();
         writeLock.lock();
         try {
+            drainIncomingPartitions();
             migrateSwapToActive();
 
             final long expirationMillis = expirationPeriod.get().getMillis();
@@ -710,17 +1264,31 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
                 }
             }
 
-            this.activeQueue.addAll(unselected);
+            requeue(unselected);
             incrementActiveQueueSize(-flowFilesPulled, -bytesPulled);
 
             return selectedFlowFiles;
         } finally {
             writeLock.unlock("poll(Filter, Set)");
+            pollLatency.record(System.nanoTime() - start);
         }
     }
 
 
 
+    /**
+     * FlowFiles that are being written to a swap file in the background
+     */
+    private static final class PendingSwapOut {
+        private final List<FlowFileRecord> flowFiles;
+        private final Future<String> future;
+
+        private PendingSwapOut(final List<FlowFileRecord> flowFiles, final Future<String> future) {
+            this.flowFiles = flowFiles;
+            this.future = future;
+        }
+    }
+
     private static final class Prioritizer implements Comparator<FlowFileRecord>, Serializable {
 
         private static final long serialVersionUID = 1L;
@@ -916,15 +1484,21 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
                 try {
                     logger.debug("{} Acquired lock to perform listing of FlowFiles", StandardFlowFileQueue.this);
                     allFlowFiles = new ArrayList<>(activeQueue);
-                    prioritizer = new Prioritizer(StandardFlowFileQueue.this.priorities);
+                    for (final Queue<FlowFileRecord> partition : incomingPartitions) {
+                        allFlowFiles.addAll(partition);
+                    }
+                    prioritizer = activeQueue instanceof FifoFlowFileQueue ? null : new Prioritizer(StandardFlowFileQueue.this.priorities);
                 } finally {
                     readLock.unlock("List FlowFiles");
                 }
 
                 listRequest.setState(ListFlowFileState.CALCULATING_LIST);
 
-                // sort the FlowFileRecords so that we have the list in the same order as on the queue.
-                Collections.sort(allFlowFiles, prioritizer);
+                // sort the FlowFileRecords so that we have the list in the same order as on the queue. A FIFO active queue
+                // already iterates over its FlowFiles in the order that they will be pulled.
+                if (prioritizer != null) {
+                    Collections.sort(allFlowFiles, prioritizer);
+                }
 
                 for (final FlowFileRecord flowFile : allFlowFiles) {
                     summaries.add(summarize(flowFile, ++position));
@@ -1027,6 +1601,14 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
                     return flowFile;
                 }
             }
+
+            for (final Queue<FlowFileRecord> partition : incomingPartitions) {
+                for (final FlowFileRecord flowFile : partition) {
+                    if (flowFileUuid.equals(flowFile.getAttribute(CoreAttributes.UUID.key()))) {
+                        return flowFile;
+                    }
+                }
+            }
         } finally {
             readLock.unlock("getFlowFile");
         }
@@ -1080,6 +1662,8 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
                     logger.debug("For DropFlowFileRequest {}, original size is {}", requestIdentifier, getQueueSize());
 
                     try {
+                        drainIncomingPartitions();
+                        completePendingSwaps();
                         final List<FlowFileRecord> activeQueueRecords = new ArrayList<>(activeQueue);
 
                         QueueSize droppedSize;
@@ -1355,6 +1939,28 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         }
     }
 
+    /**
+     * Atomically increments the size of the active queue, provided that doing so does not cause the
+     * active queue to exceed the swap threshold.
+     *
+     * @return <code>true</code> if the size was updated, <code>false</code> if the FlowFiles must instead
+     *         be added while holding the write lock so that they may be swapped out
+     */
+    private boolean tryIncrementActiveQueueSize(final int count, final long bytes) {
+        while (true) {
+            final FlowFileQueueSize original = size.get();
+            if (original.activeQueueCount + count > swapThreshold || original.swappedCount > 0) {
+                return false;
+            }
+
+            final FlowFileQueueSize newSize = new FlowFileQueueSize(original.activeQueueCount + count, original.activeQueueBytes + bytes,
+                original.swappedCount, original.swappedBytes, original.swapFiles, original.unacknowledgedCount, original.unacknowledgedBytes);
+            if (size.compareAndSet(original, newSize)) {
+                return true;
+            }
+        }
+    }
+
     private void incrementSwapQueueSize(final int count, final long bytes, final int fileCount) {
         boolean updated = false;
         while (!updated) {
@@ -30,6 +30,7 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
+import org.apache.nifi.attribute.expression.language.RuleSetCompiler;
 import org.apache.nifi.authorization.Resource;
 import org.apache.nifi.authorization.resource.Authorizable;
 import org.apache.nifi.authorization.resource.ResourceFactory;
@@ -1058,6 +1059,9 @@ public class StandardProcessorNode extends ProcessorNode implements Connectable
     public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) {
         try (final NarCloseable narCloseable = NarCloseable.withNarLoader()) {
             processor.onTrigger(context, sessionFactory);
+        } finally {
+            // do not retain the last FlowFile evaluated by this thread, or the results of its shared sub-expressions
+            RuleSetCompiler.releaseResults();
         }
     }
 
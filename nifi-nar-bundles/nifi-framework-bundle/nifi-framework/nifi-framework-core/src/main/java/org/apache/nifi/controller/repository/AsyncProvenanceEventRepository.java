@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.provenance.ProvenanceEventBuilder;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A ProvenanceEventRepository that hands the events registered with it off to dedicated writer threads,
+ * which write them to the underlying repository. Sessions therefore do not wait for the underlying repository
+ * when they are committed, unless the events waiting to be written exceed a memory budget, in which case the
+ * committing threads wait until the writer threads have caught up. This keeps a Provenance Repository that
+ * falls behind, for instance because of a slow disk, from stalling the flow, while bounding the memory used
+ * for events that have not yet been written.
+ * </p>
+ *
+ * <p>
+ * The underlying repository assigns event identifiers as events are written, so the events of each FlowFile must be
+ * written in the order in which they were registered. Each writer thread therefore has its own queue, and the events
+ * of a FlowFile are always queued for the same writer thread, chosen by the FlowFile's UUID. With a single writer
+ * thread, which is the default, all events are written in the order in which they were registered.
+ * </p>
+ *
+ * <p>
+ * If the underlying repository fails to write a batch of events, the writer thread retries the same batch, backing off
+ * between attempts, until it is written; the events that it holds continue to count against the memory budget, so
+ * committing threads are eventually held back rather than events being lost. Events are queued on lock-free queues;
+ * locks are used only to park writer threads that have no events to write and committing threads that are waiting for
+ * the queues to drain. Events that are still queued are not yet visible to queries against the underlying repository,
+ * and are lost if the process is killed before they are written. All methods other than registering events delegate to
+ * the underlying repository.
+ * </p>
+ */
+public class AsyncProvenanceEventRepository implements ProvenanceEventRepository {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncProvenanceEventRepository.class);
+
+    // the number of events that a writer thread writes to the underlying repository at once, at most
+    static final int MAX_EVENTS_PER_WRITE = 1000;
+
+    // how long a writer thread waits before retrying a batch of events that could not be written, at first and at most
+    static final long INITIAL_RETRY_MILLIS = 100L;
+    static final long MAX_RETRY_MILLIS = 10000L;
+
+    // approximate size of the fields of an event other than its Strings and attributes
+    private static final long EVENT_OVERHEAD_BYTES = 256L;
+
+    private final ProvenanceEventRepository repository;
+    private final long maxQueuedBytes;
+    private final Partition[] partitions;
+    private volatile boolean running = true;
+
+    private final Object drainedMonitor = new Object();
+    private final AtomicInteger blockedThreads = new AtomicInteger(0);
+
+    private final AtomicLong queuedEvents = new AtomicLong(0L);
+    private final AtomicLong queuedBytes = new AtomicLong(0L);
+    private final AtomicLong writtenEvents = new AtomicLong(0L);
+    private final AtomicLong failedWriteCount = new AtomicLong(0L);
+    private final AtomicLong blockedCount = new AtomicLong(0L);
+    private final AtomicLong blockedNanos = new AtomicLong(0L);
+
+    /**
+     * @param repository the repository to write events to
+     * @param maxQueuedBytes the approximate number of bytes that queued events may occupy before threads registering events wait for them to be written
+     * @param writerThreadCount the number of threads writing events to the repository
+     */
+    public AsyncProvenanceEventRepository(final ProvenanceEventRepository repository, final long maxQueuedBytes, final int writerThreadCount) {
+        if (maxQueuedBytes < 1L) {
+            throw new IllegalArgumentException("Provenance hand-off memory budget must be positive");
+        }
+        if (writerThreadCount < 1) {
+            throw new IllegalArgumentException("Provenance hand-off requires at least one writer thread");
+        }
+
+        this.repository = repository;
+        this.maxQueuedBytes = maxQueuedBytes;
+
+        partitions = new Partition[writerThreadCount];
+        for (int i = 0; i < writerThreadCount; i++) {
+            final Partition partition = new Partition();
+            partitions[i] = partition;
+
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeEvents(partition);
+                }
+            });
+            thread.setName("Provenance Event Writer Thread-" + (i + 1));
+            thread.setDaemon(true);
+            partition.writerThread = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public ProvenanceEventBuilder eventBuilder() {
+        return repository.eventBuilder();
+    }
+
+    @Override
+    public void registerEvent(final ProvenanceEventRecord event) {
+        registerEvents(Collections.singletonList(event));
+    }
+
+    @Override
+    public void registerEvents(final Iterable<ProvenanceEventRecord> events) {
+        if (!running) {
+            repository.registerEvents(events);
+            return;
+        }
+
+        // The Iterable may be computed lazily from the state of the caller, so the events must be gathered before returning.
+        // Events are grouped by the partition of their FlowFile so that each FlowFile's events are written in order.
+        final List<List<ProvenanceEventRecord>> eventLists = new ArrayList<>(partitions.length);
+        final long[] partitionBytes = new long[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            eventLists.add(null);
+        }
+
+        int eventCount = 0;
+        long bytes = 0L;
+        for (final ProvenanceEventRecord event : events) {
+            final int index = getPartitionIndex(event);
+            List<ProvenanceEventRecord> eventList = eventLists.get(index);
+            if (eventList == null) {
+                eventList = new ArrayList<>();
+                eventLists.set(index, eventList);
+            }
+
+            final long eventBytes = estimateSize(event);
+            eventList.add(event);
+            partitionBytes[index] += eventBytes;
+            bytes += eventBytes;
+            eventCount++;
+        }
+
+        if (eventCount == 0) {
+            return;
+        }
+
+        queuedEvents.addAndGet(eventCount);
+        final long totalQueuedBytes = queuedBytes.addAndGet(bytes);
+        for (int i = 0; i < partitions.length; i++) {
+            final List<ProvenanceEventRecord> eventList = eventLists.get(i);
+            if (eventList != null) {
+                partitions[i].offer(new EventBatch(eventList, partitionBytes[i]));
+            }
+        }
+
+        if (totalQueuedBytes > maxQueuedBytes) {
+            waitForWriters();
+        }
+    }
+
+    private int getPartitionIndex(final ProvenanceEventRecord event) {
+        if (partitions.length == 1) {
+            return 0;
+        }
+
+        final String uuid = event.getFlowFileUuid();
+        return uuid == null ? 0 : (uuid.hashCode() & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    private void waitForWriters() {
+        final long start = System.nanoTime();
+        blockedCount.incrementAndGet();
+        blockedThreads.incrementAndGet();
+
+        try {
+            synchronized (drainedMonitor) {
+                while (running && queuedBytes.get() > maxQueuedBytes) {
+                    drainedMonitor.wait(100L);
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            blockedThreads.decrementAndGet();
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void writeEvents(final Partition partition) {
+        while (true) {
+            final List<ProvenanceEventRecord> events = new ArrayList<>();
+            long bytes = 0L;
+
+            EventBatch batch;
+            while (events.size() < MAX_EVENTS_PER_WRITE && (batch = partition.queue.poll()) != null) {
+                events.addAll(batch.getEvents());
+                bytes += batch.getBytes();
+            }
+
+            if (events.isEmpty()) {
+                if (!running) {
+                    return;
+                }
+
+                partition.waitForEvents();
+                continue;
+            }
+
+            // Retry the batch until it is written, so that events are neither lost nor written out of order. While the batch is
+            // retried, its events still count against the memory budget, so threads registering events are eventually held back.
+            long retryMillis = INITIAL_RETRY_MILLIS;
+            while (!write(events)) {
+                if (!running) {
+                    // leave the batch for close() to write, ahead of the events that are still queued
+                    partition.unwrittenEvents = new EventBatch(events, bytes);
+                    return;
+                }
+
+                partition.waitForRetry(retryMillis);
+                retryMillis = Math.min(retryMillis * 2L, MAX_RETRY_MILLIS);
+            }
+
+            eventsWritten(events.size(), bytes);
+        }
+    }
+
+    private boolean write(final List<ProvenanceEventRecord> events) {
+        try {
+            repository.registerEvents(events);
+            return true;
+        } catch (final Exception e) {
+            failedWriteCount.incrementAndGet();
+            logger.error("Failed to write {} Provenance Events to {} due to {}; will retry", events.size(), repository, e.toString());
+            if (logger.isDebugEnabled()) {
+                logger.error("", e);
+            }
+            return false;
+        }
+    }
+
+    private void eventsWritten(final int eventCount, final long bytes) {
+        writtenEvents.addAndGet(eventCount);
+        queuedEvents.addAndGet(-eventCount);
+        queuedBytes.addAndGet(-bytes);
+
+        if (blockedThreads.get() > 0) {
+            synchronized (drainedMonitor) {
+                drainedMonitor.notifyAll();
+            }
+        }
+    }
+
+    static long estimateSize(final ProvenanceEventRecord event) {
+        long chars = length(event.getComponentId()) + length(event.getComponentType()) + length(event.getFlowFileUuid())
+            + length(event.getTransitUri()) + length(event.getDetails()) + length(event.getRelationship())
+            + length(event.getAlternateIdentifierUri()) + length(event.getSourceSystemFlowFileIdentifier())
+            + length(event.getSourceQueueIdentifier()) + length(event.getParentUuids()) + length(event.getChildUuids())
+            + length(event.getContentClaimIdentifier()) + length(event.getPreviousContentClaimIdentifier());
+
+        chars += length(event.getPreviousAttributes()) + length(event.getUpdatedAttributes());
+        return EVENT_OVERHEAD_BYTES + chars * 2L;
+    }
+
+    private static long length(final String value) {
+        return value == null ? 0L : value.length();
+    }
+
+    private static long length(final Collection<String> values) {
+        if (values == null) {
+            return 0L;
+        }
+
+        long length = 0L;
+        for (final String value : values) {
+            length += length(value);
+        }
+        return length;
+    }
+
+    private static long length(final Map<String, String> attributes) {
+        if (attributes == null) {
+            return 0L;
+        }
+
+        long length = 0L;
+        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+            length += length(entry.getKey()) + length(entry.getValue());
+        }
+        return length;
+    }
+
+    @Override
+    public List<ProvenanceEventRecord> getEvents(final long firstRecordId, final int maxRecords) throws IOException {
+        return repository.getEvents(firstRecordId, maxRecords);
+    }
+
+    @Override
+    public Long getMaxEventId() {
+        return repository.getMaxEventId();
+    }
+
+    @Override
+    public ProvenanceEventRecord getEvent(final long id) throws IOException {
+        return repository.getEvent(id);
+    }
+
+    /**
+     * Writes any events that are still queued to the underlying repository and stops the writer threads.
+     * Events that are registered afterward are written to the underlying repository directly. The underlying
+     * repository is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (final Partition partition : partitions) {
+            partition.wakeup();
+        }
+
+        for (final Partition partition : partitions) {
+            try {
+                partition.writerThread.join();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // write any events that a writer thread was unable to write, and then those that were queued while the writer threads were stopping
+        for (final Partition partition : partitions) {
+            final EventBatch unwritten = partition.unwrittenEvents;
+            if (unwritten != null) {
+                repository.registerEvents(unwritten.getEvents());
+                eventsWritten(unwritten.getEvents().size(), unwritten.getBytes());
+                partition.unwrittenEvents = null;
+            }
+
+            EventBatch batch;
+            while ((batch = partition.queue.poll()) != null) {
+                repository.registerEvents(batch.getEvents());
+                eventsWritten(batch.getEvents().size(), batch.getBytes());
+            }
+        }
+
+        logger.info("Provenance hand-off stopped after writing {} events; threads registering events waited {} times, for {} millis in total",
+            writtenEvents.get(), blockedCount.get(), getTimeBlocked(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return the number of events that are waiting to be written to the underlying repository
+     */
+    public long getQueuedEventCount() {
+        return queuedEvents.get();
+    }
+
+    /**
+     * @return the approximate number of bytes occupied by the events that are waiting to be written to the underlying repository
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the number of events that have been written to the underlying repository
+     */
+    public long getWrittenEventCount() {
+        return writtenEvents.get();
+    }
+
+    /**
+     * @return the number of times that writing a batch of events to the underlying repository failed and had to be retried
+     */
+    public long getFailedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    /**
+     * @return the number of times that a thread registering events had to wait because the memory budget was exceeded
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * @param timeUnit the unit of the value returned
+     * @return the total amount of time that threads registering events have spent waiting because the memory budget was exceeded
+     */
+    public long getTimeBlocked(final TimeUnit timeUnit) {
+        return timeUnit.convert(blockedNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncProvenanceEventRepository[repository=" + repository + ", queuedEvents=" + queuedEvents.get() + ", queuedBytes=" + queuedBytes.get() + "]";
+    }
+
+
+    /**
+     * The queue of events to be written by one writer thread
+     */
+    private static class Partition {
+        private final Queue<EventBatch> queue = new ConcurrentLinkedQueue<>();
+        private final Object writerMonitor = new Object();
+        private volatile boolean idle = false;
+        private volatile EventBatch unwrittenEvents;
+        private Thread writerThread;
+
+        public void offer(final EventBatch batch) {
+            queue.offer(batch);
+            if (idle) {
+                wakeup();
+            }
+        }
+
+        public void wakeup() {
+            synchronized (writerMonitor) {
+                writerMonitor.notifyAll();
+            }
+        }
+
+        public void waitForEvents() {
+            idle = true;
+            try {
+                synchronized (writerMonitor) {
+                    if (queue.isEmpty()) {
+                        writerMonitor.wait(100L);
+                    }
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                idle = false;
+            }
+        }
+
+        /**
+         * Waits before retrying a batch of events; only closing the repository cuts the wait short
+         */
+        public void waitForRetry(final long millis) {
+            try {
+                synchronized (writerMonitor) {
+                    writerMonitor.wait(millis);
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class EventBatch {
+        private final List<ProvenanceEventRecord> events;
+        private final long bytes;
+
+        public EventBatch(final List<ProvenanceEventRecord> events, final long bytes) {
+            this.events = events;
+            this.bytes = bytes;
+        }
+
+        public List<ProvenanceEventRecord> getEvents() {
+            return events;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -17,12 +17,15 @@
 package org.apache.nifi.controller.repository;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -31,6 +34,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -51,8 +55,10 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -64,11 +70,11 @@ import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.ResourceClaim;
 import org.apache.nifi.controller.repository.claim.ResourceClaimManager;
 import org.apache.nifi.controller.repository.claim.StandardContentClaim;
+import org.apache.nifi.controller.repository.io.ByteBufferInputStream;
 import org.apache.nifi.controller.repository.io.LimitedInputStream;
 import org.apache.nifi.engine.FlowEngine;
 import org.apache.nifi.stream.io.ByteCountingOutputStream;
 import org.apache.nifi.stream.io.StreamUtils;
-import org.apache.nifi.stream.io.SynchronizedByteCountingOutputStream;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.NiFiProperties;
 import org.apache.nifi.util.StopWatch;
@@ -104,13 +110,29 @@ public class FileSystemRepository implements ContentRepository {
     // files would mean that we are writing gigabytes per second - quite a bit faster than any disks can handle now.
     private final long maxAppendClaimLength = 1024L * 1024L;
 
-    // Queue for claims that are kept open for writing. Size of 100 is pretty arbitrary. Ideally, this will be at
-    // least as large as the number of threads that will be updating the repository simultaneously but we don't want
-    // to get too large because it will hold open up to this many FileOutputStreams.
-    // The queue is used to determine which claim to write to and then the corresponding Map can be used to obtain
-    // the OutputStream that we can use for writing to the claim.
-    private final BlockingQueue<ClaimLengthPair> writableClaimQueue = new LinkedBlockingQueue<>(100);
+    // Resource Claims that are larger than this generally hold a single, large Content Claim, which gains little
+    // from being memory-mapped, so we don't map them.
+    private static final long MAX_MAPPED_CLAIM_FILE_SIZE = 16L * 1024L * 1024L;
+
+    // Cache of memory-mapped Resource Claims that is used for reading, or null if the cache is disabled.
+    private final MappedResourceClaimCache mappedReadCache;
+
+    // Pools of claims that are kept open for writing, one per container. Each pool is made up of a number of stripes, and
+    // a thread always uses the same stripe of a pool, so that threads rarely contend with one another and a thread will
+    // generally continue to append to the same claim. The total size of 100 per container is pretty arbitrary. Ideally,
+    // this will be at least as large as the number of threads that will be updating the repository simultaneously but we
+    // don't want to get too large because it will hold open up to this many FileOutputStreams.
+    // The pool is used to determine which claim to write to and then the corresponding Map can be used to obtain
+    // the OutputStream that we can use for writing to the claim. The stripe that a claim belongs to is held in
+    // writableClaimStripes for as long as the claim may be returned to the stripe.
+    private static final int WRITABLE_CLAIMS_PER_CONTAINER = 100;
+    private final Map<String, WritableClaimPool> writableClaimPools = new HashMap<>();
+    private final ConcurrentMap<ResourceClaim, BlockingQueue<ClaimLengthPair>> writableClaimStripes = new ConcurrentHashMap<>();
     private final ConcurrentMap<ResourceClaim, ByteCountingOutputStream> writableClaimStreams = new ConcurrentHashMap<>(100);
+
+    // cumulative weights, in the same order as containerNames, that are used to choose the container for a new claim
+    // in proportion to the rate at which each container is able to write data.
+    private volatile double[] containerWeights;
     private final Set<ResourceClaim> activeResourceClaims = Collections.synchronizedSet(new HashSet<ResourceClaim>());
 
     private final boolean archiveData;
@@ -139,10 +161,13 @@ public class FileSystemRepository implements ContentRepository {
         this.containerNames = new ArrayList<>(containers.keySet());
         index = new AtomicLong(0L);
 
+        final int stripeCount = Runtime.getRuntime().availableProcessors();
         for (final String containerName : containerNames) {
             reclaimable.put(containerName, new LinkedBlockingQueue<ResourceClaim>(10000));
             archivedFiles.put(containerName, new LinkedBlockingQueue<ArchiveInfo>(100000));
+            writableClaimPools.put(containerName, new WritableClaimPool(containerName, stripeCount));
         }
+        updateContainerWeights();
 
         final String enableArchiving = properties.getProperty(NiFiProperties.CONTENT_ARCHIVE_ENABLED);
         final String maxArchiveRetentionPeriod = properties.getProperty(NiFiProperties.CONTENT_ARCHIVE_MAX_RETENTION_PERIOD);
@@ -208,6 +233,22 @@ public class FileSystemRepository implements ContentRepository {
 
         this.alwaysSync = Boolean.parseBoolean(properties.getProperty("nifi.content.repository.always.sync"));
         LOG.info("Initializing FileSystemRepository with 'Always Sync' set to {}", alwaysSync);
+
+        final String mappedReadCacheSize = properties.getProperty(NiFiProperties.CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE,
+            NiFiProperties.DEFAULT_CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE);
+        final int mappedReadCacheEntries;
+        try {
+            mappedReadCacheEntries = Integer.parseInt(mappedReadCacheSize.trim());
+        } catch (final NumberFormatException nfe) {
+            throw new RuntimeException("Invalid value specified for the '" + NiFiProperties.CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE + "' property. Value must be a non-negative integer");
+        }
+
+        if (mappedReadCacheEntries > 0) {
+            mappedReadCache = new MappedResourceClaimCache(mappedReadCacheEntries, MAX_MAPPED_CLAIM_FILE_SIZE);
+            LOG.info("Initializing FileSystemRepository with up to {} memory-mapped Resource Claims for reading", mappedReadCacheEntries);
+        } else {
+            mappedReadCache = null;
+        }
         initializeRepository();
 
         containerCleanupExecutor = new FlowEngine(containers.size(), "Cleanup FileSystemRepository Container", true);
@@ -222,6 +263,14 @@ public class FileSystemRepository implements ContentRepository {
         final Map<String, Path> fileRespositoryPaths = properties.getContentRepositoryPaths();
 
         executor.scheduleWithFixedDelay(new BinDestructableClaims(), 1, 1, TimeUnit.SECONDS);
+        if (containers.size() > 1) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    updateContainerWeights();
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
         for (int i = 0; i < fileRespositoryPaths.size(); i++) {
             executor.scheduleWithFixedDelay(new ArchiveOrDestroyDestructableClaims(), 1, 1, TimeUnit.SECONDS);
         }
@@ -497,57 +546,43 @@ public class FileSystemRepository implements ContentRepository {
     public ContentClaim create(final boolean lossTolerant) throws IOException {
         ResourceClaim resourceClaim;
 
-        // We need to synchronize on this queue because the act of pulling something off
-        // the queue and incrementing the associated claimant count MUST be done atomically.
+        final WritableClaimPool pool = writableClaimPools.get(chooseContainer());
+        final BlockingQueue<ClaimLengthPair> stripe = pool.getStripe();
+
+        // We need to synchronize on the stripe because the act of pulling something off
+        // the stripe and incrementing the associated claimant count MUST be done atomically.
         // This way, if the claimant count is decremented to 0, we can ensure that the
-        // claim is not then pulled from the queue and used as another thread is destroying/archiving
+        // claim is not then pulled from the stripe and used as another thread is destroying/archiving
         // the claim. The logic in the remove() method dictates that the underlying file can be
         // deleted (or archived) only if the claimant count becomes <= 0 AND there is no other claim on
-        // the queue that references that file. As a result, we need to ensure that those two conditions
+        // the stripe that references that file. As a result, we need to ensure that those two conditions
         // can be evaluated atomically. In order for that to be the case, we need to also treat the
-        // removal of a claim from the queue and the incrementing of its claimant count as an atomic
+        // removal of a claim from the stripe and the incrementing of its claimant count as an atomic
         // action to ensure that the comparison of those two conditions is atomic also. As a result,
-        // we will synchronize on the queue while performing those actions.
+        // we will synchronize on the stripe while performing those actions.
         final long resourceOffset;
-        synchronized (writableClaimQueue) {
-            final ClaimLengthPair pair = writableClaimQueue.poll();
+        synchronized (stripe) {
+            final ClaimLengthPair pair = stripe.poll();
             if (pair == null) {
                 final long currentIndex = index.incrementAndGet();
-
-                String containerName = null;
-                boolean waitRequired = true;
-                ContainerState containerState = null;
-                for (long containerIndex = currentIndex; containerIndex < currentIndex + containers.size(); containerIndex++) {
-                    final long modulatedContainerIndex = containerIndex % containers.size();
-                    containerName = containerNames.get((int) modulatedContainerIndex);
-
-                    containerState = containerStateMap.get(containerName);
-                    if (!containerState.isWaitRequired()) {
-                        waitRequired = false;
-                        break;
-                    }
-                }
-
-                if (waitRequired) {
-                    containerState.waitForArchiveExpiration();
-                }
-
                 final long modulatedSectionIndex = currentIndex % SECTIONS_PER_CONTAINER;
                 final String section = String.valueOf(modulatedSectionIndex);
                 final String claimId = System.currentTimeMillis() + "-" + currentIndex;
 
-                resourceClaim = resourceClaimManager.newResourceClaim(containerName, section, claimId, lossTolerant);
+                resourceClaim = resourceClaimManager.newResourceClaim(pool.getContainerName(), section, claimId, lossTolerant);
                 resourceOffset = 0L;
                 LOG.debug("Creating new Resource Claim {}", resourceClaim);
 
                 // we always append because there may be another ContentClaim using the same resource claim.
                 // However, we know that we will never write to the same claim from two different threads
                 // at the same time because we will call create() to get the claim before we write to it,
-                // and when we call create(), it will remove it from the Queue, which means that no other
-                // thread will get the same Claim until we've finished writing to it.
+                // and when we call create(), it will remove it from the stripe, which means that no other
+                // thread will get the same Claim until we've finished writing to it. As a result, the stream
+                // does not need to be synchronized.
                 final File file = getPath(resourceClaim).toFile();
-                ByteCountingOutputStream claimStream = new SynchronizedByteCountingOutputStream(new FileOutputStream(file, true), file.length());
+                ByteCountingOutputStream claimStream = new ByteCountingOutputStream(new FileOutputStream(file, true), file.length());
                 writableClaimStreams.put(resourceClaim, claimStream);
+                writableClaimStripes.put(resourceClaim, stripe);
             } else {
                 resourceClaim = pair.getClaim();
                 resourceOffset = pair.getLength();
@@ -561,6 +596,68 @@ public class FileSystemRepository implements ContentRepository {
         return scc;
     }
 
+    /**
+     * Chooses the container in which to create a new claim. Containers are chosen at random, in proportion to the
+     * rate at which they have been able to write data, so that faster disks receive more of the data. A container
+     * that must wait for archived data to be destroyed is skipped, unless all containers must wait.
+     *
+     * @return the name of the container to use
+     */
+    private String chooseContainer() {
+        final int containerCount = containerNames.size();
+        final double[] weights = containerWeights;
+        final double random = ThreadLocalRandom.current().nextDouble();
+
+        int chosenIndex = containerCount - 1;
+        for (int i = 0; i < containerCount; i++) {
+            if (random < weights[i]) {
+                chosenIndex = i;
+                break;
+            }
+        }
+
+        ContainerState containerState = null;
+        for (int i = 0; i < containerCount; i++) {
+            final String containerName = containerNames.get((chosenIndex + i) % containerCount);
+            containerState = containerStateMap.get(containerName);
+            if (!containerState.isWaitRequired()) {
+                return containerName;
+            }
+        }
+
+        containerState.waitForArchiveExpiration();
+        return containerNames.get((chosenIndex + containerCount - 1) % containerCount);
+    }
+
+    /**
+     * Recalculates the weight of each container from the rate at which data has recently been written to it. Each
+     * container is always given at least a small share of new claims so that its rate continues to be measured.
+     */
+    private void updateContainerWeights() {
+        final int containerCount = containerNames.size();
+        final double[] rates = new double[containerCount];
+        double totalRate = 0D;
+        for (int i = 0; i < containerCount; i++) {
+            rates[i] = writableClaimPools.get(containerNames.get(i)).updateWriteRate();
+            totalRate += rates[i];
+        }
+
+        final double minShare = 0.25D / containerCount;
+        final double[] weights = new double[containerCount];
+        double cumulative = 0D;
+        for (int i = 0; i < containerCount; i++) {
+            final double share = totalRate <= 0D ? 1D / containerCount : rates[i] / totalRate;
+            cumulative += minShare + share * (1D - 0.25D);
+            weights[i] = cumulative;
+        }
+        weights[containerCount - 1] = 1D;
+
+        containerWeights = weights;
+        if (LOG.isDebugEnabled() && totalRate > 0D) {
+            LOG.debug("Updated container weights for new Resource Claims: containers = {}, cumulative weights = {}", containerNames, Arrays.toString(weights));
+        }
+    }
+
     @Override
     public int incrementClaimaintCount(final ContentClaim claim) {
         if (claim == null) {
@@ -602,20 +699,20 @@ public class FileSystemRepository implements ContentRepository {
             return false;
         }
 
-        // we synchronize on the queue here because if the claimant count is 0,
+        // we synchronize on the claim's stripe here because if the claimant count is 0,
         // we need to be able to remove any instance of that resource claim from the
-        // queue atomically (i.e., the checking of the claimant count plus removal from the queue
-        // must be atomic). The create() method also synchronizes on the queue whenever it
-        // polls from the queue and increments a claimant count in order to ensure that these
+        // stripe atomically (i.e., the checking of the claimant count plus removal from the stripe
+        // must be atomic). The create() method also synchronizes on the stripe whenever it
+        // polls from the stripe and increments a claimant count in order to ensure that these
         // two conditions can be checked atomically.
-        synchronized (writableClaimQueue) {
+        synchronized (getWritableClaimLock(claim)) {
             final int claimantCount = resourceClaimManager.getClaimantCount(claim);
             if (claimantCount > 0) {
                 // if other content claims are claiming the same resource, we have nothing to destroy,
                 // so just consider the destruction successful.
                 return true;
             }
-            if (activeResourceClaims.contains(claim) || writableClaimQueue.contains(new ClaimLengthPair(claim, null))) {
+            if (activeResourceClaims.contains(claim) || isWritableClaimPooled(claim)) {
                 // If we have an open OutputStream for the claim, we will not destroy the claim.
                 return false;
             }
@@ -628,6 +725,7 @@ public class FileSystemRepository implements ContentRepository {
         }
 
         // Ensure that we have no writable claim streams for this resource claim
+        writableClaimStripes.remove(claim);
         final ByteCountingOutputStream bcos = writableClaimStreams.remove(claim);
         if (bcos != null) {
             try {
@@ -637,6 +735,10 @@ public class FileSystemRepository implements ContentRepository {
             }
         }
 
+        if (mappedReadCache != null) {
+            mappedReadCache.invalidate(claim);
+        }
+
         final File file = path.toFile();
         if (!file.delete() && file.exists()) {
             LOG.warn("Unable to delete {} at path {}", new Object[] {claim, path});
@@ -719,9 +821,9 @@ public class FileSystemRepository implements ContentRepository {
             return 0L;
         }
 
-        try (final InputStream in = read(claim);
-            final FileOutputStream fos = new FileOutputStream(destination.toFile(), append)) {
-            final long copied = StreamUtils.copy(in, fos);
+        final Path sourcePath = getPath(claim, true);
+        try (final FileOutputStream fos = new FileOutputStream(destination.toFile(), append)) {
+            final long copied = transferTo(claim, sourcePath, 0L, size(claim), fos.getChannel());
             if (alwaysSync) {
                 fos.getFD().sync();
             }
@@ -748,12 +850,9 @@ public class FileSystemRepository implements ContentRepository {
 
         }
 
-        try (final InputStream in = read(claim);
-            final FileOutputStream fos = new FileOutputStream(destination.toFile(), append)) {
-            if (offset > 0) {
-                StreamUtils.skip(in, offset);
-            }
-            StreamUtils.copy(in, fos, length);
+        final Path sourcePath = getPath(claim, true);
+        try (final FileOutputStream fos = new FileOutputStream(destination.toFile(), append)) {
+            transferTo(claim, sourcePath, offset, length, fos.getChannel());
             if (alwaysSync) {
                 fos.getFD().sync();
             }
@@ -767,6 +866,11 @@ public class FileSystemRepository implements ContentRepository {
             return 0L;
         }
 
+        // if writing directly to a file, let the operating system copy the bytes rather than copying them through our own buffers.
+        if (destination instanceof FileOutputStream) {
+            return transferTo(claim, getPath(claim, true), 0L, size(claim), ((FileOutputStream) destination).getChannel());
+        }
+
         try (final InputStream in = read(claim)) {
             return StreamUtils.copy(in, destination);
         }
@@ -784,6 +888,9 @@ public class FileSystemRepository implements ContentRepository {
         if (offset == 0 && length == claimSize) {
             return exportTo(claim, destination);
         }
+        if (destination instanceof FileOutputStream) {
+            return transferTo(claim, getPath(claim, true), offset, Math.min(length, claimSize - offset), ((FileOutputStream) destination).getChannel());
+        }
         try (final InputStream in = read(claim)) {
             StreamUtils.skip(in, offset);
             final byte[] buffer = new byte[8192];
@@ -797,6 +904,36 @@ public class FileSystemRepository implements ContentRepository {
         }
     }
 
+    /**
+     * Copies the given range of the Content Claim to the given channel using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which allows the operating system to copy the data without it passing through user space. The destination channel is not closed.
+     *
+     * @param claim the Content Claim to copy
+     * @param path the path of the file that holds the Content Claim
+     * @param offset the offset into the Content Claim at which to start copying
+     * @param length the number of bytes to copy
+     * @param destination the channel to copy to
+     * @return the number of bytes copied
+     * @throws IOException if unable to read from the Content Claim or write to the destination, or if the Content Claim has fewer bytes than expected
+     */
+    private long transferTo(final ContentClaim claim, final Path path, final long offset, final long length, final FileChannel destination) throws IOException {
+        try (final FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = claim.getOffset() + offset;
+            long remaining = length;
+            while (remaining > 0) {
+                final long transferred = source.transferTo(position, remaining, destination);
+                if (transferred <= 0) {
+                    throw new EOFException("Expected to copy " + length + " bytes from " + claim + " but only " + (length - remaining) + " bytes were available");
+                }
+
+                position += transferred;
+                remaining -= transferred;
+            }
+
+            return length;
+        }
+    }
+
     @Override
     public long size(final ContentClaim claim) throws IOException {
         if (claim == null) {
@@ -816,6 +953,15 @@ public class FileSystemRepository implements ContentRepository {
         if (claim == null) {
             return new ByteArrayInputStream(new byte[0]);
         }
+
+        // see javadocs for claim.getLength() as to why we do this.
+        if (mappedReadCache != null && claim.getLength() >= 0) {
+            final InputStream mappedIn = readMapped(claim);
+            if (mappedIn != null) {
+                return mappedIn;
+            }
+        }
+
         final Path path = getPath(claim, true);
         final FileInputStream fis = new FileInputStream(path.toFile());
         if (claim.getOffset() > 0L) {
@@ -836,6 +982,23 @@ public class FileSystemRepository implements ContentRepository {
         }
     }
 
+    private InputStream readMapped(final ContentClaim claim) throws IOException {
+        final ResourceClaim resourceClaim = claim.getResourceClaim();
+        final long claimEnd = claim.getOffset() + claim.getLength();
+
+        ByteBuffer buffer = mappedReadCache.get(resourceClaim, claimEnd);
+        if (buffer == null) {
+            buffer = mappedReadCache.map(resourceClaim, getPath(claim, true), claimEnd);
+            if (buffer == null) {
+                return null;
+            }
+        }
+
+        buffer.limit((int) claimEnd);
+        buffer.position((int) claim.getOffset());
+        return new ByteBufferInputStream(buffer.slice());
+    }
+
     @Override
     public OutputStream write(final ContentClaim claim) throws IOException {
         return write(claim, false);
@@ -864,8 +1027,13 @@ public class FileSystemRepository implements ContentRepository {
 
         activeResourceClaims.add(resourceClaim);
         final ByteCountingOutputStream bcos = claimStream;
+        final WritableClaimPool pool = writableClaimPools.get(resourceClaim.getContainer());
+
+        // The stream that is returned is used by only a single thread at a time, as create() guarantees that no other
+        // thread can obtain the same Resource Claim until this stream has been closed, so we need not synchronize writes.
         final OutputStream out = new OutputStream() {
             private long bytesWritten = 0L;
+            private long writeNanos = 0L;
             private boolean recycle = true;
             private boolean closed = false;
 
@@ -875,11 +1043,12 @@ public class FileSystemRepository implements ContentRepository {
             }
 
             @Override
-            public synchronized void write(final int b) throws IOException {
+            public void write(final int b) throws IOException {
                 if (closed) {
                     throw new IOException("Stream is closed");
                 }
 
+                final long startNanos = System.nanoTime();
                 try {
                     bcos.write(b);
                 } catch (final IOException ioe) {
@@ -887,16 +1056,18 @@ public class FileSystemRepository implements ContentRepository {
                     throw new IOException("Failed to write to " + this, ioe);
                 }
 
+                writeNanos += System.nanoTime() - startNanos;
                 bytesWritten++;
                 scc.setLength(bytesWritten + initialLength);
             }
 
             @Override
-            public synchronized void write(final byte[] b) throws IOException {
+            public void write(final byte[] b) throws IOException {
                 if (closed) {
                     throw new IOException("Stream is closed");
                 }
 
+                final long startNanos = System.nanoTime();
                 try {
                     bcos.write(b);
                 } catch (final IOException ioe) {
@@ -904,16 +1075,18 @@ public class FileSystemRepository implements ContentRepository {
                     throw new IOException("Failed to write to " + this, ioe);
                 }
 
+                writeNanos += System.nanoTime() - startNanos;
                 bytesWritten += b.length;
                 scc.setLength(bytesWritten + initialLength);
             }
 
             @Override
-            public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            public void write(final byte[] b, final int off, final int len) throws IOException {
                 if (closed) {
                     throw new IOException("Stream is closed");
                 }
 
+                final long startNanos = System.nanoTime();
                 try {
                     bcos.write(b, off, len);
                 } catch (final IOException ioe) {
@@ -921,12 +1094,13 @@ public class FileSystemRepository implements ContentRepository {
                     throw new IOException("Failed to write to " + this, ioe);
                 }
 
+                writeNanos += System.nanoTime() - startNanos;
                 bytesWritten += len;
                 scc.setLength(bytesWritten + initialLength);
             }
 
             @Override
-            public synchronized void flush() throws IOException {
+            public void flush() throws IOException {
                 if (closed) {
                     throw new IOException("Stream is closed");
                 }
@@ -936,6 +1110,10 @@ public class FileSystemRepository implements ContentRepository {
 
             @Override
             public synchronized void close() throws IOException {
+                if (!closed && pool != null) {
+                    pool.recordWrite(bytesWritten, writeNanos);
+                }
+
                 closed = true;
                 activeResourceClaims.remove(resourceClaim);
 
@@ -949,23 +1127,25 @@ public class FileSystemRepository implements ContentRepository {
                 }
 
                 // if we've not yet hit the threshold for appending to a resource claim, add the claim
-                // to the writableClaimQueue so that the Resource Claim can be used again when create()
+                // back to its stripe so that the Resource Claim can be used again when create()
                 // is called. In this case, we don't have to actually close the file stream. Instead, we
-                // can just add it onto the queue and continue to use it for the next content claim.
+                // can just add it onto the stripe and continue to use it for the next content claim.
                 final long resourceClaimLength = scc.getOffset() + scc.getLength();
-                if (recycle && resourceClaimLength < maxAppendClaimLength) {
-                    // we do not have to synchronize on the writable claim queue here because we
-                    // are only adding something to the queue. We must synchronize if we are
-                    // using a ResourceClaim from the queue and incrementing the claimant count on that resource
+                final BlockingQueue<ClaimLengthPair> stripe = writableClaimStripes.get(scc.getResourceClaim());
+                if (recycle && stripe != null && resourceClaimLength < maxAppendClaimLength) {
+                    // we do not have to synchronize on the stripe here because we
+                    // are only adding something to the stripe. We must synchronize if we are
+                    // using a ResourceClaim from the stripe and incrementing the claimant count on that resource
                     // because those need to be done atomically, or if we are destroying a claim that is on
-                    // the queue because we need to ensure that the latter operation does not cause problems
+                    // the stripe because we need to ensure that the latter operation does not cause problems
                     // with the former.
                     final ClaimLengthPair pair = new ClaimLengthPair(scc.getResourceClaim(), resourceClaimLength);
-                    final boolean enqueued = writableClaimQueue.offer(pair);
+                    final boolean enqueued = stripe.offer(pair);
 
                     if (enqueued) {
                         LOG.debug("Claim length less than max; Adding {} back to writableClaimStreams", this);
                     } else {
+                        writableClaimStripes.remove(scc.getResourceClaim());
                         writableClaimStreams.remove(scc.getResourceClaim());
                         bcos.close();
 
@@ -978,8 +1158,11 @@ public class FileSystemRepository implements ContentRepository {
                     // we've reached the limit for this claim. Don't add it back to our queue.
                     // Instead, just remove it and move on.
 
-                    // ensure that the claim is no longer on the queue
-                    writableClaimQueue.remove(new ClaimLengthPair(scc.getResourceClaim(), resourceClaimLength));
+                    // ensure that the claim is no longer on its stripe
+                    writableClaimStripes.remove(scc.getResourceClaim());
+                    if (stripe != null) {
+                        stripe.remove(new ClaimLengthPair(scc.getResourceClaim(), resourceClaimLength));
+                    }
                     bcos.close();
                     LOG.debug("Claim lenth >= max; Closing {}", this);
                     if (LOG.isTraceEnabled()) {
@@ -1000,6 +1183,10 @@ public class FileSystemRepository implements ContentRepository {
 
     @Override
     public void purge() {
+        if (mappedReadCache != null) {
+            mappedReadCache.clear();
+        }
+
         // delete all content from repositories
         for (final Path path : containers.values()) {
             FileUtils.deleteFilesInDir(path.toFile(), null, LOG, true);
@@ -1108,9 +1295,9 @@ public class FileSystemRepository implements ContentRepository {
             return false;
         }
 
-        synchronized (writableClaimQueue) {
+        synchronized (getWritableClaimLock(claim)) {
             final int claimantCount = claim == null ? 0 : resourceClaimManager.getClaimantCount(claim);
-            if (claimantCount > 0 || writableClaimQueue.contains(new ClaimLengthPair(claim, null))) {
+            if (claimantCount > 0 || isWritableClaimPooled(claim)) {
                 return false;
             }
         }
@@ -1119,6 +1306,7 @@ public class FileSystemRepository implements ContentRepository {
         // we close the stream if there is one. There may be a stream open if create() is called and then
         // claimant count is removed without writing to the claim (or more specifically, without closing the
         // OutputStream that is returned when calling write() ).
+        writableClaimStripes.remove(claim);
         final OutputStream out = writableClaimStreams.remove(claim);
         if (out != null) {
             try {
@@ -1133,6 +1321,10 @@ public class FileSystemRepository implements ContentRepository {
             return false;
         }
 
+        if (mappedReadCache != null) {
+            mappedReadCache.invalidate(claim);
+        }
+
         final boolean archived = archive(curPath);
         LOG.debug("Successfully moved {} to archive", claim);
         return archived;
@@ -1142,6 +1334,22 @@ public class FileSystemRepository implements ContentRepository {
         return writableClaimStreams.size();
     }
 
+    /**
+     * @param claim the Resource Claim
+     * @return the object to synchronize on in order to determine atomically whether or not the given Resource Claim
+     *         is available to be handed out by {@link #create(boolean)}
+     */
+    private Object getWritableClaimLock(final ResourceClaim claim) {
+        final BlockingQueue<ClaimLengthPair> stripe = claim == null ? null : writableClaimStripes.get(claim);
+        // a claim that does not belong to a stripe cannot be handed out by create(), so any lock will do
+        return stripe == null ? writableClaimStripes : stripe;
+    }
+
+    private boolean isWritableClaimPooled(final ResourceClaim claim) {
+        final BlockingQueue<ClaimLengthPair> stripe = claim == null ? null : writableClaimStripes.get(claim);
+        return stripe != null && stripe.contains(new ClaimLengthPair(claim, null));
+    }
+
     // marked protected for visibility and ability to override for unit tests.
     protected boolean archive(final Path curPath) throws IOException {
         // check if already archived
@@ -1667,6 +1875,69 @@ public class FileSystemRepository implements ContentRepository {
         }
     }
 
+    /**
+     * The Resource Claims of a single container that are open for writing, along with the rate at which data has
+     * recently been written to the container. The claims are split across a number of stripes, each of which is
+     * synchronized on independently, so that threads creating claims concurrently do not contend with one another.
+     */
+    private static class WritableClaimPool {
+        // weight given to the most recent measurement when calculating the exponentially weighted write rate
+        private static final double RATE_SMOOTHING_FACTOR = 0.2D;
+
+        private final String containerName;
+        private final BlockingQueue<ClaimLengthPair>[] stripes;
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder writeNanos = new LongAdder();
+        private double bytesPerNano = 0D;
+
+        @SuppressWarnings("unchecked")
+        public WritableClaimPool(final String containerName, final int stripeCount) {
+            this.containerName = containerName;
+            this.stripes = new BlockingQueue[stripeCount];
+
+            final int stripeCapacity = Math.max(1, WRITABLE_CLAIMS_PER_CONTAINER / stripeCount);
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new LinkedBlockingQueue<>(stripeCapacity);
+            }
+        }
+
+        public String getContainerName() {
+            return containerName;
+        }
+
+        /**
+         * @return the stripe to be used by the current thread. We use a stripe that is chosen from the thread's
+         *         identifier rather than a ThreadLocal so that the claims that a thread was writing to are not
+         *         left open if the thread dies
+         */
+        public BlockingQueue<ClaimLengthPair> getStripe() {
+            return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        }
+
+        public void recordWrite(final long bytes, final long nanos) {
+            if (bytes > 0L && nanos > 0L) {
+                bytesWritten.add(bytes);
+                writeNanos.add(nanos);
+            }
+        }
+
+        /**
+         * Folds the data written since the last time this method was called into the write rate of the container.
+         * This method is called only from a single thread.
+         *
+         * @return the exponentially weighted number of bytes that the container is able to write per nanosecond
+         */
+        public double updateWriteRate() {
+            final long bytes = bytesWritten.sumThenReset();
+            final long nanos = writeNanos.sumThenReset();
+            if (nanos > 0L) {
+                final double measured = (double) bytes / (double) nanos;
+                bytesPerNano = bytesPerNano == 0D ? measured : RATE_SMOOTHING_FACTOR * measured + (1D - RATE_SMOOTHING_FACTOR) * bytesPerNano;
+            }
+
+            return bytesPerNano;
+        }
+    }
 
     private static class ClaimLengthPair {
         private final ResourceClaim claim;
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.nifi.controller.repository.claim.ResourceClaim;
+
+/**
+ * <p>
+ * A bounded, least-recently-used cache of the files that back Resource Claims, each of which is memory-mapped
+ * in its entirety. Many small Content Claims are packed into a single Resource Claim, so reading them through
+ * a mapping avoids opening the file and skipping to the Content Claim's offset for every read.
+ * </p>
+ *
+ * <p>
+ * Resource Claims are only ever appended to, so the bytes of a mapping never change. If a Content Claim ends
+ * beyond the end of the current mapping, because the file has grown since it was mapped, the file is mapped again.
+ * Each caller is given its own view of the mapping, so a mapping remains usable by any stream that is reading
+ * from it after it has been evicted or invalidated; the mapping itself is released once it is no longer referenced.
+ * </p>
+ */
+final class MappedResourceClaimCache {
+
+    private final int maxEntries;
+    private final long maxFileSize;
+    private final Map<ResourceClaim, MappedByteBuffer> mappings;
+
+    /**
+     * @param maxEntries the maximum number of files to keep mapped
+     * @param maxFileSize the size of the largest file that will be mapped; larger files are not cached
+     */
+    MappedResourceClaimCache(final int maxEntries, final long maxFileSize) {
+        this.maxEntries = maxEntries;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+        this.mappings = new LinkedHashMap<ResourceClaim, MappedByteBuffer>(16, 0.75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ResourceClaim, MappedByteBuffer> eldest) {
+                return size() > MappedResourceClaimCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the mapping for the given Resource Claim if it is cached and covers at least the given number of bytes
+     *
+     * @param claim the Resource Claim
+     * @param requiredLength the number of bytes, from the start of the file, that must be available
+     * @return a view of the mapped file, or <code>null</code> if the file is not cached or the mapping is too short
+     */
+    ByteBuffer get(final ResourceClaim claim, final long requiredLength) {
+        final MappedByteBuffer mapping;
+        synchronized (mappings) {
+            mapping = mappings.get(claim);
+        }
+
+        if (mapping == null || mapping.capacity() < requiredLength) {
+            return null;
+        }
+
+        return mapping.duplicate();
+    }
+
+    /**
+     * Maps the file at the given path and caches the mapping for the given Resource Claim
+     *
+     * @param claim the Resource Claim
+     * @param path the path of the file that backs the Resource Claim
+     * @param requiredLength the number of bytes, from the start of the file, that must be available
+     * @return a view of the mapped file, or <code>null</code> if the file is too large to be mapped or is shorter than the required length
+     * @throws IOException if unable to map the file
+     */
+    ByteBuffer map(final ResourceClaim claim, final Path path, final long requiredLength) throws IOException {
+        final MappedByteBuffer mapping;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > maxFileSize || size < requiredLength) {
+                return null;
+            }
+
+            mapping = channel.map(MapMode.READ_ONLY, 0L, size);
+        }
+
+        synchronized (mappings) {
+            // another thread may have mapped the file concurrently; keep whichever mapping covers more of the file
+            final MappedByteBuffer existing = mappings.get(claim);
+            if (existing == null || existing.capacity() < mapping.capacity()) {
+                mappings.put(claim, mapping);
+            }
+        }
+
+        return mapping.duplicate();
+    }
+
+    /**
+     * Removes the mapping for the given Resource Claim, if it is cached. This must be called whenever the file
+     * that backs the Resource Claim is deleted or moved.
+     *
+     * @param claim the Resource Claim
+     */
+    void invalidate(final ResourceClaim claim) {
+        synchronized (mappings) {
+            mappings.remove(claim);
+        }
+    }
+
+    /**
+     * Removes all mappings from the cache
+     */
+    void clear() {
+        synchronized (mappings) {
+            mappings.clear();
+        }
+    }
+
+    int size() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+}
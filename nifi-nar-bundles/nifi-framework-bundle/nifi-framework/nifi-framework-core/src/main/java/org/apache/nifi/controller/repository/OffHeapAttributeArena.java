@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Stores FlowFile attributes in slabs of direct (off-heap) memory. Each call to {@link #store(Map)} encodes the given
+ * attributes into the current slab and returns an immutable Map that decodes the attributes from the slab only as they
+ * are accessed. Attribute keys are interned in a dictionary that is shared by all of the Maps created by the arena, so
+ * that each occurrence of a key costs only two bytes. This allows a large number of FlowFiles to be held in memory
+ * while adding only a single object per FlowFile to the Java heap, rather than a HashMap and its entries, keys, and
+ * values.
+ * </p>
+ *
+ * <p>
+ * Slabs are never explicitly freed. Each Map holds a reference to the slab that contains its attributes, so a slab
+ * is reclaimed by the garbage collector once all of the Maps that were stored in it are no longer reachable. The arena
+ * allocates at most a given number of bytes of direct memory that has not yet been reclaimed; once that much is in use,
+ * {@link #store(Map)} leaves the attributes on the heap rather than risk exhausting the JVM's direct memory.
+ * </p>
+ *
+ * <p>
+ * Thread-safe
+ * </p>
+ */
+public class OffHeapAttributeArena {
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    // key id that indicates that the key is written in full because the dictionary is full
+    private static final int LITERAL_KEY = 0xFFFF;
+    private static final int NULL_VALUE = -1;
+
+    private final int slabSize;
+    private final int maxPooledLength;
+
+    private final ConcurrentMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private volatile String[] keys = new String[0];
+
+    private final long maxDirectBytes;
+
+    private ByteBuffer currentSlab; // guarded by this
+
+    // a reference to each buffer that has been allocated and not yet reclaimed by the garbage collector, so that we know how
+    // much direct memory is in use
+    private final ReferenceQueue<ByteBuffer> reclaimedBuffers = new ReferenceQueue<>();
+    private final Set<BufferReference> liveBuffers = Collections.newSetFromMap(new ConcurrentHashMap<BufferReference, Boolean>());
+    private final AtomicLong bytesInUse = new AtomicLong(0L);
+
+    private final AtomicLong slabCount = new AtomicLong(0L);
+    private final AtomicLong bytesAllocated = new AtomicLong(0L);
+    private final AtomicLong bytesStored = new AtomicLong(0L);
+    private final AtomicLong heapFallbackCount = new AtomicLong(0L);
+
+    public OffHeapAttributeArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapAttributeArena(final int slabSize) {
+        this(slabSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param slabSize the number of bytes of direct memory to allocate at a time
+     * @param maxDirectBytes the maximum number of bytes of direct memory that may be in use by the arena at any one time
+     */
+    public OffHeapAttributeArena(final int slabSize, final long maxDirectBytes) {
+        if (slabSize < 1) {
+            throw new IllegalArgumentException("Slab size must be positive");
+        }
+        if (maxDirectBytes < 1) {
+            throw new IllegalArgumentException("Maximum direct memory size must be positive");
+        }
+
+        this.slabSize = slabSize;
+        this.maxDirectBytes = maxDirectBytes;
+        // attributes that would take up a large portion of a slab are given their own buffer so that we do not waste the remainder of the slab
+        this.maxPooledLength = Math.max(1, slabSize / 8);
+    }
+
+    /**
+     * Copies the given attributes into the arena. If the arena has no room for the attributes, because it already has
+     * the maximum amount of direct memory in use, the given Map is returned instead.
+     *
+     * @param attributes the attributes to store
+     * @return an immutable Map whose contents are the given attributes, or the given Map if it could not be stored
+     */
+    public Map<String, String> store(final Map<String, String> attributes) {
+        final int count = attributes.size();
+        final int[] ids = new int[count];
+        final byte[][] literalKeys = new byte[count][];
+        final byte[][] values = new byte[count][];
+
+        int length = 4;
+        int i = 0;
+        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+            ids[i] = getKeyId(entry.getKey());
+            length += 2;
+            if (ids[i] == LITERAL_KEY) {
+                literalKeys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                length += 4 + literalKeys[i].length;
+            }
+
+            final String value = entry.getValue();
+            values[i] = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+            length += 4 + (value == null ? 0 : values[i].length);
+            i++;
+        }
+
+        final byte[] encoded = new byte[length];
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        buffer.putInt(count);
+        for (i = 0; i < count; i++) {
+            buffer.putShort((short) ids[i]);
+            if (ids[i] == LITERAL_KEY) {
+                buffer.putInt(literalKeys[i].length);
+                buffer.put(literalKeys[i]);
+            }
+
+            if (values[i] == null) {
+                buffer.putInt(NULL_VALUE);
+            } else {
+                buffer.putInt(values[i].length);
+                buffer.put(values[i]);
+            }
+        }
+
+        final AttributeMap stored = copyToSlab(encoded, count);
+        if (stored == null) {
+            heapFallbackCount.incrementAndGet();
+            return attributes;
+        }
+
+        bytesStored.addAndGet(encoded.length);
+        return stored;
+    }
+
+    /**
+     * Copies the encoded attributes into direct memory, returning <code>null</code> if no direct memory could be allocated
+     */
+    private AttributeMap copyToSlab(final byte[] encoded, final int count) {
+        if (encoded.length > maxPooledLength) {
+            final ByteBuffer buffer = allocate(encoded.length);
+            if (buffer == null) {
+                return null;
+            }
+
+            buffer.put(encoded);
+            return new AttributeMap(this, buffer, 0, count);
+        }
+
+        synchronized (this) {
+            if (currentSlab == null || currentSlab.remaining() < encoded.length) {
+                final ByteBuffer slab = allocate(slabSize);
+                if (slab == null) {
+                    return null;
+                }
+                currentSlab = slab;
+            }
+
+            final int offset = currentSlab.position();
+            currentSlab.put(encoded);
+            return new AttributeMap(this, currentSlab, offset, count);
+        }
+    }
+
+    /**
+     * Allocates a direct buffer of the given capacity, or returns <code>null</code> if doing so would cause the arena
+     * to have more than the maximum amount of direct memory in use
+     */
+    private ByteBuffer allocate(final int capacity) {
+        expungeReclaimedBuffers();
+
+        long inUse;
+        do {
+            inUse = bytesInUse.get();
+            if (inUse + capacity > maxDirectBytes) {
+                return null;
+            }
+        } while (!bytesInUse.compareAndSet(inUse, inUse + capacity));
+
+        final ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } catch (final OutOfMemoryError oome) {
+            // the JVM's direct memory is exhausted by other users of it; keep the attributes on the heap instead
+            bytesInUse.addAndGet(-capacity);
+            return null;
+        }
+
+        liveBuffers.add(new BufferReference(buffer, capacity, reclaimedBuffers));
+        slabCount.incrementAndGet();
+        bytesAllocated.addAndGet(capacity);
+        return buffer;
+    }
+
+    private void expungeReclaimedBuffers() {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = reclaimedBuffers.poll()) != null) {
+            final BufferReference reclaimed = (BufferReference) reference;
+            if (liveBuffers.remove(reclaimed)) {
+                bytesInUse.addAndGet(-reclaimed.capacity);
+            }
+        }
+    }
+
+    private int getKeyId(final String key) {
+        final Integer existing = keyIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (keyIds) {
+            final Integer id = keyIds.get(key);
+            if (id != null) {
+                return id;
+            }
+
+            final String[] currentKeys = keys;
+            if (currentKeys.length >= LITERAL_KEY) {
+                return LITERAL_KEY;
+            }
+
+            final String[] updatedKeys = Arrays.copyOf(currentKeys, currentKeys.length + 1);
+            updatedKeys[currentKeys.length] = key;
+            keys = updatedKeys;
+            keyIds.put(key, currentKeys.length);
+            return currentKeys.length;
+        }
+    }
+
+    /**
+     * @return the number of distinct attribute keys that have been interned
+     */
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    /**
+     * @return the number of direct buffers that have been allocated by the arena
+     */
+    public long getSlabCount() {
+        return slabCount.get();
+    }
+
+    /**
+     * @return the total number of bytes of direct memory that have been allocated by the arena, including memory that
+     *         may since have been reclaimed
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated.get();
+    }
+
+    /**
+     * @return the total number of bytes of encoded attributes that have been stored in the arena
+     */
+    public long getBytesStored() {
+        return bytesStored.get();
+    }
+
+    /**
+     * @return the number of bytes of direct memory that have been allocated by the arena and not yet reclaimed by the
+     *         garbage collector
+     */
+    public long getBytesInUse() {
+        expungeReclaimedBuffers();
+        return bytesInUse.get();
+    }
+
+    /**
+     * @return the number of times that attributes were left on the heap because the arena had no direct memory available
+     */
+    public long getHeapFallbackCount() {
+        return heapFallbackCount.get();
+    }
+
+    private static final class BufferReference extends PhantomReference<ByteBuffer> {
+        private final int capacity;
+
+        private BufferReference(final ByteBuffer buffer, final int capacity, final ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * An immutable view of attributes that were stored in the arena. Attributes are decoded each time that they are
+     * accessed, so callers that access many attributes repeatedly should copy the Map. StandardProcessSession does so
+     * for each FlowFile that it pulls from a queue.
+     */
+    static final class AttributeMap extends AbstractMap<String, String> {
+        private final OffHeapAttributeArena arena;
+        private final ByteBuffer slab;
+        private final int offset;
+        private final int count;
+
+        private AttributeMap(final OffHeapAttributeArena arena, final ByteBuffer slab, final int offset, final int count) {
+            this.arena = arena;
+            this.slab = slab;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        /**
+         * @return <code>true</code> if this Map was stored in the given arena
+         */
+        boolean isStoredIn(final OffHeapAttributeArena arena) {
+            return this.arena == arena;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        @Override
+        public String get(final Object key) {
+            final ByteBuffer buffer = slab.duplicate();
+            final int valuePosition = find(buffer, key);
+            return valuePosition < 0 ? null : readString(buffer, valuePosition);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return find(slab.duplicate(), key) >= 0;
+        }
+
+        /**
+         * Returns the position of the value for the given key, or -1 if the key is not present
+         */
+        private int find(final ByteBuffer buffer, final Object key) {
+            if (!(key instanceof String)) {
+                return -1;
+            }
+
+            final Integer keyId = arena.keyIds.get(key);
+            int position = offset + 4;
+            for (int i = 0; i < count; i++) {
+                final int id = buffer.getShort(position) & 0xFFFF;
+                position += 2;
+
+                final boolean match;
+                if (id == LITERAL_KEY) {
+                    // only keys that are not in the dictionary are written in full
+                    match = keyId == null && key.equals(readString(buffer, position));
+                    position += 4 + buffer.getInt(position);
+                } else {
+                    match = keyId != null && keyId == id;
+                }
+
+                if (match) {
+                    return position;
+                }
+
+                final int valueLength = buffer.getInt(position);
+                position += 4 + Math.max(0, valueLength);
+            }
+
+            return -1;
+        }
+
+        private static String readString(final ByteBuffer buffer, final int position) {
+            final int length = buffer.getInt(position);
+            if (length == NULL_VALUE) {
+                return null;
+            }
+
+            final byte[] bytes = new byte[length];
+            buffer.position(position + 4);
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+            private final ByteBuffer buffer = slab.duplicate();
+            private final String[] keys = arena.keys;
+            private int position = offset + 4;
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < count;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final int id = buffer.getShort(position) & 0xFFFF;
+                position += 2;
+
+                final String key;
+                if (id == LITERAL_KEY) {
+                    key = readString(buffer, position);
+                    position += 4 + buffer.getInt(position);
+                } else {
+                    key = keys[id];
+                }
+
+                final String value = readString(buffer, position);
+                position += 4 + Math.max(0, buffer.getInt(position));
+                index++;
+
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -44,10 +44,33 @@ public class ProcessContext {
     private final CounterRepository counterRepo;
     private final ProvenanceEventRepository provenanceRepo;
     private final AtomicLong connectionIndex;
+    private final OffHeapAttributeArena attributeArena;
+    private final ProvenancePolicies provenancePolicies;
 
     public ProcessContext(final Connectable connectable, final AtomicLong connectionIndex, final ContentRepository contentRepository,
             final FlowFileRepository flowFileRepository, final FlowFileEventRepository flowFileEventRepository,
             final CounterRepository counterRepository, final ProvenanceEventRepository provenanceRepository) {
+        this(connectable, connectionIndex, contentRepository, flowFileRepository, flowFileEventRepository, counterRepository, provenanceRepository, null);
+    }
+
+    /**
+     * Creates a context whose sessions store the attributes of the FlowFiles that they transfer in the given arena. If the arena is <code>null</code>,
+     * the attributes are stored on the heap.
+     */
+    public ProcessContext(final Connectable connectable, final AtomicLong connectionIndex, final ContentRepository contentRepository,
+            final FlowFileRepository flowFileRepository, final FlowFileEventRepository flowFileEventRepository,
+            final CounterRepository counterRepository, final ProvenanceEventRepository provenanceRepository, final OffHeapAttributeArena attributeArena) {
+        this(connectable, connectionIndex, contentRepository, flowFileRepository, flowFileEventRepository, counterRepository, provenanceRepository, attributeArena, null);
+    }
+
+    /**
+     * Creates a context whose sessions apply the given policies to the Provenance Events that they generate. If the policies are <code>null</code>,
+     * every event is sent to the Provenance Repository.
+     */
+    public ProcessContext(final Connectable connectable, final AtomicLong connectionIndex, final ContentRepository contentRepository,
+            final FlowFileRepository flowFileRepository, final FlowFileEventRepository flowFileEventRepository,
+            final CounterRepository counterRepository, final ProvenanceEventRepository provenanceRepository, final OffHeapAttributeArena attributeArena,
+            final ProvenancePolicies provenancePolicies) {
         this.connectable = connectable;
         contentRepo = contentRepository;
         flowFileRepo = flowFileRepository;
@@ -56,6 +79,8 @@ public class ProcessContext {
         provenanceRepo = provenanceRepository;
 
         this.connectionIndex = connectionIndex;
+        this.attributeArena = attributeArena;
+        this.provenancePolicies = provenancePolicies;
     }
 
     Connectable getConnectable() {
@@ -147,6 +172,14 @@ public class ProcessContext {
         return provenanceRepo;
     }
 
+    OffHeapAttributeArena getAttributeArena() {
+        return attributeArena;
+    }
+
+    ProvenancePolicies getProvenancePolicies() {
+        return provenancePolicies;
+    }
+
     long getNextFlowFileSequence() {
         return flowFileRepo.getNextFlowFileSequence();
     }
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.controller.repository.ProvenancePolicy.Mode;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.provenance.StandardProvenanceEventRecord;
+import org.apache.nifi.util.NiFiProperties;
+
+/**
+ * <p>
+ * Holds the {@link ProvenancePolicy} of each component and applies it to the Provenance Events that the component's
+ * sessions generate, before they are sent to the Provenance Repository.
+ * </p>
+ *
+ * <p>
+ * For components with an aggregated policy, the events that are not recorded individually are counted per Event Type.
+ * Once the aggregation period has elapsed, a single summary event is produced for each Event Type, with Details that
+ * hold the number of events and the total of their sizes. A summary carries the component-level fields of the most recent
+ * event of its type, but has a FlowFile UUID of its own and none of the attributes or content of any real FlowFile.
+ * Summaries are produced when the component next commits a session after the period elapses, or when
+ * {@link #drainExpiredSummaries()} is called, so that components that become idle do not hold their counts indefinitely.
+ * </p>
+ */
+public class ProvenancePolicies {
+
+    private final ProvenancePolicy defaultPolicy;
+    private final Map<String, ProvenancePolicy> componentPolicies;
+    private final ConcurrentMap<String, EventAggregator> aggregators = new ConcurrentHashMap<>();
+
+    public ProvenancePolicies(final ProvenancePolicy defaultPolicy, final Map<String, ProvenancePolicy> componentPolicies) {
+        this.defaultPolicy = defaultPolicy;
+        this.componentPolicies = Collections.unmodifiableMap(new HashMap<>(componentPolicies));
+    }
+
+    /**
+     * Creates the policies that are configured in the given properties
+     *
+     * @param properties the properties
+     * @return the configured policies, or <code>null</code> if every component records every event
+     * @throws IllegalArgumentException if any of the configured policies is invalid
+     */
+    public static ProvenancePolicies fromProperties(final NiFiProperties properties) {
+        final ProvenancePolicy defaultPolicy = ProvenancePolicy.parse(properties.getDefaultProvenancePolicy());
+
+        final Map<String, ProvenancePolicy> componentPolicies = new HashMap<>();
+        boolean allFull = defaultPolicy.getMode() == Mode.FULL;
+        for (final Map.Entry<String, String> entry : properties.getComponentProvenancePolicies().entrySet()) {
+            final ProvenancePolicy policy = ProvenancePolicy.parse(entry.getValue());
+            componentPolicies.put(entry.getKey(), policy);
+            allFull = allFull && policy.getMode() == Mode.FULL;
+        }
+
+        return allFull ? null : new ProvenancePolicies(defaultPolicy, componentPolicies);
+    }
+
+    public ProvenancePolicy getPolicy(final String componentId) {
+        final ProvenancePolicy policy = componentPolicies.get(componentId);
+        return policy == null ? defaultPolicy : policy;
+    }
+
+    /**
+     * @return <code>true</code> if any component has an aggregated policy, in which case {@link #drainExpiredSummaries()} should be called periodically
+     */
+    public boolean isAggregating() {
+        if (defaultPolicy.getMode() == Mode.AGGREGATED) {
+            return true;
+        }
+
+        for (final ProvenancePolicy policy : componentPolicies.values()) {
+            if (policy.getMode() == Mode.AGGREGATED) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Applies the policy of the given component to the given events
+     *
+     * @param componentId the identifier of the component that generated the events
+     * @param events the events, in the order that they should be registered
+     * @return the events that should be registered with the Provenance Repository, in order
+     */
+    public Iterable<ProvenanceEventRecord> apply(final String componentId, final Iterable<ProvenanceEventRecord> events) {
+        return apply(componentId, events, System.currentTimeMillis());
+    }
+
+    Iterable<ProvenanceEventRecord> apply(final String componentId, final Iterable<ProvenanceEventRecord> events, final long now) {
+        final ProvenancePolicy policy = getPolicy(componentId);
+        switch (policy.getMode()) {
+            case SAMPLED: {
+                final List<ProvenanceEventRecord> sampled = new ArrayList<>();
+                for (final ProvenanceEventRecord event : events) {
+                    if (ProvenancePolicy.isLineageEvent(event.getEventType()) || policy.isSampled(event.getFlowFileUuid())) {
+                        sampled.add(event);
+                    }
+                }
+                return sampled;
+            }
+            case AGGREGATED: {
+                EventAggregator aggregator = aggregators.get(componentId);
+                if (aggregator == null) {
+                    final EventAggregator newAggregator = new EventAggregator(policy.getAggregationPeriod(TimeUnit.MILLISECONDS));
+                    aggregator = aggregators.putIfAbsent(componentId, newAggregator);
+                    if (aggregator == null) {
+                        aggregator = newAggregator;
+                    }
+                }
+
+                final List<ProvenanceEventRecord> recorded = new ArrayList<>();
+                aggregator.drainIfExpired(now, recorded);
+                for (final ProvenanceEventRecord event : events) {
+                    if (ProvenancePolicy.isLineageEvent(event.getEventType())) {
+                        recorded.add(event);
+                    } else {
+                        aggregator.add(event, now);
+                    }
+                }
+                return recorded;
+            }
+            default:
+                return events;
+        }
+    }
+
+    /**
+     * @return the summary events of all components whose aggregation period has elapsed
+     */
+    public List<ProvenanceEventRecord> drainExpiredSummaries() {
+        return drainExpiredSummaries(System.currentTimeMillis());
+    }
+
+    List<ProvenanceEventRecord> drainExpiredSummaries(final long now) {
+        final List<ProvenanceEventRecord> summaries = new ArrayList<>();
+        for (final EventAggregator aggregator : aggregators.values()) {
+            aggregator.drainIfExpired(now, summaries);
+        }
+        return summaries;
+    }
+
+    /**
+     * Counts the events that a single component generates during the current aggregation period
+     */
+    private static class EventAggregator {
+        private final long periodMillis;
+        private final Map<ProvenanceEventType, Aggregate> aggregates = new EnumMap<>(ProvenanceEventType.class);
+        private long periodStart = -1L;
+
+        EventAggregator(final long periodMillis) {
+            this.periodMillis = periodMillis;
+        }
+
+        synchronized void add(final ProvenanceEventRecord event, final long now) {
+            if (periodStart < 0L) {
+                periodStart = now;
+            }
+
+            Aggregate aggregate = aggregates.get(event.getEventType());
+            if (aggregate == null) {
+                aggregate = new Aggregate();
+                aggregates.put(event.getEventType(), aggregate);
+            }
+
+            aggregate.count++;
+            aggregate.bytes += event.getFileSize();
+            aggregate.lastEvent = event;
+        }
+
+        synchronized void drainIfExpired(final long now, final List<ProvenanceEventRecord> destination) {
+            if (periodStart < 0L || now - periodStart < periodMillis) {
+                return;
+            }
+
+            for (final Map.Entry<ProvenanceEventType, Aggregate> entry : aggregates.entrySet()) {
+                destination.add(createSummary(entry.getKey(), entry.getValue()));
+            }
+
+            aggregates.clear();
+            periodStart = -1L;
+        }
+
+        /**
+         * Creates the summary event for the given aggregate. The summary describes the component rather than any single FlowFile,
+         * so it takes only the component-level fields of the last event that it summarizes, and the fields that its Event Type
+         * requires. It is given a FlowFile UUID of its own, and no attributes, content claims or parent and child UUIDs, so that it
+         * cannot be mistaken for an event of the last FlowFile. Its size is the total size of the events that it summarizes.
+         */
+        private StandardProvenanceEventRecord createSummary(final ProvenanceEventType eventType, final Aggregate aggregate) {
+            final ProvenanceEventRecord lastEvent = aggregate.lastEvent;
+
+            final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+            builder.setEventType(eventType);
+            builder.setEventTime(lastEvent.getEventTime());
+            builder.setFlowFileEntryDate(periodStart);
+            builder.setLineageStartDate(periodStart);
+            builder.setComponentId(lastEvent.getComponentId());
+            builder.setComponentType(lastEvent.getComponentType());
+            builder.setFlowFileUUID(UUID.randomUUID().toString());
+            builder.setCurrentContentClaim(null, null, null, null, aggregate.bytes);
+            builder.setTransitUri(lastEvent.getTransitUri());
+            builder.setRelationship(lastEvent.getRelationship());
+            builder.setAlternateIdentifierUri(lastEvent.getAlternateIdentifierUri());
+            builder.setDetails("Summary of " + aggregate.count + " " + eventType + " events totalling " + aggregate.bytes
+                + " bytes, generated in the " + periodMillis + " millis starting at " + periodStart);
+            return builder.build();
+        }
+    }
+
+    private static class Aggregate {
+        private long count;
+        private long bytes;
+        private ProvenanceEventRecord lastEvent;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.FormatUtils;
+
+/**
+ * <p>
+ * Determines which of the Provenance Events that a component generates are sent to the Provenance Repository. A policy
+ * is written as one of:
+ * </p>
+ *
+ * <ul>
+ * <li><code>full</code> - every event is recorded</li>
+ * <li><code>sampled:N</code> - the events for 1 in every N FlowFiles are recorded</li>
+ * <li><code>aggregated:&lt;time period&gt;</code> - events are summarized into one event per Event Type for each time period</li>
+ * </ul>
+ *
+ * <p>
+ * Regardless of the policy, events that begin a FlowFile's lineage (CREATE and RECEIVE), that end it or send its data
+ * out of the flow (SEND, DROP and EXPIRE), and that link FlowFiles to one another (FORK, JOIN, CLONE and REPLAY) are
+ * always recorded, so that every FlowFile can be traced from where it entered the flow to where it left it.
+ * </p>
+ */
+public final class ProvenancePolicy {
+
+    public static final ProvenancePolicy FULL = new ProvenancePolicy(Mode.FULL, 1, 0L);
+
+    private final Mode mode;
+    private final int sampleRate;
+    private final long aggregationMillis;
+
+    private ProvenancePolicy(final Mode mode, final int sampleRate, final long aggregationMillis) {
+        this.mode = mode;
+        this.sampleRate = sampleRate;
+        this.aggregationMillis = aggregationMillis;
+    }
+
+    public static ProvenancePolicy sampled(final int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Provenance sample rate must be at least 1 but was " + sampleRate);
+        }
+        return sampleRate == 1 ? FULL : new ProvenancePolicy(Mode.SAMPLED, sampleRate, 0L);
+    }
+
+    public static ProvenancePolicy aggregated(final long period, final TimeUnit timeUnit) {
+        final long millis = timeUnit.toMillis(period);
+        if (millis < 1) {
+            throw new IllegalArgumentException("Provenance aggregation period must be at least 1 millisecond");
+        }
+        return new ProvenancePolicy(Mode.AGGREGATED, 1, millis);
+    }
+
+    /**
+     * Parses a policy from its textual form
+     *
+     * @param value the value to parse
+     * @return the policy
+     * @throws IllegalArgumentException if the value is not a valid policy
+     */
+    public static ProvenancePolicy parse(final String value) {
+        final String trimmed = value == null ? "" : value.trim();
+        final int colonIndex = trimmed.indexOf(':');
+        final String modeName = (colonIndex < 0 ? trimmed : trimmed.substring(0, colonIndex)).trim();
+        final String argument = colonIndex < 0 ? null : trimmed.substring(colonIndex + 1).trim();
+
+        if (modeName.equalsIgnoreCase("full") && argument == null) {
+            return FULL;
+        }
+
+        if (modeName.equalsIgnoreCase("sampled") && argument != null) {
+            try {
+                return sampled(Integer.parseInt(argument));
+            } catch (final NumberFormatException nfe) {
+                throw new IllegalArgumentException("Invalid Provenance Policy '" + value + "': sample rate must be a positive integer");
+            }
+        }
+
+        if (modeName.equalsIgnoreCase("aggregated") && argument != null) {
+            return aggregated(FormatUtils.getTimeDuration(argument, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        }
+
+        throw new IllegalArgumentException("Invalid Provenance Policy '" + value + "': must be one of 'full', 'sampled:<N>' or 'aggregated:<time period>'");
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getAggregationPeriod(final TimeUnit timeUnit) {
+        return timeUnit.convert(aggregationMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param eventType the type of event
+     * @return <code>true</code> if events of the given type begin or end a FlowFile's lineage, or link FlowFiles to one
+     *         another, and so are always recorded
+     */
+    public static boolean isLineageEvent(final ProvenanceEventType eventType) {
+        switch (eventType) {
+            case CREATE:
+            case RECEIVE:
+            case SEND:
+            case DROP:
+            case EXPIRE:
+            case FORK:
+            case JOIN:
+            case CLONE:
+            case REPLAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines whether or not the FlowFile with the given UUID is one of the 1 in N FlowFiles whose events are
+     * recorded. The decision depends only on the UUID and the sample rate, so every component that samples at the
+     * same rate records the events for the same FlowFiles.
+     *
+     * @param flowFileUuid the UUID of the FlowFile
+     * @return <code>true</code> if the FlowFile's events should be recorded
+     */
+    public boolean isSampled(final String flowFileUuid) {
+        if (sampleRate == 1 || flowFileUuid == null) {
+            return true;
+        }
+
+        // String.hashCode() of similar UUIDs differs mostly in the low bits, so mix the bits before taking the modulus
+        int hash = flowFileUuid.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % sampleRate == 0;
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case SAMPLED:
+                return "sampled:" + sampleRate;
+            case AGGREGATED:
+                return "aggregated:" + aggregationMillis + " millis";
+            default:
+                return "full";
+        }
+    }
+
+    public static enum Mode {
+        FULL,
+        SAMPLED,
+        AGGREGATED;
+    }
+}
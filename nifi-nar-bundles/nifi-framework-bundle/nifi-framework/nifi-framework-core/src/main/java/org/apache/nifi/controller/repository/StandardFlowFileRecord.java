@@ -50,6 +50,8 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
     private final long size;
     private final long penaltyExpirationMs;
     private final Map<String, String> attributes;
+    // the off-heap attributes that these (on-heap) attributes were copied from, while they remain unchanged
+    private final OffHeapAttributeArena.AttributeMap offHeapSource;
     private final ContentClaim claim;
     private final long claimOffset;
     private final long lastQueueDate;
@@ -57,7 +59,17 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
 
     private StandardFlowFileRecord(final Builder builder) {
         this.id = builder.bId;
-        this.attributes = builder.bAttributes;
+        if (builder.bAttributeArena == null) {
+            this.attributes = builder.bAttributes;
+            this.offHeapSource = builder.bOffHeapSource;
+        } else if (builder.bOffHeapSource != null && builder.bOffHeapSource.isStoredIn(builder.bAttributeArena)) {
+            // the attributes have not changed since they were copied from the arena, so there is no need to store them again
+            this.attributes = builder.bOffHeapSource;
+            this.offHeapSource = null;
+        } else {
+            this.attributes = builder.bAttributeArena.store(builder.bAttributes);
+            this.offHeapSource = null;
+        }
         this.entryDate = builder.bEntryDate;
         this.lineageStartDate = builder.bLineageStartDate;
         this.lineageStartIndex = builder.bLineageStartIndex;
@@ -104,6 +116,20 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
         return size;
     }
 
+    /**
+     * @return <code>true</code> if this FlowFile's attributes are held in an {@link OffHeapAttributeArena}
+     */
+    boolean hasOffHeapAttributes() {
+        return attributes instanceof OffHeapAttributeArena.AttributeMap;
+    }
+
+    /**
+     * @return the off-heap attributes that are the same as this FlowFile's attributes, or <code>null</code> if there are none
+     */
+    private OffHeapAttributeArena.AttributeMap getOffHeapAttributes() {
+        return hasOffHeapAttributes() ? (OffHeapAttributeArena.AttributeMap) attributes : offHeapSource;
+    }
+
     @Override
     public Map<String, String> getAttributes() {
         return Collections.unmodifiableMap(this.attributes);
@@ -181,6 +207,8 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
         private long bClaimOffset = 0L;
         private long bLastQueueDate = System.currentTimeMillis();
         private long bQueueDateIndex = 0L;
+        private OffHeapAttributeArena bAttributeArena = null;
+        private OffHeapAttributeArena.AttributeMap bOffHeapSource = null;
 
         public Builder id(final long id) {
             bId = id;
@@ -213,6 +241,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
         public Builder addAttribute(final String key, final String value) {
             if (key != null && value != null) {
                 bAttributes.put(FlowFile.KeyValidator.validateKey(key), value);
+                bOffHeapSource = null;
             }
             return this;
         }
@@ -227,6 +256,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
                     final String value = entry.getValue();
                     if (key != null && value != null) {
                         bAttributes.put(key, value);
+                        bOffHeapSource = null;
                     }
                 }
             }
@@ -241,6 +271,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
                     }
 
                     bAttributes.remove(key);
+                    bOffHeapSource = null;
                 }
             }
             return this;
@@ -254,6 +285,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
                     }
 
                     bAttributes.remove(key);
+                    bOffHeapSource = null;
                 }
             }
             return this;
@@ -271,6 +303,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
 
                     if (keyPattern.matcher(key).matches()) {
                         iterator.remove();
+                        bOffHeapSource = null;
                     }
                 }
             }
@@ -293,6 +326,17 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
             return this;
         }
 
+        /**
+         * Causes the attributes of the FlowFile that is built to be stored in the given arena rather than on the heap
+         *
+         * @param arena the arena to store the attributes in, or <code>null</code> to store them on the heap
+         * @return this Builder
+         */
+        public Builder attributeArena(final OffHeapAttributeArena arena) {
+            this.bAttributeArena = arena;
+            return this;
+        }
+
         public Builder fromFlowFile(final FlowFileRecord specFlowFile) {
             if (specFlowFile == null) {
                 return this;
@@ -304,6 +348,7 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
             bLineageIdentifiers.clear();
             bPenaltyExpirationMs = specFlowFile.getPenaltyExpirationMillis();
             bSize = specFlowFile.getSize();
+            bOffHeapSource = bAttributes.isEmpty() && specFlowFile instanceof StandardFlowFileRecord ? ((StandardFlowFileRecord) specFlowFile).getOffHeapAttributes() : null;
             bAttributes.putAll(specFlowFile.getAttributes());
             bClaim = specFlowFile.getContentClaim();
             bClaimOffset = specFlowFile.getContentClaimOffset();
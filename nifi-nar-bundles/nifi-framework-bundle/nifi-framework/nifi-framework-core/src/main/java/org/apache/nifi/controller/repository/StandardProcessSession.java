@@ -351,6 +351,24 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             final long claimRemovalFinishNanos = System.nanoTime();
             final long claimRemovalNanos = claimRemovalFinishNanos - claimRemovalStart;
 
+            // Move the attributes of FlowFiles that are to be queued off of the heap before they are handed to the FlowFile Repository
+            // and the queues, so that neither holds a reference to the on-heap attributes. If the arena is full, the attributes stay on the heap.
+            final OffHeapAttributeArena attributeArena = context.getAttributeArena();
+            if (attributeArena != null) {
+                for (final StandardRepositoryRecord record : checkpoint.records.values()) {
+                    if (record.isMarkedForAbort() || record.isMarkedForDelete() || record.getDestination() == null) {
+                        continue;
+                    }
+
+                    final FlowFileRecord current = record.getCurrent();
+                    if (current == null || (current instanceof StandardFlowFileRecord && ((StandardFlowFileRecord) current).hasOffHeapAttributes())) {
+                        continue;
+                    }
+
+                    record.setWorking(new StandardFlowFileRecord.Builder().fromFlowFile(current).attributeArena(attributeArena).build());
+                }
+            }
+
             // Update the FlowFile Repository
             try {
                 final Collection<StandardRepositoryRecord> repoRecords = checkpoint.records.values();
@@ -710,7 +728,12 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             }
         };
 
-        provenanceRepo.registerEvents(iterable);
+        final ProvenancePolicies provenancePolicies = context.getProvenancePolicies();
+        if (provenancePolicies == null) {
+            provenanceRepo.registerEvents(iterable);
+        } else {
+            provenanceRepo.registerEvents(provenancePolicies.apply(context.getConnectable().getIdentifier(), iterable));
+        }
     }
 
     private void updateEventContentClaims(final ProvenanceEventBuilder builder, final FlowFile flowFile, final StandardRepositoryRecord repoRecord) {
@@ -941,10 +964,14 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             if (record.getOriginal() != null) {
                 final FlowFileQueue originalQueue = record.getOriginalQueue();
                 if (originalQueue != null) {
+                    final OffHeapAttributeArena attributeArena = context.getAttributeArena();
                     if (penalize) {
                         final long expirationEpochMillis = System.currentTimeMillis() + context.getConnectable().getPenalizationPeriod(TimeUnit.MILLISECONDS);
-                        final FlowFileRecord newFile = new StandardFlowFileRecord.Builder().fromFlowFile(record.getOriginal()).penaltyExpirationTime(expirationEpochMillis).build();
+                        final FlowFileRecord newFile = new StandardFlowFileRecord.Builder().fromFlowFile(record.getOriginal()).penaltyExpirationTime(expirationEpochMillis)
+                            .attributeArena(attributeArena).build();
                         originalQueue.put(newFile);
+                    } else if (attributeArena != null) {
+                        originalQueue.put(new StandardFlowFileRecord.Builder().fromFlowFile(record.getOriginal()).attributeArena(attributeArena).build());
                     } else {
                         originalQueue.put(record.getOriginal());
                     }
@@ -1209,7 +1236,19 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         connectionEvent.setFlowFilesOut(connectionEvent.getFlowFilesOut() + 1);
     }
 
-    private void registerDequeuedRecord(final FlowFileRecord flowFile, final Connection connection) {
+    /**
+     * Registers a FlowFile that was pulled from the given Connection's queue, returning the FlowFile that is to be handed to the component.
+     * The off-heap attributes of a queued FlowFile are decoded each time that they are accessed, so they are copied back onto the heap here;
+     * unless they are changed by the component, the copy is moved back off of the heap without encoding the attributes again.
+     */
+    private FlowFileRecord registerDequeuedRecord(final FlowFileRecord dequeued, final Connection connection) {
+        final FlowFileRecord flowFile;
+        if (dequeued instanceof StandardFlowFileRecord && ((StandardFlowFileRecord) dequeued).hasOffHeapAttributes()) {
+            flowFile = new StandardFlowFileRecord.Builder().fromFlowFile(dequeued).build();
+        } else {
+            flowFile = dequeued;
+        }
+
         final StandardRepositoryRecord record = new StandardRepositoryRecord(connection.getFlowFileQueue(), flowFile);
         records.put(flowFile, record);
         flowFilesIn++;
@@ -1223,6 +1262,7 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         set.add(flowFile);
 
         incrementConnectionOutputCounts(connection, flowFile);
+        return flowFile;
     }
 
     @Override
@@ -1256,8 +1296,7 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             removeExpired(expired, conn);
 
             if (flowFile != null) {
-                registerDequeuedRecord(flowFile, conn);
-                return flowFile;
+                return registerDequeuedRecord(flowFile, conn);
             }
         }
 
@@ -1320,11 +1359,12 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
                     continue;
                 }
 
+                final List<FlowFile> selected = new ArrayList<>(newlySelected.size());
                 for (final FlowFileRecord flowFile : newlySelected) {
-                    registerDequeuedRecord(flowFile, conn);
+                    selected.add(registerDequeuedRecord(flowFile, conn));
                 }
 
-                return new ArrayList<FlowFile>(newlySelected);
+                return selected;
             }
 
             return new ArrayList<>();
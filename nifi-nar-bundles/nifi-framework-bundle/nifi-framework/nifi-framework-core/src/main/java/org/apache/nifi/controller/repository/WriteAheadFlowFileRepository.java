@@ -21,25 +21,29 @@ import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.nifi.controller.queue.FlowFileQueue;
 import org.apache.nifi.controller.repository.claim.ContentClaim;
@@ -47,6 +51,9 @@ import org.apache.nifi.controller.repository.claim.ResourceClaim;
 import org.apache.nifi.controller.repository.claim.ResourceClaimManager;
 import org.apache.nifi.controller.repository.claim.StandardContentClaim;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.stream.io.util.StringDictionaryDecoder;
+import org.apache.nifi.stream.io.util.StringDictionaryEncoder;
+import org.apache.nifi.stream.io.util.VarIntUtils;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.NiFiProperties;
 import org.slf4j.Logger;
@@ -70,13 +77,34 @@ import org.wali.WriteAheadRepository;
  * the Operating System will flush the data to disk. Additionally, most disks on enterprise servers also have battery backups that can power the disks long enough to flush their buffers. For this
  * reason, we choose instead to not sync to disk for every write but instead sync only when we checkpoint.
  * </p>
+ *
+ * <p>
+ * We also expose a property named <code>nifi.flowfile.repository.group.commit.window</code> that indicates how long to wait in order to combine the updates
+ * of concurrent sessions into a single update of the Write-Ahead Log. By default, the value is <code>0 millis</code>, meaning that each update is written
+ * individually. When many threads are committing small sessions, and particularly when <code>nifi.flowfile.repository.always.sync</code> is <code>true</code>,
+ * a window of a few milliseconds allows a single write (and sync) to cover many sessions. The thread whose update arrives first waits, for at most
+ * the window, while other threads are about to join its group or while a previous group is still being written, and then writes all updates that
+ * arrived in the meantime; the other threads wait for that write to complete. A thread that commits alone therefore does not wait at all. Each call to
+ * {@link #updateRepository(Collection)} still returns only after its records have been written, or throws an IOException if they could not be.
+ * </p>
  */
 public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncListener {
 
     private final AtomicLong flowFileSequenceGenerator = new AtomicLong(0L);
     private final boolean alwaysSync;
+    private final long groupCommitWindowNanos;
+
+    // guarded by groupCommitLock
+    private GroupCommit currentGroupCommit = null;
+    private final Object groupCommitLock = new Object();
+    private final AtomicLong groupCommitCount = new AtomicLong(0L);
+    private final AtomicInteger arrivingCommitters = new AtomicInteger(0);
+    private final AtomicInteger groupWritesInProgress = new AtomicInteger(0);
+    private final AtomicLong coalescedUpdateCount = new AtomicLong(0L);
 
     private static final Logger logger = LoggerFactory.getLogger(WriteAheadFlowFileRepository.class);
+    // how often a group commit leader checks whether there is still a reason to keep its group open
+    private static final long GROUP_COMMIT_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
     private volatile ScheduledFuture<?> checkpointFuture;
 
     private final long checkpointDelayMillis;
@@ -116,6 +144,8 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         final NiFiProperties properties = NiFiProperties.getInstance();
 
         alwaysSync = Boolean.parseBoolean(properties.getProperty(NiFiProperties.FLOWFILE_REPOSITORY_ALWAYS_SYNC, "false"));
+        groupCommitWindowNanos = FormatUtils.getTimeDuration(properties.getProperty(NiFiProperties.FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW,
+            NiFiProperties.DEFAULT_FLOWFILE_GROUP_COMMIT_WINDOW), TimeUnit.NANOSECONDS);
 
         // determine the database file path and ensure it exists
         flowFileRepositoryPath = properties.getFlowFileRepositoryPath();
@@ -166,7 +196,91 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
 
     @Override
     public void updateRepository(final Collection<RepositoryRecord> records) throws IOException {
-        updateRepository(records, alwaysSync);
+        if (groupCommitWindowNanos > 0L) {
+            groupCommit(records);
+        } else {
+            updateRepository(records, alwaysSync);
+        }
+    }
+
+    /**
+     * @return the number of writes to the Write-Ahead Log that were performed on behalf of one or more calls to
+     *         {@link #updateRepository(Collection)} when group commit is enabled
+     */
+    public long getGroupCommitCount() {
+        return groupCommitCount.get();
+    }
+
+    /**
+     * @return the number of calls to {@link #updateRepository(Collection)} that were combined into a write that was
+     *         performed on behalf of another call, when group commit is enabled
+     */
+    public long getCoalescedUpdateCount() {
+        return coalescedUpdateCount.get();
+    }
+
+    private void groupCommit(final Collection<RepositoryRecord> records) throws IOException {
+        arrivingCommitters.incrementAndGet();
+
+        // validate the records before joining a group so that an invalid record does not cause other sessions' updates to fail
+        try {
+            validateRecords(records);
+        } catch (final RuntimeException re) {
+            arrivingCommitters.decrementAndGet();
+            throw re;
+        }
+
+        final GroupCommit groupCommit;
+        final boolean leader;
+        synchronized (groupCommitLock) {
+            arrivingCommitters.decrementAndGet();
+            if (currentGroupCommit == null) {
+                currentGroupCommit = new GroupCommit();
+                leader = true;
+            } else {
+                leader = false;
+            }
+
+            groupCommit = currentGroupCommit;
+            groupCommit.records.addAll(records);
+        }
+
+        if (leader) {
+            // Wait only while there is something to wait for: another thread that is about to join this group, or a previous
+            // group whose write is still in progress and whose committers will likely follow with further updates.
+            final long windowEnd = System.nanoTime() + groupCommitWindowNanos;
+            long remaining = groupCommitWindowNanos;
+            while (remaining > 0L && (arrivingCommitters.get() > 0 || groupWritesInProgress.get() > 0)) {
+                LockSupport.parkNanos(Math.min(remaining, GROUP_COMMIT_POLL_NANOS));
+                remaining = windowEnd - System.nanoTime();
+            }
+
+            // Close the group so that any subsequent update begins a new group. Nothing can be added to this group
+            // after this point, so it is safe to access the group's records without holding the lock.
+            synchronized (groupCommitLock) {
+                currentGroupCommit = null;
+                groupWritesInProgress.incrementAndGet();
+            }
+
+            try {
+                updateRepository(groupCommit.records, alwaysSync);
+            } catch (final IOException ioe) {
+                groupCommit.failure = ioe;
+            } catch (final RuntimeException re) {
+                groupCommit.failure = new IOException(re);
+            } finally {
+                groupWritesInProgress.decrementAndGet();
+                groupCommitCount.incrementAndGet();
+                groupCommit.complete.countDown();
+            }
+        } else {
+            coalescedUpdateCount.incrementAndGet();
+            groupCommit.awaitCompletion();
+        }
+
+        if (groupCommit.failure != null) {
+            throw new IOException("Failed to update FlowFile Repository", groupCommit.failure);
+        }
     }
 
     private void markDestructable(final ResourceClaim resourceClaim) {
@@ -190,12 +304,16 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         return claimManager.getClaimantCount(resourceClaim);
     }
 
-    private void updateRepository(final Collection<RepositoryRecord> records, final boolean sync) throws IOException {
+    private void validateRecords(final Collection<RepositoryRecord> records) {
         for (final RepositoryRecord record : records) {
             if (record.getType() != RepositoryRecordType.DELETE && record.getType() != RepositoryRecordType.CONTENTMISSING && record.getDestination() == null) {
                 throw new IllegalArgumentException("Record " + record + " has no destination and Type is " + record.getType());
             }
         }
+    }
+
+    private void updateRepository(final Collection<RepositoryRecord> records, final boolean sync) throws IOException {
+        validateRecords(records);
 
         // update the repository.
         final int partitionIndex = wal.update(records, sync);
@@ -361,6 +479,10 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
                     final long millis = TimeUnit.MILLISECONDS.convert(end - start, TimeUnit.NANOSECONDS);
                     logger.info("Successfully checkpointed FlowFile Repository with {} records in {} milliseconds",
                             new Object[]{numRecordsCheckpointed, millis});
+                    if (groupCommitWindowNanos > 0L) {
+                        logger.info("FlowFile Repository has performed {} group commits, which have included {} updates that were coalesced from other sessions",
+                            new Object[]{groupCommitCount.get(), coalescedUpdateCount.get()});
+                    }
                 } catch (final IOException e) {
                     logger.error("Unable to checkpoint FlowFile Repository due to " + e.toString(), e);
                 }
@@ -387,8 +509,46 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         return wal.checkpoint();
     }
 
+    /**
+     * The updates that are to be written to the Write-Ahead Log together as a single group commit
+     */
+    private static class GroupCommit {
+        private final List<RepositoryRecord> records = new ArrayList<>();
+        private final CountDownLatch complete = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        private void awaitCompletion() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    complete.await();
+                    break;
+                } catch (final InterruptedException ie) {
+                    // we cannot return until the records have been written, as the caller expects them to be persisted
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Serializes and deserializes Repository Records. As of version 10, attribute keys, attribute values that repeat, Connection
+     * identifiers and Resource Claim identifiers are written using a {@link StringDictionaryEncoder}, so that a String that has
+     * already been written to a journal or snapshot is written as a small integer identifier rather than in full. Because the
+     * identifiers are assigned implicitly as the stream is written, there is a separate dictionary for each stream: a journal
+     * file is written by only a single partition and a snapshot by only a single thread, and each is read from its beginning
+     * during recovery. Earlier versions can still be read, so that an existing repository can be recovered after upgrading.
+     * </p>
+     */
     private static class WriteAheadRecordSerde implements SerDe<RepositoryRecord> {
-        private static final int CURRENT_ENCODING_VERSION = 9;
+        private static final int CURRENT_ENCODING_VERSION = 10;
+        private static final int FIRST_DICTIONARY_ENCODING_VERSION = 10;
+        private static final int MAX_DICTIONARY_ENTRIES = 16384;
 
         public static final byte ACTION_CREATE = 0;
         public static final byte ACTION_UPDATE = 1;
@@ -397,9 +557,14 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         public static final byte ACTION_SWAPPED_IN = 4;
 
         private Map<String, FlowFileQueue> flowFileQueueMap = null;
-        private long recordsRestored = 0L;
+        private final AtomicLong recordsRestored = new AtomicLong(0L);
         private final ResourceClaimManager claimManager;
 
+        // The SerDe is shared by all partitions, so we keep the dictionaries keyed by the stream that they belong to. The streams
+        // are weakly referenced so that the dictionaries are discarded along with the stream when a journal is rolled over.
+        private final Map<DataOutputStream, StringDictionaryEncoder> encoders = Collections.synchronizedMap(new WeakHashMap<DataOutputStream, StringDictionaryEncoder>());
+        private final Map<DataInputStream, StringDictionaryDecoder> decoders = Collections.synchronizedMap(new WeakHashMap<DataInputStream, StringDictionaryDecoder>());
+
         public WriteAheadRecordSerde(final ResourceClaimManager claimManager) {
             this.claimManager = claimManager;
         }
@@ -443,7 +608,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             if (updateType.equals(UpdateType.SWAP_OUT)) {
                 out.write(ACTION_SWAPPED_OUT);
                 out.writeLong(getRecordIdentifier(record));
-                out.writeUTF(associatedQueue.getIdentifier());
+                getEncoder(out).write(associatedQueue.getIdentifier(), out);
                 out.writeUTF(getLocation(record));
                 return;
             }
@@ -475,12 +640,13 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             out.writeLong(flowFile.getQueueDateIndex());
             out.writeLong(flowFile.getSize());
 
+            final StringDictionaryEncoder encoder = getEncoder(out);
             if (associatedQueue == null) {
                 logger.warn("{} Repository Record {} has no Connection associated with it; it will be destroyed on restart",
                         new Object[]{this, record});
-                writeString("", out);
+                encoder.write("", out);
             } else {
-                writeString(associatedQueue.getIdentifier(), out);
+                encoder.write(associatedQueue.getIdentifier(), out);
             }
 
             serializeContentClaim(claim, record.getCurrentClaimOffset(), out);
@@ -488,10 +654,12 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             if (forceAttributesWritten || record.isAttributesChanged() || updateType == UpdateType.CREATE || updateType == UpdateType.SWAP_IN) {
                 out.write(1);   // indicate attributes changed
                 final Map<String, String> attributes = flowFile.getAttributes();
-                out.writeInt(attributes.size());
+                VarIntUtils.writeVarInt(attributes.size(), out);
                 for (final Map.Entry<String, String> entry : attributes.entrySet()) {
-                    writeString(entry.getKey(), out);
-                    writeString(entry.getValue(), out);
+                    // attribute keys are nearly always repeated, but many values (such as the uuid) are unique,
+                    // so we only add a value to the dictionary once we have seen it more than once.
+                    encoder.write(entry.getKey(), out);
+                    encoder.writeIfRepeated(entry.getValue(), out);
                 }
             } else {
                 out.write(0);   // indicate attributes did not change
@@ -521,7 +689,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             }
 
             if (action == ACTION_SWAPPED_OUT) {
-                final String queueId = in.readUTF();
+                final String queueId = version < FIRST_DICTIONARY_ENCODING_VERSION ? in.readUTF() : getDecoder(in).read(in);
                 final String location = in.readUTF();
                 final FlowFileQueue queue = flowFileQueueMap.get(queueId);
 
@@ -571,7 +739,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             }
 
             ffBuilder.size(in.readLong());
-            final String connectionId = readString(in);
+            final String connectionId = readConnectionId(in, version);
 
             logger.debug("{} -> {}", new Object[]{recordId, connectionId});
 
@@ -582,15 +750,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             if (attributesChanged == -1) {
                 throw new EOFException();
             } else if (attributesChanged == 1) {
-                final int numAttributes = in.readInt();
-                final Map<String, String> attributes = new HashMap<>();
-                for (int i = 0; i < numAttributes; i++) {
-                    final String key = readString(in);
-                    final String value = readString(in);
-                    attributes.put(key, value);
-                }
-
-                ffBuilder.addAttributes(attributes);
+                ffBuilder.addAttributes(readAttributes(in, version));
             } else if (attributesChanged != 0) {
                 throw new IOException("Attribute Change Qualifier not found in stream; found value: "
                         + attributesChanged + " after successfully restoring " + recordsRestored + " records. The FlowFile Repository appears to be corrupt!");
@@ -622,7 +782,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
                 }
             }
 
-            recordsRestored++;
+            recordsRestored.incrementAndGet();
             return standardRepoRecord;
         }
 
@@ -683,7 +843,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             }
 
             final long size = in.readLong();
-            final String connectionId = readString(in);
+            final String connectionId = readConnectionId(in, version);
 
             logger.debug("{} -> {}", new Object[]{recordId, connectionId});
 
@@ -695,15 +855,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
 
             final int attributesChanged = in.read();
             if (attributesChanged == 1) {
-                final int numAttributes = in.readInt();
-                final Map<String, String> attributes = new HashMap<>();
-                for (int i = 0; i < numAttributes; i++) {
-                    final String key = readString(in);
-                    final String value = readString(in);
-                    attributes.put(key, value);
-                }
-
-                ffBuilder.addAttributes(attributes);
+                ffBuilder.addAttributes(readAttributes(in, version));
             } else if (attributesChanged == -1) {
                 throw new EOFException();
             } else if (attributesChanged != 0) {
@@ -737,7 +889,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
                 }
             }
 
-            recordsRestored++;
+            recordsRestored.incrementAndGet();
             return record;
         }
 
@@ -746,16 +898,70 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             serializeEdit(null, record, out, true);
         }
 
+        private StringDictionaryEncoder getEncoder(final DataOutputStream out) {
+            synchronized (encoders) {
+                StringDictionaryEncoder encoder = encoders.get(out);
+                if (encoder == null) {
+                    encoder = new StringDictionaryEncoder(MAX_DICTIONARY_ENTRIES);
+                    encoders.put(out, encoder);
+                }
+                return encoder;
+            }
+        }
+
+        private StringDictionaryDecoder getDecoder(final DataInputStream in) {
+            synchronized (decoders) {
+                StringDictionaryDecoder decoder = decoders.get(in);
+                if (decoder == null) {
+                    decoder = new StringDictionaryDecoder();
+                    decoders.put(in, decoder);
+                }
+                return decoder;
+            }
+        }
+
+        private String readConnectionId(final DataInputStream in, final int version) throws IOException {
+            if (version < FIRST_DICTIONARY_ENCODING_VERSION) {
+                return readString(in);
+            }
+
+            return getDecoder(in).read(in);
+        }
+
+        private Map<String, String> readAttributes(final DataInputStream in, final int version) throws IOException {
+            if (version < FIRST_DICTIONARY_ENCODING_VERSION) {
+                final int numAttributes = in.readInt();
+                final Map<String, String> attributes = new HashMap<>();
+                for (int i = 0; i < numAttributes; i++) {
+                    final String key = readString(in);
+                    final String value = readString(in);
+                    attributes.put(key, value);
+                }
+                return attributes;
+            }
+
+            final StringDictionaryDecoder decoder = getDecoder(in);
+            final int numAttributes = VarIntUtils.readVarInt(in);
+            final Map<String, String> attributes = new HashMap<>(numAttributes * 4 / 3 + 1);
+            for (int i = 0; i < numAttributes; i++) {
+                final String key = decoder.read(in);
+                final String value = decoder.read(in);
+                attributes.put(key, value);
+            }
+            return attributes;
+        }
+
         private void serializeContentClaim(final ContentClaim claim, final long offset, final DataOutputStream out) throws IOException {
             if (claim == null) {
                 out.write(0);
             } else {
                 out.write(1);
 
+                final StringDictionaryEncoder encoder = getEncoder(out);
                 final ResourceClaim resourceClaim = claim.getResourceClaim();
-                writeString(resourceClaim.getId(), out);
-                writeString(resourceClaim.getContainer(), out);
-                writeString(resourceClaim.getSection(), out);
+                encoder.writeIfRepeated(resourceClaim.getId(), out);
+                encoder.write(resourceClaim.getContainer(), out);
+                encoder.write(resourceClaim.getSection(), out);
                 out.writeLong(claim.getOffset());
                 out.writeLong(claim.getLength());
 
@@ -769,15 +975,23 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             final int claimExists = in.read();
             if (claimExists == 1) {
                 final String claimId;
+                final String container;
+                final String section;
                 if (serializationVersion < 4) {
                     claimId = String.valueOf(in.readLong());
-                } else {
+                    container = readString(in);
+                    section = readString(in);
+                } else if (serializationVersion < FIRST_DICTIONARY_ENCODING_VERSION) {
                     claimId = readString(in);
+                    container = readString(in);
+                    section = readString(in);
+                } else {
+                    final StringDictionaryDecoder decoder = getDecoder(in);
+                    claimId = decoder.read(in);
+                    container = decoder.read(in);
+                    section = decoder.read(in);
                 }
 
-                final String container = readString(in);
-                final String section = readString(in);
-
                 final long resourceOffset;
                 final long resourceLength;
                 if (serializationVersion < 7) {
@@ -811,25 +1025,6 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
             }
         }
 
-        private void writeString(final String toWrite, final OutputStream out) throws IOException {
-            final byte[] bytes = toWrite.getBytes("UTF-8");
-            final int utflen = bytes.length;
-
-            if (utflen < 65535) {
-                out.write(utflen >>> 8);
-                out.write(utflen);
-                out.write(bytes);
-            } else {
-                out.write(255);
-                out.write(255);
-                out.write(utflen >>> 24);
-                out.write(utflen >>> 16);
-                out.write(utflen >>> 8);
-                out.write(utflen);
-                out.write(bytes);
-            }
-        }
-
         private String readString(final InputStream in) throws IOException {
             final Integer numBytes = readFieldLength(in);
             if (numBytes == null) {
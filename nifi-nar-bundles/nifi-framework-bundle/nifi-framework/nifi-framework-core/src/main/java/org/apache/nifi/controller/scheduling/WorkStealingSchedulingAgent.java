@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.controller.FlowController;
+import org.apache.nifi.controller.ProcessorNode;
+import org.apache.nifi.controller.ReportingTaskNode;
+import org.apache.nifi.controller.tasks.ContinuallyRunConnectableTask;
+import org.apache.nifi.controller.tasks.ContinuallyRunProcessorTask;
+import org.apache.nifi.controller.tasks.ReportingTaskWrapper;
+import org.apache.nifi.encrypt.StringEncryptor;
+import org.apache.nifi.engine.FlowEngine;
+import org.apache.nifi.processor.StandardProcessContext;
+import org.apache.nifi.util.Connectables;
+import org.apache.nifi.util.FormatUtils;
+import org.apache.nifi.util.NiFiProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A SchedulingAgent for Timer-Driven components that runs a component when there is work for it, rather than checking
+ * each component for work on a timer. A component with incoming Connections is run when FlowFiles are queued for it or
+ * when back pressure on one of its outgoing Connections is relieved, as signaled through {@link #onEvent(Connectable)}.
+ * While it has FlowFiles queued, it is run again as soon as it finishes. Once it has no work, it is not run again until
+ * it is signaled, so idle components use no CPU.
+ * </p>
+ *
+ * <p>
+ * Components are run by a {@link ForkJoinPool}, which keeps a run queue for each of its threads. A component that is
+ * signaled by a thread of the pool, such as the destination of a FlowFile that was just transferred, is placed on
+ * that thread's own queue, so that it is likely to be run on the same core as the component that produced its data.
+ * Threads whose queues are empty take work from the queues of busy threads.
+ * </p>
+ *
+ * <p>
+ * Components that have no incoming Connections other than self-loops, or that are triggered when empty, cannot be
+ * signaled by their Connections, so they are run according to their Run Schedule, and are yielded for the configured
+ * bored yield duration when they have no work, as they are by the {@link TimerDrivenSchedulingAgent}. Components that
+ * are waiting to be signaled are also checked for work every 10 seconds, so that a component is never left idle if it
+ * was not signaled for a change that affects it, such as a Connection being removed.
+ * </p>
+ */
+public class WorkStealingSchedulingAgent extends AbstractSchedulingAgent {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkStealingSchedulingAgent.class);
+    private static final long IDLE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(10L);
+
+    private final long noWorkYieldNanos;
+
+    private final FlowController flowController;
+    private final ProcessContextFactory contextFactory;
+    private final StringEncryptor encryptor;
+    private final ConcurrentMap<Connectable, ScheduledComponent> scheduledComponents = new ConcurrentHashMap<>();
+    private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+    private volatile ForkJoinPool workerPool;
+    private volatile String adminYieldDuration = "1 sec";
+
+    public WorkStealingSchedulingAgent(final FlowController flowController, final FlowEngine flowEngine, final ProcessContextFactory contextFactory,
+            final StringEncryptor encryptor, final int maxThreadCount) {
+        super(flowEngine);
+        this.flowController = flowController;
+        this.contextFactory = contextFactory;
+        this.encryptor = encryptor;
+        this.workerPool = createWorkerPool(maxThreadCount);
+
+        final String boredYieldDuration = NiFiProperties.getInstance().getBoredYieldDuration();
+        try {
+            noWorkYieldNanos = FormatUtils.getTimeDuration(boredYieldDuration, TimeUnit.NANOSECONDS);
+        } catch (final IllegalArgumentException e) {
+            throw new RuntimeException("Failed to create SchedulingAgent because the " + NiFiProperties.BORED_YIELD_DURATION + " property is set to an invalid time duration: " + boredYieldDuration);
+        }
+    }
+
+    private ForkJoinPool createWorkerPool(final int maxThreadCount) {
+        final ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Work-Stealing Process Thread-" + threadIndex.incrementAndGet());
+                return thread;
+            }
+        };
+
+        // use asynchronous mode so that each thread runs the components on its own queue in the order in which they were signaled
+        return new ForkJoinPool(Math.max(1, maxThreadCount), threadFactory, null, true);
+    }
+
+    private StateManager getStateManager(final String componentId) {
+        return flowController.getStateManagerProvider().getStateManager(componentId);
+    }
+
+    @Override
+    public void shutdown() {
+        workerPool.shutdown();
+        flowEngine.shutdown();
+    }
+
+    @Override
+    public void doSchedule(final ReportingTaskNode taskNode, final ScheduleState scheduleState) {
+        final Runnable reportingTaskWrapper = new ReportingTaskWrapper(taskNode, scheduleState);
+        final long schedulingNanos = taskNode.getSchedulingPeriod(TimeUnit.NANOSECONDS);
+
+        final ScheduledFuture<?> future = flowEngine.scheduleWithFixedDelay(reportingTaskWrapper, 0L, schedulingNanos, TimeUnit.NANOSECONDS);
+        final List<ScheduledFuture<?>> futures = new ArrayList<>(1);
+        futures.add(future);
+        scheduleState.setFutures(futures);
+
+        logger.info("{} started.", taskNode.getReportingTask());
+    }
+
+    @Override
+    public void doSchedule(final Connectable connectable, final ScheduleState scheduleState) {
+        final ScheduledComponent component = new ScheduledComponent(connectable, scheduleState);
+        for (int i = 0; i < connectable.getMaxConcurrentTasks(); i++) {
+            component.idleTasks.offer(createTask(connectable, scheduleState));
+        }
+
+        scheduledComponents.put(connectable, component);
+
+        // run every task once so that each may find any work that is already queued or, for components
+        // that are run on their schedule, so that they start running.
+        runIdleTasks(component);
+        logger.info("Scheduled {} to run with {} threads", connectable, connectable.getMaxConcurrentTasks());
+    }
+
+    /**
+     * Creates a task that runs the given component once, if it has work to do. The task returns <code>true</code> if
+     * the component had no work to do or could not run because of back pressure, <code>false</code> otherwise.
+     *
+     * @param connectable the component to run
+     * @param scheduleState the ScheduleState of the component
+     * @return a task that runs the component
+     */
+    protected Callable<Boolean> createTask(final Connectable connectable, final ScheduleState scheduleState) {
+        if (connectable.getConnectableType() == ConnectableType.PROCESSOR) {
+            final ProcessorNode procNode = (ProcessorNode) connectable;
+            final StandardProcessContext standardProcContext = new StandardProcessContext(procNode, flowController, encryptor, getStateManager(connectable.getIdentifier()));
+            return new ContinuallyRunProcessorTask(this, procNode, flowController, contextFactory, scheduleState, standardProcContext);
+        } else {
+            final ConnectableProcessContext processContext = new ConnectableProcessContext(connectable, encryptor, getStateManager(connectable.getIdentifier()));
+            return new ContinuallyRunConnectableTask(contextFactory, connectable, scheduleState, processContext);
+        }
+    }
+
+    @Override
+    public void doUnschedule(final Connectable connectable, final ScheduleState scheduleState) {
+        final ScheduledComponent component = scheduledComponents.remove(connectable);
+        if (component != null) {
+            component.cancelWakeup();
+        }
+
+        logger.info("Stopped scheduling {} to run", connectable);
+    }
+
+    @Override
+    public void doUnschedule(final ReportingTaskNode taskNode, final ScheduleState scheduleState) {
+        for (final ScheduledFuture<?> future : scheduleState.getFutures()) {
+            // stop scheduling to run but do not interrupt currently running tasks.
+            future.cancel(false);
+        }
+
+        logger.info("Stopped scheduling {} to run", taskNode.getReportingTask());
+    }
+
+    @Override
+    public void setAdministrativeYieldDuration(final String yieldDuration) {
+        this.adminYieldDuration = yieldDuration;
+    }
+
+    @Override
+    public String getAdministrativeYieldDuration() {
+        return adminYieldDuration;
+    }
+
+    @Override
+    public long getAdministrativeYieldDuration(final TimeUnit timeUnit) {
+        return FormatUtils.getTimeDuration(adminYieldDuration, timeUnit);
+    }
+
+    /**
+     * Signals that the given component may have work to do, because FlowFiles were queued for it or because
+     * back pressure on one of its outgoing Connections was relieved
+     *
+     * @param connectable the component
+     */
+    @Override
+    public void onEvent(final Connectable connectable) {
+        final ScheduledComponent component = scheduledComponents.get(connectable);
+        if (component == null) {
+            return;
+        }
+
+        // If the component has already been signaled, a task will check for work before it becomes idle.
+        if (component.signaled.getAndSet(true)) {
+            return;
+        }
+
+        // A yielded component is run once its yield expires, and will then find the work that it was signaled for.
+        if (connectable.getYieldExpiration() > System.currentTimeMillis()) {
+            return;
+        }
+
+        runIdleTask(component);
+    }
+
+    /**
+     * Replaces the pool of threads with one of the given size. Components that are already waiting to run
+     * are run by the previous pool, which is shut down once they are finished.
+     *
+     * @param maxThreads the number of threads
+     */
+    @Override
+    public synchronized void setMaxThreadCount(final int maxThreads) {
+        if (maxThreads < 1 || maxThreads == workerPool.getParallelism()) {
+            return;
+        }
+
+        final ForkJoinPool previousPool = workerPool;
+        workerPool = createWorkerPool(maxThreads);
+        previousPool.shutdown();
+    }
+
+    /**
+     * @return the number of threads that are currently running components
+     */
+    public int getActiveThreadCount() {
+        return workerPool.getActiveThreadCount();
+    }
+
+    /**
+     * @return the number of times that a thread took a component to run from the queue of another thread
+     */
+    public long getStealCount() {
+        return workerPool.getStealCount();
+    }
+
+    private void runIdleTasks(final ScheduledComponent component) {
+        for (int i = 0; i < component.connectable.getMaxConcurrentTasks(); i++) {
+            if (!runIdleTask(component)) {
+                break;
+            }
+        }
+    }
+
+    private boolean runIdleTask(final ScheduledComponent component) {
+        if (!component.scheduleState.isScheduled()) {
+            return false;
+        }
+
+        final Callable<Boolean> task = component.idleTasks.poll();
+        if (task == null) {
+            // all of the component's tasks are already running or waiting to run
+            return false;
+        }
+
+        final ForkJoinPool pool = workerPool;
+        final RunComponentTask runTask = new RunComponentTask(component, task);
+        try {
+            final Thread currentThread = Thread.currentThread();
+            if (currentThread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) currentThread).getPool() == pool) {
+                // place the task on this thread's own queue; other threads will steal it if this one is busy
+                ForkJoinTask.adapt(runTask).fork();
+            } else {
+                pool.execute(runTask);
+            }
+        } catch (final RejectedExecutionException ree) {
+            component.idleTasks.offer(task);
+            if (!pool.isShutdown()) {
+                throw ree;
+            }
+
+            // the pool was replaced; run the task on the current pool instead
+            if (pool != workerPool) {
+                return runIdleTask(component);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean isRunOnSchedule(final Connectable connectable) {
+        return connectable.isTriggerWhenEmpty() || !connectable.hasIncomingConnection() || !Connectables.hasNonLoopConnection(connectable)
+            || connectable instanceof ProcessorNode && ((ProcessorNode) connectable).isIsolated();
+    }
+
+    private void afterRun(final ScheduledComponent component, final boolean noWork) {
+        final Connectable connectable = component.connectable;
+        final boolean runOnSchedule = isRunOnSchedule(connectable);
+        final long schedulingNanos = connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS);
+
+        // If the component is yielded, run it again once the yield has expired
+        final long yieldMillis = connectable.getYieldExpiration() - System.currentTimeMillis();
+        if (yieldMillis > 0L) {
+            component.wakeup(TimeUnit.MILLISECONDS.toNanos(yieldMillis));
+            return;
+        }
+
+        if (!noWork) {
+            // a component whose Run Schedule is the minimum runs again immediately; otherwise, it waits for its Run Schedule
+            if (schedulingNanos > Connectable.MINIMUM_SCHEDULING_NANOS) {
+                component.wakeup(schedulingNanos);
+            } else if (runOnSchedule || component.signaled.get() || Connectables.flowFilesQueued(connectable)) {
+                runIdleTask(component);
+            } else {
+                component.wakeup(IDLE_CHECK_NANOS);
+            }
+            return;
+        }
+
+        if (component.signaled.get()) {
+            // work may have arrived while the component was running
+            runIdleTask(component);
+        } else if (runOnSchedule) {
+            component.wakeup(Math.max(schedulingNanos, noWorkYieldNanos));
+        } else {
+            component.wakeup(IDLE_CHECK_NANOS);
+        }
+    }
+
+
+    /**
+     * The state of a component that is scheduled to run
+     */
+    private class ScheduledComponent {
+        private final Connectable connectable;
+        private final ScheduleState scheduleState;
+        private final Queue<Callable<Boolean>> idleTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean signaled = new AtomicBoolean(false);
+
+        private ScheduledFuture<?> wakeupFuture;
+        private long wakeupNanos;
+
+        public ScheduledComponent(final Connectable connectable, final ScheduleState scheduleState) {
+            this.connectable = connectable;
+            this.scheduleState = scheduleState;
+        }
+
+        /**
+         * Runs the component's idle tasks after the given delay, unless they are to be run sooner already
+         */
+        public synchronized void wakeup(final long delayNanos) {
+            final long wakeupTime = System.nanoTime() + delayNanos;
+            if (wakeupFuture != null && !wakeupFuture.isDone()) {
+                if (wakeupNanos - wakeupTime <= 0L) {
+                    return;
+                }
+
+                wakeupFuture.cancel(false);
+            }
+
+            if (!scheduleState.isScheduled()) {
+                return;
+            }
+
+            wakeupNanos = wakeupTime;
+            wakeupFuture = flowEngine.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // clear the wakeup before running the tasks, so that they are able to schedule the next one
+                    synchronized (ScheduledComponent.this) {
+                        wakeupFuture = null;
+                    }
+
+                    if (isRunOnSchedule(connectable)) {
+                        runIdleTasks(ScheduledComponent.this);
+                    } else {
+                        runIdleTask(ScheduledComponent.this);
+                    }
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public synchronized void cancelWakeup() {
+            if (wakeupFuture != null) {
+                wakeupFuture.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Runs one task of a component and then determines when the component should run again
+     */
+    private class RunComponentTask implements Runnable {
+        private final ScheduledComponent component;
+        private final Callable<Boolean> task;
+
+        public RunComponentTask(final ScheduledComponent component, final Callable<Boolean> task) {
+            this.component = component;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!component.scheduleState.isScheduled()) {
+                component.idleTasks.offer(task);
+                return;
+            }
+
+            // clear the signal before checking for work, so that work that arrives from now on signals the component again
+            component.signaled.set(false);
+
+            // if more FlowFiles are queued, start another of the component's tasks so that it uses up to its maximum number of concurrent tasks
+            if (!component.idleTasks.isEmpty() && Connectables.flowFilesQueued(component.connectable)) {
+                runIdleTask(component);
+            }
+
+            final boolean noWork;
+            try {
+                noWork = task.call();
+            } catch (final Throwable t) {
+                logger.error("Failed to run {} due to {}", component.connectable, t.toString());
+                logger.error("", t);
+
+                component.idleTasks.offer(task);
+                component.wakeup(getAdministrativeYieldDuration(TimeUnit.NANOSECONDS));
+                return;
+            }
+
+            component.idleTasks.offer(task);
+            if (component.scheduleState.isScheduled()) {
+                afterRun(component, noWork);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Set;
 
 import org.apache.nifi.attribute.expression.language.PreparedQuery;
 import org.apache.nifi.attribute.expression.language.Query;
+import org.apache.nifi.attribute.expression.language.RuleSetCompiler;
 import org.apache.nifi.attribute.expression.language.StandardPropertyValue;
 import org.apache.nifi.attribute.expression.language.Query.Range;
 import org.apache.nifi.components.PropertyDescriptor;
@@ -43,6 +44,9 @@ public class StandardProcessContext implements ProcessContext, ControllerService
     private final ProcessorNode procNode;
     private final ControllerServiceProvider controllerServiceProvider;
     private final Map<PropertyDescriptor, PreparedQuery> preparedQueries;
+    // prepares the property values, and any values created through newPropertyValue, so that they share the results of common sub-expressions.
+    // A value passed to newPropertyValue repeatedly, such as for each FlowFile, is prepared once, and the number of distinct values is bounded.
+    private final RuleSetCompiler ruleSetCompiler = new RuleSetCompiler();
     private final StringEncryptor encryptor;
     private final StateManager stateManager;
 
@@ -60,7 +64,7 @@ public class StandardProcessContext implements ProcessContext, ControllerService
                 value = desc.getDefaultValue();
             }
 
-            final PreparedQuery pq = Query.prepare(value);
+            final PreparedQuery pq = ruleSetCompiler.prepare(value);
             preparedQueries.put(desc, pq);
         }
     }
@@ -91,7 +95,7 @@ public class StandardProcessContext implements ProcessContext, ControllerService
 
     @Override
     public PropertyValue newPropertyValue(final String rawValue) {
-        return new StandardPropertyValue(rawValue, this, Query.prepare(rawValue));
+        return new StandardPropertyValue(rawValue, this, ruleSetCompiler.prepare(rawValue));
     }
 
     @Override
@@ -17,8 +17,11 @@
 package org.apache.nifi.controller;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -27,21 +30,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nifi.controller.queue.FlowFileQueue;
 import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.controller.repository.IncompleteSwapFileException;
+import org.apache.nifi.controller.repository.StandardFlowFileRecord;
 import org.apache.nifi.controller.repository.SwapContents;
 import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.ResourceClaim;
 import org.apache.nifi.controller.repository.claim.ResourceClaimManager;
+import org.apache.nifi.controller.repository.claim.StandardContentClaim;
+import org.apache.nifi.controller.repository.claim.StandardResourceClaimManager;
 import org.apache.nifi.flowfile.FlowFile;
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -113,6 +123,101 @@ public class TestFileSystemSwapManager {
         }
     }
 
+    @Test
+    public void testRoundTripWithContentClaims() throws IOException {
+        final StandardResourceClaimManager claimManager = new StandardResourceClaimManager();
+        final List<FlowFileRecord> toSwap = new ArrayList<>(2500);
+        for (int i = 0; i < 2500; i++) {
+            final StandardFlowFileRecord.Builder builder = new StandardFlowFileRecord.Builder()
+                .id(1000L + i * 3)
+                .entryDate(System.currentTimeMillis() - i)
+                .lineageStart(System.currentTimeMillis() - 2 * i, i)
+                .lastQueued(System.currentTimeMillis(), i)
+                .size(i * 10L)
+                .addAttribute("uuid", UUID.randomUUID().toString())
+                .addAttribute("path", "./")
+                .addAttribute("index", String.valueOf(i % 7));
+
+            if (i % 5 != 0) {
+                final ResourceClaim resourceClaim = claimManager.newResourceClaim("container-" + (i % 2), String.valueOf(i % 3), "claim-" + (i / 100), i % 2 == 0);
+                final StandardContentClaim contentClaim = new StandardContentClaim(resourceClaim, i * 10L);
+                contentClaim.setLength(i % 10 == 1 ? -1L : i * 10L);
+                builder.contentClaim(contentClaim).contentClaimOffset(i % 4);
+            }
+
+            toSwap.add(builder.build());
+        }
+
+        final FlowFileQueue flowFileQueue = Mockito.mock(FlowFileQueue.class);
+        Mockito.when(flowFileQueue.getIdentifier()).thenReturn("87bb99fe-412c-49f6-a441-d1b0af4e20b4");
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FileSystemSwapManager.serializeFlowFiles(toSwap, flowFileQueue, "target/testRoundTripWithContentClaims.swap", baos);
+
+        final SwapContents swappedIn;
+        try (final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            swappedIn = FileSystemSwapManager.deserializeFlowFiles(dis, "target/testRoundTripWithContentClaims.swap", flowFileQueue, claimManager);
+        }
+
+        assertEquals(toSwap.size(), swappedIn.getFlowFiles().size());
+        assertEquals(Long.valueOf(1000L + 2499 * 3), swappedIn.getSummary().getMaxFlowFileId());
+        assertEquals(2000, swappedIn.getSummary().getResourceClaims().size());
+
+        for (int i = 0; i < toSwap.size(); i++) {
+            final FlowFileRecord pre = toSwap.get(i);
+            final FlowFileRecord post = swappedIn.getFlowFiles().get(i);
+
+            assertEquals(pre.getId(), post.getId());
+            assertEquals(pre.getEntryDate(), post.getEntryDate());
+            assertEquals(pre.getLineageStartDate(), post.getLineageStartDate());
+            assertEquals(pre.getLineageStartIndex(), post.getLineageStartIndex());
+            assertEquals(pre.getLastQueueDate(), post.getLastQueueDate());
+            assertEquals(pre.getQueueDateIndex(), post.getQueueDateIndex());
+            assertEquals(pre.getSize(), post.getSize());
+            assertEquals(pre.getAttributes(), post.getAttributes());
+            assertEquals(pre.getContentClaim(), post.getContentClaim());
+            assertEquals(pre.getContentClaimOffset(), post.getContentClaimOffset());
+
+            if (pre.getContentClaim() != null) {
+                final ResourceClaim preResourceClaim = pre.getContentClaim().getResourceClaim();
+                final ResourceClaim postResourceClaim = post.getContentClaim().getResourceClaim();
+                assertEquals(preResourceClaim.isLossTolerant(), postResourceClaim.isLossTolerant());
+                assertEquals(pre.getContentClaim().getLength(), post.getContentClaim().getLength());
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedSwapFileReturnsCompleteBlocks() throws IOException {
+        final List<FlowFileRecord> toSwap = new ArrayList<>(10000);
+        for (int i = 0; i < 10000; i++) {
+            final Map<String, String> attrs = new HashMap<>();
+            attrs.put("uuid", UUID.randomUUID().toString());
+            toSwap.add(new TestFlowFile(attrs, i));
+        }
+
+        final FlowFileQueue flowFileQueue = Mockito.mock(FlowFileQueue.class);
+        Mockito.when(flowFileQueue.getIdentifier()).thenReturn("87bb99fe-412c-49f6-a441-d1b0af4e20b4");
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FileSystemSwapManager.serializeFlowFiles(toSwap, flowFileQueue, "target/testTruncated.swap", baos);
+        final byte[] truncated = Arrays.copyOf(baos.toByteArray(), baos.size() / 2);
+
+        try (final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(truncated))) {
+            FileSystemSwapManager.deserializeFlowFiles(dis, "target/testTruncated.swap", flowFileQueue, new NopResourceClaimManager());
+            Assert.fail("Expected IncompleteSwapFileException");
+        } catch (final IncompleteSwapFileException isfe) {
+            final List<FlowFileRecord> partial = isfe.getPartialContents().getFlowFiles();
+            assertTrue(partial.size() > 0);
+            assertTrue(partial.size() < toSwap.size());
+            assertEquals(0, partial.size() % 1000);
+
+            for (int i = 0; i < partial.size(); i++) {
+                assertEquals(toSwap.get(i).getId(), partial.get(i).getId());
+                assertEquals(toSwap.get(i).getAttributes(), partial.get(i).getAttributes());
+            }
+        }
+    }
 
     public class NopResourceClaimManager implements ResourceClaimManager {
 
@@ -32,6 +32,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nifi.connectable.Connectable;
@@ -62,8 +67,10 @@ import org.apache.nifi.provenance.ProvenanceEventRecord;
 import org.apache.nifi.provenance.ProvenanceEventRepository;
 import org.apache.nifi.provenance.ProvenanceEventType;
 import org.apache.nifi.provenance.StandardProvenanceEventRecord;
+import org.apache.nifi.scheduling.SchedulingStrategy;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -72,6 +79,8 @@ import org.mockito.stubbing.Answer;
 public class TestStandardFlowFileQueue {
     private TestSwapManager swapManager = null;
     private StandardFlowFileQueue queue = null;
+    // a queue that hands out FlowFiles in the order in which they were added when it has no prioritizers
+    private StandardFlowFileQueue fifoQueue = null;
 
     private List<ProvenanceEventRecord> provRecords = new ArrayList<>();
 
@@ -109,9 +118,49 @@ public class TestStandardFlowFileQueue {
         }).when(provRepo).registerEvents(Mockito.any(Iterable.class));
 
         queue = new StandardFlowFileQueue("id", connection, flowFileRepo, provRepo, claimManager, scheduler, swapManager, null, 10000);
+        fifoQueue = new StandardFlowFileQueue("id", connection, flowFileRepo, provRepo, claimManager, scheduler, swapManager, null, 10000, null, null, true);
         TestFlowFile.idGenerator.set(0L);
     }
 
+    @Test
+    public void testSchedulerNotifiedOnlyWhenAgentConsumesEvents() {
+        final Connectable timerDriven = Mockito.mock(Connectable.class);
+        Mockito.when(timerDriven.getSchedulingStrategy()).thenReturn(SchedulingStrategy.TIMER_DRIVEN);
+        final Connectable eventDriven = Mockito.mock(Connectable.class);
+        Mockito.when(eventDriven.getSchedulingStrategy()).thenReturn(SchedulingStrategy.EVENT_DRIVEN);
+
+        final Connection timerConnection = Mockito.mock(Connection.class);
+        Mockito.when(timerConnection.getSource()).thenReturn(timerDriven);
+        Mockito.when(timerConnection.getDestination()).thenReturn(timerDriven);
+        final Connection eventConnection = Mockito.mock(Connection.class);
+        Mockito.when(eventConnection.getSource()).thenReturn(eventDriven);
+        Mockito.when(eventConnection.getDestination()).thenReturn(eventDriven);
+
+        final FlowFileRepository flowFileRepo = Mockito.mock(FlowFileRepository.class);
+        final ProvenanceEventRepository provRepo = Mockito.mock(ProvenanceEventRepository.class);
+        final ResourceClaimManager claimManager = Mockito.mock(ResourceClaimManager.class);
+
+        // with the timer agent, Timer-Driven components are not notified
+        final ProcessScheduler scheduler = Mockito.mock(ProcessScheduler.class);
+        final FlowFileQueue timerQueue = new StandardFlowFileQueue("timer", timerConnection, flowFileRepo, provRepo, claimManager, scheduler, swapManager, null, 10000);
+        timerQueue.put(new TestFlowFile());
+        timerQueue.acknowledge(timerQueue.poll(new HashSet<FlowFileRecord>()));
+        Mockito.verify(scheduler, Mockito.never()).registerEvent(Mockito.any(Connectable.class));
+
+        // Event-Driven components are always notified
+        final FlowFileQueue eventQueue = new StandardFlowFileQueue("event", eventConnection, flowFileRepo, provRepo, claimManager, scheduler, swapManager, null, 10000);
+        eventQueue.put(new TestFlowFile());
+        eventQueue.acknowledge(eventQueue.poll(new HashSet<FlowFileRecord>()));
+        Mockito.verify(scheduler, Mockito.times(2)).registerEvent(eventDriven);
+
+        // with an agent that is signaled by events, Timer-Driven components are notified as well
+        final FlowFileQueue signaledQueue = new StandardFlowFileQueue("signaled", timerConnection, flowFileRepo, provRepo, claimManager, scheduler, swapManager, null, 10000,
+            null, null, false, true);
+        signaledQueue.put(new TestFlowFile());
+        signaledQueue.acknowledge(signaledQueue.poll(new HashSet<FlowFileRecord>()));
+        Mockito.verify(scheduler, Mockito.times(2)).registerEvent(timerDriven);
+    }
+
     @Test
     public void testExpire() {
         queue.setFlowFileExpiration("1 ms");
@@ -341,6 +390,165 @@ public class TestStandardFlowFileQueue {
         }
     }
 
+    @Test
+    public void testIdOrderWithoutPrioritizers() {
+        // by default, FlowFiles that are not ordered by prioritizers are ordered by content claim and then by ID
+        final List<FlowFileRecord> enqueued = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            enqueued.add(new TestFlowFile());
+        }
+        Collections.reverse(enqueued);
+
+        for (final FlowFileRecord flowFile : enqueued) {
+            queue.put(flowFile);
+        }
+
+        final List<FlowFileRecord> polled = queue.poll(Integer.MAX_VALUE, new HashSet<FlowFileRecord>());
+        assertEquals(100, polled.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, polled.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testFifoOrderWithoutPrioritizers() {
+        queue = fifoQueue;
+
+        // add FlowFiles such that their IDs are not in the same order as they are enqueued
+        final List<FlowFileRecord> enqueued = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            enqueued.add(new TestFlowFile());
+        }
+        Collections.reverse(enqueued);
+
+        for (final FlowFileRecord flowFile : enqueued) {
+            queue.put(flowFile);
+        }
+
+        final List<FlowFileRecord> polled = queue.poll(Integer.MAX_VALUE, new HashSet<FlowFileRecord>());
+        assertEquals(enqueued, polled);
+    }
+
+    @Test
+    public void testFifoOrderAcrossProducerThreads() throws InterruptedException, ExecutionException {
+        queue = fifoQueue;
+
+        // the producers take turns putting FlowFiles, so consecutive FlowFiles are spread across the incoming partitions
+        final int threadCount = 4;
+        final int flowFilesPerThread = 50;
+        final long queueDate = System.currentTimeMillis();
+
+        final ExecutorService[] producers = new ExecutorService[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            producers[i] = Executors.newSingleThreadExecutor();
+        }
+
+        try {
+            for (int i = 0; i < threadCount * flowFilesPerThread; i++) {
+                final FlowFileRecord flowFile = new TestFlowFile(queueDate, i);
+                producers[i % threadCount].submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        queue.put(flowFile);
+                    }
+                }).get();
+            }
+        } finally {
+            for (final ExecutorService producer : producers) {
+                producer.shutdown();
+            }
+        }
+
+        final List<FlowFileRecord> polled = queue.poll(Integer.MAX_VALUE, new HashSet<FlowFileRecord>());
+        assertEquals(threadCount * flowFilesPerThread, polled.size());
+        for (int i = 0; i < polled.size(); i++) {
+            assertEquals(i, polled.get(i).getQueueDateIndex());
+        }
+    }
+
+    @Test
+    public void testFifoOrderMaintainedWhenSwapping() {
+        queue = fifoQueue;
+        for (int i = 0; i < 30000; i++) {
+            queue.put(new TestFlowFile(i));
+        }
+
+        assertEquals(2, swapManager.swapOutCalledCount);
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        for (int i = 0; i < 30000; i++) {
+            final FlowFileRecord flowFile = queue.poll(expired);
+            assertNotNull(flowFile);
+            assertEquals(i, flowFile.getSize());
+        }
+
+        assertNull(queue.poll(expired));
+    }
+
+    @Test(timeout = 30000)
+    public void testFifoOrderMaintainedWhenSwappingInBackground() throws InterruptedException {
+        final ExecutorService swapInExecutor = Executors.newSingleThreadExecutor();
+        final ExecutorService swapOutExecutor = Executors.newSingleThreadExecutor();
+        try {
+            final Connection connection = Mockito.mock(Connection.class);
+            Mockito.when(connection.getSource()).thenReturn(Mockito.mock(Connectable.class));
+            Mockito.when(connection.getDestination()).thenReturn(Mockito.mock(Connectable.class));
+
+            queue = new StandardFlowFileQueue("id", connection, Mockito.mock(FlowFileRepository.class), Mockito.mock(ProvenanceEventRepository.class),
+                Mockito.mock(ResourceClaimManager.class), Mockito.mock(ProcessScheduler.class), swapManager, null, 10000, swapInExecutor, swapOutExecutor, true);
+
+            for (int i = 0; i < 60000; i++) {
+                queue.put(new TestFlowFile(i));
+            }
+
+            // FlowFiles that are waiting to be written are still accounted for as swapped out
+            assertEquals(10000, queue.getActiveQueueSize().getObjectCount());
+            assertEquals(60000, queue.size().getObjectCount());
+
+            final Set<FlowFileRecord> expired = new HashSet<>();
+            for (int i = 0; i < 60000; i++) {
+                final FlowFileRecord flowFile = queue.poll(expired);
+                assertNotNull(flowFile);
+                assertEquals(i, flowFile.getSize());
+            }
+
+            assertNull(queue.poll(expired));
+            assertTrue(queue.isActiveQueueEmpty());
+            assertEquals(5, swapManager.swapOutCalledCount);
+            assertEquals(5, swapManager.swapInCalledCount);
+            assertTrue(swapManager.swappedOut.isEmpty());
+
+            assertEquals(5L, queue.getSwapOutLatency().getCount());
+            assertEquals(5L, queue.getSwapInLatency().getCount());
+            assertTrue(queue.getPollLatency().getCount() > 0L);
+        } finally {
+            swapInExecutor.shutdownNow();
+            swapOutExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testChangePrioritizersReordersActiveQueue() {
+        queue = fifoQueue;
+        for (int i = 0; i < 10; i++) {
+            queue.put(new TestFlowFile(10 - i));
+        }
+
+        queue.setPriorities(Collections.<FlowFilePrioritizer> singletonList(new FlowFileSizePrioritizer()));
+        assertEquals(1L, queue.poll(new HashSet<FlowFileRecord>()).getSize());
+
+        queue.setPriorities(Collections.<FlowFilePrioritizer> emptyList());
+        queue.put(new TestFlowFile(1000));
+
+        // switching back to FIFO retains the order imposed by the previous prioritizers
+        final List<FlowFileRecord> polled = queue.poll(Integer.MAX_VALUE, new HashSet<FlowFileRecord>());
+        assertEquals(10, polled.size());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i + 2, polled.get(i).getSize());
+        }
+        assertEquals(1000L, polled.get(9).getSize());
+    }
+
     @Test
     public void testSwapIn() {
         for (int i = 1; i <= 20000; i++) {
@@ -504,10 +712,112 @@ public class TestStandardFlowFileQueue {
     }
 
 
+    @Test(timeout = 30000)
+    public void testConcurrentPutAndPoll() throws InterruptedException {
+        final int threadCount = 8;
+        final int flowFilesPerThread = 5000;
+        final AtomicLong polledCount = new AtomicLong(0L);
+
+        final Thread[] producers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < flowFilesPerThread; j++) {
+                        queue.put(new TestFlowFile());
+                    }
+                }
+            });
+        }
+
+        final Thread[] consumers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            consumers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Set<FlowFileRecord> expired = new HashSet<>();
+                    while (polledCount.get() < threadCount * flowFilesPerThread) {
+                        final FlowFileRecord flowFile = queue.poll(expired);
+                        if (flowFile != null) {
+                            queue.acknowledge(flowFile);
+                            polledCount.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < threadCount; i++) {
+            producers[i].start();
+            consumers[i].start();
+        }
+
+        for (int i = 0; i < threadCount; i++) {
+            producers[i].join();
+            consumers[i].join();
+        }
+
+        assertEquals(threadCount * flowFilesPerThread, polledCount.get());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size().getObjectCount());
+        assertEquals(0L, queue.size().getByteCount());
+    }
+
+    @Test
+    @Ignore("For local testing of performance only")
+    public void testConcurrentPutAndPollPerformance() throws InterruptedException {
+        final int threadCount = 32;
+        final int flowFilesPerThread = 1000000;
+        final AtomicLong polledCount = new AtomicLong(0L);
+
+        final Runnable producer = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < flowFilesPerThread; i++) {
+                    queue.put(new TestFlowFile());
+                }
+            }
+        };
+
+        final Runnable consumer = new Runnable() {
+            @Override
+            public void run() {
+                final Set<FlowFileRecord> expired = new HashSet<>();
+                while (polledCount.get() < (long) threadCount * flowFilesPerThread) {
+                    final List<FlowFileRecord> flowFiles = queue.poll(100, expired);
+                    if (!flowFiles.isEmpty()) {
+                        queue.acknowledge(flowFiles);
+                        polledCount.addAndGet(flowFiles.size());
+                    }
+                }
+            }
+        };
+
+        final Thread[] threads = new Thread[threadCount * 2];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(producer);
+            threads[threadCount + i] = new Thread(consumer);
+        }
+
+        final long start = System.nanoTime();
+        for (final Thread t : threads) {
+            t.start();
+        }
+
+        for (final Thread t : threads) {
+            t.join();
+        }
+
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(millis + " millis to put and poll " + polledCount.get() + " FlowFiles using " + threadCount + " producers and "
+            + threadCount + " consumers (" + (polledCount.get() * 1000L / Math.max(1L, millis)) + " FlowFiles/sec)");
+    }
+
+
     private class TestSwapManager implements FlowFileSwapManager {
-        private final Map<String, List<FlowFileRecord>> swappedOut = new HashMap<>();
-        int swapOutCalledCount = 0;
-        int swapInCalledCount = 0;
+        private final Map<String, List<FlowFileRecord>> swappedOut = new ConcurrentHashMap<>();
+        volatile int swapOutCalledCount = 0;
+        volatile int swapInCalledCount = 0;
 
         private int incompleteSwapFileRecordsToInclude = -1;
 
@@ -603,11 +913,19 @@ public class TestStandardFlowFileQueue {
         private final long entryDate = System.currentTimeMillis();
         private final Map<String, String> attributes;
         private final long size;
+        private Long lastQueueDate = null;
+        private long queueDateIndex = 0L;
 
         public TestFlowFile() {
             this(1L);
         }
 
+        public TestFlowFile(final long lastQueueDate, final long queueDateIndex) {
+            this(1L);
+            this.lastQueueDate = lastQueueDate;
+            this.queueDateIndex = queueDateIndex;
+        }
+
         public TestFlowFile(final long size) {
             this(new HashMap<>(), size);
         }
@@ -643,7 +961,7 @@ public class TestStandardFlowFileQueue {
 
         @Override
         public Long getLastQueueDate() {
-            return null;
+            return lastQueueDate;
         }
 
         @Override
@@ -693,7 +1011,7 @@ public class TestStandardFlowFileQueue {
 
         @Override
         public long getQueueDateIndex() {
-            return 0;
+            return queueDateIndex;
         }
     }
 
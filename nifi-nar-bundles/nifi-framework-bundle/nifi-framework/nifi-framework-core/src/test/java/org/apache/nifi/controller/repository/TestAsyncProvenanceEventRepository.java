@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.provenance.MockProvenanceRepository;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.provenance.StandardProvenanceEventRecord;
+import org.junit.Test;
+
+public class TestAsyncProvenanceEventRepository {
+
+    @Test(timeout = 10000)
+    public void testEventsAreWrittenByWriterThreads() throws IOException, InterruptedException {
+        final GatedProvenanceRepository delegate = new GatedProvenanceRepository();
+        delegate.open();
+
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, 1024L * 1024L, 2);
+        try {
+            repository.registerEvents(Arrays.asList(createEvent(), createEvent()));
+            repository.registerEvent(createEvent());
+
+            while (repository.getWrittenEventCount() < 3) {
+                Thread.sleep(10L);
+            }
+
+            assertEquals(3, repository.getEvents(0L, 10).size());
+            assertEquals(0L, repository.getQueuedEventCount());
+            assertEquals(0L, repository.getQueuedBytes());
+            assertEquals(0L, repository.getBlockedCount());
+            assertFalse(delegate.getWritingThreads().contains(Thread.currentThread().getName()));
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testThreadsWaitOnlyWhenMemoryBudgetExceeded() throws IOException, InterruptedException {
+        final GatedProvenanceRepository delegate = new GatedProvenanceRepository();
+        final ProvenanceEventRecord event = createEvent();
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, AsyncProvenanceEventRepository.estimateSize(event), 1);
+
+        try {
+            // the first event fits in the budget, even though the underlying repository is not writing
+            repository.registerEvent(event);
+            assertEquals(1L, repository.getQueuedEventCount());
+            assertEquals(0L, repository.getBlockedCount());
+
+            final Thread registerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    repository.registerEvent(createEvent());
+                }
+            });
+            registerThread.start();
+
+            while (repository.getBlockedCount() < 1L) {
+                Thread.sleep(10L);
+            }
+            Thread.sleep(100L);
+            assertTrue(registerThread.isAlive());
+            assertEquals(2L, repository.getQueuedEventCount());
+
+            delegate.open();
+            registerThread.join();
+
+            assertTrue(repository.getTimeBlocked(TimeUnit.NANOSECONDS) > 0L);
+            while (repository.getWrittenEventCount() < 2) {
+                Thread.sleep(10L);
+            }
+            assertEquals(0L, repository.getQueuedBytes());
+        } finally {
+            delegate.open();
+            repository.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseWritesQueuedEvents() throws IOException, InterruptedException {
+        final GatedProvenanceRepository delegate = new GatedProvenanceRepository();
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, 1024L * 1024L, 1);
+
+        for (int i = 0; i < 10; i++) {
+            repository.registerEvent(createEvent());
+        }
+        assertTrue(delegate.getEvents(0L, 100).isEmpty());
+
+        delegate.open();
+        repository.close();
+        assertEquals(10, delegate.getEvents(0L, 100).size());
+        assertEquals(0L, repository.getQueuedEventCount());
+
+        // once closed, events are written directly
+        repository.registerEvent(createEvent());
+        assertEquals(11, delegate.getEvents(0L, 100).size());
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedWritesAreRetried() throws IOException, InterruptedException {
+        final FailingProvenanceRepository delegate = new FailingProvenanceRepository(3);
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, 1024L * 1024L, 1);
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                repository.registerEvent(createEvent());
+            }
+
+            while (repository.getWrittenEventCount() < 5) {
+                Thread.sleep(10L);
+            }
+
+            assertEquals(5, delegate.getEvents(0L, 100).size());
+            assertEquals(3L, repository.getFailedWriteCount());
+            assertEquals(0L, repository.getQueuedEventCount());
+            assertEquals(0L, repository.getQueuedBytes());
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseWritesEventsThatFailedToWrite() throws IOException, InterruptedException {
+        final FailingProvenanceRepository delegate = new FailingProvenanceRepository(1);
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, 1024L * 1024L, 1);
+
+        repository.registerEvent(createEvent());
+        while (repository.getFailedWriteCount() < 1L) {
+            Thread.sleep(10L);
+        }
+        repository.registerEvent(createEvent());
+
+        // closing does not wait for the retry, but writes the batch that failed ahead of the events queued after it
+        repository.close();
+        assertEquals(2, delegate.getEvents(0L, 100).size());
+        assertEquals(0L, repository.getQueuedEventCount());
+        assertEquals(0L, repository.getQueuedBytes());
+    }
+
+    @Test(timeout = 10000)
+    public void testEventsForFlowFileWrittenInOrder() throws IOException, InterruptedException {
+        final GatedProvenanceRepository delegate = new GatedProvenanceRepository();
+        delegate.open();
+
+        final AsyncProvenanceEventRepository repository = new AsyncProvenanceEventRepository(delegate, 1024L * 1024L, 4);
+
+        final List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            uuids.add(UUID.randomUUID().toString());
+        }
+
+        try {
+            for (final ProvenanceEventType eventType : Arrays.asList(ProvenanceEventType.RECEIVE, ProvenanceEventType.CONTENT_MODIFIED, ProvenanceEventType.DROP)) {
+                for (final String uuid : uuids) {
+                    repository.registerEvent(createEvent(uuid, eventType));
+                }
+            }
+
+            while (repository.getWrittenEventCount() < 60) {
+                Thread.sleep(10L);
+            }
+        } finally {
+            repository.close();
+        }
+
+        // the underlying repository assigns identifiers as events are written, so each FlowFile's events must have increasing identifiers
+        final Map<String, List<ProvenanceEventType>> eventTypes = new HashMap<>();
+        for (final ProvenanceEventRecord event : delegate.getEvents(0L, 100)) {
+            List<ProvenanceEventType> types = eventTypes.get(event.getFlowFileUuid());
+            if (types == null) {
+                types = new ArrayList<>();
+                eventTypes.put(event.getFlowFileUuid(), types);
+            }
+            types.add(event.getEventType());
+        }
+
+        assertEquals(20, eventTypes.size());
+        for (final List<ProvenanceEventType> types : eventTypes.values()) {
+            assertEquals(Arrays.asList(ProvenanceEventType.RECEIVE, ProvenanceEventType.CONTENT_MODIFIED, ProvenanceEventType.DROP), types);
+        }
+    }
+
+    private ProvenanceEventRecord createEvent() {
+        return createEvent(UUID.randomUUID().toString(), ProvenanceEventType.RECEIVE);
+    }
+
+    private ProvenanceEventRecord createEvent(final String flowFileUuid, final ProvenanceEventType eventType) {
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(eventType);
+        builder.setFlowFileUUID(flowFileUuid);
+        builder.setComponentId("receiver");
+        builder.setComponentType("dummy processor");
+        builder.setTransitUri("nifi://unit-test");
+        builder.setCurrentContentClaim(null, null, null, null, 100L);
+        return builder.build();
+    }
+
+    /**
+     * A repository that fails the given number of writes before writing events, simulating a Provenance Repository with a transient failure.
+     */
+    private static class FailingProvenanceRepository extends MockProvenanceRepository {
+        private final AtomicInteger failuresRemaining;
+
+        public FailingProvenanceRepository(final int failures) {
+            failuresRemaining = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void registerEvents(final Iterable<ProvenanceEventRecord> events) {
+            if (failuresRemaining.getAndDecrement() > 0) {
+                throw new IllegalStateException("Intentional unit test failure");
+            }
+
+            super.registerEvents(events);
+        }
+    }
+
+    /**
+     * A repository that does not write events until it is opened, simulating a Provenance Repository that has fallen behind.
+     */
+    private static class GatedProvenanceRepository extends MockProvenanceRepository {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final Set<String> writingThreads = new HashSet<>();
+
+        public void open() {
+            gate.countDown();
+        }
+
+        public synchronized Set<String> getWritingThreads() {
+            return new HashSet<>(writingThreads);
+        }
+
+        @Override
+        public void registerEvents(final Iterable<ProvenanceEventRecord> events) {
+            try {
+                gate.await();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            synchronized (this) {
+                writingThreads.add(Thread.currentThread().getName());
+                super.registerEvents(events);
+            }
+        }
+
+        @Override
+        public synchronized List<ProvenanceEventRecord> getEvents(final long firstRecordId, final int maxRecords) throws IOException {
+            return super.getEvents(firstRecordId, maxRecords);
+        }
+    }
+}
@@ -25,10 +25,12 @@ import static org.junit.Assert.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -40,6 +42,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.nifi.controller.repository.claim.ContentClaim;
+import org.apache.nifi.controller.repository.claim.ResourceClaim;
 import org.apache.nifi.controller.repository.claim.StandardContentClaim;
 import org.apache.nifi.controller.repository.claim.StandardResourceClaim;
 import org.apache.nifi.controller.repository.claim.StandardResourceClaimManager;
@@ -47,6 +50,7 @@ import org.apache.nifi.controller.repository.util.DiskUtils;
 import org.apache.nifi.stream.io.StreamUtils;
 import org.apache.nifi.util.NiFiProperties;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
@@ -189,6 +193,60 @@ public class TestFileSystemRepository {
         assertEquals(claim1.getResourceClaim(), claim3.getResourceClaim());
     }
 
+    @Test(timeout = 30000)
+    public void testConcurrentWritesToPooledClaims() throws Exception {
+        final int threadCount = 8;
+        final int claimsPerThread = 500;
+        final List<List<ContentClaim>> claimsByThread = new ArrayList<>();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final int threadIndex = i;
+            final List<ContentClaim> claims = new ArrayList<>(claimsPerThread);
+            claimsByThread.add(claims);
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < claimsPerThread; j++) {
+                            final ContentClaim claim = repository.create(false);
+                            try (final OutputStream out = repository.write(claim)) {
+                                out.write(("thread-" + threadIndex + "-claim-" + j).getBytes(StandardCharsets.UTF_8));
+                            }
+                            claims.add(claim);
+                        }
+                    } catch (final Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        for (int i = 0; i < threadCount; i++) {
+            final List<ContentClaim> claims = claimsByThread.get(i);
+            assertEquals(claimsPerThread, claims.size());
+
+            for (int j = 0; j < claimsPerThread; j++) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (final InputStream in = repository.read(claims.get(j))) {
+                    StreamUtils.copy(in, baos);
+                }
+                assertEquals("thread-" + i + "-claim-" + j, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
     @Test
     public void testResourceClaimNotReusedAfterRestart() throws IOException, InterruptedException {
         final ContentClaim claim1 = repository.create(false);
@@ -363,6 +421,91 @@ public class TestFileSystemRepository {
         assertTrue(Arrays.equals(doubleExpected, Files.readAllBytes(outPath)));
     }
 
+    @Test
+    public void testExportToFileOutputStreamWithOffset() throws IOException {
+        final ContentClaim claim1 = repository.create(true);
+        try (final OutputStream out = repository.write(claim1)) {
+            out.write("first claim".getBytes());
+        }
+
+        // the second claim is written to the same resource claim, after the first
+        final ContentClaim claim2 = repository.create(true);
+        assertEquals(claim1.getResourceClaim(), claim2.getResourceClaim());
+        try (final OutputStream out = repository.write(claim2)) {
+            out.write("0123456789".getBytes());
+        }
+
+        final File outFile = new File("target/testExportToFileOutputStreamWithOffset");
+        Files.deleteIfExists(outFile.toPath());
+
+        try (final FileOutputStream fos = new FileOutputStream(outFile)) {
+            assertEquals(10L, repository.exportTo(claim2, fos));
+            assertEquals(4L, repository.exportTo(claim2, fos, 3L, 4L));
+        }
+
+        assertEquals("01234567893456", new String(Files.readAllBytes(outFile.toPath())));
+    }
+
+    @Test
+    public void testReadWithMappedReadCache() throws IOException {
+        shutdown();
+
+        final NiFiProperties properties = NiFiProperties.getInstance();
+        properties.setProperty(NiFiProperties.CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE, "10");
+        try {
+            repository = new FileSystemRepository();
+            repository.initialize(new StandardResourceClaimManager());
+            repository.purge();
+        } finally {
+            properties.remove(NiFiProperties.CONTENT_REPOSITORY_MAPPED_READ_CACHE_SIZE);
+        }
+
+        final List<ContentClaim> claims = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final ContentClaim claim = repository.create(true);
+            try (final OutputStream out = repository.write(claim)) {
+                out.write(("claim " + i).getBytes());
+            }
+            claims.add(claim);
+
+            // read each of the claims after each write, so that the file is mapped and then grows before the next read
+            for (int j = 0; j <= i; j++) {
+                try (final InputStream in = repository.read(claims.get(j))) {
+                    assertEquals("claim " + j, new String(readFully(in, 7)));
+                    assertEquals(-1, in.read());
+                }
+            }
+        }
+
+        for (int i = 1; i < claims.size(); i++) {
+            assertEquals(claims.get(0).getResourceClaim(), claims.get(i).getResourceClaim());
+        }
+
+        // once the content is removed, it must no longer be readable, even though it was mapped
+        final ResourceClaim existingResourceClaim = claims.get(0).getResourceClaim();
+        final StandardContentClaim removableClaim = new StandardContentClaim(
+            new StandardResourceClaim(existingResourceClaim.getContainer(), existingResourceClaim.getSection(), "removable", false), 0L);
+        final Path removablePath = getPath(removableClaim);
+        Files.createDirectories(removablePath.getParent());
+        try (final OutputStream out = Files.newOutputStream(removablePath, StandardOpenOption.CREATE)) {
+            out.write("Hello".getBytes());
+        }
+        removableClaim.setLength(5L);
+
+        try (final InputStream in = repository.read(removableClaim)) {
+            assertEquals("Hello", new String(readFully(in, 5)));
+        }
+
+        assertTrue(repository.remove(removableClaim));
+
+        try {
+            repository.read(removableClaim);
+            Assert.fail("Expected ContentNotFoundException");
+        } catch (final ContentNotFoundException cnfe) {
+            // expected
+        }
+    }
+
     @Test
     public void testSize() throws IOException {
         final ContentClaim claim = repository.create(true);
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestOffHeapAttributeArena {
+
+    @Test
+    public void testStoredAttributesEqualOriginal() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena(1024);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", "1234");
+        attributes.put("filename", "file.txt");
+        attributes.put("empty", "");
+        attributes.put("unicode", "é中文");
+
+        final Map<String, String> stored = arena.store(attributes);
+        assertEquals(attributes, stored);
+        assertEquals(attributes.hashCode(), stored.hashCode());
+        assertEquals(4, stored.size());
+        assertEquals("file.txt", stored.get("filename"));
+        assertEquals("", stored.get("empty"));
+        assertEquals("é中文", stored.get("unicode"));
+        assertTrue(stored.containsKey("uuid"));
+        assertFalse(stored.containsKey("missing"));
+        assertNull(stored.get("missing"));
+        assertNull(stored.get(5));
+
+        assertTrue(arena.store(new HashMap<String, String>()).isEmpty());
+    }
+
+    @Test
+    public void testKeysAreShared() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena(1024);
+
+        for (int i = 0; i < 100; i++) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("uuid", String.valueOf(i));
+            attributes.put("filename", "file-" + i);
+            assertEquals(String.valueOf(i), arena.store(attributes).get("uuid"));
+        }
+
+        assertEquals(2, arena.getKeyCount());
+        assertTrue(arena.getSlabCount() > 1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStoredAttributesAreImmutable() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena();
+        arena.store(new HashMap<String, String>()).put("key", "value");
+    }
+
+    @Test
+    public void testLargeAttributesStoredOutsideOfSlab() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena(1024);
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('x');
+        }
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("large", sb.toString());
+
+        final Map<String, String> stored = arena.store(attributes);
+        assertEquals(sb.toString(), stored.get("large"));
+        assertEquals(1L, arena.getSlabCount());
+    }
+
+    @Test
+    public void testFlowFileRecordWithOffHeapAttributes() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena();
+
+        final FlowFileRecord onHeap = new StandardFlowFileRecord.Builder()
+            .id(1L)
+            .addAttribute("uuid", "1234")
+            .addAttribute("filename", "file.txt")
+            .size(10L)
+            .build();
+
+        final StandardFlowFileRecord offHeap = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(onHeap).attributeArena(arena).build();
+        assertTrue(offHeap.hasOffHeapAttributes());
+        assertFalse(((StandardFlowFileRecord) onHeap).hasOffHeapAttributes());
+        assertEquals(onHeap, offHeap);
+        assertEquals(onHeap.getAttributes(), offHeap.getAttributes());
+        assertEquals("file.txt", offHeap.getAttribute("filename"));
+        assertEquals(10L, offHeap.getSize());
+
+        // updating a FlowFile whose attributes are off-heap results in a FlowFile whose attributes are on-heap
+        final StandardFlowFileRecord updated = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(offHeap).addAttribute("filename", "other.txt").build();
+        assertFalse(updated.hasOffHeapAttributes());
+        assertEquals("other.txt", updated.getAttribute("filename"));
+        assertEquals("1234", updated.getAttribute("uuid"));
+    }
+
+    @Test
+    public void testAttributesKeptOnHeapWhenArenaFull() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena(1024, 2048L);
+
+        final List<Map<String, String>> stored = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("uuid", String.valueOf(i));
+            attributes.put("filename", "file-" + i + ".txt");
+            stored.add(arena.store(attributes));
+        }
+
+        assertEquals(2L, arena.getSlabCount());
+        assertEquals(2048L, arena.getBytesInUse());
+        assertTrue(arena.getHeapFallbackCount() > 0);
+        assertFalse(stored.get(99) instanceof OffHeapAttributeArena.AttributeMap);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("file-" + i + ".txt", stored.get(i).get("filename"));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSlabsReleasedWhenUnreachable() throws InterruptedException {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena(1024, 4096L);
+
+        // fill the arena
+        List<Map<String, String>> stored = new ArrayList<>();
+        for (int i = 0; arena.getHeapFallbackCount() == 0; i++) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("uuid", String.valueOf(i));
+            attributes.put("filename", "file-" + i + ".txt");
+            stored.add(arena.store(attributes));
+        }
+        assertEquals(4096L, arena.getBytesInUse());
+
+        // once the Maps are unreachable, all but the slab that the arena is still filling are reclaimed
+        stored = null;
+        while (arena.getBytesInUse() > 1024L) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertEquals(1024L, arena.getBytesInUse());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", "after");
+        assertTrue(arena.store(attributes) instanceof OffHeapAttributeArena.AttributeMap);
+    }
+
+    @Test
+    public void testUnchangedAttributesNotStoredAgain() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena();
+
+        final FlowFileRecord onHeap = new StandardFlowFileRecord.Builder()
+            .id(1L)
+            .addAttribute("uuid", "1234")
+            .addAttribute("filename", "file.txt")
+            .build();
+        final StandardFlowFileRecord offHeap = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(onHeap).attributeArena(arena).build();
+        final long bytesStored = arena.getBytesStored();
+
+        // a copy whose attributes are on the heap, such as a session hands to a processor, shares the stored attributes until they change
+        final StandardFlowFileRecord copy = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(offHeap).build();
+        assertFalse(copy.hasOffHeapAttributes());
+        final StandardFlowFileRecord modifiedContent = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(copy).size(20L).build();
+
+        final StandardFlowFileRecord requeued = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(modifiedContent).attributeArena(arena).build();
+        assertTrue(requeued.hasOffHeapAttributes());
+        assertEquals(bytesStored, arena.getBytesStored());
+        assertEquals(offHeap.getAttributes(), requeued.getAttributes());
+        assertEquals(20L, requeued.getSize());
+
+        final StandardFlowFileRecord modifiedAttributes = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(copy).addAttribute("filename", "other.txt").build();
+        final StandardFlowFileRecord stored = (StandardFlowFileRecord) new StandardFlowFileRecord.Builder().fromFlowFile(modifiedAttributes).attributeArena(arena).build();
+        assertTrue(stored.hasOffHeapAttributes());
+        assertTrue(arena.getBytesStored() > bytesStored);
+        assertEquals("other.txt", stored.getAttribute("filename"));
+    }
+}
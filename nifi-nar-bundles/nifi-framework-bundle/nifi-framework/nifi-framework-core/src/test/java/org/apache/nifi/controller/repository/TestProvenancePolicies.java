@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.controller.repository.ProvenancePolicy.Mode;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.provenance.StandardProvenanceEventRecord;
+import org.junit.Test;
+
+public class TestProvenancePolicies {
+
+    @Test
+    public void testParse() {
+        assertSame(ProvenancePolicy.FULL, ProvenancePolicy.parse("full"));
+        assertSame(ProvenancePolicy.FULL, ProvenancePolicy.parse(" FULL "));
+        assertSame(ProvenancePolicy.FULL, ProvenancePolicy.parse("sampled:1"));
+
+        final ProvenancePolicy sampled = ProvenancePolicy.parse("sampled: 100");
+        assertEquals(Mode.SAMPLED, sampled.getMode());
+        assertEquals(100, sampled.getSampleRate());
+
+        final ProvenancePolicy aggregated = ProvenancePolicy.parse("aggregated:1 min");
+        assertEquals(Mode.AGGREGATED, aggregated.getMode());
+        assertEquals(60L, aggregated.getAggregationPeriod(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidSampleRate() {
+        ProvenancePolicy.parse("sampled:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingAggregationPeriod() {
+        ProvenancePolicy.parse("aggregated");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownMode() {
+        ProvenancePolicy.parse("none");
+    }
+
+    @Test
+    public void testSampledPolicyIsConsistentAcrossComponents() {
+        final Map<String, ProvenancePolicy> componentPolicies = new HashMap<>();
+        componentPolicies.put("full-component", ProvenancePolicy.FULL);
+        final ProvenancePolicies policies = new ProvenancePolicies(ProvenancePolicy.sampled(10), componentPolicies);
+
+        final List<ProvenanceEventRecord> received = new ArrayList<>();
+        final List<ProvenanceEventRecord> sent = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            final String uuid = UUID.randomUUID().toString();
+            received.add(createEvent(uuid, "receiver", ProvenanceEventType.CONTENT_MODIFIED));
+            sent.add(createEvent(uuid, "sender", ProvenanceEventType.ATTRIBUTES_MODIFIED));
+        }
+
+        final List<ProvenanceEventRecord> sampledReceived = toList(policies.apply("receiver", received));
+        final List<ProvenanceEventRecord> sampledSent = toList(policies.apply("sender", sent));
+
+        // roughly 1 in 10 FlowFiles should be sampled, and the same FlowFiles should be sampled by both components
+        assertTrue(sampledReceived.size() > 800 && sampledReceived.size() < 1200);
+        assertEquals(sampledReceived.size(), sampledSent.size());
+        for (int i = 0; i < sampledReceived.size(); i++) {
+            assertEquals(sampledReceived.get(i).getFlowFileUuid(), sampledSent.get(i).getFlowFileUuid());
+        }
+
+        assertSame(received, policies.apply("full-component", received));
+    }
+
+    @Test
+    public void testSampledPolicyKeepsLineageEvents() {
+        final ProvenancePolicies policies = new ProvenancePolicies(ProvenancePolicy.sampled(1000), Collections.<String, ProvenancePolicy> emptyMap());
+
+        final List<ProvenanceEventRecord> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final StandardProvenanceEventRecord.Builder builder = createBuilder(UUID.randomUUID().toString(), "forker", ProvenanceEventType.FORK);
+            builder.addChildUuid(UUID.randomUUID().toString());
+            events.add(builder.build());
+        }
+
+        assertEquals(100, toList(policies.apply("forker", events)).size());
+    }
+
+    @Test
+    public void testLineageBoundaryEventsAreAlwaysRecorded() {
+        final Map<String, ProvenancePolicy> componentPolicies = new HashMap<>();
+        componentPolicies.put("aggregator", ProvenancePolicy.aggregated(1L, TimeUnit.MINUTES));
+        final ProvenancePolicies policies = new ProvenancePolicies(ProvenancePolicy.sampled(1000), componentPolicies);
+
+        final ProvenanceEventType[] boundaryTypes = new ProvenanceEventType[] {ProvenanceEventType.CREATE, ProvenanceEventType.RECEIVE,
+            ProvenanceEventType.SEND, ProvenanceEventType.DROP, ProvenanceEventType.EXPIRE};
+        for (final String componentId : new String[] {"sampler", "aggregator"}) {
+            final List<ProvenanceEventRecord> events = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                events.add(createEvent(UUID.randomUUID().toString(), componentId, boundaryTypes[i % boundaryTypes.length]));
+            }
+
+            assertEquals(events, toList(policies.apply(componentId, events)));
+        }
+        assertTrue(policies.drainExpiredSummaries(System.currentTimeMillis() + 120000L).isEmpty());
+    }
+
+    @Test
+    public void testAggregatedPolicySummarizesEventsPerPeriod() {
+        final ProvenancePolicies policies = new ProvenancePolicies(ProvenancePolicy.FULL,
+            Collections.singletonMap("aggregator", ProvenancePolicy.aggregated(1L, TimeUnit.MINUTES)));
+        assertTrue(policies.isAggregating());
+
+        final List<ProvenanceEventRecord> events = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            events.add(createEvent(UUID.randomUUID().toString(), "aggregator", ProvenanceEventType.CONTENT_MODIFIED));
+        }
+        for (int i = 0; i < 5; i++) {
+            events.add(createEvent(UUID.randomUUID().toString(), "aggregator", ProvenanceEventType.ATTRIBUTES_MODIFIED));
+        }
+
+        final long start = System.currentTimeMillis();
+        assertTrue(toList(policies.apply("aggregator", events, start)).isEmpty());
+        assertTrue(toList(policies.apply("aggregator", events.subList(0, 5), start + 1000L)).isEmpty());
+        assertTrue(policies.drainExpiredSummaries(start + 59999L).isEmpty());
+
+        // the next session commit after the period elapses receives the summaries ahead of its own events
+        final List<ProvenanceEventRecord> recorded = toList(policies.apply("aggregator", events.subList(0, 1), start + 60000L));
+        assertEquals(2, recorded.size());
+
+        final Set<String> flowFileUuids = new HashSet<>();
+        for (final ProvenanceEventRecord event : events) {
+            flowFileUuids.add(event.getFlowFileUuid());
+        }
+
+        final Map<ProvenanceEventType, String> detailsByType = new HashMap<>();
+        for (final ProvenanceEventRecord summary : recorded) {
+            assertEquals("aggregator", summary.getComponentId());
+            detailsByType.put(summary.getEventType(), summary.getDetails());
+
+            // a summary is not an event of any of the FlowFiles that it summarizes
+            assertFalse(flowFileUuids.contains(summary.getFlowFileUuid()));
+            assertTrue(summary.getAttributes().isEmpty());
+            assertNull(summary.getContentClaimIdentifier());
+            assertNull(summary.getPreviousContentClaimIdentifier());
+            assertTrue(summary.getParentUuids().isEmpty());
+            assertTrue(summary.getChildUuids().isEmpty());
+        }
+        assertTrue(detailsByType.get(ProvenanceEventType.CONTENT_MODIFIED).startsWith("Summary of 15 CONTENT_MODIFIED events totalling 1500 bytes"));
+        assertTrue(detailsByType.get(ProvenanceEventType.ATTRIBUTES_MODIFIED).startsWith("Summary of 5 ATTRIBUTES_MODIFIED events totalling 500 bytes"));
+
+        // the event from the last commit starts a new period, which is summarized once it elapses even if the component is idle
+        assertTrue(policies.drainExpiredSummaries(start + 60001L).isEmpty());
+        final List<ProvenanceEventRecord> idleSummaries = policies.drainExpiredSummaries(start + 120000L);
+        assertEquals(1, idleSummaries.size());
+        assertTrue(idleSummaries.get(0).getDetails().startsWith("Summary of 1 CONTENT_MODIFIED events totalling 100 bytes"));
+        assertTrue(policies.drainExpiredSummaries(start + 180000L).isEmpty());
+    }
+
+    private List<ProvenanceEventRecord> toList(final Iterable<ProvenanceEventRecord> events) {
+        final List<ProvenanceEventRecord> list = new ArrayList<>();
+        for (final ProvenanceEventRecord event : events) {
+            list.add(event);
+        }
+        return list;
+    }
+
+    private ProvenanceEventRecord createEvent(final String flowFileUuid, final String componentId, final ProvenanceEventType eventType) {
+        return createBuilder(flowFileUuid, componentId, eventType).build();
+    }
+
+    private StandardProvenanceEventRecord.Builder createBuilder(final String flowFileUuid, final String componentId, final ProvenanceEventType eventType) {
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(eventType);
+        builder.setFlowFileUUID(flowFileUuid);
+        builder.setComponentId(componentId);
+        builder.setComponentType("dummy processor");
+        builder.setTransitUri("nifi://unit-test");
+        builder.setAttributes(Collections.<String, String>emptyMap(), Collections.singletonMap("filename", flowFileUuid));
+        builder.setCurrentContentClaim("container", "section", flowFileUuid, 0L, 100L);
+        return builder;
+    }
+}
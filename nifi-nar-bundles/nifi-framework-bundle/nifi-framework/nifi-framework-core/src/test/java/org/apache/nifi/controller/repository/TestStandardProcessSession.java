@@ -48,6 +48,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -498,6 +499,88 @@ public class TestStandardProcessSession {
         assertEquals(1, provenanceRepo.getEvents(0L, 100000).size()); // 1 event for both parents and children
     }
 
+    @Test
+    public void testTransferredFlowFileAttributesStoredOffHeap() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena();
+        context = new ProcessContext(context.getConnectable(), new AtomicLong(0L), contentRepo, flowFileRepo, Mockito.mock(FlowFileEventRepository.class),
+            Mockito.mock(CounterRepository.class), provenanceRepo, arena);
+        session = new StandardProcessSession(context);
+
+        final FlowFileRecord flowFileRecord = new StandardFlowFileRecord.Builder()
+            .addAttribute("uuid", "12345678-1234-1234-1234-123456789012")
+            .entryDate(System.currentTimeMillis())
+            .build();
+        flowFileQueue.put(flowFileRecord);
+
+        FlowFile flowFile = session.get();
+        flowFile = session.putAttribute(flowFile, "abc", "xyz");
+        session.transfer(flowFile);
+        session.commit();
+
+        final long bytesStored = arena.getBytesStored();
+        assertEquals(2, arena.getKeyCount());
+
+        // the session hands out a copy of the FlowFile whose attributes are on the heap, and moves them back off-heap without encoding them again
+        final StandardFlowFileRecord dequeued = (StandardFlowFileRecord) session.get();
+        assertFalse(dequeued.hasOffHeapAttributes());
+        assertEquals("xyz", dequeued.getAttribute("abc"));
+        assertEquals("12345678-1234-1234-1234-123456789012", dequeued.getAttribute("uuid"));
+        session.transfer(dequeued);
+        session.commit();
+        assertEquals(bytesStored, arena.getBytesStored());
+
+        final StandardFlowFileRecord queued = (StandardFlowFileRecord) flowFileQueue.poll(new HashSet<FlowFileRecord>());
+        assertTrue(queued.hasOffHeapAttributes());
+        assertEquals("xyz", queued.getAttribute("abc"));
+    }
+
+    @Test
+    public void testRolledBackFlowFileAttributesStoredOffHeap() {
+        final OffHeapAttributeArena arena = new OffHeapAttributeArena();
+        context = new ProcessContext(context.getConnectable(), new AtomicLong(0L), contentRepo, flowFileRepo, Mockito.mock(FlowFileEventRepository.class),
+            Mockito.mock(CounterRepository.class), provenanceRepo, arena);
+        session = new StandardProcessSession(context);
+
+        final FlowFileRecord flowFileRecord = new StandardFlowFileRecord.Builder()
+            .addAttribute("uuid", "12345678-1234-1234-1234-123456789012")
+            .entryDate(System.currentTimeMillis())
+            .attributeArena(arena)
+            .build();
+        flowFileQueue.put(flowFileRecord);
+
+        final StandardFlowFileRecord dequeued = (StandardFlowFileRecord) session.get();
+        assertFalse(dequeued.hasOffHeapAttributes());
+        session.rollback();
+
+        final StandardFlowFileRecord requeued = (StandardFlowFileRecord) flowFileQueue.poll(new HashSet<FlowFileRecord>());
+        assertTrue(requeued.hasOffHeapAttributes());
+        assertEquals("12345678-1234-1234-1234-123456789012", requeued.getAttribute("uuid"));
+    }
+
+    @Test
+    public void testProvenancePolicyAppliedOnCommit() throws IOException {
+        final ProvenancePolicies policies = new ProvenancePolicies(ProvenancePolicy.FULL,
+            Collections.singletonMap("connectable-1", ProvenancePolicy.aggregated(1L, TimeUnit.HOURS)));
+        context = new ProcessContext(context.getConnectable(), new AtomicLong(0L), contentRepo, flowFileRepo, Mockito.mock(FlowFileEventRepository.class),
+            Mockito.mock(CounterRepository.class), provenanceRepo, null, policies);
+        session = new StandardProcessSession(context);
+
+        final Relationship relationship = new Relationship.Builder().name("A").build();
+        for (int i = 0; i < 10; i++) {
+            final FlowFile flowFile = session.create();
+            session.getProvenanceReporter().route(flowFile, relationship);
+            session.transfer(flowFile, relationship);
+        }
+        session.commit();
+
+        // the CREATE events begin the FlowFiles' lineage and so are recorded, but the ROUTE events are held until the aggregation period elapses
+        final List<ProvenanceEventRecord> events = provenanceRepo.getEvents(0L, 100000);
+        assertEquals(10, events.size());
+        for (final ProvenanceEventRecord event : events) {
+            assertEquals(ProvenanceEventType.CREATE, event.getEventType());
+        }
+    }
+
     @Test
     public void testProvenanceEventsEmittedForRemove() throws IOException {
         final FlowFileRecord flowFileRecord = new StandardFlowFileRecord.Builder()
@@ -18,6 +18,7 @@ package org.apache.nifi.controller.repository;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
@@ -34,6 +35,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nifi.connectable.Connectable;
 import org.apache.nifi.connectable.Connection;
@@ -48,6 +51,7 @@ import org.apache.nifi.controller.repository.claim.StandardResourceClaim;
 import org.apache.nifi.controller.repository.claim.StandardResourceClaimManager;
 import org.apache.nifi.controller.swap.StandardSwapContents;
 import org.apache.nifi.controller.swap.StandardSwapSummary;
+import org.apache.nifi.util.NiFiProperties;
 import org.apache.nifi.util.file.FileUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -231,6 +235,218 @@ public class TestWriteAheadFlowFileRepository {
         repo2.close();
     }
 
+    @Test
+    public void testRestartWithRepeatedAttributesAndClaims() throws IOException {
+        final Path path = Paths.get("target/test-repo");
+        if (Files.exists(path)) {
+            FileUtils.deleteFile(path.toFile(), true);
+        }
+
+        final TestQueueProvider queueProvider = new TestQueueProvider();
+        final Connection connection = Mockito.mock(Connection.class);
+        when(connection.getIdentifier()).thenReturn("1234");
+
+        final List<FlowFileRecord> flowFileCollection = new ArrayList<>();
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class);
+        when(queue.getIdentifier()).thenReturn("1234");
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                flowFileCollection.add((FlowFileRecord) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(queue).put(any(FlowFileRecord.class));
+
+        when(connection.getFlowFileQueue()).thenReturn(queue);
+        queueProvider.addConnection(connection);
+
+        final int numFlowFiles = 500;
+        final int numAttributes = 40;
+        final Map<Long, FlowFileRecord> expected = new HashMap<>();
+
+        try (final WriteAheadFlowFileRepository repo = new WriteAheadFlowFileRepository()) {
+            repo.initialize(new StandardResourceClaimManager());
+            repo.loadFlowFiles(queueProvider, 0L);
+
+            final List<RepositoryRecord> records = new ArrayList<>();
+            for (int i = 0; i < numFlowFiles; i++) {
+                final ResourceClaim resourceClaim = new StandardResourceClaim("container", String.valueOf(i % 4), String.valueOf(i / 10), false);
+                final ContentClaim contentClaim = new StandardContentClaim(resourceClaim, i * 100L);
+
+                final StandardFlowFileRecord.Builder builder = new StandardFlowFileRecord.Builder()
+                    .id(i)
+                    .size(100L)
+                    .contentClaim(contentClaim)
+                    .addAttribute("uuid", UUID.randomUUID().toString())
+                    .addAttribute("filename", "file-" + i + ".txt")
+                    .addAttribute("mime.type", "text/plain");
+                for (int j = 0; j < numAttributes; j++) {
+                    builder.addAttribute("attribute." + j, "value." + (i + j) % 7);
+                }
+
+                final FlowFileRecord flowFile = builder.build();
+                expected.put(flowFile.getId(), flowFile);
+
+                final StandardRepositoryRecord record = new StandardRepositoryRecord(null);
+                record.setWorking(flowFile);
+                record.setDestination(queue);
+                records.add(record);
+
+                if (records.size() == 50) {
+                    repo.updateRepository(records);
+                    records.clear();
+                }
+            }
+        }
+
+        // restore from the journals and then again from the snapshot that is written when the journals are recovered
+        for (int i = 0; i < 2; i++) {
+            flowFileCollection.clear();
+
+            try (final WriteAheadFlowFileRepository repo = new WriteAheadFlowFileRepository()) {
+                repo.initialize(new StandardResourceClaimManager());
+                repo.loadFlowFiles(queueProvider, 0L);
+            }
+
+            assertEquals(numFlowFiles, flowFileCollection.size());
+            for (final FlowFileRecord flowFile : flowFileCollection) {
+                final FlowFileRecord expectedFlowFile = expected.get(flowFile.getId());
+                assertNotNull(expectedFlowFile);
+                assertEquals(expectedFlowFile.getAttributes(), flowFile.getAttributes());
+                assertEquals(expectedFlowFile.getContentClaim(), flowFile.getContentClaim());
+                assertEquals(expectedFlowFile.getContentClaim().getOffset(), flowFile.getContentClaim().getOffset());
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testGroupCommit() throws IOException, InterruptedException {
+        final Path path = Paths.get("target/test-repo");
+        if (Files.exists(path)) {
+            FileUtils.deleteFile(path.toFile(), true);
+        }
+
+        NiFiProperties.getInstance().setProperty(NiFiProperties.FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW, "5 millis");
+        final WriteAheadFlowFileRepository repo;
+        try {
+            repo = new WriteAheadFlowFileRepository();
+        } finally {
+            NiFiProperties.getInstance().remove(NiFiProperties.FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW);
+        }
+
+        repo.initialize(new StandardResourceClaimManager());
+
+        final TestQueueProvider queueProvider = new TestQueueProvider();
+        repo.loadFlowFiles(queueProvider, 0L);
+
+        final Connection connection = Mockito.mock(Connection.class);
+        when(connection.getIdentifier()).thenReturn("1234");
+
+        final List<FlowFileRecord> flowFileCollection = Collections.synchronizedList(new ArrayList<FlowFileRecord>());
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class);
+        when(queue.getIdentifier()).thenReturn("1234");
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                flowFileCollection.add((FlowFileRecord) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(queue).put(any(FlowFileRecord.class));
+
+        when(connection.getFlowFileQueue()).thenReturn(queue);
+        queueProvider.addConnection(connection);
+
+        final int threadCount = 8;
+        final int updatesPerThread = 25;
+        final AtomicLong idGenerator = new AtomicLong(0L);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < updatesPerThread; j++) {
+                            final FlowFileRecord flowFile = new StandardFlowFileRecord.Builder()
+                                .id(idGenerator.getAndIncrement())
+                                .addAttribute("uuid", UUID.randomUUID().toString())
+                                .size(0L)
+                                .build();
+
+                            final StandardRepositoryRecord record = new StandardRepositoryRecord(null);
+                            record.setWorking(flowFile);
+                            record.setDestination(queue);
+                            repo.updateRepository(Collections.<RepositoryRecord> singletonList(record));
+                        }
+                    } catch (final Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        assertEquals(threadCount * updatesPerThread, repo.getGroupCommitCount() + repo.getCoalescedUpdateCount());
+        repo.close();
+
+        // restore and ensure that all FlowFiles were written
+        final WriteAheadFlowFileRepository repo2 = new WriteAheadFlowFileRepository();
+        repo2.initialize(new StandardResourceClaimManager());
+        repo2.loadFlowFiles(queueProvider, 0L);
+        assertEquals(threadCount * updatesPerThread, flowFileCollection.size());
+        repo2.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testGroupCommitSingleCommitterDoesNotWaitForWindow() throws IOException {
+        final Path path = Paths.get("target/test-repo");
+        if (Files.exists(path)) {
+            FileUtils.deleteFile(path.toFile(), true);
+        }
+
+        NiFiProperties.getInstance().setProperty(NiFiProperties.FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW, "10 secs");
+        final WriteAheadFlowFileRepository repo;
+        try {
+            repo = new WriteAheadFlowFileRepository();
+        } finally {
+            NiFiProperties.getInstance().remove(NiFiProperties.FLOWFILE_REPOSITORY_GROUP_COMMIT_WINDOW);
+        }
+
+        repo.initialize(new StandardResourceClaimManager());
+        repo.loadFlowFiles(new TestQueueProvider(), 0L);
+
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class);
+        when(queue.getIdentifier()).thenReturn("1234");
+
+        // with no other committer to wait for, each update must be written right away rather than after the window elapses
+        final int updateCount = 5;
+        final long start = System.nanoTime();
+        for (int i = 0; i < updateCount; i++) {
+            final FlowFileRecord flowFile = new StandardFlowFileRecord.Builder()
+                .id(i)
+                .addAttribute("uuid", UUID.randomUUID().toString())
+                .size(0L)
+                .build();
+
+            final StandardRepositoryRecord record = new StandardRepositoryRecord(null);
+            record.setWorking(flowFile);
+            record.setDestination(queue);
+            repo.updateRepository(Collections.<RepositoryRecord> singletonList(record));
+        }
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Single committer took " + millis + " millis to write " + updateCount + " updates", millis < 5000L);
+        assertEquals(updateCount, repo.getGroupCommitCount());
+        assertEquals(0L, repo.getCoalescedUpdateCount());
+        repo.close();
+    }
+
     private static class TestQueueProvider implements QueueProvider {
         private List<Connection> connectionList = new ArrayList<>();
 
@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateManagerProvider;
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.controller.FlowController;
+import org.apache.nifi.controller.queue.FlowFileQueue;
+import org.apache.nifi.engine.FlowEngine;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.NiFiProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestWorkStealingSchedulingAgent {
+
+    private FlowEngine flowEngine;
+
+    @Before
+    public void setup() throws Exception {
+        System.setProperty("nifi.properties.file.path", "src/test/resources/nifi.properties");
+        final Field instanceField = NiFiProperties.class.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+
+        flowEngine = new FlowEngine(2, "Test Timer", true);
+    }
+
+    @After
+    public void cleanup() {
+        flowEngine.shutdownNow();
+    }
+
+    private Connectable createConnectable(final AtomicInteger queued, final boolean hasIncomingConnection, final int maxConcurrentTasks) {
+        final Connectable connectable = Mockito.mock(Connectable.class, Mockito.withSettings().stubOnly());
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class, Mockito.withSettings().stubOnly());
+        Mockito.when(queue.isActiveQueueEmpty()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return queued.get() <= 0;
+            }
+        });
+
+        final Connection connection = Mockito.mock(Connection.class, Mockito.withSettings().stubOnly());
+        Mockito.when(connection.getFlowFileQueue()).thenReturn(queue);
+        Mockito.when(connection.getSource()).thenReturn(Mockito.mock(Connectable.class));
+
+        final List<Connection> incoming = hasIncomingConnection ? Collections.singletonList(connection) : Collections.<Connection> emptyList();
+        Mockito.when(connectable.getIncomingConnections()).thenReturn(incoming);
+        Mockito.when(connectable.hasIncomingConnection()).thenReturn(hasIncomingConnection);
+        Mockito.when(connectable.getMaxConcurrentTasks()).thenReturn(maxConcurrentTasks);
+        Mockito.when(connectable.getSchedulingPeriod(Mockito.any(TimeUnit.class))).thenReturn(Connectable.MINIMUM_SCHEDULING_NANOS);
+        Mockito.when(connectable.getConnectableType()).thenReturn(ConnectableType.FUNNEL);
+        return connectable;
+    }
+
+    private WorkStealingSchedulingAgent createAgent(final Callable<Boolean> task) {
+        return new WorkStealingSchedulingAgent(Mockito.mock(FlowController.class), flowEngine, null, null, 4) {
+            @Override
+            protected Callable<Boolean> createTask(final Connectable connectable, final ScheduleState scheduleState) {
+                return task;
+            }
+        };
+    }
+
+    private void waitFor(final AtomicInteger value, final int expected) throws InterruptedException {
+        final long stop = System.currentTimeMillis() + 5000L;
+        while (value.get() < expected && System.currentTimeMillis() < stop) {
+            Thread.sleep(5L);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRunsOnlyWhenSignaled() throws Exception {
+        final AtomicInteger queued = new AtomicInteger(0);
+        final AtomicInteger runs = new AtomicInteger(0);
+        final WorkStealingSchedulingAgent agent = createAgent(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                runs.incrementAndGet();
+                if (queued.get() <= 0) {
+                    return true;
+                }
+
+                queued.decrementAndGet();
+                return false;
+            }
+        });
+
+        final Connectable connectable = createConnectable(queued, true, 1);
+        final ScheduleState scheduleState = new ScheduleState();
+        try {
+            agent.schedule(connectable, scheduleState);
+
+            // the component is run once when it is scheduled, and then waits to be signaled
+            waitFor(runs, 1);
+            Thread.sleep(100L);
+            assertEquals(1, runs.get());
+
+            // once signaled, the component runs as long as FlowFiles are queued
+            queued.set(3);
+            agent.onEvent(connectable);
+            waitFor(runs, 4);
+            Thread.sleep(100L);
+            assertEquals(4, runs.get());
+            assertEquals(0, queued.get());
+
+            // a signal when there is no work, such as back pressure being relieved, runs the component once
+            agent.onEvent(connectable);
+            waitFor(runs, 5);
+            assertEquals(5, runs.get());
+        } finally {
+            agent.unschedule(connectable, scheduleState);
+            agent.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testComponentWithoutIncomingConnectionsRunsOnSchedule() throws Exception {
+        final AtomicInteger runs = new AtomicInteger(0);
+        final WorkStealingSchedulingAgent agent = createAgent(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                runs.incrementAndGet();
+                return true;
+            }
+        });
+
+        final Connectable connectable = createConnectable(new AtomicInteger(0), false, 1);
+        final ScheduleState scheduleState = new ScheduleState();
+        try {
+            agent.schedule(connectable, scheduleState);
+
+            // the component has no work, so it is yielded for the bored yield duration between runs
+            waitFor(runs, 5);
+            assertTrue(runs.get() >= 5);
+        } finally {
+            agent.unschedule(connectable, scheduleState);
+            agent.shutdown();
+        }
+
+        Thread.sleep(100L);
+        final int runsAfterUnschedule = runs.get();
+        Thread.sleep(100L);
+        assertEquals(runsAfterUnschedule, runs.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentTasksLimited() throws Exception {
+        final AtomicInteger queued = new AtomicInteger(0);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final AtomicInteger completed = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final Connectable connectable = createConnectable(queued, true, 2);
+        final List<Callable<Boolean>> tasks = new ArrayList<>();
+        final WorkStealingSchedulingAgent agent = new WorkStealingSchedulingAgent(Mockito.mock(FlowController.class), flowEngine, null, null, 4) {
+            @Override
+            protected Callable<Boolean> createTask(final Connectable connectable, final ScheduleState scheduleState) {
+                final Callable<Boolean> task = new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        if (queued.get() <= 0) {
+                            return true;
+                        }
+
+                        final int nowRunning = running.incrementAndGet();
+                        maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+                        latch.await();
+                        running.decrementAndGet();
+                        queued.decrementAndGet();
+                        completed.incrementAndGet();
+                        return false;
+                    }
+                };
+                tasks.add(task);
+                return task;
+            }
+        };
+
+        final ScheduleState scheduleState = new ScheduleState();
+        try {
+            agent.schedule(connectable, scheduleState);
+            assertEquals(2, tasks.size());
+
+            queued.set(10);
+            for (int i = 0; i < 10; i++) {
+                agent.onEvent(connectable);
+            }
+
+            Thread.sleep(100L);
+            assertEquals(2, running.get());
+
+            latch.countDown();
+            waitFor(completed, 10);
+            assertEquals(2, maxRunning.get());
+        } finally {
+            agent.unschedule(connectable, scheduleState);
+            agent.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSignalForUnscheduledComponentIgnored() throws Exception {
+        final AtomicInteger runs = new AtomicInteger(0);
+        final WorkStealingSchedulingAgent agent = createAgent(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                runs.incrementAndGet();
+                return false;
+            }
+        });
+
+        try {
+            agent.onEvent(createConnectable(new AtomicInteger(1), true, 1));
+            Thread.sleep(100L);
+            assertEquals(0, runs.get());
+        } finally {
+            agent.shutdown();
+        }
+    }
+
+    @Test
+    @Ignore("For local testing of performance only")
+    public void testCompareWithTimerDrivenOnLargeFlow() throws Exception {
+        final int chains = 50;
+        final int chainLength = 100;
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < 2; i++) {
+            final FlowEngine timerEngine = new FlowEngine(threads, "Timer-Driven Process");
+            final FlowController flowController = createFlowController();
+            final ProcessContextFactory contextFactory = new ProcessContextFactory(null, null, null, null, null);
+            final TimerDrivenSchedulingAgent timerAgent = new TimerDrivenSchedulingAgent(flowController, timerEngine, contextFactory, null);
+            runBenchmark("Timer-Driven", timerAgent, chains, chainLength);
+
+            final FlowEngine workStealingEngine = new FlowEngine(2, "Work-Stealing Timer");
+            final WorkStealingSchedulingAgent workStealingAgent = new WorkStealingSchedulingAgent(flowController, workStealingEngine, contextFactory, null, threads);
+            runBenchmark("Work-Stealing", workStealingAgent, chains, chainLength);
+        }
+    }
+
+    private FlowController createFlowController() {
+        final StateManagerProvider stateManagerProvider = Mockito.mock(StateManagerProvider.class);
+        Mockito.when(stateManagerProvider.getStateManager(Mockito.anyString())).thenReturn(Mockito.mock(StateManager.class));
+        final FlowController flowController = Mockito.mock(FlowController.class);
+        Mockito.when(flowController.getStateManagerProvider()).thenReturn(stateManagerProvider);
+        return flowController;
+    }
+
+    private void runBenchmark(final String name, final SchedulingAgent agent, final int chains, final int chainLength) throws Exception {
+        final int componentCount = chains * chainLength;
+        final AtomicInteger[] queues = new AtomicInteger[componentCount + chains];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new AtomicInteger(0);
+        }
+
+        // each chain is a series of components that pass a FlowFile from one queue to the next
+        final Connectable[] components = new Connectable[componentCount];
+        final AtomicLong[] arrivalNanos = new AtomicLong[chains];
+        final ScheduleState[] scheduleStates = new ScheduleState[componentCount];
+        for (int chain = 0; chain < chains; chain++) {
+            arrivalNanos[chain] = new AtomicLong(0L);
+            for (int i = chainLength - 1; i >= 0; i--) {
+                final int index = chain * chainLength + i;
+                final int inputIndex = index + chain;
+                final Connectable next = i == chainLength - 1 ? null : components[index + 1];
+                components[index] = createChainedComponent(agent, queues[inputIndex], queues[inputIndex + 1], next, next == null ? arrivalNanos[chain] : null);
+                scheduleStates[index] = new ScheduleState();
+            }
+        }
+
+        for (int i = 0; i < componentCount; i++) {
+            agent.schedule(components[i], scheduleStates[i]);
+        }
+
+        try {
+            Thread.sleep(2000L);
+
+            // measure the CPU used by all threads while the flow is idle
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            final Map<Long, Long> idleCpuStart = getThreadCpuNanos(threadMXBean);
+            Thread.sleep(5000L);
+            final long idleCpuNanos = getCpuNanosSince(threadMXBean, idleCpuStart);
+
+            // measure the time that a single FlowFile takes to pass through a chain while the rest of the flow is idle
+            long totalLatencyNanos = 0L;
+            final int iterations = 20;
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                final int chain = iteration % chains;
+                arrivalNanos[chain].set(0L);
+
+                final long start = System.nanoTime();
+                queues[chain * chainLength + chain].incrementAndGet();
+                agent.onEvent(components[chain * chainLength]);
+                while (arrivalNanos[chain].get() == 0L) {
+                    Thread.sleep(1L);
+                }
+                totalLatencyNanos += arrivalNanos[chain].get() - start;
+            }
+
+            System.out.println(name + ": " + componentCount + " components; idle CPU " + TimeUnit.NANOSECONDS.toMillis(idleCpuNanos) + " millis in 5 seconds; "
+                + "average latency through " + chainLength + " components " + TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / iterations) + " micros");
+        } finally {
+            for (int i = 0; i < componentCount; i++) {
+                agent.unschedule(components[i], scheduleStates[i]);
+            }
+            agent.shutdown();
+        }
+    }
+
+    private Map<Long, Long> getThreadCpuNanos(final ThreadMXBean threadMXBean) {
+        final Map<Long, Long> cpuNanos = new HashMap<>();
+        for (final long threadId : threadMXBean.getAllThreadIds()) {
+            final long threadCpuNanos = threadMXBean.getThreadCpuTime(threadId);
+            if (threadCpuNanos > 0L) {
+                cpuNanos.put(threadId, threadCpuNanos);
+            }
+        }
+        return cpuNanos;
+    }
+
+    private long getCpuNanosSince(final ThreadMXBean threadMXBean, final Map<Long, Long> previousCpuNanos) {
+        long total = 0L;
+        for (final Map.Entry<Long, Long> entry : getThreadCpuNanos(threadMXBean).entrySet()) {
+            final Long previous = previousCpuNanos.get(entry.getKey());
+            total += entry.getValue() - (previous == null ? 0L : previous);
+        }
+        return total;
+    }
+
+    private Connectable createChainedComponent(final SchedulingAgent agent, final AtomicInteger input, final AtomicInteger output, final Connectable next, final AtomicLong arrivalNanos) {
+        final Connectable connectable = createConnectable(input, true, 1);
+        final Connection outgoing = Mockito.mock(Connection.class, Mockito.withSettings().stubOnly());
+        Mockito.when(connectable.getConnections()).thenReturn(Collections.singleton(outgoing));
+        Mockito.when(connectable.getRelationships()).thenReturn(Collections.<Relationship> emptyList());
+
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                if (input.get() > 0) {
+                    input.decrementAndGet();
+                    if (next == null) {
+                        arrivalNanos.set(System.nanoTime());
+                    } else {
+                        output.incrementAndGet();
+                        agent.onEvent(next);
+                    }
+                }
+                return null;
+            }
+        }).when(connectable).onTrigger(Mockito.any(ProcessContext.class), Mockito.any(ProcessSessionFactory.class));
+
+        return connectable;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Constants and helpers shared by the {@link ColumnarRecordWriter} and {@link ColumnarRecordReader}.
+ * </p>
+ *
+ * <p>
+ * A columnar Provenance Event File consists of a header followed by any number of blocks. The header is the
+ * name of the {@link ColumnarRecordWriter} class, written with {@link java.io.DataOutput#writeUTF(String)}, followed
+ * by a 4-byte serialization version. Each block is written as:
+ * </p>
+ *
+ * <ul>
+ * <li>1 byte: codec ({@link #CODEC_NONE}, {@link #CODEC_LZ4} or {@link #CODEC_DEFLATE})</li>
+ * <li>4 bytes: length of the block payload, once decompressed</li>
+ * <li>4 bytes: length of the block payload, as stored</li>
+ * <li>the block payload</li>
+ * </ul>
+ *
+ * <p>
+ * The payload starts with the number of records in the block and a dictionary of the strings that are repeated
+ * across records (Component IDs and Types, Event Types, FlowFile UUIDs, attribute keys and values, etc.), followed by
+ * {@link #COLUMN_COUNT} columns. Each column holds a single field of every record in the block. Numbers are written
+ * as variable-length integers and timestamps as differences from the previous or related timestamp, so that columns
+ * are small and compress well. Blocks are self-contained, so a reader can begin reading at any block listed in the
+ * Table of Contents.
+ * </p>
+ *
+ * <p>
+ * The previous attributes of an event are stored as the difference from the attributes that the same FlowFile had
+ * after its previous event in the same block, which avoids repeating the full set of attributes for every event.
+ * </p>
+ */
+final class ColumnarFormat {
+
+    static final int SERIALIZATION_VERSION = 1;
+
+    static final byte CODEC_NONE = 0;
+    static final byte CODEC_LZ4 = 1;
+    /**
+     * Blocks are written with this codec only when an event file is recompressed for cold storage, which favors a
+     * smaller file over the speed of reading it.
+     */
+    static final byte CODEC_DEFLATE = 2;
+
+    /**
+     * The storage byte offset of an event in a columnar file is the offset of its block shifted left by this many
+     * bits, plus the index of the event within the block.
+     */
+    static final int RECORD_INDEX_BITS = 16;
+    static final int MAX_RECORDS_PER_BLOCK = 1 << RECORD_INDEX_BITS;
+
+    static final int EVENT_ID = 0;
+    static final int EVENT_TYPE = 1;
+    static final int EVENT_TIME = 2;
+    static final int ENTRY_DATE = 3;
+    static final int EVENT_DURATION = 4;
+    static final int LINEAGE_START_DATE = 5;
+    static final int COMPONENT_ID = 6;
+    static final int COMPONENT_TYPE = 7;
+    static final int FLOWFILE_UUID = 8;
+    static final int DETAILS = 9;
+    static final int PREVIOUS_ATTRIBUTES = 10;
+    static final int UPDATED_ATTRIBUTES = 11;
+    static final int CONTENT_CLAIM = 12;
+    static final int PREVIOUS_CONTENT_CLAIM = 13;
+    static final int SOURCE_QUEUE = 14;
+    static final int PARENT_UUIDS = 15;
+    static final int CHILD_UUIDS = 16;
+    static final int TRANSIT_URI = 17;
+    static final int SOURCE_SYSTEM_FLOWFILE_ID = 18;
+    static final int ALTERNATE_IDENTIFIER = 19;
+    static final int RELATIONSHIP = 20;
+    static final int COLUMN_COUNT = 21;
+
+    private ColumnarFormat() {
+    }
+
+    static boolean hasLinkedUuids(final ProvenanceEventType eventType) {
+        return eventType == ProvenanceEventType.FORK || eventType == ProvenanceEventType.JOIN || eventType == ProvenanceEventType.CLONE || eventType == ProvenanceEventType.REPLAY;
+    }
+
+    static boolean hasTransitUri(final ProvenanceEventType eventType) {
+        return eventType == ProvenanceEventType.RECEIVE || eventType == ProvenanceEventType.FETCH || eventType == ProvenanceEventType.SEND;
+    }
+
+    /**
+     * Decompresses the payload of a block
+     *
+     * @param codec the codec that the block was written with
+     * @param stored the payload, as stored
+     * @param storedLength the number of bytes of the stored payload
+     * @param uncompressedLength the length of the payload once decompressed
+     * @param description a description of the block, for error messages
+     * @return the decompressed payload
+     * @throws IOException if the codec is unknown or the payload is corrupt
+     */
+    static byte[] decompress(final int codec, final byte[] stored, final int storedLength, final int uncompressedLength, final String description) throws IOException {
+        if (codec == CODEC_NONE) {
+            return stored;
+        }
+
+        final byte[] payload = new byte[uncompressedLength];
+        if (codec == CODEC_LZ4) {
+            LZ4BlockCompression.decompress(stored, 0, storedLength, payload, uncompressedLength);
+        } else if (codec == CODEC_DEFLATE) {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored, 0, storedLength);
+                int length = 0;
+                while (length < uncompressedLength && !inflater.finished()) {
+                    final int inflated = inflater.inflate(payload, length, uncompressedLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+
+                if (length != uncompressedLength) {
+                    throw new IOException(description + " is corrupt: expected " + uncompressedLength + " bytes once decompressed but found " + length);
+                }
+            } catch (final DataFormatException dfe) {
+                throw new IOException(description + " is corrupt", dfe);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException(description + " uses unknown codec " + codec);
+        }
+
+        return payload;
+    }
+
+    /**
+     * Returns the attributes that a FlowFile has after an event, given its attributes before the event and the
+     * attributes that the event updated. Both the writer and the reader use this as the base that the previous
+     * attributes of the FlowFile's next event are compared to.
+     *
+     * @param previousAttributes the attributes before the event
+     * @param updatedAttributes the attributes that were updated by the event
+     * @return the attributes after the event
+     */
+    static Map<String, String> applyUpdates(final Map<String, String> previousAttributes, final Map<String, String> updatedAttributes) {
+        final Map<String, String> attributes = new HashMap<>(previousAttributes);
+        for (final Map.Entry<String, String> entry : updatedAttributes.entrySet()) {
+            if (entry.getValue() == null) {
+                attributes.remove(entry.getKey());
+            } else {
+                attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Writes an entry of a block's dictionary. Entries that are UUIDs in their canonical form, which is the case for
+     * nearly all FlowFile UUIDs, are written as 16 bytes rather than as a 36-character string.
+     *
+     * @param out the output to write to
+     * @param value the value to write
+     */
+    static void writeDictionaryEntry(final ColumnOutput out, final String value) {
+        if (isCanonicalUuid(value)) {
+            out.writeVarLong(0L);
+            out.writeLong(parseHex(value, 0, 8) << 32 | parseHex(value, 9, 13) << 16 | parseHex(value, 14, 18));
+            out.writeLong(parseHex(value, 19, 23) << 48 | parseHex(value, 24, 36));
+        } else {
+            out.writeString(value);
+        }
+    }
+
+    /**
+     * Reads an entry that was written by {@link #writeDictionaryEntry(ColumnOutput, String)}
+     *
+     * @param in the input to read from
+     * @return the value of the entry
+     * @throws IOException if unable to read the entry
+     */
+    static String readDictionaryEntry(final ColumnInput in) throws IOException {
+        final String value = in.readString();
+        if (value != null) {
+            return value;
+        }
+
+        return new UUID(in.readLong(), in.readLong()).toString();
+    }
+
+    private static boolean isCanonicalUuid(final String value) {
+        if (value.length() != 36) {
+            return false;
+        }
+
+        for (int i = 0; i < 36; i++) {
+            final char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long parseHex(final String value, final int start, final int end) {
+        long result = 0L;
+        for (int i = start; i < end; i++) {
+            result = (result << 4) | Character.digit(value.charAt(i), 16);
+        }
+        return result;
+    }
+
+    /**
+     * A growable buffer that a column, or a block payload, is written to
+     */
+    static class ColumnOutput {
+        private byte[] buffer;
+        private int size = 0;
+
+        ColumnOutput(final int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+
+        void writeByte(final int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void write(final byte[] bytes, final int offset, final int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        void writeVarLong(final long value) {
+            ensureCapacity(10);
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            buffer[size++] = (byte) remaining;
+        }
+
+        void writeLong(final long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeSignedVarLong(final long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes the given string, which may be <code>null</code>
+         *
+         * @param value the value to write
+         */
+        void writeString(final String value) {
+            if (value == null) {
+                writeVarLong(0L);
+                return;
+            }
+
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Reads the values of a single column, or a block payload
+     */
+    static class ColumnInput {
+        private final byte[] buffer;
+        private final int end;
+        private int position;
+
+        ColumnInput(final byte[] buffer, final int offset, final int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        int getPosition() {
+            return position;
+        }
+
+        void skip(final int length) throws IOException {
+            if (position + length > end) {
+                throw new EOFException("Column is corrupt: expected " + length + " more bytes but only " + (end - position) + " remain");
+            }
+            position += length;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0L;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) {
+                    throw new EOFException("Column is corrupt: unexpected end of column");
+                }
+
+                final byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Column is corrupt: variable-length integer is longer than 10 bytes");
+        }
+
+        int readVarInt() throws IOException {
+            final long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Column is corrupt: expected a length or index but got " + value);
+            }
+            return (int) value;
+        }
+
+        long readLong() throws IOException {
+            if (position + 8 > end) {
+                throw new EOFException("Column is corrupt: unexpected end of column");
+            }
+
+            long value = 0L;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buffer[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        long readSignedVarLong() throws IOException {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            final int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+
+            final int byteCount = length - 1;
+            final int start = position;
+            skip(byteCount);
+            return new String(buffer, start, byteCount, StandardCharsets.UTF_8);
+        }
+    }
+}
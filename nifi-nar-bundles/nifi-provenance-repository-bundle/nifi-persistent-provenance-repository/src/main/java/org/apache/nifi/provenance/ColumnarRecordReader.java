@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.nifi.provenance.ColumnarFormat.ColumnInput;
+import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.stream.io.BufferedInputStream;
+import org.apache.nifi.stream.io.ByteCountingInputStream;
+import org.apache.nifi.stream.io.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads Provenance Event Files that were written by the {@link ColumnarRecordWriter}. Each block is read and
+ * decompressed in full, and records are then decoded one at a time from the block's columns.
+ *
+ * The storage byte offset of each record that is returned is a 'virtual' offset: the offset of the record's block
+ * in the file, shifted left by {@link ColumnarFormat#RECORD_INDEX_BITS}, plus the index of the record within the block.
+ * {@link #skipTo(long)} accepts the same offsets.
+ */
+public class ColumnarRecordReader implements RecordReader {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarRecordReader.class);
+    private static final byte[] HEADER_PREFIX = createHeaderPrefix();
+
+    private final ByteCountingInputStream rawInputStream;
+    private final DataInputStream dis;
+    private final String filename;
+    private final TocReader tocReader;
+    private final int maxAttributeChars;
+
+    // state of the block that is currently being read
+    private long blockOffset;
+    private int blockRecordCount = 0;
+    private int nextRecordIndex = 0;
+    private String[] dictionary;
+    private ColumnInput[] columns;
+    private final Map<String, Map<String, String>> attributesByFlowFile = new HashMap<>();
+    private long lastEventId;
+    private long lastEventTime;
+
+    public ColumnarRecordReader(final InputStream in, final String filename, final int maxAttributeChars) throws IOException {
+        this(in, filename, null, maxAttributeChars);
+    }
+
+    public ColumnarRecordReader(final InputStream in, final String filename, final TocReader tocReader, final int maxAttributeChars) throws IOException {
+        logger.trace("Creating Columnar RecordReader for {}", filename);
+
+        this.rawInputStream = new ByteCountingInputStream(new BufferedInputStream(in));
+        this.dis = new DataInputStream(rawInputStream);
+        this.filename = filename;
+        this.tocReader = tocReader;
+        this.maxAttributeChars = maxAttributeChars;
+
+        final String writerClassName = dis.readUTF();
+        if (!ColumnarRecordWriter.class.getName().equals(writerClassName)) {
+            throw new IOException("Unable to read Provenance Log " + filename + " because it was not written by the " + ColumnarRecordWriter.class.getSimpleName());
+        }
+
+        final int serializationVersion = dis.readInt();
+        if (serializationVersion != ColumnarFormat.SERIALIZATION_VERSION) {
+            throw new IllegalArgumentException("Unable to deserialize record because the version is " + serializationVersion
+                + " and the only supported version is " + ColumnarFormat.SERIALIZATION_VERSION);
+        }
+
+        blockOffset = rawInputStream.getBytesConsumed();
+    }
+
+    /**
+     * Determines whether or not the given file was written by the {@link ColumnarRecordWriter}
+     *
+     * @param file the Provenance Event File
+     * @return <code>true</code> if the file was written by the ColumnarRecordWriter, <code>false</code> otherwise
+     * @throws IOException if unable to read from the file
+     */
+    public static boolean isColumnarFile(final File file) throws IOException {
+        final byte[] header = new byte[HEADER_PREFIX.length];
+        try (final InputStream in = new FileInputStream(file)) {
+            final int bytesRead = StreamUtils.fillBuffer(in, header, false);
+            return bytesRead == header.length && Arrays.equals(HEADER_PREFIX, header);
+        }
+    }
+
+    private static byte[] createHeaderPrefix() {
+        // the header starts with the name of the writer's class, in the format used by DataOutput.writeUTF
+        final byte[] className = ColumnarRecordWriter.class.getName().getBytes(StandardCharsets.UTF_8);
+        final byte[] prefix = new byte[className.length + 2];
+        prefix[0] = (byte) (className.length >>> 8);
+        prefix[1] = (byte) className.length;
+        System.arraycopy(className, 0, prefix, 2, className.length);
+        return prefix;
+    }
+
+    /**
+     * Reads the next block from the stream
+     *
+     * @return <code>true</code> if a block was read, <code>false</code> if the end of the stream was reached
+     * @throws IOException if unable to read the block
+     */
+    private boolean readBlock() throws IOException {
+        clearBlock();
+        blockOffset = rawInputStream.getBytesConsumed();
+
+        final int codec = dis.read();
+        if (codec < 0) {
+            return false;
+        }
+
+        final int uncompressedLength = dis.readInt();
+        final int storedLength = dis.readInt();
+        if (uncompressedLength < 0 || storedLength < 0) {
+            throw new IOException("Block at offset " + blockOffset + " of Provenance Log " + filename + " is corrupt");
+        }
+
+        final byte[] stored = new byte[storedLength];
+        dis.readFully(stored);
+
+        final byte[] payload = ColumnarFormat.decompress(codec, stored, storedLength, uncompressedLength, "Block at offset " + blockOffset + " of Provenance Log " + filename);
+
+        final ColumnInput in = new ColumnInput(payload, 0, payload.length);
+        final int recordCount = in.readVarInt();
+
+        final String[] blockDictionary = new String[in.readVarInt()];
+        for (int i = 0; i < blockDictionary.length; i++) {
+            blockDictionary[i] = ColumnarFormat.readDictionaryEntry(in);
+        }
+
+        final int columnCount = in.readVarInt();
+        if (columnCount < ColumnarFormat.COLUMN_COUNT) {
+            throw new IOException("Block at offset " + blockOffset + " of Provenance Log " + filename + " contains only " + columnCount + " columns");
+        }
+
+        final ColumnInput[] blockColumns = new ColumnInput[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            final int length = in.readVarInt();
+            blockColumns[i] = new ColumnInput(payload, in.getPosition(), length);
+            in.skip(length);
+        }
+
+        this.blockRecordCount = recordCount;
+        this.dictionary = blockDictionary;
+        this.columns = blockColumns;
+        return true;
+    }
+
+    private void clearBlock() {
+        blockRecordCount = 0;
+        nextRecordIndex = 0;
+        dictionary = null;
+        columns = null;
+        attributesByFlowFile.clear();
+        lastEventId = 0L;
+        lastEventTime = 0L;
+    }
+
+    @Override
+    public StandardProvenanceEventRecord nextRecord() throws IOException {
+        if (nextRecordIndex >= blockRecordCount) {
+            do {
+                if (!readBlock()) {
+                    return null;
+                }
+            } while (blockRecordCount == 0);
+        }
+
+        return decodeRecord();
+    }
+
+    private StandardProvenanceEventRecord decodeRecord() throws IOException {
+        final long storageOffset = (blockOffset << ColumnarFormat.RECORD_INDEX_BITS) | nextRecordIndex;
+        nextRecordIndex++;
+
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+
+        final long eventId = lastEventId + columns[ColumnarFormat.EVENT_ID].readSignedVarLong();
+        lastEventId = eventId;
+
+        final ProvenanceEventType eventType = ProvenanceEventType.valueOf(readDictionaryValue(ColumnarFormat.EVENT_TYPE));
+        builder.setEventType(eventType);
+
+        final long eventTime = lastEventTime + columns[ColumnarFormat.EVENT_TIME].readSignedVarLong();
+        lastEventTime = eventTime;
+        builder.setEventTime(eventTime);
+        builder.setFlowFileEntryDate(eventTime + columns[ColumnarFormat.ENTRY_DATE].readSignedVarLong());
+        builder.setEventDuration(columns[ColumnarFormat.EVENT_DURATION].readSignedVarLong());
+        builder.setLineageStartDate(eventTime + columns[ColumnarFormat.LINEAGE_START_DATE].readSignedVarLong());
+
+        builder.setComponentId(readDictionaryValue(ColumnarFormat.COMPONENT_ID));
+        builder.setComponentType(readDictionaryValue(ColumnarFormat.COMPONENT_TYPE));
+
+        final String uuid = readDictionaryValue(ColumnarFormat.FLOWFILE_UUID);
+        builder.setFlowFileUUID(uuid);
+        builder.setDetails(columns[ColumnarFormat.DETAILS].readString());
+
+        readAttributes(uuid, builder);
+
+        final ColumnInput claimColumn = columns[ColumnarFormat.CONTENT_CLAIM];
+        if (claimColumn.readVarLong() == 1L) {
+            final String container = readDictionaryValue(ColumnarFormat.CONTENT_CLAIM);
+            final String section = readDictionaryValue(ColumnarFormat.CONTENT_CLAIM);
+            final String identifier = claimColumn.readString();
+            final long offset = claimColumn.readVarLong();
+            builder.setCurrentContentClaim(container, section, identifier, offset, claimColumn.readVarLong());
+        } else {
+            builder.setCurrentContentClaim(null, null, null, null, claimColumn.readVarLong());
+        }
+
+        final ColumnInput previousClaimColumn = columns[ColumnarFormat.PREVIOUS_CONTENT_CLAIM];
+        if (previousClaimColumn.readVarLong() == 1L) {
+            final String container = readDictionaryValue(ColumnarFormat.PREVIOUS_CONTENT_CLAIM);
+            final String section = readDictionaryValue(ColumnarFormat.PREVIOUS_CONTENT_CLAIM);
+            final String identifier = previousClaimColumn.readString();
+            final long offset = previousClaimColumn.readVarLong();
+            builder.setPreviousContentClaim(container, section, identifier, offset, previousClaimColumn.readVarLong());
+        }
+
+        builder.setSourceQueueIdentifier(readDictionaryValue(ColumnarFormat.SOURCE_QUEUE));
+
+        // Read Event-Type specific fields.
+        if (ColumnarFormat.hasLinkedUuids(eventType)) {
+            final ColumnInput parentColumn = columns[ColumnarFormat.PARENT_UUIDS];
+            final int numParents = parentColumn.readVarInt();
+            for (int i = 0; i < numParents; i++) {
+                builder.addParentUuid(readDictionaryValue(ColumnarFormat.PARENT_UUIDS));
+            }
+
+            final ColumnInput childColumn = columns[ColumnarFormat.CHILD_UUIDS];
+            final int numChildren = childColumn.readVarInt();
+            for (int i = 0; i < numChildren; i++) {
+                builder.addChildUuid(readDictionaryValue(ColumnarFormat.CHILD_UUIDS));
+            }
+        } else if (ColumnarFormat.hasTransitUri(eventType)) {
+            builder.setTransitUri(columns[ColumnarFormat.TRANSIT_URI].readString());
+            if (eventType == ProvenanceEventType.RECEIVE) {
+                builder.setSourceSystemFlowFileIdentifier(columns[ColumnarFormat.SOURCE_SYSTEM_FLOWFILE_ID].readString());
+            }
+        } else if (eventType == ProvenanceEventType.ADDINFO) {
+            builder.setAlternateIdentifierUri(columns[ColumnarFormat.ALTERNATE_IDENTIFIER].readString());
+        } else if (eventType == ProvenanceEventType.ROUTE) {
+            builder.setRelationship(readDictionaryValue(ColumnarFormat.RELATIONSHIP));
+        }
+
+        builder.setStorageLocation(filename, storageOffset);
+
+        final StandardProvenanceEventRecord record = builder.build();
+        record.setEventId(eventId);
+        return record;
+    }
+
+    private void readAttributes(final String uuid, final StandardProvenanceEventRecord.Builder builder) throws IOException {
+        final ColumnInput previousColumn = columns[ColumnarFormat.PREVIOUS_ATTRIBUTES];
+
+        final Map<String, String> base = attributesByFlowFile.get(uuid);
+        final Map<String, String> previousAttributes = base == null ? new HashMap<String, String>() : new HashMap<>(base);
+
+        final int numRemoved = previousColumn.readVarInt();
+        for (int i = 0; i < numRemoved; i++) {
+            previousAttributes.remove(readDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES));
+        }
+
+        final int numChanged = previousColumn.readVarInt();
+        for (int i = 0; i < numChanged; i++) {
+            final String key = readDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES);
+            previousAttributes.put(key, readDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES));
+        }
+
+        final ColumnInput updatedColumn = columns[ColumnarFormat.UPDATED_ATTRIBUTES];
+        final int numUpdated = updatedColumn.readVarInt();
+        final Map<String, String> updatedAttributes = new HashMap<>(numUpdated);
+        for (int i = 0; i < numUpdated; i++) {
+            final String key = readDictionaryValue(ColumnarFormat.UPDATED_ATTRIBUTES);
+            updatedAttributes.put(key, readDictionaryValue(ColumnarFormat.UPDATED_ATTRIBUTES));
+        }
+
+        if (uuid != null) {
+            attributesByFlowFile.put(uuid, ColumnarFormat.applyUpdates(previousAttributes, updatedAttributes));
+        }
+
+        builder.setAttributes(truncate(previousAttributes), truncate(updatedAttributes));
+    }
+
+    private Map<String, String> truncate(final Map<String, String> attributes) {
+        Map<String, String> truncated = attributes;
+        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+            final String value = entry.getValue();
+            if (value != null && value.length() > maxAttributeChars) {
+                // the untruncated values are needed to decode later records, so we never modify the map that we are given
+                if (truncated == attributes) {
+                    truncated = new HashMap<>(attributes);
+                }
+                truncated.put(entry.getKey(), value.substring(0, maxAttributeChars));
+            }
+        }
+
+        return truncated;
+    }
+
+    private String readDictionaryValue(final int column) throws IOException {
+        final int index = columns[column].readVarInt();
+        if (index == 0) {
+            return null;
+        }
+
+        if (index > dictionary.length) {
+            throw new IOException("Block at offset " + blockOffset + " of Provenance Log " + filename + " is corrupt: dictionary index "
+                + (index - 1) + " is out of bounds");
+        }
+
+        return dictionary[index - 1];
+    }
+
+    @Override
+    public void skipToBlock(final int blockIndex) throws IOException {
+        if (tocReader == null) {
+            throw new IllegalStateException("Cannot skip to block " + blockIndex + " for Provenance Log " + filename + " because no Table-of-Contents file was found for this Log");
+        }
+
+        if (blockIndex < 0) {
+            throw new IllegalArgumentException("Cannot skip to block " + blockIndex + " because the value is negative");
+        }
+
+        if (blockIndex == getBlockIndex()) {
+            return;
+        }
+
+        final long offset = tocReader.getBlockOffset(blockIndex);
+        if (offset < 0) {
+            throw new IOException("Unable to find block " + blockIndex + " in Provenance Log " + filename);
+        }
+
+        final long curOffset = rawInputStream.getBytesConsumed();
+        final long bytesToSkip = offset - curOffset;
+        if (bytesToSkip >= 0) {
+            try {
+                StreamUtils.skip(rawInputStream, bytesToSkip);
+                logger.debug("Skipped stream from offset {} to {} ({} bytes skipped)", curOffset, offset, bytesToSkip);
+            } catch (final IOException e) {
+                throw new IOException("Failed to skip to offset " + offset + " for block " + blockIndex + " of Provenance Log " + filename, e);
+            }
+
+            clearBlock();
+            blockOffset = offset;
+        }
+    }
+
+    @Override
+    public void skipTo(final long position) throws IOException {
+        final long targetBlockOffset = position >>> ColumnarFormat.RECORD_INDEX_BITS;
+        final int targetIndex = (int) (position & (ColumnarFormat.MAX_RECORDS_PER_BLOCK - 1));
+
+        if (columns == null || blockOffset != targetBlockOffset) {
+            final long currentOffset = rawInputStream.getBytesConsumed();
+            if (targetBlockOffset < currentOffset) {
+                throw new IOException("Cannot skip to block offset " + targetBlockOffset + " in stream because already at byte offset " + currentOffset);
+            }
+
+            StreamUtils.skip(rawInputStream, targetBlockOffset - currentOffset);
+            if (!readBlock()) {
+                throw new EOFException("Cannot skip to block offset " + targetBlockOffset + " because it is beyond the end of Provenance Log " + filename);
+            }
+        } else if (nextRecordIndex > targetIndex) {
+            throw new IOException("Cannot skip to record " + targetIndex + " of block at offset " + targetBlockOffset + " because already at record " + nextRecordIndex);
+        }
+
+        if (targetIndex >= blockRecordCount) {
+            throw new EOFException("Cannot skip to record " + targetIndex + " of block at offset " + targetBlockOffset + " because the block contains only "
+                + blockRecordCount + " records");
+        }
+
+        // records are delta-encoded, so we must decode each record in order to reach the one requested
+        while (nextRecordIndex < targetIndex) {
+            decodeRecord();
+        }
+    }
+
+    @Override
+    public void skip(final long bytesToSkip) throws IOException {
+        StreamUtils.skip(rawInputStream, bytesToSkip);
+        clearBlock();
+        blockOffset = rawInputStream.getBytesConsumed();
+    }
+
+    @Override
+    public TocReader getTocReader() {
+        return tocReader;
+    }
+
+    @Override
+    public boolean isBlockIndexAvailable() {
+        return tocReader != null;
+    }
+
+    @Override
+    public int getBlockIndex() {
+        if (tocReader == null) {
+            throw new IllegalStateException("Cannot determine Block Index because no Table-of-Contents could be found for Provenance Log " + filename);
+        }
+
+        return tocReader.getBlockIndex(blockOffset);
+    }
+
+    @Override
+    public long getBytesConsumed() {
+        return rawInputStream.getBytesConsumed();
+    }
+
+    @Override
+    public long getMaxEventId() throws IOException {
+        if (tocReader != null) {
+            final long lastBlockOffset = tocReader.getLastBlockOffset();
+            skipToBlock(tocReader.getBlockIndex(lastBlockOffset));
+        }
+
+        ProvenanceEventRecord record;
+        ProvenanceEventRecord lastRecord = null;
+        try {
+            while ((record = nextRecord()) != null) {
+                lastRecord = record;
+            }
+        } catch (final EOFException eof) {
+            // This can happen if NiFi was stopped while the last block was being written. This is OK; we just
+            // ignore the partial block.
+        }
+
+        return lastRecord == null ? -1L : lastRecord.getEventId();
+    }
+
+    @Override
+    public void close() throws IOException {
+        logger.trace("Closing Columnar Record Reader for {}", filename);
+
+        dis.close();
+
+        if (tocReader != null) {
+            tocReader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarRecordReader[file=" + filename + "]";
+    }
+}
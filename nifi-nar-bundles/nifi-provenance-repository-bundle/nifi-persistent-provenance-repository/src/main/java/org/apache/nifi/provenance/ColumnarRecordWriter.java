@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.provenance.ColumnarFormat.ColumnOutput;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.toc.TocWriter;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
+import org.apache.nifi.stream.io.DataOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link RecordWriter} that buffers records into blocks and writes each block column-wise, with dictionary encoding
+ * for repeated strings, only the changes to each FlowFile's attributes, and optional LZ4 compression. See
+ * {@link ColumnarFormat} for a description of the format.
+ *
+ * Because records are buffered until their block is complete, records are not available to readers of the file until
+ * the block is written, which happens once the block reaches the configured size, or when the writer is synced or closed.
+ */
+public class ColumnarRecordWriter implements RecordWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarRecordWriter.class);
+
+    private final File file;
+    private final FileOutputStream fos;
+    private final ByteCountingOutputStream rawOutStream;
+    private final TocWriter tocWriter;
+    private final boolean compressed;
+    private final int uncompressedBlockSize;
+    private final AtomicBoolean dirtyFlag = new AtomicBoolean(false);
+    private final LZ4BlockCompression compression = new LZ4BlockCompression();
+
+    private final ColumnOutput[] columns = new ColumnOutput[ColumnarFormat.COLUMN_COUNT];
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> dictionaryValues = new ArrayList<>();
+    private final Map<String, Map<String, String>> attributesByFlowFile = new HashMap<>();
+    private int blockRecordCount = 0;
+    private long blockOffset = 0L;
+    private long lastRecordOffset = -1L;
+    private int blockSize = 0;
+    private int dictionarySize = 0;
+    private long lastEventId = 0L;
+    private long lastEventTime = 0L;
+
+    private int recordCount = 0;
+    private volatile boolean closed = false;
+
+    private final Lock lock = new ReentrantLock();
+
+    public ColumnarRecordWriter(final File file, final TocWriter writer, final boolean compressed, final int uncompressedBlockSize) throws IOException {
+        logger.trace("Creating Columnar Record Writer for {}", file.getName());
+
+        this.file = file;
+        this.compressed = compressed;
+        this.fos = new FileOutputStream(file);
+        this.rawOutStream = new ByteCountingOutputStream(fos);
+        this.uncompressedBlockSize = uncompressedBlockSize;
+        this.tocWriter = writer;
+
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnOutput(256);
+        }
+    }
+
+    @Override
+    public synchronized File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void writeHeader(final long firstEventId) throws IOException {
+        if (isDirty()) {
+            throw new IOException("Cannot update Provenance Repository because this Record Writer has already failed to write to the Repository");
+        }
+
+        try {
+            final DataOutputStream out = new DataOutputStream(rawOutStream);
+            out.writeUTF(ColumnarRecordWriter.class.getName());
+            out.writeInt(ColumnarFormat.SERIALIZATION_VERSION);
+            out.flush();
+        } catch (final IOException ioe) {
+            markDirty();
+            throw ioe;
+        }
+    }
+
+    @Override
+    public synchronized long writeRecord(final ProvenanceEventRecord record, final long recordIdentifier) throws IOException {
+        if (isDirty()) {
+            throw new IOException("Cannot update Provenance Repository because this Record Writer has already failed to write to the Repository");
+        }
+
+        try {
+            if (blockRecordCount > 0 && (blockSize >= uncompressedBlockSize || blockRecordCount >= ColumnarFormat.MAX_RECORDS_PER_BLOCK)) {
+                writeBlock();
+            }
+
+            // the TOC entry is added when the first record of a block is buffered, so that the current block index of the
+            // TOC Writer always refers to the block that the most recently written record will be stored in.
+            if (blockRecordCount == 0) {
+                // nothing is written to the stream while a block is buffered, so the block will be written at the current position
+                blockOffset = rawOutStream.getBytesWritten();
+                if (tocWriter != null) {
+                    tocWriter.addBlockOffset(blockOffset, recordIdentifier);
+                }
+            }
+
+            final int sizeBefore = blockSize;
+            encode(record, recordIdentifier);
+
+            blockSize = dictionarySize;
+            for (final ColumnOutput column : columns) {
+                blockSize += column.size();
+            }
+
+            lastRecordOffset = (blockOffset << ColumnarFormat.RECORD_INDEX_BITS) | blockRecordCount;
+            blockRecordCount++;
+            recordCount++;
+            return blockSize - sizeBefore;
+        } catch (final IOException ioe) {
+            markDirty();
+            throw ioe;
+        }
+    }
+
+    private void encode(final ProvenanceEventRecord record, final long eventId) {
+        final ProvenanceEventType eventType = record.getEventType();
+
+        columns[ColumnarFormat.EVENT_ID].writeSignedVarLong(eventId - lastEventId);
+        lastEventId = eventId;
+        writeDictionaryValue(ColumnarFormat.EVENT_TYPE, eventType.name());
+
+        final long eventTime = record.getEventTime();
+        columns[ColumnarFormat.EVENT_TIME].writeSignedVarLong(eventTime - lastEventTime);
+        lastEventTime = eventTime;
+        columns[ColumnarFormat.ENTRY_DATE].writeSignedVarLong(record.getFlowFileEntryDate() - eventTime);
+        columns[ColumnarFormat.EVENT_DURATION].writeSignedVarLong(record.getEventDuration());
+        columns[ColumnarFormat.LINEAGE_START_DATE].writeSignedVarLong(record.getLineageStartDate() - eventTime);
+
+        writeDictionaryValue(ColumnarFormat.COMPONENT_ID, record.getComponentId());
+        writeDictionaryValue(ColumnarFormat.COMPONENT_TYPE, record.getComponentType());
+        writeDictionaryValue(ColumnarFormat.FLOWFILE_UUID, record.getFlowFileUuid());
+        columns[ColumnarFormat.DETAILS].writeString(record.getDetails());
+
+        writeAttributes(record.getFlowFileUuid(), record.getPreviousAttributes(), record.getUpdatedAttributes());
+
+        final ColumnOutput claimColumn = columns[ColumnarFormat.CONTENT_CLAIM];
+        if (record.getContentClaimSection() != null && record.getContentClaimContainer() != null && record.getContentClaimIdentifier() != null) {
+            claimColumn.writeByte(1);
+            writeDictionaryValue(ColumnarFormat.CONTENT_CLAIM, record.getContentClaimContainer());
+            writeDictionaryValue(ColumnarFormat.CONTENT_CLAIM, record.getContentClaimSection());
+            claimColumn.writeString(record.getContentClaimIdentifier());
+            claimColumn.writeVarLong(record.getContentClaimOffset() == null ? 0L : record.getContentClaimOffset());
+        } else {
+            claimColumn.writeByte(0);
+        }
+        claimColumn.writeVarLong(record.getFileSize());
+
+        final ColumnOutput previousClaimColumn = columns[ColumnarFormat.PREVIOUS_CONTENT_CLAIM];
+        if (record.getPreviousContentClaimSection() != null && record.getPreviousContentClaimContainer() != null && record.getPreviousContentClaimIdentifier() != null) {
+            previousClaimColumn.writeByte(1);
+            writeDictionaryValue(ColumnarFormat.PREVIOUS_CONTENT_CLAIM, record.getPreviousContentClaimContainer());
+            writeDictionaryValue(ColumnarFormat.PREVIOUS_CONTENT_CLAIM, record.getPreviousContentClaimSection());
+            previousClaimColumn.writeString(record.getPreviousContentClaimIdentifier());
+            previousClaimColumn.writeVarLong(record.getPreviousContentClaimOffset() == null ? 0L : record.getPreviousContentClaimOffset());
+            previousClaimColumn.writeVarLong(record.getPreviousFileSize() == null ? 0L : record.getPreviousFileSize());
+        } else {
+            previousClaimColumn.writeByte(0);
+        }
+
+        writeDictionaryValue(ColumnarFormat.SOURCE_QUEUE, record.getSourceQueueIdentifier());
+
+        // Write type-specific info, in the same way as the StandardRecordWriter
+        if (ColumnarFormat.hasLinkedUuids(eventType)) {
+            writeUuids(ColumnarFormat.PARENT_UUIDS, record.getParentUuids());
+            writeUuids(ColumnarFormat.CHILD_UUIDS, record.getChildUuids());
+        } else if (ColumnarFormat.hasTransitUri(eventType)) {
+            columns[ColumnarFormat.TRANSIT_URI].writeString(record.getTransitUri());
+            if (eventType == ProvenanceEventType.RECEIVE) {
+                columns[ColumnarFormat.SOURCE_SYSTEM_FLOWFILE_ID].writeString(record.getSourceSystemFlowFileIdentifier());
+            }
+        } else if (eventType == ProvenanceEventType.ADDINFO) {
+            columns[ColumnarFormat.ALTERNATE_IDENTIFIER].writeString(record.getAlternateIdentifierUri());
+        } else if (eventType == ProvenanceEventType.ROUTE) {
+            writeDictionaryValue(ColumnarFormat.RELATIONSHIP, record.getRelationship());
+        }
+    }
+
+    private void writeAttributes(final String flowFileUuid, final Map<String, String> previousAttributes, final Map<String, String> updatedAttributes) {
+        final ColumnOutput previousColumn = columns[ColumnarFormat.PREVIOUS_ATTRIBUTES];
+
+        Map<String, String> base = attributesByFlowFile.get(flowFileUuid);
+        if (base == null) {
+            base = new HashMap<>();
+        }
+
+        final List<String> removed = new ArrayList<>();
+        for (final String key : base.keySet()) {
+            if (!previousAttributes.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+
+        previousColumn.writeVarLong(removed.size());
+        for (final String key : removed) {
+            writeDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES, key);
+        }
+
+        final List<Map.Entry<String, String>> changed = new ArrayList<>();
+        for (final Map.Entry<String, String> entry : previousAttributes.entrySet()) {
+            final String baseValue = base.get(entry.getKey());
+            if (baseValue == null || !baseValue.equals(entry.getValue())) {
+                changed.add(entry);
+            }
+        }
+
+        previousColumn.writeVarLong(changed.size());
+        for (final Map.Entry<String, String> entry : changed) {
+            writeDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES, entry.getKey());
+            writeDictionaryValue(ColumnarFormat.PREVIOUS_ATTRIBUTES, entry.getValue());
+        }
+
+        final ColumnOutput updatedColumn = columns[ColumnarFormat.UPDATED_ATTRIBUTES];
+        updatedColumn.writeVarLong(updatedAttributes.size());
+        for (final Map.Entry<String, String> entry : updatedAttributes.entrySet()) {
+            writeDictionaryValue(ColumnarFormat.UPDATED_ATTRIBUTES, entry.getKey());
+            writeDictionaryValue(ColumnarFormat.UPDATED_ATTRIBUTES, entry.getValue());
+        }
+
+        if (flowFileUuid != null) {
+            attributesByFlowFile.put(flowFileUuid, ColumnarFormat.applyUpdates(previousAttributes, updatedAttributes));
+        }
+    }
+
+    private void writeUuids(final int column, final Collection<String> uuids) {
+        if (uuids == null) {
+            columns[column].writeVarLong(0L);
+            return;
+        }
+
+        columns[column].writeVarLong(uuids.size());
+        for (final String uuid : uuids) {
+            writeDictionaryValue(column, uuid);
+        }
+    }
+
+    /**
+     * Writes the index of the given value in the block's dictionary, adding the value to the dictionary if necessary.
+     * Index 0 indicates a <code>null</code> value.
+     */
+    private void writeDictionaryValue(final int column, final String value) {
+        if (value == null) {
+            columns[column].writeVarLong(0L);
+            return;
+        }
+
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionaryValues.size();
+            dictionary.put(value, index);
+            dictionaryValues.add(value);
+            dictionarySize += value.length();
+        }
+
+        columns[column].writeVarLong(index + 1L);
+    }
+
+    /**
+     * Writes out the records that have been buffered as a single block and resets the state of the block
+     */
+    private void writeBlock() throws IOException {
+        final ColumnOutput payload = new ColumnOutput(blockSize + 1024);
+        payload.writeVarLong(blockRecordCount);
+        payload.writeVarLong(dictionaryValues.size());
+        for (final String value : dictionaryValues) {
+            ColumnarFormat.writeDictionaryEntry(payload, value);
+        }
+
+        payload.writeVarLong(columns.length);
+        for (final ColumnOutput column : columns) {
+            payload.writeVarLong(column.size());
+            payload.write(column.getBuffer(), 0, column.size());
+        }
+
+        byte codec = ColumnarFormat.CODEC_NONE;
+        byte[] stored = payload.getBuffer();
+        int storedLength = payload.size();
+        if (compressed) {
+            final byte[] compressedBytes = new byte[LZ4BlockCompression.maxCompressedLength(payload.size())];
+            final int compressedLength = compression.compress(payload.getBuffer(), payload.size(), compressedBytes);
+            if (compressedLength < payload.size()) {
+                codec = ColumnarFormat.CODEC_LZ4;
+                stored = compressedBytes;
+                storedLength = compressedLength;
+            }
+        }
+
+        final byte[] blockHeader = new byte[9];
+        blockHeader[0] = codec;
+        writeInt(blockHeader, 1, payload.size());
+        writeInt(blockHeader, 5, storedLength);
+        rawOutStream.write(blockHeader);
+        rawOutStream.write(stored, 0, storedLength);
+        rawOutStream.flush();
+
+        for (final ColumnOutput column : columns) {
+            column.reset();
+        }
+        dictionary.clear();
+        dictionaryValues.clear();
+        attributesByFlowFile.clear();
+        blockRecordCount = 0;
+        blockSize = 0;
+        dictionarySize = 0;
+        lastEventId = 0L;
+        lastEventTime = 0L;
+    }
+
+    private static void writeInt(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+
+        logger.trace("Closing Columnar Record Writer for {}", file.getName());
+
+        lock();
+        try {
+            try {
+                // As with the StandardRecordWriter, we do not write out any buffered records if the writer is dirty,
+                // as doing so could write a partial record to the file.
+                if (blockRecordCount > 0 && !isDirty()) {
+                    writeBlock();
+                }
+            } finally {
+                try {
+                    rawOutStream.close();
+                } finally {
+                    if (tocWriter != null) {
+                        tocWriter.close();
+                    }
+                }
+            }
+        } catch (final IOException ioe) {
+            markDirty();
+            throw ioe;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized long getLastRecordOffset() {
+        return lastRecordOffset;
+    }
+
+    @Override
+    public synchronized int getRecordsWritten() {
+        return recordCount;
+    }
+
+    @Override
+    public void lock() {
+        lock.lock();
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+
+    @Override
+    public boolean tryLock() {
+        final boolean obtainedLock = lock.tryLock();
+        if (obtainedLock && dirtyFlag.get()) {
+            // once we have obtained the lock, we need to check if the writer has been marked dirty. If so, we cannot
+            // write to the underlying file, so we need to unlock and return false.
+            lock.unlock();
+            return false;
+        }
+        return obtainedLock;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarRecordWriter[file=" + file + "]";
+    }
+
+    /**
+     * Writes out any records that are buffered in the current block and syncs the file to disk. Records written after
+     * this method is called will be written to a new block.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        try {
+            if (blockRecordCount > 0 && !isDirty()) {
+                writeBlock();
+            }
+
+            if (tocWriter != null) {
+                tocWriter.sync();
+            }
+            fos.getFD().sync();
+        } catch (final IOException ioe) {
+            markDirty();
+            throw ioe;
+        }
+    }
+
+    @Override
+    public TocWriter getTocWriter() {
+        return tocWriter;
+    }
+
+    @Override
+    public void markDirty() {
+        dirtyFlag.set(true);
+    }
+
+    public boolean isDirty() {
+        return dirtyFlag.get();
+    }
+}
@@ -63,7 +63,9 @@ public class IndexConfiguration {
     private Map<File, List<File>> recoverIndexDirectories() {
         final Map<File, List<File>> indexDirectoryMap = new HashMap<>();
 
-        for (final File storageDirectory : repoConfig.getStorageDirectories()) {
+        final List<File> directories = new ArrayList<>(repoConfig.getStorageDirectories());
+        directories.addAll(repoConfig.getColdStorageDirectories());
+        for (final File storageDirectory : directories) {
             final List<File> indexDirectories = new ArrayList<>();
             final File[] matching = storageDirectory.listFiles(new FileFilter() {
                 @Override
@@ -121,6 +123,67 @@ public class IndexConfiguration {
         }
     }
 
+    /**
+     * Replaces an index directory with a copy of it in another directory, such as one of the cold storage
+     * directories. The copy will not be chosen as the writable index directory for any event file.
+     *
+     * @param indexDirectory the index directory to replace
+     * @param newIndexDirectory the copy of the index directory that should be used in its place
+     */
+    public void replaceIndexDirectory(final File indexDirectory, final File newIndexDirectory) {
+        lock.lock();
+        try {
+            removeIndexDirectory(indexDirectory);
+
+            List<File> indexDirectories = indexDirectoryMap.get(newIndexDirectory.getParentFile());
+            if (indexDirectories == null) {
+                indexDirectories = new ArrayList<>();
+                indexDirectoryMap.put(newIndexDirectory.getParentFile(), indexDirectories);
+            }
+            indexDirectories.add(newIndexDirectory);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the index directories of the given storage directory that have not been modified since the given time.
+     * The most recent index of the storage directory is never returned, as it may still be written to.
+     *
+     * @param storageDirectory the storage directory
+     * @param lastModifiedCutoff the time before which the index directories must have last been modified
+     * @return the index directories that are no longer being written to
+     */
+    public List<File> getInactiveIndexDirectories(final File storageDirectory, final long lastModifiedCutoff) {
+        lock.lock();
+        try {
+            final List<File> indexDirectories = indexDirectoryMap.get(storageDirectory);
+            if (indexDirectories == null || indexDirectories.size() < 2) {
+                return Collections.<File>emptyList();
+            }
+
+            final List<File> sortedIndexDirectories = new ArrayList<>(indexDirectories);
+            Collections.sort(sortedIndexDirectories, new Comparator<File>() {
+                @Override
+                public int compare(final File o1, final File o2) {
+                    return Long.compare(getIndexStartTime(o1), getIndexStartTime(o2));
+                }
+            });
+
+            final List<File> inactive = new ArrayList<>();
+            for (final File indexDirectory : sortedIndexDirectories.subList(0, sortedIndexDirectories.size() - 1)) {
+                final long lastModified = indexDirectory.lastModified();
+                if (lastModified > 0L && lastModified < lastModifiedCutoff) {
+                    inactive.add(indexDirectory);
+                }
+            }
+
+            return inactive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public File getWritableIndexDirectory(final File provenanceLogFile, final long newIndexTimestamp) {
         lock.lock();
         try {
@@ -179,7 +242,7 @@ public class IndexConfiguration {
         }
     }
 
-    private long getIndexStartTime(final File indexDir) {
+    long getIndexStartTime(final File indexDir) {
         if (indexDir == null) {
             return -1L;
         }
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A minimal implementation of the LZ4 block format, used to compress the blocks of columnar Provenance Event Files.
+ * LZ4 trades some compression ratio for compression and decompression that are several times faster than GZIP,
+ * which matters because every event is compressed once when journals are merged and decompressed each time it is read.
+ *
+ * This class is not thread-safe, because it reuses its hash table between calls to {@link #compress(byte[], int, byte[])}.
+ */
+class LZ4BlockCompression {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * @param length the number of bytes to compress
+     * @return the largest number of bytes that compressing the given number of bytes can produce
+     */
+    static int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the first <code>length</code> bytes of the given buffer
+     *
+     * @param src the bytes to compress
+     * @param length the number of bytes to compress
+     * @param dest the buffer to write the compressed bytes to, which must be at least {@link #maxCompressedLength(int)} bytes long
+     * @return the number of bytes written to <code>dest</code>
+     */
+    int compress(final byte[] src, final int length, final byte[] dest) {
+        // hash table entries are stored as (position + 1) so that 0 indicates an empty entry
+        Arrays.fill(hashTable, 0);
+
+        int ip = 0;
+        int anchor = 0;
+        int op = 0;
+        final int matchLimit = length - MATCH_FIND_LIMIT;
+        final int copyLimit = length - LAST_LITERALS;
+
+        while (ip < matchLimit) {
+            final int sequence = readInt(src, ip);
+            final int hash = hash(sequence);
+            final int ref = hashTable[hash] - 1;
+            hashTable[hash] = ip + 1;
+
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < copyLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        return writeLastLiterals(src, anchor, length - anchor, dest, op);
+    }
+
+    /**
+     * Decompresses the given LZ4 block
+     *
+     * @param src the buffer containing the compressed bytes
+     * @param srcOffset the offset of the first compressed byte
+     * @param srcLength the number of compressed bytes
+     * @param dest the buffer to decompress into
+     * @param destLength the number of bytes that the block decompresses to
+     * @throws IOException if the block is corrupt
+     */
+    static void decompress(final byte[] src, final int srcOffset, final int srcLength, final byte[] dest, final int destLength) throws IOException {
+        final int srcEnd = srcOffset + srcLength;
+        int ip = srcOffset;
+        int op = 0;
+
+        while (ip < srcEnd) {
+            final int token = src[ip++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("Compressed block is corrupt: unexpected end of block");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+
+            if (ip + literalLength > srcEnd || op + literalLength > destLength) {
+                throw new IOException("Compressed block is corrupt: literal run exceeds block length");
+            }
+            System.arraycopy(src, ip, dest, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+
+            if (ip == srcEnd) {
+                break;
+            }
+
+            if (ip + 2 > srcEnd) {
+                throw new IOException("Compressed block is corrupt: unexpected end of block");
+            }
+            final int distance = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("Compressed block is corrupt: unexpected end of block");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            final int ref = op - distance;
+            if (distance == 0 || ref < 0 || op + matchLength > destLength) {
+                throw new IOException("Compressed block is corrupt: invalid match at offset " + op);
+            }
+
+            // matches may overlap the bytes that they produce, so they must be copied one byte at a time
+            for (int i = 0; i < matchLength; i++) {
+                dest[op + i] = dest[ref + i];
+            }
+            op += matchLength;
+        }
+
+        if (op != destLength) {
+            throw new IOException("Compressed block is corrupt: expected " + destLength + " bytes but block contained " + op + " bytes");
+        }
+    }
+
+    private static int writeSequence(final byte[] src, final int literalOffset, final int literalLength, final int distance, final int matchLength,
+        final byte[] dest, int op) {
+
+        final int tokenOffset = op++;
+        final int matchCode = matchLength - MIN_MATCH;
+
+        final int token = (Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15);
+        dest[tokenOffset] = (byte) token;
+
+        op = writeLength(literalLength, dest, op);
+        System.arraycopy(src, literalOffset, dest, op, literalLength);
+        op += literalLength;
+
+        dest[op++] = (byte) distance;
+        dest[op++] = (byte) (distance >>> 8);
+
+        return writeLength(matchCode, dest, op);
+    }
+
+    private static int writeLastLiterals(final byte[] src, final int literalOffset, final int literalLength, final byte[] dest, int op) {
+        dest[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(literalLength, dest, op);
+        System.arraycopy(src, literalOffset, dest, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(final int length, final byte[] dest, int op) {
+        if (length < 15) {
+            return op;
+        }
+
+        int remaining = length - 15;
+        while (remaining >= 255) {
+            dest[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dest[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(final int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.nifi.provenance.adjacency.AdjacencyUtil;
+import org.apache.nifi.provenance.expiration.ExpirationAction;
+import org.apache.nifi.provenance.lucene.LuceneUtil;
+import org.apache.nifi.provenance.toc.StandardTocReader;
+import org.apache.nifi.provenance.toc.StandardTocWriter;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.provenance.toc.TocUtil;
+import org.apache.nifi.provenance.toc.TocWriter;
+import org.apache.nifi.stream.io.BufferedInputStream;
+import org.apache.nifi.stream.io.BufferedOutputStream;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
+import org.apache.nifi.stream.io.DataOutputStream;
+import org.apache.nifi.stream.io.GZIPOutputStream;
+import org.apache.nifi.stream.io.NonCloseableOutputStream;
+import org.apache.nifi.stream.io.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Moves a Provenance Event Log File, along with its Table of Contents and Adjacency File, from the storage directory
+ * that it was written to into one of the cold storage directories, recompressing it at a higher ratio on the way.
+ * </p>
+ *
+ * <p>
+ * The file is recompressed one block at a time, so each block still starts with the same event and the block indices
+ * that the Lucene indices hold for each event remain valid. Only the byte offsets of the blocks change, so a new Table
+ * of Contents is written alongside the new file. Files that were written one record at a time become a series of GZIP
+ * members written at the best compression level, whether or not they were compressed before. Each block of a columnar
+ * file is compressed with DEFLATE, unless that would not make the block smaller. Files that have no Table of Contents
+ * are moved as they are.
+ * </p>
+ *
+ * <p>
+ * The new file is written under a temporary name and renamed once it is complete, and the original files are removed
+ * only after that. If the action fails, the original file remains in place and may be moved again later.
+ * </p>
+ */
+public class MoveToColdStorageAction implements ExpirationAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(MoveToColdStorageAction.class);
+    private static final String TEMP_FILE_SUFFIX = ".prov.part";
+
+    private final List<File> coldStorageDirectories;
+    private final AtomicLong directoryIndex = new AtomicLong(0L);
+
+    public MoveToColdStorageAction(final List<File> coldStorageDirectories) {
+        if (coldStorageDirectories.isEmpty()) {
+            throw new IllegalArgumentException("Must specify at least one cold storage directory");
+        }
+
+        this.coldStorageDirectories = new ArrayList<>(coldStorageDirectories.size());
+        for (final File directory : coldStorageDirectories) {
+            this.coldStorageDirectories.add(directory.getAbsoluteFile());
+        }
+    }
+
+    @Override
+    public File execute(final File hotFile) throws IOException {
+        if (!hotFile.exists()) {
+            throw new FileNotFoundException("Cannot move " + hotFile + " to cold storage because it does not exist");
+        }
+
+        final File coldDirectory = nextColdStorageDirectory();
+        Files.createDirectories(coldDirectory.toPath());
+
+        final String baseName = LuceneUtil.substringBefore(hotFile.getName(), ".");
+        final File hotTocFile = TocUtil.getTocFile(hotFile);
+        final File tempFile = new File(coldDirectory, baseName + TEMP_FILE_SUFFIX);
+        final long lastModified = hotFile.lastModified();
+
+        final File coldFile;
+        if (hasBlocks(hotTocFile)) {
+            final boolean columnar = ColumnarRecordReader.isColumnarFile(hotFile);
+
+            // columnar files compress each block themselves, so they are not given a '.gz' extension
+            coldFile = columnar ? new File(coldDirectory, hotFile.getName()) : new File(coldDirectory, baseName + ".prov.gz");
+            recompress(hotFile, hotTocFile, columnar, tempFile, TocUtil.getTocFile(coldFile));
+        } else {
+            coldFile = new File(coldDirectory, hotFile.getName());
+            Files.copy(hotFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final File hotAdjacencyFile = AdjacencyUtil.getAdjacencyFile(hotFile);
+        if (hotAdjacencyFile.exists()) {
+            final File coldAdjacencyFile = AdjacencyUtil.getAdjacencyFile(coldFile);
+            Files.createDirectories(coldAdjacencyFile.getParentFile().toPath());
+            Files.copy(hotAdjacencyFile.toPath(), coldAdjacencyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // keep the time at which the file was last written to, as this determines when the file expires
+        Files.move(tempFile.toPath(), coldFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        coldFile.setLastModified(lastModified);
+
+        logger.info("Moved Provenance Event file {} ({} bytes) to cold storage as {} ({} bytes)", hotFile, hotFile.length(), coldFile, coldFile.length());
+
+        for (final File file : new File[] {hotFile, hotTocFile, hotAdjacencyFile}) {
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to remove Provenance file {} after moving it to cold storage; this file should be cleaned up manually", file);
+            }
+        }
+
+        return coldFile;
+    }
+
+    @Override
+    public boolean hasBeenPerformed(final File file) throws IOException {
+        return isColdStorageDirectory(file.getParentFile());
+    }
+
+    /**
+     * @param directory the directory to check
+     * @return <code>true</code> if the given directory is one of the cold storage directories
+     */
+    public boolean isColdStorageDirectory(final File directory) {
+        return directory != null && coldStorageDirectories.contains(directory.getAbsoluteFile());
+    }
+
+    /**
+     * Copies the given Lucene index directory into one of the cold storage directories. The given directory is not
+     * removed, as it may not be removed until the index is no longer in use.
+     *
+     * @param indexDirectory the index directory to copy
+     * @return the copy of the index directory
+     * @throws IOException if unable to copy the index
+     */
+    public File copyIndexDirectory(final File indexDirectory) throws IOException {
+        final File coldDirectory = nextColdStorageDirectory();
+        final File tempDirectory = new File(coldDirectory, indexDirectory.getName() + ".part");
+        final File coldIndexDirectory = new File(coldDirectory, indexDirectory.getName());
+
+        copyDirectory(indexDirectory, tempDirectory);
+        Files.move(tempDirectory.toPath(), coldIndexDirectory.toPath());
+
+        // the time at which the index was last modified is used to determine which indices a query needs to search
+        coldIndexDirectory.setLastModified(indexDirectory.lastModified());
+        return coldIndexDirectory;
+    }
+
+    private boolean hasBlocks(final File tocFile) throws IOException {
+        if (!tocFile.exists()) {
+            return false;
+        }
+
+        try (final TocReader tocReader = new StandardTocReader(tocFile)) {
+            return tocReader.getBlockOffset(0) >= 0;
+        }
+    }
+
+    private File nextColdStorageDirectory() {
+        return coldStorageDirectories.get((int) (directoryIndex.getAndIncrement() % coldStorageDirectories.size()));
+    }
+
+    private void copyDirectory(final File source, final File destination) throws IOException {
+        Files.createDirectories(destination.toPath());
+
+        final File[] children = source.listFiles();
+        if (children == null) {
+            throw new IOException("Unable to list the contents of " + source);
+        }
+
+        for (final File child : children) {
+            final File copy = new File(destination, child.getName());
+            if (child.isDirectory()) {
+                copyDirectory(child, copy);
+            } else {
+                Files.copy(child.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    private void recompress(final File hotFile, final File hotTocFile, final boolean columnar, final File tempFile, final File coldTocFile) throws IOException {
+        final boolean gzipped = hotFile.getName().endsWith(".gz");
+        final long fileLength = hotFile.length();
+
+        try (final TocReader tocReader = new StandardTocReader(hotTocFile);
+            final InputStream in = new BufferedInputStream(new FileInputStream(hotFile));
+            final ByteCountingOutputStream out = new ByteCountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            final TocWriter tocWriter = new StandardTocWriter(coldTocFile, columnar ? tocReader.isCompressed() : true, false)) {
+
+            // copy anything that precedes the first block, such as the header of a columnar file, as it is
+            long blockOffset = tocReader.getBlockOffset(0);
+            StreamUtils.copy(in, out, blockOffset);
+
+            for (int blockIndex = 0; blockOffset >= 0; blockIndex++) {
+                final long nextBlockOffset = tocReader.getBlockOffset(blockIndex + 1);
+                final byte[] block = new byte[(int) ((nextBlockOffset < 0 ? fileLength : nextBlockOffset) - blockOffset)];
+                StreamUtils.fillBuffer(in, block);
+
+                tocWriter.addBlockOffset(out.getBytesWritten(), tocReader.getFirstEventIdForBlock(blockIndex));
+                if (columnar) {
+                    recompressColumnarBlock(block, out, "Block " + blockIndex + " of Provenance Event file " + hotFile);
+                } else {
+                    recompressBlock(block, gzipped, out);
+                }
+
+                blockOffset = nextBlockOffset;
+            }
+        } catch (final IOException ioe) {
+            if (tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to remove temporary file {}; this file should be cleaned up manually", tempFile);
+            }
+            throw ioe;
+        }
+    }
+
+    private void recompressBlock(final byte[] block, final boolean gzipped, final OutputStream out) throws IOException {
+        // each block becomes its own GZIP member so that readers can still begin reading at any block
+        try (final InputStream in = gzipped ? new GZIPInputStream(new ByteArrayInputStream(block)) : new ByteArrayInputStream(block);
+            final OutputStream gzipOut = new GZIPOutputStream(new NonCloseableOutputStream(out), Deflater.BEST_COMPRESSION)) {
+            StreamUtils.copy(in, gzipOut);
+        }
+    }
+
+    private void recompressColumnarBlock(final byte[] block, final OutputStream out, final String description) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        final int codec = in.read();
+        final int uncompressedLength = in.readInt();
+        final int storedLength = in.readInt();
+        final byte[] stored = new byte[storedLength];
+        in.readFully(stored);
+
+        final byte[] payload = ColumnarFormat.decompress(codec, stored, storedLength, uncompressedLength, description);
+        final byte[] deflated = new byte[storedLength];
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        int deflatedLength = 0;
+        try {
+            deflater.setInput(payload, 0, uncompressedLength);
+            deflater.finish();
+            while (!deflater.finished() && deflatedLength < deflated.length) {
+                deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+            }
+
+            if (!deflater.finished()) {
+                // DEFLATE would not make the block any smaller than it already is
+                out.write(block);
+                return;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.write(ColumnarFormat.CODEC_DEFLATE);
+        dos.writeInt(uncompressedLength);
+        dos.writeInt(deflatedLength);
+        dos.write(deflated, 0, deflatedLength);
+        dos.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "Move to Cold Storage";
+    }
+}
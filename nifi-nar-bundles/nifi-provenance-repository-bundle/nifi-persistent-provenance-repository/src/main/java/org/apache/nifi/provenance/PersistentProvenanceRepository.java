@@ -33,6 +33,9 @@ import org.apache.nifi.authorization.resource.Authorizable;
 import org.apache.nifi.authorization.user.NiFiUser;
 import org.apache.nifi.events.EventReporter;
 import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.provenance.adjacency.AdjacencyFileWriter;
+import org.apache.nifi.provenance.adjacency.AdjacencyIndex;
+import org.apache.nifi.provenance.adjacency.AdjacencyUtil;
 import org.apache.nifi.provenance.expiration.ExpirationAction;
 import org.apache.nifi.provenance.expiration.FileRemovalAction;
 import org.apache.nifi.provenance.lineage.FlowFileLineage;
@@ -54,6 +57,9 @@ import org.apache.nifi.provenance.serialization.RecordReader;
 import org.apache.nifi.provenance.serialization.RecordReaders;
 import org.apache.nifi.provenance.serialization.RecordWriter;
 import org.apache.nifi.provenance.serialization.RecordWriters;
+import org.apache.nifi.provenance.toc.EventLocationIndex;
+import org.apache.nifi.provenance.toc.EventLocationIndex.EventLocation;
+import org.apache.nifi.provenance.toc.StandardTocReader;
 import org.apache.nifi.provenance.toc.TocReader;
 import org.apache.nifi.provenance.toc.TocUtil;
 import org.apache.nifi.reporting.Severity;
@@ -89,6 +95,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -117,12 +124,14 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
     public static final String EVENT_CATEGORY = "Provenance Repository";
     private static final String FILE_EXTENSION = ".prov";
     private static final String TEMP_FILE_SUFFIX = ".prov.part";
+    private static final String EVENT_LOCATION_INDEX_FILENAME = "event-locations.idx";
     private static final long PURGE_EVENT_MILLISECONDS = 2500L; //Determines the frequency over which the task to delete old events will occur
     public static final int SERIALIZATION_VERSION = 9;
     public static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
     public static final Pattern INDEX_PATTERN = Pattern.compile("index-\\d+");
     public static final Pattern LOG_FILENAME_PATTERN = Pattern.compile("(\\d+).*\\.prov");
     public static final int MAX_UNDELETED_QUERY_RESULTS = 10;
+    private static final int MAX_CACHED_QUERY_RESULTS = 16;
 
     private static final Logger logger = LoggerFactory.getLogger(PersistentProvenanceRepository.class);
 
@@ -156,8 +165,10 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
     private final ExecutorService queryExecService;
 
     private final List<ExpirationAction> expirationActions = new ArrayList<>();
+    private final MoveToColdStorageAction coldStorageAction;
 
     private final ConcurrentMap<String, AsyncQuerySubmission> querySubmissionMap = new ConcurrentHashMap<>();
+    private final QueryResultCache queryResultCache = new QueryResultCache(MAX_CACHED_QUERY_RESULTS);
     private final ConcurrentMap<String, AsyncLineageSubmission> lineageSubmissionMap = new ConcurrentHashMap<>();
 
     private final AtomicLong writerIndex = new AtomicLong(0L);
@@ -173,6 +184,8 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
     // read them. Since this is a very cheap operation to keep them, it's worth the tiny expense for the improved user experience.
     private final RingBuffer<ProvenanceEventRecord> latestRecords = new RingBuffer<>(1000);
     private EventReporter eventReporter; // effectively final
+    private EventLocationIndex eventLocationIndex; // effectively final
+    private final AdjacencyIndex adjacencyIndex = new AdjacencyIndex();
     private Authorizer authorizer;  // effectively final
     private ProvenanceAuthorizableFactory resourceFactory;  // effectively final
 
@@ -199,6 +212,11 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             }
         }
 
+        for (final File file : configuration.getColdStorageDirectories()) {
+            Files.createDirectories(file.toPath());
+        }
+        this.coldStorageAction = configuration.getColdStorageDirectories().isEmpty() ? null : new MoveToColdStorageAction(configuration.getColdStorageDirectories());
+
         this.maxPartitionMillis = configuration.getMaxEventFileLife(TimeUnit.MILLISECONDS);
         this.maxPartitionBytes = configuration.getMaxEventFileCapacity();
         this.indexConfig = new IndexConfiguration(configuration);
@@ -230,6 +248,8 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             this.resourceFactory = resourceFactory;
 
             recover();
+            recoverEventLocationIndex();
+            recoverAdjacencyIndex();
 
             if (configuration.isAllowRollover()) {
                 writers = createWriters(configuration, idGenerator.get());
@@ -295,7 +315,9 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         if (storageDirectories.isEmpty()) {
             storageDirectories.put("provenance_repository", Paths.get("provenance_repository"));
         }
+        final Map<String, Path> coldStorageDirectories = properties.getProvenanceRepositoryColdPaths();
         final String storageTime = properties.getProperty(NiFiProperties.PROVENANCE_MAX_STORAGE_TIME, "24 hours");
+        final String coldStorageAge = properties.getProperty(NiFiProperties.PROVENANCE_COLD_STORAGE_AGE, "24 hours");
         final String storageSize = properties.getProperty(NiFiProperties.PROVENANCE_MAX_STORAGE_SIZE, "1 GB");
         final String rolloverTime = properties.getProperty(NiFiProperties.PROVENANCE_ROLLOVER_TIME, "5 mins");
         final String rolloverSize = properties.getProperty(NiFiProperties.PROVENANCE_ROLLOVER_SIZE, "100 MB");
@@ -305,11 +327,13 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         final int journalCount = properties.getIntegerProperty(NiFiProperties.PROVENANCE_JOURNAL_COUNT, 16);
 
         final long storageMillis = FormatUtils.getTimeDuration(storageTime, TimeUnit.MILLISECONDS);
+        final long coldStorageMillis = FormatUtils.getTimeDuration(coldStorageAge, TimeUnit.MILLISECONDS);
         final long maxStorageBytes = DataUnit.parseDataSize(storageSize, DataUnit.B).longValue();
         final long rolloverMillis = FormatUtils.getTimeDuration(rolloverTime, TimeUnit.MILLISECONDS);
         final long rolloverBytes = DataUnit.parseDataSize(rolloverSize, DataUnit.B).longValue();
 
         final boolean compressOnRollover = Boolean.parseBoolean(properties.getProperty(NiFiProperties.PROVENANCE_COMPRESS_ON_ROLLOVER));
+        final boolean columnarEventFiles = Boolean.parseBoolean(properties.getProperty(NiFiProperties.PROVENANCE_COLUMNAR_EVENT_FILES, "false"));
         final String indexedFieldString = properties.getProperty(NiFiProperties.PROVENANCE_INDEXED_FIELDS);
         final String indexedAttrString = properties.getProperty(NiFiProperties.PROVENANCE_INDEXED_ATTRIBUTES);
 
@@ -342,7 +366,12 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         for (final Path path : storageDirectories.values()) {
             config.addStorageDirectory(path.toFile());
         }
+        for (final Path path : coldStorageDirectories.values()) {
+            config.addColdStorageDirectory(path.toFile());
+        }
+        config.setColdStorageAge(coldStorageMillis, TimeUnit.MILLISECONDS);
         config.setCompressOnRollover(compressOnRollover);
+        config.setColumnarEventFiles(columnarEventFiles);
         config.setSearchableFields(searchableFields);
         config.setSearchableAttributes(searchableAttributes);
         config.setMaxEventFileCapacity(rolloverBytes);
@@ -381,6 +410,72 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         return writers;
     }
 
+    /**
+     * Creates the index that is used to find the block that contains an event without having to read the Tables of Contents
+     * of the Provenance Event Log Files. Protected so that subclasses whose files are not suitable for the index can opt out.
+     *
+     * @return the index to use, or <code>null</code> if no index should be maintained
+     * @throws IOException if unable to open the index
+     */
+    protected EventLocationIndex createEventLocationIndex() throws IOException {
+        // keep the index alongside the Tables of Contents so that it is not mistaken for an event file
+        final File tocDir = new File(configuration.getStorageDirectories().get(0), "toc");
+        Files.createDirectories(tocDir.toPath());
+        return new EventLocationIndex(new File(tocDir, EVENT_LOCATION_INDEX_FILENAME));
+    }
+
+    private void recoverEventLocationIndex() {
+        try {
+            eventLocationIndex = createEventLocationIndex();
+        } catch (final IOException ioe) {
+            logger.error("Failed to open Event Location Index due to {}; events will be located using the Table of Contents of each file", ioe.toString());
+            logger.error("", ioe);
+            return;
+        }
+
+        if (eventLocationIndex == null) {
+            return;
+        }
+
+        // remove any files that were aged off since the index was last updated and add any files that were created since
+        final SortedMap<Long, Path> pathMap = idToPathMap.get();
+        eventLocationIndex.retainFiles(pathMap.keySet());
+
+        final Set<Long> indexedFiles = eventLocationIndex.getIndexedFiles();
+        for (final Map.Entry<Long, Path> entry : pathMap.entrySet()) {
+            if (!indexedFiles.contains(entry.getKey())) {
+                addToEventLocationIndex(entry.getKey(), entry.getValue().toFile());
+            }
+        }
+
+        logger.debug("Event Location Index contains {} blocks", eventLocationIndex.getEntryCount());
+    }
+
+    private void recoverAdjacencyIndex() {
+        for (final Map.Entry<Long, Path> entry : idToPathMap.get().entrySet()) {
+            adjacencyIndex.addFile(entry.getKey(), entry.getValue().toFile());
+        }
+
+        logger.debug("Recovered {}", adjacencyIndex);
+    }
+
+    private void addToEventLocationIndex(final Long firstEventId, final File logFile) {
+        if (eventLocationIndex == null) {
+            return;
+        }
+
+        final File tocFile = TocUtil.getTocFile(logFile);
+        if (!tocFile.exists()) {
+            return;
+        }
+
+        try (final TocReader tocReader = new StandardTocReader(tocFile)) {
+            eventLocationIndex.addFile(firstEventId, tocReader);
+        } catch (final IOException ioe) {
+            logger.warn("Failed to add Provenance Event Log File {} to the Event Location Index due to {}", logFile, ioe.toString());
+        }
+    }
+
     /**
      * @return the maximum number of characters that any Event attribute should contain. If the event contains
      *         more characters than this, the attribute may be truncated on retrieval
@@ -446,13 +541,30 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
     public List<ProvenanceEventRecord> getEvents(final long firstRecordId, final int maxRecords, final NiFiUser user) throws IOException {
         final List<ProvenanceEventRecord> records = new ArrayList<>(maxRecords);
 
-        final List<Path> paths = getPathsForId(firstRecordId);
+        // If the Event Location Index knows which block contains the first event, we can go directly to that block.
+        // Otherwise, we have to check the Table of Contents of each file that may contain the event.
+        List<Path> paths = null;
+        TocReader indexedTocReader = null;
+        final EventLocation location = eventLocationIndex == null ? null : eventLocationIndex.getLocation(firstRecordId);
+        if (location != null) {
+            final SortedMap<Long, Path> laterFiles = idToPathMap.get().tailMap(location.getFileFirstEventId());
+            if (!laterFiles.isEmpty() && laterFiles.firstKey() == location.getFileFirstEventId()) {
+                paths = new ArrayList<>(laterFiles.values());
+                indexedTocReader = location.getTocReader();
+            }
+        }
+
+        if (paths == null) {
+            paths = getPathsForId(firstRecordId);
+        }
+
         if (paths == null || paths.isEmpty()) {
             return records;
         }
 
         for (final Path path : paths) {
-            try (RecordReader reader = RecordReaders.newRecordReader(path.toFile(), getAllLogFiles(), maxAttributeChars)) {
+            final TocReader knownTocReader = records.isEmpty() && indexedTocReader != null && path.equals(paths.get(0)) ? indexedTocReader : null;
+            try (RecordReader reader = RecordReaders.newRecordReader(path.toFile(), getAllLogFiles(), maxAttributeChars, knownTocReader)) {
                 // if this is the first record, try to find out the block index and jump directly to
                 // the block index. This avoids having to read through a lot of data that we don't care about
                 // just to get to the first record that we want.
@@ -548,8 +660,10 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         long maxIndexedId = -1L;
         long minIndexedId = Long.MAX_VALUE;
 
+        // files in the cold storage directories are listed last, so that if the repository stopped while moving a file
+        // to cold storage, the complete copy in cold storage replaces the original below
         final List<File> filesToRecover = new ArrayList<>();
-        for (final File file : configuration.getStorageDirectories()) {
+        for (final File file : getAllStorageDirectories()) {
             final File[] matchingFiles = file.listFiles(new FileFilter() {
                 @Override
                 public boolean accept(final File pathname) {
@@ -579,7 +693,11 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             final String filename = file.getName();
             final String baseName = filename.substring(0, filename.indexOf("."));
             final long firstId = Long.parseLong(baseName);
-            sortedPathMap.put(firstId, file.toPath());
+            final Path previousPath = sortedPathMap.put(firstId, file.toPath());
+            if (previousPath != null && coldStorageAction != null && coldStorageAction.hasBeenPerformed(file)) {
+                logger.info("Found Provenance Event file {} in cold storage; removing the original {} that had not yet been removed", file, previousPath);
+                new FileRemovalAction().execute(previousPath.toFile());
+            }
 
             if (firstId > maxId) {
                 maxId = firstId;
@@ -698,6 +816,10 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
                     writer.close();
                 }
             }
+
+            if (eventLocationIndex != null) {
+                eventLocationIndex.close();
+            }
         } finally {
             writeLock.unlock();
         }
@@ -874,11 +996,19 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         final List<File> toPurge = new ArrayList<>();
         final long timeCutoff = System.currentTimeMillis() - configuration.getMaxRecordLife(TimeUnit.MILLISECONDS);
 
+        if (coldStorageAction != null) {
+            moveToColdStorage(timeCutoff);
+        }
+
         final List<File> sortedByBasename = getLogFiles();
         long bytesUsed = getSize(sortedByBasename, timeCutoff);
 
         for (final Path path : idToPathMap.get().values()) {
             final File file = path.toFile();
+            if (isLogFileActive(file)) {
+                continue;
+            }
+
             final long lastModified = file.lastModified();
             if (lastModified > 0L && lastModified < timeCutoff) {
                 toPurge.add(file);
@@ -928,6 +1058,10 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             Collections.sort(sortedByBasename, sortByBasenameComparator);
 
             for (final File file : sortedByBasename) {
+                if (isLogFileActive(file)) {
+                    continue;
+                }
+
                 toPurge.add(file);
                 bytesUsed -= file.length();
                 if (bytesUsed < configuration.getMaxStorageCapacity()) {
@@ -1001,9 +1135,104 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             logger.debug("After expiration, path map: {}", newPathMap);
         }
 
+        if (!removed.isEmpty()) {
+            invalidateQueryResults();
+
+            if (eventLocationIndex != null) {
+                eventLocationIndex.retainFiles(idToPathMap.get().keySet());
+            }
+
+            adjacencyIndex.retainFiles(idToPathMap.get().keySet());
+        }
+
         purgeExpiredIndexes();
     }
 
+    /**
+     * Moves the event files and indices that are older than the cold storage age, but that are not yet old enough to
+     * expire, into the cold storage directories. The moved files remain searchable and retrievable from their new location.
+     *
+     * @param expirationCutoff the time before which event files are about to expire
+     */
+    private void moveToColdStorage(final long expirationCutoff) {
+        final long coldCutoff = System.currentTimeMillis() - configuration.getColdStorageAge(TimeUnit.MILLISECONDS);
+
+        final SortedMap<Long, File> toMove = new TreeMap<>();
+        for (final Map.Entry<Long, Path> entry : idToPathMap.get().entrySet()) {
+            final File file = entry.getValue().toFile();
+            if (isLogFileActive(file) || coldStorageAction.isColdStorageDirectory(file.getParentFile())) {
+                continue;
+            }
+
+            final long lastModified = file.lastModified();
+            if (lastModified > 0L && lastModified < coldCutoff && lastModified >= expirationCutoff) {
+                toMove.put(entry.getKey(), file);
+            }
+        }
+
+        if (!toMove.isEmpty()) {
+            // The byte offsets of the blocks change when a file is recompressed, so the blocks of the files must not be located
+            // using the Event Location Index until they are added back. In the meantime, the Table of Contents of the file is used.
+            if (eventLocationIndex != null) {
+                eventLocationIndex.removeFiles(toMove.keySet());
+            }
+
+            final Map<Long, Path> movedFiles = new HashMap<>();
+            for (final Map.Entry<Long, File> entry : toMove.entrySet()) {
+                final File file = entry.getValue();
+                try {
+                    movedFiles.put(entry.getKey(), coldStorageAction.execute(file).toPath());
+                } catch (final FileNotFoundException fnf) {
+                    logger.debug("Did not move Provenance Event file {} to cold storage because the file no longer exists", file);
+                } catch (final Throwable t) {
+                    logger.warn("Failed to move Provenance Event file {} to cold storage due to {}; will try again later", file, t.toString());
+                    logger.warn("", t);
+                    eventReporter.reportEvent(Severity.WARNING, EVENT_CATEGORY, "Failed to move Provenance Event file " + file + " to cold storage due to " + t.toString());
+                }
+            }
+
+            boolean updated = false;
+            while (!updated) {
+                final SortedMap<Long, Path> existingPathMap = idToPathMap.get();
+                final SortedMap<Long, Path> newPathMap = new TreeMap<>(new PathMapComparator());
+                newPathMap.putAll(existingPathMap);
+
+                for (final Map.Entry<Long, Path> entry : movedFiles.entrySet()) {
+                    if (newPathMap.containsKey(entry.getKey())) {
+                        newPathMap.put(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                updated = idToPathMap.compareAndSet(existingPathMap, newPathMap);
+            }
+
+            for (final Long fileFirstEventId : toMove.keySet()) {
+                final Path path = idToPathMap.get().get(fileFirstEventId);
+                if (path != null) {
+                    addToEventLocationIndex(fileFirstEventId, path.toFile());
+                    adjacencyIndex.addFile(fileFirstEventId, path.toFile());
+                }
+            }
+        }
+
+        // Indices are moved only once nothing more will be written to them, and they are not removed from the storage
+        // directory until any searchers that are open against them have been closed.
+        for (final File storageDir : configuration.getStorageDirectories()) {
+            for (final File indexDir : indexConfig.getInactiveIndexDirectories(storageDir, coldCutoff)) {
+                try {
+                    final File coldIndexDir = coldStorageAction.copyIndexDirectory(indexDir);
+                    indexManager.removeIndex(indexDir);
+                    indexConfig.replaceIndexDirectory(indexDir, coldIndexDir);
+                    deleteDirectory(indexDir);
+                    logger.info("Moved Provenance Index {} to cold storage as {}", indexDir, coldIndexDir);
+                } catch (final IOException ioe) {
+                    logger.warn("Failed to move Provenance Index {} to cold storage due to {}; will try again later", indexDir, ioe.toString());
+                    logger.warn("", ioe);
+                }
+            }
+        }
+    }
+
     private void purgeExpiredIndexes() throws IOException {
         // Now that we have potentially removed expired Provenance Event Log Files, we can look at
         // whether or not we can delete any of the indexes. An index can be deleted if all of the
@@ -1116,13 +1345,22 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         }
     }
 
+    /**
+     * @return the storage directories followed by the cold storage directories
+     */
+    private List<File> getAllStorageDirectories() {
+        final List<File> directories = new ArrayList<>(configuration.getStorageDirectories());
+        directories.addAll(configuration.getColdStorageDirectories());
+        return directories;
+    }
+
     /**
      * @return a List of all Index directories, sorted by timestamp of the earliest event that could
      *         be present in the index
      */
     private List<File> getAllIndexDirectories() {
         final List<File> allIndexDirs = new ArrayList<>();
-        for (final File storageDir : configuration.getStorageDirectories()) {
+        for (final File storageDir : getAllStorageDirectories()) {
             final File[] indexDirs = storageDir.listFiles(new FilenameFilter() {
                 @Override
                 public boolean accept(final File dir, final String name) {
@@ -1220,7 +1458,7 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
      * @param force if true, will force a rollover regardless of whether or not data has been written
      * @throws IOException if unable to complete rollover
      */
-    private void rollover(final boolean force) throws IOException {
+    protected void rollover(final boolean force) throws IOException {
         if (!configuration.isAllowRollover()) {
             return;
         }
@@ -1285,15 +1523,10 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
                             // update our map of id to Path
                             // We need to make sure that another thread doesn't also update the map at the same time. We cannot
                             // use the write lock when purging old events, and we want to use the same approach here.
-                            boolean updated = false;
                             final Long fileFirstEventId = Long.valueOf(LuceneUtil.substringBefore(fileRolledOver.getName(), "."));
-                            while (!updated) {
-                                final SortedMap<Long, Path> existingPathMap = idToPathMap.get();
-                                final SortedMap<Long, Path> newIdToPathMap = new TreeMap<>(new PathMapComparator());
-                                newIdToPathMap.putAll(existingPathMap);
-                                newIdToPathMap.put(fileFirstEventId, file.toPath());
-                                updated = idToPathMap.compareAndSet(existingPathMap, newIdToPathMap);
-                            }
+                            addLogFile(fileFirstEventId, file.toPath());
+                            addToEventLocationIndex(fileFirstEventId, file);
+                            adjacencyIndex.addFile(fileFirstEventId, file);
 
                             logger.info("Successfully Rolled over Provenance Event file containing {} records", recordsWritten);
                             rolloverCompletions.getAndIncrement();
@@ -1544,6 +1777,12 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
                     logger.error("Failed to delete .toc file {}; this may result in not being able to read the Provenance Events from the {} Journal File. "
                         + "This can be corrected by manually deleting the {} file", tocFile, suggestedMergeFile, tocFile);
                 }
+
+                final File adjacencyFile = AdjacencyUtil.getAdjacencyFile(suggestedMergeFile);
+                if ( adjacencyFile.exists() && !adjacencyFile.delete() ) {
+                    logger.error("Failed to delete adjacency file {}; this may result in incorrect lineage for the events in the {} Journal File. "
+                        + "This can be corrected by manually deleting the {} file", adjacencyFile, suggestedMergeFile, adjacencyFile);
+                }
             }
         } else {
             logger.warn("Cannot merge journal files {} because expected first file to end with extension '.0' "
@@ -1565,8 +1804,11 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         final List<RecordReader> readers = new ArrayList<>();
         int records = 0;
 
+        // columnar event files compress each block themselves, so they are not given a '.gz' extension
         final boolean isCompress = configuration.isCompressOnRollover();
-        final File writerFile = isCompress ? new File(suggestedMergeFile.getParentFile(), suggestedMergeFile.getName() + ".gz") : suggestedMergeFile;
+        final boolean isColumnar = configuration.isColumnarEventFiles();
+        final File writerFile = isCompress && !isColumnar ? new File(suggestedMergeFile.getParentFile(), suggestedMergeFile.getName() + ".gz") : suggestedMergeFile;
+        final AdjacencyFileWriter adjacencyWriter = new AdjacencyFileWriter(AdjacencyUtil.getAdjacencyFile(writerFile));
 
         try {
             for (final File journalFile : journalFiles) {
@@ -1645,7 +1887,7 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
 
             // loop over each entry in the map, persisting the records to the merged file in order, and populating the map
             // with the next entry from the journal file from which the previous record was written.
-            try (final RecordWriter writer = RecordWriters.newRecordWriter(writerFile, configuration.isCompressOnRollover(), true)) {
+            try (final RecordWriter writer = isColumnar ? RecordWriters.newColumnarRecordWriter(writerFile, isCompress, true) : RecordWriters.newRecordWriter(writerFile, isCompress, true)) {
                 writer.writeHeader(minEventId);
 
                 final IndexingAction indexingAction = new IndexingAction(this);
@@ -1702,6 +1944,7 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
                             final RecordReader reader = entry.getValue();
 
                             writer.writeRecord(record, record.getEventId());
+                            adjacencyWriter.addEvent(record);
                             final int blockIndex = writer.getTocWriter().getCurrentBlockIndex();
 
                             boolean accepted = false;
@@ -1805,6 +2048,16 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             final long nanos = System.nanoTime() - startNanos;
             final long millis = TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
             logger.info("Successfully merged {} journal files ({} records) into single Provenance Log File {} in {} milliseconds", journalFiles.size(), records, suggestedMergeFile, millis);
+
+            // If we cannot write the adjacency file, lineage is still computed by searching the Lucene indices
+            try {
+                adjacencyWriter.finish();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to write {}; lineage will be computed by searching the Provenance indices instead. Failure was due to {}", adjacencyWriter, ioe.toString());
+                if (logger.isDebugEnabled()) {
+                    logger.warn("", ioe);
+                }
+            }
         }
 
         return writerFile;
@@ -1920,10 +2173,34 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             return result;
         }
 
+        // If the same query was recently run by the same user and nothing has been indexed or aged off since, use those results.
+        // The events are filtered again in case the user's permissions have changed since.
+        final String cacheKey = QueryResultCache.createKey(query, userId);
+        final long cacheGeneration = queryResultCache.getGeneration();
+        final List<ProvenanceEventRecord> cachedEvents = queryResultCache.get(cacheKey);
+        if (cachedEvents != null) {
+            final AsyncQuerySubmission result = new AsyncQuerySubmission(query, 1, userId);
+            final List<ProvenanceEventRecord> authorizedEvents = filterUnauthorizedEvents(cachedEvents, user);
+            result.getResult().update(authorizedEvents, authorizedEvents.size());
+            querySubmissionMap.put(query.getIdentifier(), result);
+            logger.debug("Using cached results for {}", query);
+            return result;
+        }
+
         final AtomicInteger retrievalCount = new AtomicInteger(0);
         final List<File> indexDirectories = indexConfig.getIndexDirectories(
                 query.getStartDate() == null ? null : query.getStartDate().getTime(),
                         query.getEndDate() == null ? null : query.getEndDate().getTime());
+
+        // Search the newest indices first. The results are ordered newest-first, and once the maximum number of results
+        // has been retrieved, the searches of the remaining (older) indices return without reading any events.
+        Collections.sort(indexDirectories, new Comparator<File>() {
+            @Override
+            public int compare(final File o1, final File o2) {
+                return Long.compare(indexConfig.getIndexStartTime(o2), indexConfig.getIndexStartTime(o1));
+            }
+        });
+
         final AsyncQuerySubmission result = new AsyncQuerySubmission(query, indexDirectories.size(), userId);
         querySubmissionMap.put(query.getIdentifier(), result);
 
@@ -1931,7 +2208,7 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
             result.getResult().update(Collections.<ProvenanceEventRecord>emptyList(), 0L);
         } else {
             for (final File indexDir : indexDirectories) {
-                queryExecService.submit(new QueryRunnable(query, result, user, indexDir, retrievalCount));
+                queryExecService.submit(new QueryRunnable(query, result, user, indexDir, retrievalCount, cacheKey, cacheGeneration));
             }
         }
 
@@ -2133,6 +2410,14 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
 
     private AsyncLineageSubmission submitLineageComputation(final Collection<String> flowFileUuids, final NiFiUser user, final LineageComputationType computationType,
             final Long eventId, final long startTimestamp, final long endTimestamp) {
+        // If every event file has an adjacency file, we can find the related events directly rather than searching every index.
+        if (adjacencyIndex.isComplete(idToPathMap.get().keySet())) {
+            final AsyncLineageSubmission result = new AsyncLineageSubmission(computationType, eventId, flowFileUuids, 1, user.getIdentity());
+            lineageSubmissionMap.put(result.getLineageIdentifier(), result);
+            queryExecService.submit(new ComputeLineageFromAdjacencyIndexRunnable(flowFileUuids, user, result));
+            return result;
+        }
+
         final List<File> indexDirs = indexConfig.getIndexDirectories(startTimestamp, endTimestamp);
         final AsyncLineageSubmission result = new AsyncLineageSubmission(computationType, eventId, flowFileUuids, indexDirs.size(), user.getIdentity());
         lineageSubmissionMap.put(result.getLineageIdentifier(), result);
@@ -2287,7 +2572,7 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         return event;
     }
 
-    private boolean needToRollover() {
+    protected boolean needToRollover() {
         final long writtenSinceRollover = bytesWrittenSinceRollover.get();
 
         if (writtenSinceRollover >= maxPartitionBytes) {
@@ -2337,6 +2622,92 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         return Long.parseLong(name.substring(0, dotIndex));
     }
 
+    /**
+     * Adds the given Provenance Event Log File to the files that are known to the repository, replacing any
+     * file that is already registered for the same first Event ID.
+     *
+     * @param firstEventId the ID of the first event in the file
+     * @param path the path of the file
+     */
+    protected void addLogFile(final Long firstEventId, final Path path) {
+        // We need to make sure that another thread doesn't also update the map at the same time. We cannot
+        // use the write lock when purging old events, and we want to use the same approach here.
+        boolean updated = false;
+        while (!updated) {
+            final SortedMap<Long, Path> existingPathMap = idToPathMap.get();
+            final SortedMap<Long, Path> newIdToPathMap = new TreeMap<>(new PathMapComparator());
+            newIdToPathMap.putAll(existingPathMap);
+            newIdToPathMap.put(firstEventId, path);
+            updated = idToPathMap.compareAndSet(existingPathMap, newIdToPathMap);
+        }
+
+        invalidateQueryResults();
+    }
+
+    /**
+     * Invalidates any cached query results. This must be called whenever events become searchable that were not
+     * searchable before. Adding a log file via {@link #addLogFile(Long, Path)} does this automatically.
+     */
+    protected void invalidateQueryResults() {
+        queryResultCache.invalidate();
+    }
+
+    /**
+     * Indicates whether or not the given Provenance Event Log File is still being written to, in which case it must not be
+     * aged off. The files that this repository creates are complete by the time that they are made available, so this
+     * implementation always returns <code>false</code>.
+     *
+     * @param logFile the Provenance Event Log File
+     * @return <code>true</code> if the file is still being written to, <code>false</code> otherwise
+     */
+    protected boolean isLogFileActive(final File logFile) {
+        return false;
+    }
+
+    /**
+     * @return the ID to assign to the next event that is registered
+     */
+    protected long generateEventId() {
+        return idGenerator.getAndIncrement();
+    }
+
+    /**
+     * Ensures that all events registered from now on are assigned an ID greater than the given ID
+     *
+     * @param eventId the ID of an event that exists in the repository
+     */
+    protected void ensureEventIdGreaterThan(final long eventId) {
+        long current;
+        do {
+            current = idGenerator.get();
+            if (current > eventId) {
+                return;
+            }
+        } while (!idGenerator.compareAndSet(current, eventId + 1));
+    }
+
+    /**
+     * Makes the given event available to queries that do not specify any search terms, which are answered from the
+     * most recently registered events
+     *
+     * @param record the event that has been persisted and indexed
+     */
+    protected void addToLatestRecords(final StandardProvenanceEventRecord record) {
+        latestRecords.add(truncateAttributes(record));
+    }
+
+    protected IndexConfiguration getIndexConfiguration() {
+        return indexConfig;
+    }
+
+    protected IndexManager getIndexManager() {
+        return indexManager;
+    }
+
+    protected EventReporter getEventReporter() {
+        return eventReporter;
+    }
+
     public Collection<Path> getAllLogFiles() {
         final SortedMap<Long, Path> map = idToPathMap.get();
         return map == null ? new ArrayList<Path>() : map.values();
@@ -2419,21 +2790,35 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         private final NiFiUser user;
         private final File indexDir;
         private final AtomicInteger retrievalCount;
+        private final String cacheKey;
+        private final long cacheGeneration;
 
-        public QueryRunnable(final Query query, final AsyncQuerySubmission submission, final NiFiUser user, final File indexDir, final AtomicInteger retrievalCount) {
+        public QueryRunnable(final Query query, final AsyncQuerySubmission submission, final NiFiUser user, final File indexDir, final AtomicInteger retrievalCount,
+                final String cacheKey, final long cacheGeneration) {
             this.query = query;
             this.submission = submission;
             this.user = user;
             this.indexDir = indexDir;
             this.retrievalCount = retrievalCount;
+            this.cacheKey = cacheKey;
+            this.cacheGeneration = cacheGeneration;
         }
 
         @Override
         public void run() {
+            if (submission.isCanceled()) {
+                return;
+            }
+
             try {
                 final IndexSearch search = new IndexSearch(PersistentProvenanceRepository.this, indexDir, indexManager, maxAttributeChars);
                 final StandardQueryResult queryResult = search.search(query, user, retrievalCount, firstEventTimestamp);
-                submission.getResult().update(queryResult.getMatchingEvents(), queryResult.getTotalHitCount());
+
+                final StandardQueryResult result = submission.getResult();
+                result.update(queryResult.getMatchingEvents(), queryResult.getTotalHitCount());
+                if (result.isFinished() && result.getError() == null && !submission.isCanceled()) {
+                    queryResultCache.cache(cacheKey, cacheGeneration, result.getMatchingEvents());
+                }
             } catch (final Throwable t) {
                 logger.error("Failed to query Provenance Repository Index {} due to {}", indexDir, t.toString());
                 if (logger.isDebugEnabled()) {
@@ -2493,6 +2878,102 @@ public class PersistentProvenanceRepository implements ProvenanceRepository {
         }
     }
 
+    private class ComputeLineageFromAdjacencyIndexRunnable implements Runnable {
+
+        private final Collection<String> flowFileUuids;
+        private final NiFiUser user;
+        private final AsyncLineageSubmission submission;
+
+        public ComputeLineageFromAdjacencyIndexRunnable(final Collection<String> flowFileUuids, final NiFiUser user, final AsyncLineageSubmission submission) {
+            this.flowFileUuids = flowFileUuids;
+            this.user = user;
+            this.submission = submission;
+        }
+
+        @Override
+        public void run() {
+            if (submission.isCanceled()) {
+                return;
+            }
+
+            try {
+                final SortedMap<Long, Path> pathMap = idToPathMap.get();
+                final Map<Long, SortedSet<Long>> eventIds = adjacencyIndex.getEventIds(flowFileUuids, pathMap.keySet(), LineageQuery.MAX_QUERY_RESULTS);
+                final Set<ProvenanceEventRecord> matchingRecords = readLinkedEvents(pathMap, eventIds, flowFileUuids);
+
+                final StandardLineageResult result = submission.getResult();
+                result.update(replaceUnauthorizedWithPlaceholders(matchingRecords, user));
+
+                logger.info("Successfully created Lineage for FlowFiles with UUIDs {} in {} milliseconds; Lineage contains {} nodes and {} edges",
+                        flowFileUuids, result.getComputationTime(TimeUnit.MILLISECONDS), result.getNodes().size(), result.getEdges().size());
+            } catch (final Throwable t) {
+                logger.error("Failed to query provenance repository due to {}", t.toString());
+                if (logger.isDebugEnabled()) {
+                    logger.error("", t);
+                }
+
+                if (t.getMessage() == null) {
+                    submission.getResult().setError(t.toString());
+                } else {
+                    submission.getResult().setError(t.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the events with the given ID's, keeping only those that are linked to one of the given FlowFiles. The
+     * adjacency files may contain entries for unrelated FlowFiles whose identifiers hash to the same key.
+     */
+    private Set<ProvenanceEventRecord> readLinkedEvents(final SortedMap<Long, Path> pathMap, final Map<Long, SortedSet<Long>> eventIds,
+            final Collection<String> flowFileUuids) throws IOException {
+        final Set<String> uuids = new HashSet<>();
+        for (final String uuid : flowFileUuids) {
+            uuids.add(uuid.toLowerCase());
+        }
+
+        final Set<ProvenanceEventRecord> records = new LinkedHashSet<>();
+        for (final Map.Entry<Long, SortedSet<Long>> entry : eventIds.entrySet()) {
+            final Path path = pathMap.get(entry.getKey());
+            if (path == null) {
+                continue;
+            }
+
+            try (final RecordReader reader = RecordReaders.newRecordReader(path.toFile(), getAllLogFiles(), maxAttributeChars)) {
+                final TocReader tocReader = reader.getTocReader();
+                int blockIndex = -1;
+                StandardProvenanceEventRecord record = null;
+
+                for (final Long eventId : entry.getValue()) {
+                    if (record == null || record.getEventId() < eventId) {
+                        // jump ahead to the block that contains the event, rather than reading all of the events in between
+                        final Integer eventBlockIndex = tocReader == null ? null : tocReader.getBlockIndexForEventId(eventId);
+                        if (eventBlockIndex != null && eventBlockIndex > blockIndex) {
+                            reader.skipToBlock(eventBlockIndex);
+                            blockIndex = eventBlockIndex;
+                        }
+
+                        do {
+                            record = reader.nextRecord();
+                        } while (record != null && record.getEventId() < eventId);
+
+                        if (record == null) {
+                            break;
+                        }
+                    }
+
+                    if (record.getEventId() == eventId && !Collections.disjoint(uuids, AdjacencyUtil.getLinkedUuids(record))) {
+                        records.add(record);
+                    }
+                }
+            } catch (final EOFException | FileNotFoundException fnfe) {
+                // assume file aged off
+            }
+        }
+
+        return records;
+    }
+
     private class RemoveExpiredQueryResults implements Runnable {
 
         @Override
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.provenance.search.Query;
+import org.apache.nifi.provenance.search.SearchTerm;
+
+/**
+ * A small, least-recently-used cache of the results of Provenance queries, so that a user who issues the same query
+ * repeatedly (for instance, by refreshing the Provenance table) does not cause the indices to be searched each time.
+ *
+ * The cache is invalidated whenever the data that can be queried changes, such as when an event file is rolled over or
+ * aged off. Results of a query that was started before the cache was invalidated are not cached.
+ */
+class QueryResultCache {
+
+    private final int maxEntries;
+    private final AtomicLong generation = new AtomicLong(0L);
+
+    // guarded by synchronizing on 'this'
+    private final Map<String, CachedResult> cache;
+
+    QueryResultCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<String, CachedResult>(16, 0.75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedResult> eldest) {
+                return size() > QueryResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates a key that identifies the given query when submitted by the given user. This must be called before the
+     * query is executed, as executing the query may populate its start and end dates.
+     *
+     * @param query the query
+     * @param userId the identity of the user submitting the query
+     * @return a key that can be used to look up the results of the query
+     */
+    static String createKey(final Query query, final String userId) {
+        final List<String> terms = new ArrayList<>(query.getSearchTerms().size());
+        for (final SearchTerm term : query.getSearchTerms()) {
+            terms.add(term.getSearchableField().getIdentifier() + "=" + term.getValue());
+        }
+        Collections.sort(terms);
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(userId).append('\n');
+        sb.append(terms).append('\n');
+        sb.append(query.getStartDate() == null ? "" : query.getStartDate().getTime()).append('\n');
+        sb.append(query.getEndDate() == null ? "" : query.getEndDate().getTime()).append('\n');
+        sb.append(query.getMinFileSize()).append('\n');
+        sb.append(query.getMaxFileSize()).append('\n');
+        sb.append(query.getMaxResults());
+        return sb.toString();
+    }
+
+    /**
+     * @return the current generation of the cache, which must be provided when results are added to the cache
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the results that were cached for the given key, or <code>null</code> if no results are cached
+     *
+     * @param key the key created by {@link #createKey(Query, String)}
+     * @return the cached results, or <code>null</code> if no results are cached
+     */
+    synchronized List<ProvenanceEventRecord> get(final String key) {
+        final CachedResult result = cache.get(key);
+        if (result == null) {
+            return null;
+        }
+
+        if (result.generation != generation.get()) {
+            cache.remove(key);
+            return null;
+        }
+
+        return result.events;
+    }
+
+    /**
+     * Caches the given results, unless the cache has been invalidated since the given generation
+     *
+     * @param key the key created by {@link #createKey(Query, String)}
+     * @param queryGeneration the generation of the cache when the query was started
+     * @param events the results of the query
+     */
+    synchronized void cache(final String key, final long queryGeneration, final List<ProvenanceEventRecord> events) {
+        if (queryGeneration != generation.get()) {
+            return;
+        }
+
+        cache.put(key, new CachedResult(queryGeneration, Collections.unmodifiableList(new ArrayList<>(events))));
+    }
+
+    /**
+     * Invalidates all cached results. This does not require any locks, so it is cheap enough to be called whenever
+     * events become searchable.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    private static class CachedResult {
+        private final long generation;
+        private final List<ProvenanceEventRecord> events;
+
+        CachedResult(final long generation, final List<ProvenanceEventRecord> events) {
+            this.generation = generation;
+            this.events = events;
+        }
+    }
+}
@@ -27,6 +27,8 @@ import org.apache.nifi.provenance.search.SearchableField;
 public class RepositoryConfiguration {
 
     private final List<File> storageDirectories = new ArrayList<>();
+    private final List<File> coldStorageDirectories = new ArrayList<>();
+    private long coldStorageMillis = TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS);
     private long recordLifeMillis = TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS);
     private long storageCapacity = 1024L * 1024L * 1024L;   // 1 GB
     private long eventFileMillis = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
@@ -39,6 +41,7 @@ public class RepositoryConfiguration {
     private List<SearchableField> searchableFields = new ArrayList<>();
     private List<SearchableField> searchableAttributes = new ArrayList<>();
     private boolean compress = true;
+    private boolean columnar = false;
     private boolean alwaysSync = false;
     private int queryThreadPoolSize = 2;
     private int indexThreadPoolSize = 1;
@@ -79,6 +82,45 @@ public class RepositoryConfiguration {
         this.storageDirectories.add(storageDirectory);
     }
 
+    /**
+     * Specifies where the repository will move event files and indices once they
+     * are older than the cold storage age
+     *
+     * @return the directories where aged provenance files will be stored
+     */
+    public List<File> getColdStorageDirectories() {
+        return Collections.unmodifiableList(coldStorageDirectories);
+    }
+
+    /**
+     * Specifies a directory to which the repository should move event files and
+     * indices once they are older than the cold storage age. If no cold storage
+     * directory is added, files stay in the storage directories until they expire.
+     *
+     * @param coldStorageDirectory the directory to store aged provenance files
+     */
+    public void addColdStorageDirectory(final File coldStorageDirectory) {
+        this.coldStorageDirectories.add(coldStorageDirectory);
+    }
+
+    /**
+     * @param timeUnit the desired time unit
+     * @return how long event files and indices stay in the storage directories before
+     * they are moved to the cold storage directories
+     */
+    public long getColdStorageAge(final TimeUnit timeUnit) {
+        return timeUnit.convert(coldStorageMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param coldStorageAge how long event files and indices should stay in the storage
+     * directories before they are moved to the cold storage directories
+     * @param timeUnit the period of time used by coldStorageAge
+     */
+    public void setColdStorageAge(final long coldStorageAge, final TimeUnit timeUnit) {
+        this.coldStorageMillis = TimeUnit.MILLISECONDS.convert(coldStorageAge, timeUnit);
+    }
+
     /**
      * @param timeUnit the desired time unit
      * @return the max amount of time that a given record will stay in the repository
@@ -190,6 +232,22 @@ public class RepositoryConfiguration {
         this.compress = compress;
     }
 
+    /**
+     * @return whether or not journals will be merged into event files that are
+     * written column-wise, rather than one record at a time
+     */
+    public boolean isColumnarEventFiles() {
+        return columnar;
+    }
+
+    /**
+     * @param columnar if true, journals will be merged into event files that
+     * are written column-wise, rather than one record at a time
+     */
+    public void setColumnarEventFiles(final boolean columnar) {
+        this.columnar = columnar;
+    }
+
     /**
      * @return the number of threads to use to query the repo
      */
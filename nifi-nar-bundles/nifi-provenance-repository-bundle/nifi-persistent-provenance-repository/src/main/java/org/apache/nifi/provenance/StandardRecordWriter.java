@@ -49,6 +49,7 @@ public class StandardRecordWriter implements RecordWriter {
 
     private DataOutputStream out;
     private ByteCountingOutputStream byteCountingOut;
+    private long lastRecordOffset = -1L;
     private long lastBlockOffset = 0L;
     private int recordCount = 0;
     private volatile boolean closed = false;
@@ -157,9 +158,15 @@ public class StandardRecordWriter implements RecordWriter {
                     // to write its trailing bytes. But we don't want to close the underlying OutputStream, so we wrap
                     // the underlying OutputStream in a NonCloseableOutputStream
                     resetWriteStream(recordIdentifier);
+                } else {
+                    // each record is flushed once it has been written, so the raw stream is positioned at the start of this
+                    // record. This allows readers to skip directly to the block without having to read the records before it.
+                    tocWriter.addBlockOffset(rawOutStream.getBytesWritten(), recordIdentifier);
                 }
             }
 
+            // the offset is the position in the stream, including the header, as the reader reports it
+            final long recordOffset = byteCountingOut.getBytesWritten();
             out.writeLong(recordIdentifier);
             out.writeUTF(record.getEventType().name());
             out.writeLong(record.getEventTime());
@@ -246,6 +253,7 @@ public class StandardRecordWriter implements RecordWriter {
 
             out.flush();
             recordCount++;
+            lastRecordOffset = recordOffset;
             return byteCountingOut.getBytesWritten() - startBytes;
         } catch (final IOException ioe) {
             markDirty();
@@ -338,6 +346,11 @@ public class StandardRecordWriter implements RecordWriter {
         return closed;
     }
 
+    @Override
+    public synchronized long getLastRecordOffset() {
+        return lastRecordOffset;
+    }
+
     @Override
     public synchronized int getRecordsWritten() {
         return recordCount;
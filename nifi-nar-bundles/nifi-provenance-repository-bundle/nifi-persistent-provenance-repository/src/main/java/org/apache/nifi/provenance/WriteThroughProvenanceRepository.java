@@ -0,0 +1,661 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.nifi.authorization.Authorizer;
+import org.apache.nifi.authorization.user.NiFiUser;
+import org.apache.nifi.events.EventReporter;
+import org.apache.nifi.provenance.lucene.FieldNames;
+import org.apache.nifi.provenance.lucene.IndexingAction;
+import org.apache.nifi.provenance.lucene.LuceneUtil;
+import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.serialization.RecordReaders;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.serialization.RecordWriters;
+import org.apache.nifi.provenance.toc.EventLocationIndex;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.provenance.toc.TocUtil;
+import org.apache.nifi.reporting.Severity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A Provenance Repository that writes each event directly to the Provenance Event Log File in which it is stored and
+ * indexes the event as soon as it has been written. The {@link PersistentProvenanceRepository} writes events to journals
+ * that are merged into a single Provenance Event Log File and indexed when the repository rolls over, which means that
+ * every event is written twice and that events cannot be searched until the rollover has completed. This repository
+ * avoids the merge altogether: events become searchable as soon as they are registered, and rolling over only requires
+ * closing the current files.
+ * </p>
+ *
+ * <p>
+ * Events are written to a number of partitions, as configured by the journal count, that are spread across the storage
+ * directories. Each partition owns a single Provenance Event Log File and an Index Writer at a time. While a file is being
+ * written to, it is named &lt;first event id&gt;.prov.part; when the partition rolls over, the Index Writer is committed and
+ * the file is renamed to &lt;first event id&gt;.prov. If NiFi is not shut down gracefully, any file that still has the
+ * .prov.part extension on restart is re-indexed before it is made complete, as its events may not all have been committed
+ * to the index.
+ * </p>
+ *
+ * <p>
+ * Because partitions are written to concurrently, the Event ID's contained in the files overlap. Provenance Event Log Files
+ * that are written by this repository are not compressed.
+ * </p>
+ */
+public class WriteThroughProvenanceRepository extends PersistentProvenanceRepository {
+    private static final Logger logger = LoggerFactory.getLogger(WriteThroughProvenanceRepository.class);
+
+    static final String ACTIVE_FILE_SUFFIX = ".prov.part";
+    private static final String FILE_EXTENSION = ".prov";
+
+    // A file's last modified date may be truncated by the file system. When determining which files may contain events that
+    // were written after another file was created, we allow for this much variance.
+    private static final long MODIFICATION_TIME_TOLERANCE_MILLIS = 5000L;
+
+    private final Partition[] partitions;
+    private final AtomicLong partitionIndex = new AtomicLong(0L);
+    private final IndexingAction indexingAction;
+    private final AtomicBoolean recovered = new AtomicBoolean(false);
+
+    // the ID of the last event in each file that is no longer being written to, keyed by the ID of the first event in the file
+    private final ConcurrentMap<Long, Long> lastEventIds = new ConcurrentHashMap<>();
+
+    public WriteThroughProvenanceRepository() throws IOException {
+        super();
+        this.partitions = createPartitions(getConfiguration());
+        this.indexingAction = new IndexingAction(this);
+    }
+
+    public WriteThroughProvenanceRepository(final RepositoryConfiguration configuration, final int rolloverCheckMillis) throws IOException {
+        super(configuration, rolloverCheckMillis);
+        this.partitions = createPartitions(configuration);
+        this.indexingAction = new IndexingAction(this);
+    }
+
+    private Partition[] createPartitions(final RepositoryConfiguration configuration) {
+        final List<File> storageDirectories = configuration.getStorageDirectories();
+        final Partition[] partitions = new Partition[Math.max(1, configuration.getJournalCount())];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(storageDirectories.get(i % storageDirectories.size()));
+        }
+
+        return partitions;
+    }
+
+    @Override
+    public void initialize(final EventReporter eventReporter, final Authorizer authorizer, final ProvenanceAuthorizableFactory resourceFactory) throws IOException {
+        super.initialize(eventReporter, authorizer, resourceFactory);
+
+        if (recovered.getAndSet(true)) {
+            return;
+        }
+
+        recoverActiveFiles();
+        recoverMaxEventId();
+    }
+
+    @Override
+    protected EventLocationIndex createEventLocationIndex() throws IOException {
+        // the files of the partitions contain overlapping ranges of event ID's, which the index does not support
+        return null;
+    }
+
+    @Override
+    protected RecordWriter[] createWriters(final RepositoryConfiguration config, final long initialRecordId) throws IOException {
+        // events are written by the partitions rather than to journals
+        return new RecordWriter[0];
+    }
+
+    /**
+     * Re-indexes any Provenance Event Log File that was still being written to when the repository was last shut down
+     * and then marks the file as complete
+     *
+     * @throws IOException if unable to read a file or update the index
+     */
+    private void recoverActiveFiles() throws IOException {
+        for (final File storageDirectory : getConfiguration().getStorageDirectories()) {
+            final File[] activeFiles = storageDirectory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(final File pathname) {
+                    final String filename = pathname.getName();
+                    return filename.endsWith(ACTIVE_FILE_SUFFIX) && NUMBER_PATTERN.matcher(LuceneUtil.substringBefore(filename, ".")).matches();
+                }
+            });
+
+            if (activeFiles == null) {
+                continue;
+            }
+
+            for (final File activeFile : activeFiles) {
+                recoverActiveFile(activeFile);
+            }
+        }
+    }
+
+    private void recoverActiveFile(final File activeFile) throws IOException {
+        final String baseName = LuceneUtil.substringBefore(activeFile.getName(), ".");
+        final long firstEventId = Long.parseLong(baseName);
+
+        long lastEventId = -1L;
+        int eventCount = 0;
+        File indexDirectory = null;
+        IndexWriter indexWriter = null;
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(activeFile, null, Integer.MAX_VALUE)) {
+            final TocReader tocReader = reader.getTocReader();
+
+            StandardProvenanceEventRecord record;
+            while ((record = nextRecord(reader, activeFile)) != null) {
+                if (indexWriter == null) {
+                    indexDirectory = getIndexConfiguration().getWritableIndexDirectory(activeFile, record.getEventTime());
+                    indexWriter = getIndexManager().borrowIndexWriter(indexDirectory);
+
+                    // some of the events may already have been indexed, so remove them before indexing the file again
+                    indexWriter.deleteDocuments(new Term(FieldNames.STORAGE_FILENAME, baseName));
+                }
+
+                final Integer blockIndex = tocReader == null ? null : tocReader.getBlockIndexForEventId(record.getEventId());
+                indexingAction.index(record, indexWriter, blockIndex);
+                lastEventId = record.getEventId();
+                eventCount++;
+            }
+        } finally {
+            if (indexWriter != null) {
+                getIndexManager().returnIndexWriter(indexDirectory, indexWriter);
+            }
+        }
+
+        if (eventCount == 0) {
+            deleteLogFile(activeFile);
+            return;
+        }
+
+        final File completedFile = complete(activeFile, firstEventId, lastEventId);
+        getIndexConfiguration().setMaxIdIndexed(lastEventId);
+        ensureEventIdGreaterThan(lastEventId);
+        logger.info("Recovered {} events from Provenance Event Log File {}", eventCount, completedFile);
+    }
+
+    private StandardProvenanceEventRecord nextRecord(final RecordReader reader, final File file) {
+        try {
+            return reader.nextRecord();
+        } catch (final EOFException eof) {
+            // the last event was only partially written when NiFi was stopped. That event's session was never
+            // committed, so there is nothing more to recover from this file.
+            return null;
+        } catch (final IOException ioe) {
+            logger.warn("Failed to read Provenance Event Log File {} due to {}; events after this point in the file will not be recovered", file, ioe.toString());
+            return null;
+        }
+    }
+
+    /**
+     * The files that partitions write to are rolled over independently of one another, so the file that contains the
+     * greatest first Event ID is not necessarily the file that contains the greatest Event ID. Any file that was written to
+     * after the newest file was created may contain a greater ID, so we check each of those files.
+     */
+    private void recoverMaxEventId() {
+        final SortedMap<Long, Path> pathMap = getLogFileMap();
+        if (pathMap.isEmpty()) {
+            return;
+        }
+
+        final File newestFile = pathMap.get(pathMap.lastKey()).toFile();
+        long newestFileCreation = newestFile.lastModified();
+        try (final RecordReader reader = RecordReaders.newRecordReader(newestFile, null, Integer.MAX_VALUE)) {
+            final StandardProvenanceEventRecord firstRecord = reader.nextRecord();
+            if (firstRecord != null) {
+                newestFileCreation = firstRecord.getEventTime();
+            }
+        } catch (final IOException ioe) {
+            logger.warn("Failed to read first event from Provenance Event Log File {} due to {}", newestFile, ioe.toString());
+        }
+
+        long maxEventId = -1L;
+        for (final Map.Entry<Long, Path> entry : pathMap.entrySet()) {
+            final File file = entry.getValue().toFile();
+            if (file.lastModified() < newestFileCreation - MODIFICATION_TIME_TOLERANCE_MILLIS) {
+                continue;
+            }
+
+            final long lastEventId = getLastEventId(entry.getKey(), file);
+            if (lastEventId != Long.MAX_VALUE) {
+                maxEventId = Math.max(maxEventId, lastEventId);
+            }
+        }
+
+        if (maxEventId > -1L) {
+            getIndexConfiguration().setMaxIdIndexed(maxEventId);
+            ensureEventIdGreaterThan(maxEventId);
+        }
+    }
+
+    @Override
+    public void registerEvent(final ProvenanceEventRecord event) {
+        registerEvents(Collections.singleton(event));
+    }
+
+    @Override
+    public void registerEvents(final Iterable<ProvenanceEventRecord> events) {
+        // obtain a lock on one of the partitions so that no other thread is able to write to its file until we're finished.
+        // We need to generate the event ids and write the events atomically, so that the ids in each file are in order.
+        Partition partition;
+        do {
+            final long idx = partitionIndex.getAndIncrement();
+            partition = partitions[(int) (idx % partitions.length)];
+        } while (!partition.tryLock());
+
+        try {
+            partition.write(events);
+        } catch (final IOException ioe) {
+            logger.error("Failed to persist Provenance Event due to {}.", ioe.toString());
+            logger.error("", ioe);
+            getEventReporter().reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to persist Provenance Event due to " + ioe.toString());
+
+            // The file may now contain a partial event, so we cannot write to it anymore. Roll over the partition
+            // so that the next events are written to a new file.
+            partition.rollover();
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    @Override
+    protected boolean needToRollover() {
+        final long maxFileMillis = getConfiguration().getMaxEventFileLife(TimeUnit.MILLISECONDS);
+        final long now = System.currentTimeMillis();
+        for (final Partition partition : partitions) {
+            if (partition.isExpired(now, maxFileMillis)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Completes the file of each partition that has expired, or of every partition if <code>force</code> is
+     * <code>true</code>. The events have already been indexed, so there is nothing to merge.
+     *
+     * @param force whether or not to roll over partitions whose files have not yet expired
+     */
+    @Override
+    protected void rollover(final boolean force) throws IOException {
+        if (!getConfiguration().isAllowRollover()) {
+            return;
+        }
+
+        final long maxFileMillis = getConfiguration().getMaxEventFileLife(TimeUnit.MILLISECONDS);
+        for (final Partition partition : partitions) {
+            partition.lock();
+            try {
+                if (force || partition.isExpired(System.currentTimeMillis(), maxFileMillis)) {
+                    partition.rollover();
+                }
+            } finally {
+                partition.unlock();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // complete all of the files so that they do not need to be re-indexed on restart
+        for (final Partition partition : partitions) {
+            partition.lock();
+            try {
+                partition.rollover();
+            } finally {
+                partition.unlock();
+            }
+        }
+
+        super.close();
+    }
+
+    @Override
+    protected boolean isLogFileActive(final File logFile) {
+        for (final Partition partition : partitions) {
+            if (logFile.equals(partition.getActiveFile())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public List<ProvenanceEventRecord> getEvents(final long firstRecordId, final int maxRecords, final NiFiUser user) throws IOException {
+        // Because the partitions are written to concurrently, the events with consecutive IDs are spread across several
+        // files. We read the events from every file that may contain them and keep the events with the lowest IDs.
+        final TreeMap<Long, ProvenanceEventRecord> events = new TreeMap<>();
+        if (maxRecords < 1) {
+            return new ArrayList<>();
+        }
+
+        final SortedMap<Long, Path> pathMap = getLogFileMap();
+        lastEventIds.keySet().retainAll(pathMap.keySet());
+
+        for (final Map.Entry<Long, Path> entry : pathMap.entrySet()) {
+            final long fileFirstEventId = entry.getKey();
+            final File file = entry.getValue().toFile();
+
+            // files are ordered by the ID of their first event, so no other file can contain an event that we need
+            if (events.size() >= maxRecords && fileFirstEventId > events.lastKey()) {
+                break;
+            }
+
+            if (fileFirstEventId < firstRecordId && getLastEventId(fileFirstEventId, file) < firstRecordId) {
+                continue;
+            }
+
+            try (final RecordReader reader = RecordReaders.newRecordReader(file, getAllLogFiles(), getMaxAttributeCharacters())) {
+                final TocReader tocReader = reader.getTocReader();
+                if (tocReader != null) {
+                    final Integer blockIndex = tocReader.getBlockIndexForEventId(firstRecordId);
+                    if (blockIndex != null) {
+                        reader.skipToBlock(blockIndex);
+                    }
+                }
+
+                StandardProvenanceEventRecord record;
+                while ((record = reader.nextRecord()) != null) {
+                    final long eventId = record.getEventId();
+                    if (events.size() >= maxRecords && eventId > events.lastKey()) {
+                        break;
+                    }
+
+                    if (eventId >= firstRecordId && isAuthorized(record, user)) {
+                        events.put(eventId, record);
+                        if (events.size() > maxRecords) {
+                            events.pollLastEntry();
+                        }
+                    }
+                }
+            } catch (final EOFException | FileNotFoundException fnfe) {
+                // assume file aged off (or the last event is still being written to the file)
+            } catch (final IOException ioe) {
+                logger.error("Failed to read Provenance Event File {} due to {}", file, ioe.toString());
+                logger.error("", ioe);
+                getEventReporter().reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to read Provenance Event File " + file + " due to " + ioe.toString());
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieving up to {} records starting at Event ID {}; returning {} events", maxRecords, firstRecordId, events.size());
+        }
+
+        return new ArrayList<>(events.values());
+    }
+
+    private SortedMap<Long, Path> getLogFileMap() {
+        final SortedMap<Long, Path> pathMap = new TreeMap<>();
+        for (final Path path : getAllLogFiles()) {
+            pathMap.put(Long.parseLong(LuceneUtil.substringBefore(path.toFile().getName(), ".")), path);
+        }
+        return pathMap;
+    }
+
+    /**
+     * @return the ID of the last event in the given file, or {@link Long#MAX_VALUE} if the file is still being written to
+     *         or the ID cannot be determined
+     */
+    private long getLastEventId(final long firstEventId, final File file) {
+        if (isLogFileActive(file)) {
+            return Long.MAX_VALUE;
+        }
+
+        final Long cached = lastEventIds.get(firstEventId);
+        if (cached != null) {
+            return cached;
+        }
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(file, getAllLogFiles(), Integer.MAX_VALUE)) {
+            final long lastEventId = reader.getMaxEventId();
+            lastEventIds.put(firstEventId, lastEventId);
+            return lastEventId;
+        } catch (final IOException ioe) {
+            logger.warn("Failed to determine the ID of the last event in Provenance Event Log File {} due to {}", file, ioe.toString());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Renames the given file, which is no longer being written to, so that it is known to be complete, and updates the
+     * repository to refer to the renamed file
+     *
+     * @return the completed file
+     */
+    private File complete(final File activeFile, final long firstEventId, final long lastEventId) {
+        final File completedFile = new File(activeFile.getParentFile(), firstEventId + FILE_EXTENSION);
+
+        lastEventIds.put(firstEventId, lastEventId);
+        if (activeFile.renameTo(completedFile)) {
+            addLogFile(firstEventId, completedFile.toPath());
+            return completedFile;
+        }
+
+        logger.warn("Failed to rename Provenance Event Log File {} to {}; the file will be re-indexed when NiFi is restarted", activeFile, completedFile);
+        addLogFile(firstEventId, activeFile.toPath());
+        return activeFile;
+    }
+
+    private void deleteLogFile(final File file) {
+        for (final File fileToDelete : new File[] {file, TocUtil.getTocFile(file)}) {
+            if (!fileToDelete.delete() && fileToDelete.exists()) {
+                logger.warn("Failed to remove empty Provenance Event file {}; this file should be cleaned up manually", fileToDelete);
+            }
+        }
+    }
+
+    /**
+     * A partition owns the Provenance Event Log File that events are currently being written to and the Index Writer that
+     * is used to index them. All methods other than {@link #getActiveFile()} and {@link #isExpired(long, long)} must be
+     * called while holding the partition's lock.
+     */
+    private class Partition {
+        private final File storageDirectory;
+        private final Lock lock = new ReentrantLock();
+
+        private RecordWriter writer;
+        private File indexDirectory;
+        private IndexWriter indexWriter;
+        private long firstEventId = -1L;
+        private long lastEventId = -1L;
+        private long bytesWritten = 0L;
+
+        private volatile File activeFile;
+        private volatile long fileCreated = 0L;
+
+        Partition(final File storageDirectory) {
+            this.storageDirectory = storageDirectory;
+        }
+
+        boolean tryLock() {
+            return lock.tryLock();
+        }
+
+        void lock() {
+            lock.lock();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+
+        File getActiveFile() {
+            return activeFile;
+        }
+
+        boolean isExpired(final long now, final long maxFileMillis) {
+            return activeFile != null && now > fileCreated + maxFileMillis;
+        }
+
+        /**
+         * Writes the given events to the active file and indexes them. If writing fails partway through, the events that were
+         * written before the failure are still indexed before the failure is rethrown, so that the index agrees with the file;
+         * the file cannot be written to again, so the caller must then roll over this partition.
+         */
+        void write(final Iterable<ProvenanceEventRecord> events) throws IOException {
+            final List<StandardProvenanceEventRecord> written = new ArrayList<>();
+            final List<Integer> blockIndices = new ArrayList<>();
+
+            IOException failure = null;
+            try {
+                for (final ProvenanceEventRecord event : events) {
+                    final long eventId = generateEventId();
+                    if (writer == null) {
+                        createWriter(eventId);
+                    }
+
+                    bytesWritten += writer.writeRecord(event, eventId);
+
+                    final StandardProvenanceEventRecord record = new StandardProvenanceEventRecord.Builder()
+                        .fromEvent(event)
+                        .setStorageLocation(writer.getFile().getName(), writer.getLastRecordOffset())
+                        .build();
+                    record.setEventId(eventId);
+
+                    written.add(record);
+                    blockIndices.add(writer.getTocWriter().getCurrentBlockIndex());
+                }
+
+                if (!written.isEmpty() && getConfiguration().isAlwaysSync()) {
+                    writer.sync();
+                }
+            } catch (final IOException ioe) {
+                if (writer != null) {
+                    writer.markDirty();
+                }
+                failure = ioe;
+            }
+
+            if (!written.isEmpty()) {
+                try {
+                    index(written, blockIndices);
+                } catch (final IOException ioe) {
+                    if (failure == null) {
+                        throw ioe;
+                    }
+                    failure.addSuppressed(ioe);
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            if (bytesWritten >= getConfiguration().getMaxEventFileCapacity()) {
+                rollover();
+            }
+        }
+
+        private void index(final List<StandardProvenanceEventRecord> written, final List<Integer> blockIndices) throws IOException {
+            if (indexWriter == null) {
+                // Now that the file contains an event, it can be made available to queries.
+                indexDirectory = getIndexConfiguration().getWritableIndexDirectory(writer.getFile(), written.get(0).getEventTime());
+                indexWriter = getIndexManager().borrowIndexWriter(indexDirectory);
+                addLogFile(firstEventId, writer.getFile().toPath());
+            }
+
+            for (int i = 0; i < written.size(); i++) {
+                indexingAction.index(written.get(i), indexWriter, blockIndices.get(i));
+            }
+            invalidateQueryResults();
+
+            lastEventId = written.get(written.size() - 1).getEventId();
+            getIndexConfiguration().setMaxIdIndexed(lastEventId);
+            for (final StandardProvenanceEventRecord record : written) {
+                addToLatestRecords(record);
+            }
+        }
+
+        private void createWriter(final long firstEventId) throws IOException {
+            final File file = new File(storageDirectory, firstEventId + ACTIVE_FILE_SUFFIX);
+            writer = RecordWriters.newRecordWriter(file, false, true, getConfiguration().getCompressionBlockBytes());
+            activeFile = file;
+            fileCreated = System.currentTimeMillis();
+            this.firstEventId = firstEventId;
+            lastEventId = -1L;
+            bytesWritten = 0L;
+
+            writer.writeHeader(firstEventId);
+            logger.debug("Created Provenance Event Log File {}", file);
+        }
+
+        /**
+         * Closes the current file and commits its events to the index. The next events that are written to this
+         * partition are written to a new file.
+         */
+        void rollover() {
+            if (writer == null) {
+                return;
+            }
+
+            final File file = writer.getFile();
+            try {
+                writer.close();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to close {} due to {}", writer, ioe.toString());
+                if (logger.isDebugEnabled()) {
+                    logger.warn("", ioe);
+                }
+            }
+
+            if (indexWriter != null) {
+                // returning the writer commits the events that we have indexed once no other partition is using it
+                getIndexManager().returnIndexWriter(indexDirectory, indexWriter);
+            }
+
+            if (lastEventId < 0L) {
+                // nothing was successfully written to the file
+                deleteLogFile(file);
+            } else {
+                final File completedFile = complete(file, firstEventId, lastEventId);
+                logger.info("Successfully Rolled over Provenance Event file {}", completedFile);
+            }
+
+            writer = null;
+            indexWriter = null;
+            indexDirectory = null;
+            activeFile = null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.adjacency;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads an Adjacency File that was written by {@link AdjacencyFileWriter}
+ */
+public class AdjacencyFileReader implements Closeable {
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int entryCount;
+
+    public AdjacencyFileReader(final File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if (length < AdjacencyFileWriter.HEADER_LENGTH) {
+                throw new IOException("Adjacency File " + file + " is truncated");
+            }
+
+            buffer = channel.map(MapMode.READ_ONLY, 0, length);
+
+            final int version = buffer.getInt(0);
+            if (version != AdjacencyFileWriter.VERSION) {
+                throw new IOException("Adjacency File " + file + " has version " + version + " but only version " + AdjacencyFileWriter.VERSION + " is supported");
+            }
+
+            entryCount = buffer.getInt(4);
+            if (entryCount < 0 || AdjacencyFileWriter.HEADER_LENGTH + (long) entryCount * AdjacencyFileWriter.ENTRY_LENGTH > length) {
+                throw new IOException("Adjacency File " + file + " is truncated");
+            }
+        } catch (final IOException ioe) {
+            raf.close();
+            throw ioe;
+        }
+    }
+
+    private int position(final int entryIndex) {
+        return AdjacencyFileWriter.HEADER_LENGTH + entryIndex * AdjacencyFileWriter.ENTRY_LENGTH;
+    }
+
+    private int compare(final int entryIndex, final UUID key) {
+        final int position = position(entryIndex);
+        final int result = Long.compare(buffer.getLong(position), key.getMostSignificantBits());
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(buffer.getLong(position + 8), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Returns the ID's of the events in the corresponding Provenance Event Log File that are linked to the
+     * FlowFile with the given UUID, in ascending order
+     *
+     * @param uuid the UUID of the FlowFile
+     * @param maxResults the maximum number of event ID's to return
+     * @return the ID's of the events that are linked to the FlowFile
+     */
+    public List<Long> getEventIds(final String uuid, final int maxResults) {
+        final UUID key = AdjacencyUtil.toKey(uuid);
+
+        // find the first entry for the key
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        final List<Long> eventIds = new ArrayList<>();
+        for (int i = low; i < entryCount && eventIds.size() < maxResults && compare(i, key) == 0; i++) {
+            eventIds.add(buffer.getLong(position(i) + 16));
+        }
+        return eventIds;
+    }
+
+    /**
+     * @return the number of entries in the file
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return "AdjacencyFileReader[file=" + file + "]";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.adjacency;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+
+/**
+ * <p>
+ * Collects the FlowFile UUID's that each event of a Provenance Event Log File is linked to (see
+ * {@link AdjacencyUtil#getLinkedUuids(ProvenanceEventRecord)}) and writes them, sorted by UUID, to the file's
+ * Adjacency File so that the events that make up the lineage of a FlowFile can be found with a binary search.
+ * </p>
+ *
+ * <p>
+ * The Adjacency File consists of a header followed by fixed-length entries:
+ * </p>
+ *
+ * <pre>
+ * int: version
+ * int: number of entries
+ * for each entry:
+ *   long: most significant bits of the FlowFile UUID
+ *   long: least significant bits of the FlowFile UUID
+ *   long: event ID
+ * </pre>
+ *
+ * <p>
+ * The file is only written when the writer is finished, and it is written to a temporary file first, so that an
+ * Adjacency File either contains every event of its Provenance Event Log File or does not exist.
+ * </p>
+ */
+public class AdjacencyFileWriter {
+    public static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+    static final int ENTRY_LENGTH = 24;
+
+    private final File file;
+    private long[] mostSigBits = new long[1024];
+    private long[] leastSigBits = new long[1024];
+    private long[] eventIds = new long[1024];
+    private int entryCount = 0;
+
+    public AdjacencyFileWriter(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds the given event, which must already have been assigned its ID
+     *
+     * @param event the event to add
+     */
+    public void addEvent(final ProvenanceEventRecord event) {
+        for (final String uuid : AdjacencyUtil.getLinkedUuids(event)) {
+            final UUID key = AdjacencyUtil.toKey(uuid);
+            ensureCapacity(entryCount + 1);
+            mostSigBits[entryCount] = key.getMostSignificantBits();
+            leastSigBits[entryCount] = key.getLeastSignificantBits();
+            eventIds[entryCount] = event.getEventId();
+            entryCount++;
+        }
+    }
+
+    private void ensureCapacity(final int entries) {
+        if (entries <= eventIds.length) {
+            return;
+        }
+
+        final int capacity = eventIds.length * 2;
+        mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+        leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        eventIds = Arrays.copyOf(eventIds, capacity);
+    }
+
+    /**
+     * @return the number of entries that have been added
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Sorts the entries that have been added and writes them to the Adjacency File
+     *
+     * @throws IOException if unable to write the file
+     */
+    public void finish() throws IOException {
+        final Integer[] order = new Integer[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                int result = Long.compare(mostSigBits[a], mostSigBits[b]);
+                if (result != 0) {
+                    return result;
+                }
+                result = Long.compare(leastSigBits[a], leastSigBits[b]);
+                if (result != 0) {
+                    return result;
+                }
+                return Long.compare(eventIds[a], eventIds[b]);
+            }
+        });
+
+        Files.createDirectories(file.getParentFile().toPath());
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".part");
+        try (final FileOutputStream fos = new FileOutputStream(tempFile);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536))) {
+
+            out.writeInt(VERSION);
+            out.writeInt(entryCount);
+            for (final Integer index : order) {
+                out.writeLong(mostSigBits[index]);
+                out.writeLong(leastSigBits[index]);
+                out.writeLong(eventIds[index]);
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public String toString() {
+        return "AdjacencyFileWriter[file=" + file + "]";
+    }
+}
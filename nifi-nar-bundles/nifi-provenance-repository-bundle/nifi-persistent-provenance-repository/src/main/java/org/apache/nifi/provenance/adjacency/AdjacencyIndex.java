@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.adjacency;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the Adjacency Files of the Provenance Event Log Files in the repository, so that the events that
+ * make up the lineage of a FlowFile can be found without searching the Lucene indices. The index can only be used
+ * if every Provenance Event Log File that may contain such an event has an Adjacency File.
+ */
+public class AdjacencyIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AdjacencyIndex.class);
+
+    // key = ID of the first event in the Provenance Event Log File, value = the file's Adjacency File
+    private final ConcurrentMap<Long, File> adjacencyFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the Adjacency File of the given Provenance Event Log File to the index, if it exists
+     *
+     * @param fileFirstEventId the ID of the first event in the Provenance Event Log File
+     * @param eventFile the Provenance Event Log File
+     * @return <code>true</code> if the file has an Adjacency File, <code>false</code> otherwise
+     */
+    public boolean addFile(final Long fileFirstEventId, final File eventFile) {
+        final File adjacencyFile = AdjacencyUtil.getAdjacencyFile(eventFile);
+        if (!adjacencyFile.exists()) {
+            return false;
+        }
+
+        adjacencyFiles.put(fileFirstEventId, adjacencyFile);
+        return true;
+    }
+
+    /**
+     * Removes from the index all Adjacency Files that belong to files other than those given
+     *
+     * @param fileFirstEventIds the ID of the first event of each file that is still in the repository
+     */
+    public void retainFiles(final Collection<Long> fileFirstEventIds) {
+        adjacencyFiles.keySet().retainAll(new HashSet<>(fileFirstEventIds));
+    }
+
+    /**
+     * @param fileFirstEventIds the ID of the first event of each file in the repository
+     * @return <code>true</code> if all of the given files have an Adjacency File
+     */
+    public boolean isComplete(final Collection<Long> fileFirstEventIds) {
+        return adjacencyFiles.keySet().containsAll(fileFirstEventIds);
+    }
+
+    /**
+     * Returns the ID's of the events that are linked to any of the given FlowFiles, grouped by the Provenance Event
+     * Log File that contains them
+     *
+     * @param flowFileUuids the UUID's of the FlowFiles
+     * @param fileFirstEventIds the ID of the first event of each file to look in
+     * @param maxResults the maximum number of event ID's to return
+     * @return a map whose key is the ID of the first event of a Provenance Event Log File and whose value is the ID's of
+     *         the events in that file that are linked to any of the given FlowFiles
+     * @throws IOException if unable to read an Adjacency File
+     */
+    public Map<Long, SortedSet<Long>> getEventIds(final Collection<String> flowFileUuids, final Collection<Long> fileFirstEventIds, final int maxResults) throws IOException {
+        final Map<Long, SortedSet<Long>> eventIds = new TreeMap<>();
+        int count = 0;
+
+        for (final Long fileFirstEventId : fileFirstEventIds) {
+            final File adjacencyFile = adjacencyFiles.get(fileFirstEventId);
+            if (adjacencyFile == null) {
+                continue;
+            }
+
+            try (final AdjacencyFileReader reader = new AdjacencyFileReader(adjacencyFile)) {
+                for (final String uuid : flowFileUuids) {
+                    final List<Long> ids = reader.getEventIds(uuid, maxResults - count);
+                    if (ids.isEmpty()) {
+                        continue;
+                    }
+
+                    SortedSet<Long> fileEventIds = eventIds.get(fileFirstEventId);
+                    if (fileEventIds == null) {
+                        fileEventIds = new TreeSet<>();
+                        eventIds.put(fileFirstEventId, fileEventIds);
+                    }
+
+                    final int sizeBefore = fileEventIds.size();
+                    fileEventIds.addAll(ids);
+                    count += fileEventIds.size() - sizeBefore;
+                    if (count >= maxResults) {
+                        logger.warn("Found more than {} events linked to FlowFiles {}; only the first {} will be returned", maxResults, flowFileUuids, maxResults);
+                        return eventIds;
+                    }
+                }
+            } catch (final FileNotFoundException fnfe) {
+                // the file was aged off while we were looking at it
+                adjacencyFiles.remove(fileFirstEventId);
+            }
+        }
+
+        return eventIds;
+    }
+
+    /**
+     * @return the number of Adjacency Files in the index
+     */
+    public int getFileCount() {
+        return adjacencyFiles.size();
+    }
+
+    @Override
+    public String toString() {
+        return "AdjacencyIndex[files=" + adjacencyFiles.size() + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.adjacency;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.provenance.lucene.LuceneUtil;
+
+public class AdjacencyUtil {
+
+    /**
+     * Returns the file that should be used as the Adjacency File for the given Provenance Event Log File.
+     * Note, if no Adjacency File exists for the given file, a File will still be returned but the file
+     * will not actually exist.
+     *
+     * @param eventFile the Provenance Event Log File
+     * @return the file that holds the adjacency entries of the specified file
+     */
+    public static File getAdjacencyFile(final File eventFile) {
+        final File adjacencyDir = new File(eventFile.getParentFile(), "lineage");
+        final String basename = LuceneUtil.substringBefore(eventFile.getName(), ".");
+        return new File(adjacencyDir, basename + ".adj");
+    }
+
+    /**
+     * Returns the UUID's of the FlowFiles whose lineage includes the given event. These are the same UUID's that
+     * the event is indexed under for lineage queries: the UUID of the FlowFile itself, the children of a FORK,
+     * CLONE or REPLAY, the parents of a JOIN, and the UUID that a source system used for a received FlowFile.
+     *
+     * @param event the event
+     * @return the UUID's of the FlowFiles whose lineage includes the event, lower-cased
+     */
+    public static Set<String> getLinkedUuids(final ProvenanceEventRecord event) {
+        final Set<String> uuids = new LinkedHashSet<>();
+        uuids.add(event.getFlowFileUuid().toLowerCase());
+
+        final ProvenanceEventType eventType = event.getEventType();
+        if (eventType == ProvenanceEventType.FORK || eventType == ProvenanceEventType.CLONE || eventType == ProvenanceEventType.REPLAY) {
+            for (final String uuid : event.getChildUuids()) {
+                uuids.add(uuid.toLowerCase());
+            }
+        } else if (eventType == ProvenanceEventType.JOIN) {
+            for (final String uuid : event.getParentUuids()) {
+                uuids.add(uuid.toLowerCase());
+            }
+        } else if (eventType == ProvenanceEventType.RECEIVE && event.getSourceSystemFlowFileIdentifier() != null) {
+            final String sourceIdentifier = event.getSourceSystemFlowFileIdentifier();
+            final int lastColon = sourceIdentifier.lastIndexOf(":");
+            if (lastColon > -1 && lastColon < sourceIdentifier.length() - 2) {
+                uuids.add(sourceIdentifier.substring(lastColon + 1).toLowerCase());
+            }
+        }
+
+        return uuids;
+    }
+
+    /**
+     * Converts the given FlowFile UUID into the 128-bit key that is stored in the Adjacency Files. Identifiers that
+     * are not UUID's are hashed, so a lookup may return events that are not actually related to the identifier;
+     * callers are expected to check the events that they read.
+     *
+     * @param uuid the FlowFile UUID
+     * @return the key for the UUID
+     */
+    static UUID toKey(final String uuid) {
+        final String normalized = uuid.toLowerCase();
+        try {
+            return UUID.fromString(normalized);
+        } catch (final IllegalArgumentException iae) {
+            return UUID.nameUUIDFromBytes(normalized.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.nifi.provenance.expiration;
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.nifi.provenance.adjacency.AdjacencyUtil;
 import org.apache.nifi.provenance.lucene.DeleteIndexAction;
 import org.apache.nifi.provenance.toc.TocUtil;
 import org.slf4j.Logger;
@@ -44,6 +45,15 @@ public class FileRemovalAction implements ExpirationAction {
             logger.warn("Failed to remove old Provenance Table-of-Contents file {}; this file should be cleaned up manually", expiredFile);
         }
 
+        final File adjacencyFile = AdjacencyUtil.getAdjacencyFile(expiredFile);
+        if (adjacencyFile.exists()) {
+            if (remove(adjacencyFile)) {
+                logger.info("Removed expired Provenance Adjacency file {}", adjacencyFile);
+            } else {
+                logger.warn("Failed to remove old Provenance Adjacency file {}; this file should be cleaned up manually", adjacencyFile);
+            }
+        }
+
         return removed ? null : expiredFile;
     }
 
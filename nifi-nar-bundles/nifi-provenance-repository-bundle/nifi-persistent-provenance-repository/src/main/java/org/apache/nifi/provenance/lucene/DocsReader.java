@@ -40,7 +40,6 @@ import org.apache.nifi.provenance.toc.TocReader;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,12 +53,13 @@ class DocsReader {
             return Collections.emptySet();
         }
 
+        // Only load as many documents as may still be needed; other indices may have provided results while this one was searched.
         final long start = System.nanoTime();
-        final int numDocs = Math.min(topDocs.scoreDocs.length, maxResults);
-        final List<Document> docs = new ArrayList<>(numDocs);
+        final int numDocs = Math.min(topDocs.scoreDocs.length, maxResults - retrievalCount.get());
+        final List<Document> docs = new ArrayList<>(Math.max(numDocs, 0));
 
-        for (final ScoreDoc scoreDoc : topDocs.scoreDocs) {
-            final int docId = scoreDoc.doc;
+        for (int i = 0; i < numDocs; i++) {
+            final int docId = topDocs.scoreDocs[i].doc;
             final Document d = indexReader.document(docId);
             docs.add(d);
         }
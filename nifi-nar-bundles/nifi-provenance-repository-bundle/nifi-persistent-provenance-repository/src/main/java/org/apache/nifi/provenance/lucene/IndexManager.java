@@ -21,17 +21,22 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.IndexSearcher;
@@ -40,13 +45,63 @@ import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Manages the Index Writers and Index Searchers for the Lucene indices of the repository.
+ *
+ * <p>
+ * Index Writers are shared by all threads that are updating the same index and are closed,
+ * committing their changes, once the last borrower has returned them. Index Searchers are
+ * shared as well: a single reader is cached for each index directory and is refreshed via
+ * {@link DirectoryReader#openIfChanged(DirectoryReader, IndexWriter, boolean)} while a writer
+ * is open, so that searches see events as soon as they are indexed (near-real-time) without
+ * paying the cost of opening the index again. Only unchanged segments are shared between a
+ * reader and its refreshed replacement. The readers of the most recently used index directories
+ * are kept open, up to a configurable maximum, and the reader for an index whose writer is
+ * closed is re-opened in the background so that the first search after a rollover does not
+ * have to wait for it.
+ * </p>
+ */
 public class IndexManager implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
 
+    public static final int DEFAULT_MAX_CACHED_SEARCHERS = 32;
+
     private final Lock lock = new ReentrantLock();
     private final Map<File, IndexWriterCount> writerCounts = new HashMap<>();
-    private final Map<File, List<ActiveIndexSearcher>> activeSearchers = new HashMap<>();
 
+    // access-ordered so that the least recently used index is evicted first
+    private final Map<File, CachedIndex> cachedIndices = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<IndexSearcher, SearcherGeneration> generations = new IdentityHashMap<>();
+    private final int maxCachedSearchers;
+    private final ExecutorService warmingExecutor;
+    private boolean closed = false;
+
+    private final AtomicLong searcherHits = new AtomicLong(0L);
+    private final AtomicLong searcherMisses = new AtomicLong(0L);
+    private final AtomicLong searcherRefreshes = new AtomicLong(0L);
+    private final AtomicLong searcherEvictions = new AtomicLong(0L);
+    private final AtomicLong searcherWarmings = new AtomicLong(0L);
+
+    public IndexManager() {
+        this(DEFAULT_MAX_CACHED_SEARCHERS);
+    }
+
+    public IndexManager(final int maxCachedSearchers) {
+        if (maxCachedSearchers < 1) {
+            throw new IllegalArgumentException("Maximum number of cached Index Searchers must be at least 1");
+        }
+
+        this.maxCachedSearchers = maxCachedSearchers;
+        this.warmingExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("Provenance Index Warming Thread");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
 
     public void removeIndex(final File indexDirectory) {
         final File absoluteFile = indexDirectory.getAbsoluteFile();
@@ -66,18 +121,10 @@ public class IndexManager implements Closeable {
                 }
             }
 
-            for ( final List<ActiveIndexSearcher> searcherList : activeSearchers.values() ) {
-                for ( final ActiveIndexSearcher searcher : searcherList ) {
-                    try {
-                        searcher.close();
-                    } catch (final IOException ioe) {
-                        logger.warn("Failed to close Index Searcher {} for {} due to {}",
-                                searcher.getSearcher(), absoluteFile, ioe);
-                        if ( logger.isDebugEnabled() ) {
-                            logger.warn("", ioe);
-                        }
-                    }
-                }
+            // Searchers that are currently borrowed remain usable; their readers are closed once they are returned.
+            final CachedIndex cached = cachedIndices.remove(absoluteFile);
+            if ( cached != null ) {
+                cached.remove();
             }
         } finally {
             lock.unlock();
@@ -120,17 +167,11 @@ public class IndexManager implements Closeable {
 
                 writerCounts.put(absoluteFile, writerCount);
 
-                // Mark any active searchers as poisoned because we are updating the index
-                final List<ActiveIndexSearcher> searchers = activeSearchers.get(absoluteFile);
-                if ( searchers != null ) {
-                    for (final ActiveIndexSearcher activeSearcher : searchers) {
-                        activeSearcher.poison();
-                    }
-                }
+                // Mark the cached searcher as stale so that it is next refreshed from the new writer
+                markStale(absoluteFile);
             } else {
                 logger.debug("Providing existing index writer for {} and incrementing count to {}", indexingDirectory, writerCount.getCount() + 1);
-                writerCounts.put(absoluteFile, new IndexWriterCount(writerCount.getWriter(),
-                        writerCount.getAnalyzer(), writerCount.getDirectory(), writerCount.getCount() + 1));
+                writerCounts.put(absoluteFile, writerCount.increment());
             }
 
             return writerCount.getWriter();
@@ -152,14 +193,9 @@ public class IndexManager implements Closeable {
                     logger.warn("Index Writer {} was returned to IndexManager for {}, but this writer is not known. "
                             + "This could potentially lead to a resource leak", writer, indexingDirectory);
                     writer.close();
-                } else if ( count.getCount() <= 1 ) {
-                    // we are finished with this writer.
-                    logger.debug("Closing Index Writer for {}", indexingDirectory);
-                    count.close();
+                    markStale(absoluteFile);
                 } else {
-                    // decrement the count.
-                    logger.debug("Decrementing count for Index Writer for {} to {}", indexingDirectory, count.getCount() - 1);
-                    writerCounts.put(absoluteFile, new IndexWriterCount(count.getWriter(), count.getAnalyzer(), count.getDirectory(), count.getCount() - 1));
+                    decrementWriterCount(absoluteFile, count);
                 }
             } catch (final IOException ioe) {
                 logger.warn("Failed to close Index Writer {} due to {}", writer, ioe);
@@ -172,108 +208,165 @@ public class IndexManager implements Closeable {
         }
     }
 
+    /**
+     * Decrements the number of references to the given writer, closing the writer when the last reference
+     * has been released. Closing the writer commits the index, so the cached searcher for the index is then
+     * marked stale and re-opened in the background. Must be called while holding the lock, after the count
+     * has been removed from the writer counts.
+     */
+    private void decrementWriterCount(final File absoluteFile, final IndexWriterCount count) throws IOException {
+        if ( count.getCount() <= 1 ) {
+            // we are finished with this writer.
+            logger.debug("Closing Index Writer for {}", absoluteFile);
+            try {
+                count.close();
+            } finally {
+                markStale(absoluteFile);
+                scheduleWarming(absoluteFile);
+            }
+        } else {
+            logger.debug("Decrementing count for Index Writer for {} to {}", absoluteFile, count.getCount() - 1);
+            writerCounts.put(absoluteFile, count.decrement());
+        }
+    }
+
+    private void markStale(final File absoluteFile) {
+        // use containsKey first so that the access order of the cache is not updated
+        if ( cachedIndices.containsKey(absoluteFile) ) {
+            cachedIndices.get(absoluteFile).markStale();
+        }
+    }
+
 
     public IndexSearcher borrowIndexSearcher(final File indexDir) throws IOException {
-        final File absoluteFile = indexDir.getAbsoluteFile();
         logger.debug("Borrowing index searcher for {}", indexDir);
+        return acquireSearcher(indexDir.getAbsoluteFile(), true);
+    }
 
+    private IndexSearcher acquireSearcher(final File absoluteFile, final boolean countRequest) throws IOException {
         lock.lock();
         try {
-            // check if we already have a reader cached.
-            List<ActiveIndexSearcher> currentlyCached = activeSearchers.get(absoluteFile);
-            if ( currentlyCached == null ) {
-                currentlyCached = new ArrayList<>();
-                activeSearchers.put(absoluteFile, currentlyCached);
-            } else {
-                // keep track of any searchers that have been closed so that we can remove them
-                // from our cache later.
-                final Set<ActiveIndexSearcher> expired = new HashSet<>();
+            final IndexWriterCount writerCount = writerCounts.get(absoluteFile);
 
+            CachedIndex cached = cachedIndices.get(absoluteFile);
+            if ( cached == null ) {
+                if ( countRequest ) {
+                    searcherMisses.incrementAndGet();
+                }
+
+                cached = new CachedIndex(absoluteFile);
                 try {
-                    for ( final ActiveIndexSearcher searcher : currentlyCached ) {
-                        if ( searcher.isCache() ) {
-                            // if the searcher is poisoned, we want to close and expire it.
-                            if ( searcher.isPoisoned() ) {
-                                logger.debug("Index Searcher for {} is poisoned; removing cached searcher", absoluteFile);
-                                expired.add(searcher);
-                                continue;
-                            }
-
-                            // if there are no references to the reader, it will have been closed. Since there is no
-                            // isClosed() method, this is how we determine whether it's been closed or not.
-                            final int refCount = searcher.getSearcher().getIndexReader().getRefCount();
-                            if ( refCount <= 0 ) {
-                                // if refCount == 0, then the reader has been closed, so we need to discard the searcher
-                                logger.debug("Reference count for cached Index Searcher for {} is currently {}; "
-                                        + "removing cached searcher", absoluteFile, refCount);
-                                expired.add(searcher);
-                                continue;
-                            }
-
-                            logger.debug("Providing previously cached index searcher for {}", indexDir);
-                            return searcher.getSearcher();
-                        }
+                    if ( writerCount == null ) {
+                        logger.debug("No Index Writer currently exists for {}; opening reader from directory", absoluteFile);
+                        cached.install(DirectoryReader.open(cached.getDirectory()));
+                    } else {
+                        // If we get the "no segments* file found" with Lucene, this indicates that an IndexWriter
+                        // already has the directory open, so we obtain the reader from the writer instead.
+                        logger.debug("Index Writer currently exists for {}; opening near-real-time reader from writer", absoluteFile);
+                        cached.install(DirectoryReader.open(writerCount.getWriter(), false));
                     }
-                } finally {
-                    // if we have any expired index searchers, we need to close them and remove them
-                    // from the cache so that we don't try to use them again later.
-                    for ( final ActiveIndexSearcher searcher : expired ) {
-                        try {
-                            searcher.close();
-                        } catch (final Exception e) {
-                            logger.debug("Failed to close 'expired' IndexSearcher {}", searcher);
-                        }
+                } catch (final IOException ioe) {
+                    cached.remove();
+                    throw ioe;
+                }
 
-                        currentlyCached.remove(searcher);
+                cachedIndices.put(absoluteFile, cached);
+                evictIfNecessary();
+            } else if ( cached.isStale() || writerCount != null ) {
+                final DirectoryReader refreshed = refresh(cached, writerCount);
+                if ( refreshed == null ) {
+                    logger.debug("Cached Index Searcher for {} is current", absoluteFile);
+                    if ( countRequest ) {
+                        searcherHits.incrementAndGet();
                     }
+                } else {
+                    logger.debug("Refreshed cached Index Searcher for {}", absoluteFile);
+                    searcherRefreshes.incrementAndGet();
+                    cached.install(refreshed);
+                }
+            } else {
+                logger.debug("Providing previously cached index searcher for {}", absoluteFile);
+                if ( countRequest ) {
+                    searcherHits.incrementAndGet();
                 }
             }
 
-            final IndexWriterCount writerCount = writerCounts.remove(absoluteFile);
-            if ( writerCount == null ) {
-                final Directory directory = FSDirectory.open(absoluteFile);
-                logger.debug("No Index Writer currently exists for {}; creating a cachable reader", indexDir);
+            final SearcherGeneration generation = cached.getGeneration();
+            generation.getReader().incRef();
 
-                try {
-                    final DirectoryReader directoryReader = DirectoryReader.open(directory);
-                    final IndexSearcher searcher = new IndexSearcher(directoryReader);
+            if ( generation.isNearRealTime() ) {
+                // increment the writer count to ensure that it's kept open while the reader is in use.
+                writerCounts.put(absoluteFile, writerCount.increment());
+            }
 
-                    // we want to cache the searcher that we create, since it's just a reader.
-                    final ActiveIndexSearcher cached = new ActiveIndexSearcher(searcher, directoryReader, directory, true);
-                    currentlyCached.add(cached);
+            return generation.getSearcher();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                    return cached.getSearcher();
-                } catch (final IOException e) {
-                    try {
-                        directory.close();
-                    } catch (final IOException ioe) {
-                        e.addSuppressed(ioe);
-                    }
+    /**
+     * @return a refreshed reader for the given cached index, or <code>null</code> if the cached reader is current
+     */
+    private DirectoryReader refresh(final CachedIndex cached, final IndexWriterCount writerCount) throws IOException {
+        final SearcherGeneration generation = cached.getGeneration();
+        final DirectoryReader refreshed;
+        if ( writerCount != null ) {
+            // if the reader was obtained from this writer, only new or changed segments are opened
+            refreshed = DirectoryReader.openIfChanged(generation.getReader(), writerCount.getWriter(), false);
+        } else if ( generation.isNearRealTime() ) {
+            // the writer that the reader was obtained from has been closed, along with its Directory.
+            refreshed = DirectoryReader.open(cached.getDirectory());
+        } else {
+            refreshed = DirectoryReader.openIfChanged(generation.getReader());
+        }
 
-                    throw e;
-                }
-            } else {
-                logger.debug("Index Writer currently exists for {}; creating a non-cachable reader and incrementing "
-                        + "counter to {}", indexDir, writerCount.getCount() + 1);
-
-                // increment the writer count to ensure that it's kept open.
-                writerCounts.put(absoluteFile, new IndexWriterCount(writerCount.getWriter(),
-                        writerCount.getAnalyzer(), writerCount.getDirectory(), writerCount.getCount() + 1));
-
-                // create a new Index Searcher from the writer so that we don't have an issue with trying
-                // to read from a directory that's locked. If we get the "no segments* file found" with
-                // Lucene, this indicates that an IndexWriter already has the directory open.
-                final IndexWriter writer = writerCount.getWriter();
-                final DirectoryReader directoryReader = DirectoryReader.open(writer, false);
-                final IndexSearcher searcher = new IndexSearcher(directoryReader);
-
-                // we don't want to cache this searcher because it's based on a writer, so we want to get
-                // new values the next time that we search.
-                final ActiveIndexSearcher activeSearcher = new ActiveIndexSearcher(searcher, directoryReader, null, false);
-
-                currentlyCached.add(activeSearcher);
-                return activeSearcher.getSearcher();
+        cached.clearStale();
+        return refreshed;
+    }
+
+    private void evictIfNecessary() {
+        final Iterator<CachedIndex> itr = cachedIndices.values().iterator();
+        while ( cachedIndices.size() > maxCachedSearchers && itr.hasNext() ) {
+            final CachedIndex eldest = itr.next();
+            itr.remove();
+
+            logger.debug("Evicting cached Index Searcher for {}", eldest.getIndexDirectory());
+            searcherEvictions.incrementAndGet();
+            eldest.remove();
+        }
+    }
+
+    private void scheduleWarming(final File absoluteFile) {
+        if ( closed ) {
+            return;
+        }
+
+        warmingExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                warm(absoluteFile);
             }
+        });
+    }
+
+    private void warm(final File absoluteFile) {
+        if ( !absoluteFile.exists() ) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if ( closed ) {
+                return;
+            }
+
+            final IndexSearcher searcher = acquireSearcher(absoluteFile, false);
+            searcherWarmings.incrementAndGet();
+            logger.debug("Warmed Index Searcher for {}", absoluteFile);
+            releaseSearcher(absoluteFile, searcher);
+        } catch (final IOException ioe) {
+            logger.debug("Failed to warm Index Searcher for {} due to {}", absoluteFile, ioe.toString());
         } finally {
             lock.unlock();
         }
@@ -281,89 +374,90 @@ public class IndexManager implements Closeable {
 
 
     public void returnIndexSearcher(final File indexDirectory, final IndexSearcher searcher) {
-        final File absoluteFile = indexDirectory.getAbsoluteFile();
         logger.debug("Returning index searcher for {} to IndexManager", indexDirectory);
+        releaseSearcher(indexDirectory.getAbsoluteFile(), searcher);
+    }
 
+    private void releaseSearcher(final File absoluteFile, final IndexSearcher searcher) {
         lock.lock();
         try {
-            // check if we already have a reader cached.
-            final List<ActiveIndexSearcher> currentlyCached = activeSearchers.get(absoluteFile);
-            if ( currentlyCached == null ) {
+            final SearcherGeneration generation = generations.get(searcher);
+            if ( generation == null ) {
                 logger.warn("Received Index Searcher for {} but no searcher was provided for that directory; this could "
-                        + "result in a resource leak", indexDirectory);
+                        + "result in a resource leak", absoluteFile);
                 return;
             }
 
-            // Check if the given searcher is in our list. We use an Iterator to do this so that if we
-            // find it we can call remove() on the iterator if need be.
-            final Iterator<ActiveIndexSearcher> itr = currentlyCached.iterator();
-            while (itr.hasNext()) {
-                final ActiveIndexSearcher activeSearcher = itr.next();
-                if ( activeSearcher.getSearcher().equals(searcher) ) {
-                    if ( activeSearcher.isCache() ) {
-                        // if the searcher is poisoned, close it and remove from "pool".
-                        if ( activeSearcher.isPoisoned() ) {
-                            itr.remove();
-
-                            try {
-                                logger.debug("Closing Index Searcher for {} because it is poisoned", indexDirectory);
-                                activeSearcher.close();
-                            } catch (final IOException ioe) {
-                                logger.warn("Failed to close Index Searcher for {} due to {}", absoluteFile, ioe);
-                                if ( logger.isDebugEnabled() ) {
-                                    logger.warn("", ioe);
-                                }
-                            }
-
-                            return;
-                        } else {
-                            // the searcher is cached. Just leave it open.
-                            logger.debug("Index searcher for {} is cached; leaving open", indexDirectory);
-                            return;
-                        }
-                    } else {
-                        // searcher is not cached. It was created from a writer, and we want
-                        // the newest updates the next time that we get a searcher, so we will
-                        // go ahead and close this one out.
-                        itr.remove();
-
-                        // decrement the writer count because we incremented it when creating the searcher
-                        final IndexWriterCount writerCount = writerCounts.remove(absoluteFile);
-                        if ( writerCount != null ) {
-                            if ( writerCount.getCount() <= 1 ) {
-                                try {
-                                    logger.debug("Index searcher for {} is not cached. Writer count is "
-                                            + "decremented to {}; closing writer", indexDirectory, writerCount.getCount() - 1);
-
-                                    writerCount.close();
-                                } catch (final IOException ioe) {
-                                    logger.warn("Failed to close Index Writer for {} due to {}", absoluteFile, ioe);
-                                    if ( logger.isDebugEnabled() ) {
-                                        logger.warn("", ioe);
-                                    }
-                                }
-                            } else {
-                                logger.debug("Index searcher for {} is not cached. Writer count is decremented "
-                                        + "to {}; leaving writer open", indexDirectory, writerCount.getCount() - 1);
-
-                                writerCounts.put(absoluteFile, new IndexWriterCount(writerCount.getWriter(),
-                                        writerCount.getAnalyzer(), writerCount.getDirectory(),
-                                        writerCount.getCount() - 1));
-                            }
-                        }
-
-                        try {
-                            logger.debug("Closing Index Searcher for {}", indexDirectory);
-                            activeSearcher.close();
-                        } catch (final IOException ioe) {
-                            logger.warn("Failed to close Index Searcher for {} due to {}", absoluteFile, ioe);
-                            if ( logger.isDebugEnabled() ) {
-                                logger.warn("", ioe);
-                            }
+            if ( generation.isNearRealTime() ) {
+                // decrement the writer count because we incremented it when providing the searcher
+                final IndexWriterCount writerCount = writerCounts.remove(absoluteFile);
+                if ( writerCount != null ) {
+                    try {
+                        decrementWriterCount(absoluteFile, writerCount);
+                    } catch (final IOException ioe) {
+                        logger.warn("Failed to close Index Writer for {} due to {}", absoluteFile, ioe);
+                        if ( logger.isDebugEnabled() ) {
+                            logger.warn("", ioe);
                         }
                     }
                 }
             }
+
+            try {
+                generation.getReader().decRef();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to close Index Searcher for {} due to {}", absoluteFile, ioe);
+                if ( logger.isDebugEnabled() ) {
+                    logger.warn("", ioe);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of Index Searchers that were served from the cache without opening or refreshing a reader
+     */
+    public long getSearcherHitCount() {
+        return searcherHits.get();
+    }
+
+    /**
+     * @return the number of Index Searchers that required a reader to be opened because none was cached
+     */
+    public long getSearcherMissCount() {
+        return searcherMisses.get();
+    }
+
+    /**
+     * @return the number of times that a cached reader was replaced by a refreshed reader
+     */
+    public long getSearcherRefreshCount() {
+        return searcherRefreshes.get();
+    }
+
+    /**
+     * @return the number of cached readers that were closed because too many indices were being searched
+     */
+    public long getSearcherEvictionCount() {
+        return searcherEvictions.get();
+    }
+
+    /**
+     * @return the number of times that a reader was re-opened in the background after its Index Writer was closed
+     */
+    public long getSearcherWarmingCount() {
+        return searcherWarmings.get();
+    }
+
+    /**
+     * @return the number of index directories for which a reader is currently cached
+     */
+    public int getCachedSearcherCount() {
+        lock.lock();
+        try {
+            return cachedIndices.size();
         } finally {
             lock.unlock();
         }
@@ -375,6 +469,9 @@ public class IndexManager implements Closeable {
 
         lock.lock();
         try {
+            closed = true;
+            warmingExecutor.shutdownNow();
+
             IOException ioe = null;
 
             for ( final IndexWriterCount count : writerCounts.values() ) {
@@ -388,20 +485,12 @@ public class IndexManager implements Closeable {
                     }
                 }
             }
+            writerCounts.clear();
 
-            for (final List<ActiveIndexSearcher> searcherList : activeSearchers.values()) {
-                for (final ActiveIndexSearcher searcher : searcherList) {
-                    try {
-                        searcher.close();
-                    } catch (final IOException e) {
-                        if ( ioe == null ) {
-                            ioe = e;
-                        } else {
-                            ioe.addSuppressed(e);
-                        }
-                    }
-                }
+            for ( final CachedIndex cached : cachedIndices.values() ) {
+                cached.remove();
             }
+            cachedIndices.clear();
 
             if ( ioe != null ) {
                 throw ioe;
@@ -436,40 +525,139 @@ public class IndexManager implements Closeable {
     }
 
 
-    private static class ActiveIndexSearcher implements Closeable {
-        private final IndexSearcher searcher;
-        private final DirectoryReader directoryReader;
-        private final Directory directory;
-        private final boolean cache;
-        private boolean poisoned = false;
+    /**
+     * The reader that is cached for an index directory. The cache holds one reference to the current
+     * reader, and each borrowed searcher holds another, so that a reader is closed once it has been
+     * replaced or evicted and the last searcher using it has been returned. All methods must be called
+     * while holding the lock of the IndexManager.
+     */
+    private class CachedIndex {
+        private final File indexDirectory;
+        private Directory directory;
+        private int openDirectoryReaders = 0;
+        private SearcherGeneration generation;
+        private boolean stale = false;
+        private boolean removed = false;
+
+        public CachedIndex(final File indexDirectory) {
+            this.indexDirectory = indexDirectory;
+        }
 
-        public ActiveIndexSearcher(final IndexSearcher searcher, final DirectoryReader directoryReader,
-                final Directory directory, final boolean cache) {
-            this.searcher = searcher;
-            this.directoryReader = directoryReader;
-            this.directory = directory;
-            this.cache = cache;
+        public File getIndexDirectory() {
+            return indexDirectory;
         }
 
-        public boolean isCache() {
-            return cache;
+        /**
+         * @return the Directory from which readers are opened while no Index Writer exists for the index
+         */
+        public Directory getDirectory() throws IOException {
+            if ( directory == null ) {
+                directory = FSDirectory.open(indexDirectory);
+            }
+            return directory;
         }
 
-        public IndexSearcher getSearcher() {
-            return searcher;
+        public SearcherGeneration getGeneration() {
+            return generation;
         }
 
-        public boolean isPoisoned() {
-            return poisoned;
+        public boolean isStale() {
+            return stale;
         }
 
-        public void poison() {
-            this.poisoned = true;
+        public void markStale() {
+            stale = true;
         }
 
-        @Override
-        public void close() throws IOException {
-            IndexManager.close(directoryReader, directory);
+        public void clearStale() {
+            stale = false;
+        }
+
+        public void install(final DirectoryReader reader) {
+            final boolean nearRealTime = reader.directory() != directory;
+            final SearcherGeneration previous = generation;
+            generation = new SearcherGeneration(new IndexSearcher(reader), reader, nearRealTime);
+
+            final IndexSearcher searcher = generation.getSearcher();
+            generations.put(searcher, generation);
+            if ( !nearRealTime ) {
+                openDirectoryReaders++;
+            }
+
+            reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                @Override
+                public void onClose(final IndexReader closedReader) {
+                    generations.remove(searcher);
+                    if ( !nearRealTime ) {
+                        openDirectoryReaders--;
+                        closeDirectoryIfUnused();
+                    }
+                }
+            });
+
+            if ( previous != null ) {
+                release(previous);
+            }
+        }
+
+        public void remove() {
+            removed = true;
+            if ( generation != null ) {
+                release(generation);
+                generation = null;
+            }
+            closeDirectoryIfUnused();
+        }
+
+        private void release(final SearcherGeneration released) {
+            try {
+                released.getReader().decRef();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to close Index Searcher for {} due to {}", indexDirectory, ioe);
+                if ( logger.isDebugEnabled() ) {
+                    logger.warn("", ioe);
+                }
+            }
+        }
+
+        private void closeDirectoryIfUnused() {
+            if ( removed && openDirectoryReaders == 0 && directory != null ) {
+                try {
+                    directory.close();
+                } catch (final IOException ioe) {
+                    logger.warn("Failed to close Directory for {} due to {}", indexDirectory, ioe);
+                }
+                directory = null;
+            }
+        }
+    }
+
+
+    private static class SearcherGeneration {
+        private final IndexSearcher searcher;
+        private final DirectoryReader reader;
+        private final boolean nearRealTime;
+
+        public SearcherGeneration(final IndexSearcher searcher, final DirectoryReader reader, final boolean nearRealTime) {
+            this.searcher = searcher;
+            this.reader = reader;
+            this.nearRealTime = nearRealTime;
+        }
+
+        public IndexSearcher getSearcher() {
+            return searcher;
+        }
+
+        public DirectoryReader getReader() {
+            return reader;
+        }
+
+        /**
+         * @return <code>true</code> if the reader was obtained from an Index Writer, in which case the writer
+         *         must be kept open while the reader is in use
+         */
+        public boolean isNearRealTime() {
+            return nearRealTime;
         }
     }
 
@@ -503,6 +691,14 @@ public class IndexManager implements Closeable {
             return count;
         }
 
+        public IndexWriterCount increment() {
+            return new IndexWriterCount(writer, analyzer, directory, count + 1);
+        }
+
+        public IndexWriterCount decrement() {
+            return new IndexWriterCount(writer, analyzer, directory, count - 1);
+        }
+
         @Override
         public void close() throws IOException {
             IndexManager.close(writer, analyzer, directory);
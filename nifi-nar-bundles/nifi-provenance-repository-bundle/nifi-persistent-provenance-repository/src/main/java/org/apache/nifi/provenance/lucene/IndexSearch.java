@@ -92,7 +92,9 @@ public class IndexSearch {
             final long searchStartNanos = System.nanoTime();
             final long openSearcherNanos = searchStartNanos - start;
 
-            final TopDocs topDocs = searcher.search(luceneQuery, provenanceQuery.getMaxResults());
+            // other indices may already have provided some of the results, so we only need enough hits to make up the difference
+            final int hitsNeeded = Math.max(1, provenanceQuery.getMaxResults() - retrievedCount.get());
+            final TopDocs topDocs = searcher.search(luceneQuery, hitsNeeded);
             final long finishSearch = System.nanoTime();
             final long searchNanos = finishSearch - searchStartNanos;
 
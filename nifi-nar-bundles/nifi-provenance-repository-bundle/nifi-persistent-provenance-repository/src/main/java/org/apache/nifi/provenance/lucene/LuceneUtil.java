@@ -150,7 +150,7 @@ public class LuceneUtil {
                 }
 
                 final IndexableField fileOffset1 = o1.getField(FieldNames.BLOCK_INDEX);
-                final IndexableField fileOffset2 = o1.getField(FieldNames.BLOCK_INDEX);
+                final IndexableField fileOffset2 = o2.getField(FieldNames.BLOCK_INDEX);
                 if ( fileOffset1 != null && fileOffset2 != null ) {
                     final int blockIndexResult = Long.compare(fileOffset1.numericValue().longValue(), fileOffset2.numericValue().longValue());
                     if ( blockIndexResult != 0 ) {
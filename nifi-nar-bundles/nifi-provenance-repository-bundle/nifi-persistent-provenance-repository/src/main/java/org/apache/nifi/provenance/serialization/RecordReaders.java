@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collection;
 
+import org.apache.nifi.provenance.ColumnarRecordReader;
 import org.apache.nifi.provenance.StandardRecordReader;
 import org.apache.nifi.provenance.lucene.LuceneUtil;
 import org.apache.nifi.provenance.toc.StandardTocReader;
@@ -44,6 +45,21 @@ public class RecordReaders {
      * @throws IOException if unable to create a Record Reader for the given file
      */
     public static RecordReader newRecordReader(File file, final Collection<Path> provenanceLogFiles, final int maxAttributeChars) throws IOException {
+        return newRecordReader(file, provenanceLogFiles, maxAttributeChars, null);
+    }
+
+    /**
+     * Creates a new Record Reader that is capable of reading Provenance Event Journals, using the given Table of Contents
+     * rather than reading the Table of Contents file that corresponds to the journal
+     *
+     * @param file the Provenance Event Journal to read data from
+     * @param provenanceLogFiles collection of all provenance journal files
+     * @param maxAttributeChars the maximum number of characters to retrieve for any one attribute
+     * @param tocReader the Table of Contents for the journal, or <code>null</code> to read the journal's Table of Contents file
+     * @return a Record Reader capable of reading Provenance Event Journals
+     * @throws IOException if unable to create a Record Reader for the given file
+     */
+    public static RecordReader newRecordReader(File file, final Collection<Path> provenanceLogFiles, final int maxAttributeChars, final TocReader tocReader) throws IOException {
         final File originalFile = file;
         InputStream fis = null;
 
@@ -101,9 +117,22 @@ public class RecordReaders {
             }
 
             final File tocFile = TocUtil.getTocFile(file);
-            if ( tocFile.exists() ) {
-                final TocReader tocReader = new StandardTocReader(tocFile);
+            if ( ColumnarRecordReader.isColumnarFile(file) ) {
+                if ( tocReader != null ) {
+                    return new ColumnarRecordReader(fis, filename, tocReader, maxAttributeChars);
+                } else if ( tocFile.exists() ) {
+                    return new ColumnarRecordReader(fis, filename, new StandardTocReader(tocFile), maxAttributeChars);
+                } else {
+                    return new ColumnarRecordReader(fis, filename, maxAttributeChars);
+                }
+            }
+
+            if ( tocReader != null ) {
                 return new StandardRecordReader(fis, filename, tocReader, maxAttributeChars);
+            }
+
+            if ( tocFile.exists() ) {
+                return new StandardRecordReader(fis, filename, new StandardTocReader(tocFile), maxAttributeChars);
             } else {
                 return new StandardRecordReader(fis, filename, maxAttributeChars);
             }
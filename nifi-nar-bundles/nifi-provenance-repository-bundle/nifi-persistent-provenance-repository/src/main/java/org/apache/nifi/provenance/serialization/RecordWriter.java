@@ -43,6 +43,12 @@ public interface RecordWriter extends Closeable {
      */
     long writeRecord(ProvenanceEventRecord record, long recordIdentifier) throws IOException;
 
+    /**
+     * @return the offset of the record that was most recently written, as a {@link RecordReader} reports it in the storage
+     *         location of that record, or <code>-1</code> if no record has been written
+     */
+    long getLastRecordOffset();
+
     /**
      * @return the number of Records that have been written to this RecordWriter
      */
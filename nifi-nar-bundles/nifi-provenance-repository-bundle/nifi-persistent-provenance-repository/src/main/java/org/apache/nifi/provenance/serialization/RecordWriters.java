@@ -19,6 +19,7 @@ package org.apache.nifi.provenance.serialization;
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.nifi.provenance.ColumnarRecordWriter;
 import org.apache.nifi.provenance.StandardRecordWriter;
 import org.apache.nifi.provenance.toc.StandardTocWriter;
 import org.apache.nifi.provenance.toc.TocUtil;
@@ -36,4 +37,13 @@ public class RecordWriters {
         return new StandardRecordWriter(file, tocWriter, compressed, compressionBlockBytes);
     }
 
+    public static RecordWriter newColumnarRecordWriter(final File file, final boolean compressed, final boolean createToc) throws IOException {
+        return newColumnarRecordWriter(file, compressed, createToc, DEFAULT_COMPRESSION_BLOCK_SIZE);
+    }
+
+    public static RecordWriter newColumnarRecordWriter(final File file, final boolean compressed, final boolean createToc, final int compressionBlockBytes) throws IOException {
+        final TocWriter tocWriter = createToc ? new StandardTocWriter(TocUtil.getTocFile(file), false, false) : null;
+        return new ColumnarRecordWriter(file, tocWriter, compressed, compressionBlockBytes);
+    }
+
 }
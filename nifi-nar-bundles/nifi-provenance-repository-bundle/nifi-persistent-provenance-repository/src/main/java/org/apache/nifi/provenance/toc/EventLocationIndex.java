@@ -0,0 +1,418 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.toc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A persistent, memory-mapped index of the blocks of all Provenance Event Log Files, sorted by the ID of the first event in
+ * each block. This allows the block that contains an event to be found without determining which file may contain the event
+ * and then reading that file's Table of Contents, so that retrieving an event by ID requires only opening the file and skipping
+ * to the block.
+ * </p>
+ *
+ * <p>
+ * The index assumes that the ranges of event ID's contained in the files do not overlap, as is the case for the files that are
+ * created by merging journals when the repository rolls over.
+ * </p>
+ *
+ * Format of the index file:
+ * <pre>
+ * int: version
+ * int: number of entries
+ * for each entry, sorted by the ID of the first event in the block:
+ *     long: ID of the first event in the block
+ *     long: ID of the first event in the file, which identifies the file
+ *     long: byte offset of the block in the file
+ *     int: index of the block in the file
+ *     int: flags; bit 0 is set if the file is compressed
+ * </pre>
+ */
+public class EventLocationIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EventLocationIndex.class);
+
+    public static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+    static final int ENTRY_LENGTH = 32;
+    private static final int INITIAL_CAPACITY = 1024; // number of entries
+    private static final int COMPRESSED_FLAG = 1;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int entryCount;
+
+    public EventLocationIndex(final File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+
+        final long length = channel.size();
+        map(Math.max(length, HEADER_LENGTH + (long) INITIAL_CAPACITY * ENTRY_LENGTH));
+
+        final int version = buffer.getInt(0);
+        final int count = buffer.getInt(4);
+        if (length == 0L) {
+            writeHeader(0);
+        } else if (version != VERSION || count < 0 || HEADER_LENGTH + (long) count * ENTRY_LENGTH > length) {
+            logger.warn("Event Location Index {} is not valid; the index will be rebuilt", file);
+            writeHeader(0);
+        } else {
+            entryCount = count;
+        }
+    }
+
+    private void map(final long capacity) throws IOException {
+        buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void writeHeader(final int count) {
+        buffer.putInt(0, VERSION);
+        buffer.putInt(4, count);
+        entryCount = count;
+    }
+
+    private int position(final int entryIndex) {
+        return HEADER_LENGTH + entryIndex * ENTRY_LENGTH;
+    }
+
+    private long getBlockFirstEventId(final int entryIndex) {
+        return buffer.getLong(position(entryIndex));
+    }
+
+    private long getFileFirstEventId(final int entryIndex) {
+        return buffer.getLong(position(entryIndex) + 8);
+    }
+
+    /**
+     * Adds the blocks of the given Provenance Event Log File to the index
+     *
+     * @param fileFirstEventId the ID of the first event in the file
+     * @param tocReader the Table of Contents of the file
+     * @throws IOException if unable to update the index
+     */
+    public synchronized void addFile(final long fileFirstEventId, final TocReader tocReader) throws IOException {
+        final List<Long> blockOffsets = new ArrayList<>();
+        final List<Long> blockFirstEventIds = new ArrayList<>();
+        for (int i = 0; tocReader.getBlockOffset(i) >= 0; i++) {
+            final long tocEventId = tocReader.getFirstEventIdForBlock(i);
+            if (tocEventId < 0) {
+                // the Table of Contents does not contain event ID's, so we cannot index the file
+                return;
+            }
+
+            // When journals are merged, the first block of the merged file is recorded in the Table of Contents as
+            // starting with Event ID 0, so we never allow a block to start before the file does.
+            blockOffsets.add(tocReader.getBlockOffset(i));
+            blockFirstEventIds.add(Math.max(tocEventId, fileFirstEventId));
+        }
+
+        final int numBlocks = blockOffsets.size();
+        if (numBlocks == 0) {
+            return;
+        }
+
+        ensureCapacity(entryCount + numBlocks);
+
+        // Files are normally added in order of their event ID's, in which case this appends to the end of the index.
+        // If files are rolled over concurrently, though, they may complete out of order, so we shift any later entries.
+        final int insertionIndex = getInsertionIndex(blockFirstEventIds.get(0));
+        if (insertionIndex < entryCount) {
+            final byte[] tail = new byte[(entryCount - insertionIndex) * ENTRY_LENGTH];
+            buffer.position(position(insertionIndex));
+            buffer.get(tail);
+            buffer.position(position(insertionIndex + numBlocks));
+            buffer.put(tail);
+        }
+
+        final int flags = tocReader.isCompressed() ? COMPRESSED_FLAG : 0;
+        for (int i = 0; i < numBlocks; i++) {
+            final int position = position(insertionIndex + i);
+            buffer.putLong(position, blockFirstEventIds.get(i));
+            buffer.putLong(position + 8, fileFirstEventId);
+            buffer.putLong(position + 16, blockOffsets.get(i));
+            buffer.putInt(position + 24, i);
+            buffer.putInt(position + 28, flags);
+        }
+
+        buffer.putInt(4, entryCount + numBlocks);
+        entryCount += numBlocks;
+        buffer.force();
+    }
+
+    private void ensureCapacity(final int entries) throws IOException {
+        final long required = HEADER_LENGTH + (long) entries * ENTRY_LENGTH;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+
+        long capacity = buffer.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Cannot add to Event Location Index " + file + " because the index is too large");
+        }
+
+        buffer.force();
+        map(capacity);
+    }
+
+    /**
+     * @return the index of the first entry whose block begins with an event ID greater than the given ID
+     */
+    private int getInsertionIndex(final long eventId) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getBlockFirstEventId(mid) <= eventId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the location of the block that contains the event with the given ID, if the event exists
+     *
+     * @param eventId the ID of the event
+     * @return the location of the block that contains the event with the given ID, or <code>null</code> if no indexed
+     *         block can contain the event
+     */
+    public synchronized EventLocation getLocation(final long eventId) {
+        final int entryIndex = getInsertionIndex(eventId) - 1;
+        if (entryIndex < 0) {
+            return null;
+        }
+
+        final long fileFirstEventId = getFileFirstEventId(entryIndex);
+
+        // the blocks of a file are contiguous in the index
+        int firstEntry = entryIndex;
+        while (firstEntry > 0 && getFileFirstEventId(firstEntry - 1) == fileFirstEventId) {
+            firstEntry--;
+        }
+        int lastEntry = entryIndex;
+        while (lastEntry < entryCount - 1 && getFileFirstEventId(lastEntry + 1) == fileFirstEventId) {
+            lastEntry++;
+        }
+
+        final int numBlocks = lastEntry - firstEntry + 1;
+        final long[] offsets = new long[numBlocks];
+        final long[] firstEventIds = new long[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            firstEventIds[i] = getBlockFirstEventId(firstEntry + i);
+            offsets[i] = buffer.getLong(position(firstEntry + i) + 16);
+        }
+
+        final boolean compressed = (buffer.getInt(position(entryIndex) + 28) & COMPRESSED_FLAG) != 0;
+        final int blockIndex = buffer.getInt(position(entryIndex) + 24);
+        return new EventLocation(fileFirstEventId, blockIndex, new IndexedTocReader(compressed, offsets, firstEventIds));
+    }
+
+    /**
+     * @return the ID of the first event of each file that has been added to the index
+     */
+    public synchronized Set<Long> getIndexedFiles() {
+        final Set<Long> fileIds = new HashSet<>();
+        for (int i = 0; i < entryCount; i++) {
+            fileIds.add(getFileFirstEventId(i));
+        }
+        return fileIds;
+    }
+
+    /**
+     * Removes from the index all blocks that belong to files other than those given
+     *
+     * @param fileFirstEventIds the ID of the first event of each file that is still in the repository
+     */
+    public synchronized void retainFiles(final Collection<Long> fileFirstEventIds) {
+        removeEntries(new HashSet<>(fileFirstEventIds), true);
+    }
+
+    /**
+     * Removes from the index all blocks that belong to the given files
+     *
+     * @param fileFirstEventIds the ID of the first event of each file whose blocks should be removed
+     */
+    public synchronized void removeFiles(final Collection<Long> fileFirstEventIds) {
+        removeEntries(new HashSet<>(fileFirstEventIds), false);
+    }
+
+    private void removeEntries(final Set<Long> fileIds, final boolean retainGivenFiles) {
+        final byte[] entry = new byte[ENTRY_LENGTH];
+
+        int retained = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (fileIds.contains(getFileFirstEventId(i)) != retainGivenFiles) {
+                continue;
+            }
+
+            if (retained != i) {
+                buffer.position(position(i));
+                buffer.get(entry);
+                buffer.position(position(retained));
+                buffer.put(entry);
+            }
+            retained++;
+        }
+
+        if (retained != entryCount) {
+            buffer.putInt(4, retained);
+            entryCount = retained;
+            buffer.force();
+        }
+    }
+
+    /**
+     * @return the number of blocks in the index
+     */
+    public synchronized int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            buffer.force();
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EventLocationIndex[file=" + file + "]";
+    }
+
+    /**
+     * The location of the block that contains an event
+     */
+    public static class EventLocation {
+        private final long fileFirstEventId;
+        private final int blockIndex;
+        private final TocReader tocReader;
+
+        EventLocation(final long fileFirstEventId, final int blockIndex, final TocReader tocReader) {
+            this.fileFirstEventId = fileFirstEventId;
+            this.blockIndex = blockIndex;
+            this.tocReader = tocReader;
+        }
+
+        /**
+         * @return the ID of the first event in the file that contains the block
+         */
+        public long getFileFirstEventId() {
+            return fileFirstEventId;
+        }
+
+        /**
+         * @return the index of the block in its file
+         */
+        public int getBlockIndex() {
+            return blockIndex;
+        }
+
+        /**
+         * @return a Table of Contents for the file that contains the block, built from the index so that the file's
+         *         Table of Contents does not need to be read
+         */
+        public TocReader getTocReader() {
+            return tocReader;
+        }
+    }
+
+    private static class IndexedTocReader implements TocReader {
+        private final boolean compressed;
+        private final long[] offsets;
+        private final long[] firstEventIds;
+
+        IndexedTocReader(final boolean compressed, final long[] offsets, final long[] firstEventIds) {
+            this.compressed = compressed;
+            this.offsets = offsets;
+            this.firstEventIds = firstEventIds;
+        }
+
+        @Override
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        @Override
+        public long getBlockOffset(final int blockIndex) {
+            return blockIndex < offsets.length ? offsets[blockIndex] : -1L;
+        }
+
+        @Override
+        public long getLastBlockOffset() {
+            return offsets[offsets.length - 1];
+        }
+
+        @Override
+        public int getBlockIndex(final long blockOffset) {
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] > blockOffset) {
+                    return (i == 0) ? 0 : i - 1;
+                }
+            }
+            return offsets.length - 1;
+        }
+
+        @Override
+        public Integer getBlockIndexForEventId(final long eventId) {
+            if (eventId < firstEventIds[0]) {
+                return null;
+            }
+
+            for (int i = 1; i < firstEventIds.length; i++) {
+                if (firstEventIds[i] > eventId) {
+                    return i - 1;
+                }
+            }
+            return firstEventIds.length - 1;
+        }
+
+        @Override
+        public long getFirstEventIdForBlock(final int blockIndex) {
+            return blockIndex < firstEventIds.length ? firstEventIds[blockIndex] : -1L;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
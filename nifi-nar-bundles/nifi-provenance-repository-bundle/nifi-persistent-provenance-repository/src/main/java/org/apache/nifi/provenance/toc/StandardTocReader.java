@@ -104,6 +104,14 @@ public class StandardTocReader implements TocReader {
         return offsets[blockIndex];
     }
 
+    @Override
+    public long getFirstEventIdForBlock(final int blockIndex) {
+        if ( blockIndex >= firstEventIds.length ) {
+            return -1L;
+        }
+        return firstEventIds[blockIndex];
+    }
+
     @Override
     public long getLastBlockOffset() {
         if ( offsets.length == 0 ) {
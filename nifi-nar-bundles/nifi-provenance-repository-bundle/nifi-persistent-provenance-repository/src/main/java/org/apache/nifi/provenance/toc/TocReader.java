@@ -68,4 +68,13 @@ public interface TocReader extends Closeable {
      * the block index is not known
      */
     Integer getBlockIndexForEventId(long eventId);
+
+    /**
+     * Returns the ID of the first provenance event in the block with the given index
+     *
+     * @param blockIndex the index of the block
+     * @return the ID of the first event in the block, or <code>-1</code> if the given block index does not exist or
+     * the Table of Contents does not contain event ID's
+     */
+    long getFirstEventIdForBlock(int blockIndex);
 }
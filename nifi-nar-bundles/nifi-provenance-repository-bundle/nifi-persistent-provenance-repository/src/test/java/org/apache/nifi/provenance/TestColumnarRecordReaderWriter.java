@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.serialization.RecordReaders;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.serialization.RecordWriters;
+import org.apache.nifi.provenance.toc.StandardTocReader;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.provenance.toc.TocUtil;
+import org.apache.nifi.util.file.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestColumnarRecordReaderWriter {
+
+    private File storageDir;
+
+    @Before
+    public void setup() {
+        storageDir = new File("target/storage/" + UUID.randomUUID().toString());
+        storageDir.mkdirs();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteFile(storageDir, true);
+    }
+
+    /**
+     * Creates events that follow a number of FlowFiles through a flow, so that each FlowFile has several events
+     * whose attributes build on one another, as they would in a real flow.
+     */
+    private List<ProvenanceEventRecord> createEvents(final int flowFileCount) {
+        final List<ProvenanceEventRecord> events = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+
+        for (int i = 0; i < flowFileCount; i++) {
+            final String uuid = UUID.randomUUID().toString();
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("uuid", uuid);
+            attributes.put("filename", "file-" + i + ".txt");
+            attributes.put("path", "./");
+            attributes.put("mime.type", "text/plain");
+            attributes.put("correlation.id", uuid.toUpperCase());
+            attributes.put("s2s.host", "nifi-" + (i % 3) + ".example.com");
+            attributes.put("kafka.topic", "events");
+            attributes.put("kafka.partition", String.valueOf(i % 8));
+            attributes.put("kafka.offset", String.valueOf(1000000L + i));
+            attributes.put("record.count", String.valueOf(i * 10));
+
+            final StandardProvenanceEventRecord.Builder receive = createBuilder(ProvenanceEventType.RECEIVE, uuid, now + i);
+            receive.setTransitUri("nifi://unit-test/" + i);
+            receive.setSourceSystemFlowFileIdentifier("urn:nifi:" + uuid);
+            receive.setAttributes(Collections.<String, String> emptyMap(), attributes);
+            receive.setCurrentContentClaim("container", "section", "claim-" + i, 0L, 1000L + i);
+            events.add(receive.build());
+
+            final Map<String, String> updated = new HashMap<>();
+            updated.put("abc", "xyz-" + i);
+            updated.put("path", null);
+            final StandardProvenanceEventRecord.Builder modify = createBuilder(ProvenanceEventType.ATTRIBUTES_MODIFIED, uuid, now + i + 1);
+            modify.setAttributes(attributes, updated);
+            modify.setDetails("modified attributes");
+            modify.setCurrentContentClaim("container", "section", "claim-" + i, 0L, 1000L + i);
+            modify.setPreviousContentClaim("container", "section", "claim-" + i, 0L, 1000L + i);
+            modify.setSourceQueueIdentifier("queue-1");
+            events.add(modify.build());
+
+            attributes.remove("path");
+            attributes.put("abc", "xyz-" + i);
+
+            final String childUuid = UUID.randomUUID().toString();
+            final StandardProvenanceEventRecord.Builder fork = createBuilder(ProvenanceEventType.FORK, uuid, now + i + 2);
+            fork.setAttributes(attributes, Collections.<String, String> emptyMap());
+            fork.addParentUuid(uuid);
+            fork.addChildUuid(childUuid);
+            events.add(fork.build());
+
+            final StandardProvenanceEventRecord.Builder route = createBuilder(ProvenanceEventType.ROUTE, uuid, now + i + 3);
+            route.setAttributes(attributes, Collections.<String, String> emptyMap());
+            route.setRelationship("success");
+            events.add(route.build());
+
+            final StandardProvenanceEventRecord.Builder addInfo = createBuilder(ProvenanceEventType.ADDINFO, uuid, now + i + 4);
+            addInfo.setAttributes(attributes, Collections.<String, String> emptyMap());
+            addInfo.setAlternateIdentifierUri("urn:alternate:" + i);
+            events.add(addInfo.build());
+
+            final StandardProvenanceEventRecord.Builder drop = createBuilder(ProvenanceEventType.DROP, uuid, now + i + 5);
+            drop.setAttributes(attributes, Collections.<String, String> emptyMap());
+            events.add(drop.build());
+        }
+
+        return events;
+    }
+
+    private StandardProvenanceEventRecord.Builder createBuilder(final ProvenanceEventType eventType, final String uuid, final long eventTime) {
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventType(eventType);
+        builder.setEventTime(eventTime);
+        builder.setFlowFileEntryDate(eventTime - 100L);
+        builder.setLineageStartDate(eventTime - 200L);
+        builder.setEventDuration(eventType == ProvenanceEventType.RECEIVE ? 12L : -1L);
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        builder.setFlowFileUUID(uuid);
+        builder.setCurrentContentClaim(null, null, null, null, 0L);
+        return builder;
+    }
+
+    private void writeEvents(final RecordWriter writer, final List<ProvenanceEventRecord> events) throws IOException {
+        writer.writeHeader(0L);
+        for (int i = 0; i < events.size(); i++) {
+            writer.writeRecord(events.get(i), i);
+        }
+        writer.close();
+    }
+
+    private void assertEventEquals(final ProvenanceEventRecord expected, final ProvenanceEventRecord actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getEventType(), actual.getEventType());
+        assertEquals(expected.getEventTime(), actual.getEventTime());
+        assertEquals(expected.getFlowFileEntryDate(), actual.getFlowFileEntryDate());
+        assertEquals(expected.getLineageStartDate(), actual.getLineageStartDate());
+        assertEquals(expected.getEventDuration(), actual.getEventDuration());
+        assertEquals(expected.getComponentId(), actual.getComponentId());
+        assertEquals(expected.getComponentType(), actual.getComponentType());
+        assertEquals(expected.getFlowFileUuid(), actual.getFlowFileUuid());
+        assertEquals(expected.getDetails(), actual.getDetails());
+        assertEquals(expected.getPreviousAttributes(), actual.getPreviousAttributes());
+        assertEquals(expected.getUpdatedAttributes(), actual.getUpdatedAttributes());
+        assertEquals(expected.getContentClaimContainer(), actual.getContentClaimContainer());
+        assertEquals(expected.getContentClaimSection(), actual.getContentClaimSection());
+        assertEquals(expected.getContentClaimIdentifier(), actual.getContentClaimIdentifier());
+        assertEquals(expected.getFileSize(), actual.getFileSize());
+        assertEquals(expected.getPreviousContentClaimIdentifier(), actual.getPreviousContentClaimIdentifier());
+        assertEquals(expected.getPreviousFileSize(), actual.getPreviousFileSize());
+        assertEquals(expected.getSourceQueueIdentifier(), actual.getSourceQueueIdentifier());
+        assertEquals(expected.getParentUuids(), actual.getParentUuids());
+        assertEquals(expected.getChildUuids(), actual.getChildUuids());
+        assertEquals(expected.getTransitUri(), actual.getTransitUri());
+        assertEquals(expected.getSourceSystemFlowFileIdentifier(), actual.getSourceSystemFlowFileIdentifier());
+        assertEquals(expected.getAlternateIdentifierUri(), actual.getAlternateIdentifierUri());
+        assertEquals(expected.getRelationship(), actual.getRelationship());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final List<ProvenanceEventRecord> events = createEvents(50);
+
+        for (final boolean compressed : new boolean[] {true, false}) {
+            final File eventFile = new File(storageDir, compressed + ".prov");
+            writeEvents(RecordWriters.newColumnarRecordWriter(eventFile, compressed, true), events);
+            assertTrue(ColumnarRecordReader.isColumnarFile(eventFile));
+
+            try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+                assertTrue(reader instanceof ColumnarRecordReader);
+
+                for (int i = 0; i < events.size(); i++) {
+                    final StandardProvenanceEventRecord recovered = reader.nextRecord();
+                    assertEventEquals(events.get(i), recovered);
+                    assertEquals(i, recovered.getEventId());
+                    assertEquals(eventFile.getName(), recovered.getStorageFilename());
+                }
+
+                assertNull(reader.nextRecord());
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleBlocks() throws IOException {
+        final List<ProvenanceEventRecord> events = createEvents(100);
+        final File eventFile = new File(storageDir, "0.prov");
+        writeEvents(RecordWriters.newColumnarRecordWriter(eventFile, true, true, 2048), events);
+
+        final TocReader tocReader = new StandardTocReader(TocUtil.getTocFile(eventFile));
+        int blockCount = 0;
+        while (tocReader.getBlockOffset(blockCount) >= 0) {
+            blockCount++;
+        }
+        assertTrue(blockCount > 5);
+
+        final List<Long> storageOffsets = new ArrayList<>();
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+            StandardProvenanceEventRecord record;
+            while ((record = reader.nextRecord()) != null) {
+                assertEventEquals(events.get(storageOffsets.size()), record);
+                storageOffsets.add(record.getStorageByteOffset());
+            }
+        }
+        assertEquals(events.size(), storageOffsets.size());
+
+        // skipping to a block must return the first event of that block
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+            for (int i = 1; i < blockCount; i += 2) {
+                reader.skipToBlock(i);
+                final StandardProvenanceEventRecord record = reader.nextRecord();
+                assertEquals(tocReader.getFirstEventIdForBlock(i), record.getEventId());
+                assertEquals(i, reader.getBlockIndex());
+            }
+        }
+
+        // skipping to the storage offset of an event must return that event
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+            for (int i = 3; i < events.size(); i += 37) {
+                reader.skipTo(storageOffsets.get(i));
+                final StandardProvenanceEventRecord record = reader.nextRecord();
+                assertEquals(i, record.getEventId());
+                assertEventEquals(events.get(i), record);
+            }
+        }
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+            assertEquals(events.size() - 1, reader.getMaxEventId());
+        }
+    }
+
+    @Test
+    public void testAttributesTruncated() throws IOException {
+        final List<ProvenanceEventRecord> events = createEvents(2);
+        final File eventFile = new File(storageDir, "0.prov");
+        writeEvents(RecordWriters.newColumnarRecordWriter(eventFile, true, false), events);
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, 4)) {
+            StandardProvenanceEventRecord record;
+            int count = 0;
+            while ((record = reader.nextRecord()) != null) {
+                // attributes are truncated when read, but the full values must still be used to decode later events
+                assertEquals("file", record.getAttributes().get("filename"));
+                assertEquals(4, record.getAttributes().get("uuid").length());
+                count++;
+            }
+            assertEquals(events.size(), count);
+        }
+    }
+
+    @Test
+    public void testSmallerThanStandardFormat() throws IOException {
+        final List<ProvenanceEventRecord> events = createEvents(1000);
+
+        final File standardFile = new File(storageDir, "standard.prov.gz");
+        writeEvents(RecordWriters.newRecordWriter(standardFile, true, true), events);
+
+        final File columnarFile = new File(storageDir, "columnar.prov");
+        writeEvents(RecordWriters.newColumnarRecordWriter(columnarFile, true, true), events);
+
+        assertFalse(ColumnarRecordReader.isColumnarFile(standardFile));
+        assertTrue(columnarFile.length() < standardFile.length());
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        final Random random = new Random(1L);
+        final LZ4BlockCompression compression = new LZ4BlockCompression();
+
+        for (final int length : new int[] {0, 1, 12, 13, 100, 65536, 300000}) {
+            final byte[] repetitive = new byte[length];
+            final byte[] randomBytes = new byte[length];
+            random.nextBytes(randomBytes);
+            for (int i = 0; i < length; i++) {
+                repetitive[i] = (byte) ("provenance event " + (i / 100)).charAt(i % 17);
+            }
+
+            for (final byte[] data : new byte[][] {repetitive, randomBytes}) {
+                final byte[] compressed = new byte[LZ4BlockCompression.maxCompressedLength(length)];
+                final int compressedLength = compression.compress(data, length, compressed);
+
+                final byte[] decompressed = new byte[length];
+                LZ4BlockCompression.decompress(compressed, 0, compressedLength, decompressed, length);
+                assertArrayEquals(data, decompressed);
+            }
+
+            if (length > 100) {
+                assertTrue(compression.compress(repetitive, length, new byte[LZ4BlockCompression.maxCompressedLength(length)]) < length / 4);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptBlockDetected() throws IOException {
+        final byte[] data = new byte[1000];
+        final byte[] compressed = new byte[LZ4BlockCompression.maxCompressedLength(data.length)];
+        final int compressedLength = new LZ4BlockCompression().compress(data, data.length, compressed);
+
+        LZ4BlockCompression.decompress(compressed, 0, compressedLength, new byte[data.length - 1], data.length - 1);
+    }
+
+    @Test
+    public void testStandardFileStillReadable() throws IOException {
+        final List<ProvenanceEventRecord> events = createEvents(1);
+        final File eventFile = new File(storageDir, "0.prov");
+        writeEvents(RecordWriters.newRecordWriter(eventFile, false, false), events);
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(eventFile, null, Integer.MAX_VALUE)) {
+            assertTrue(reader instanceof StandardRecordReader);
+            assertEventEquals(events.get(0), reader.nextRecord());
+        }
+    }
+}
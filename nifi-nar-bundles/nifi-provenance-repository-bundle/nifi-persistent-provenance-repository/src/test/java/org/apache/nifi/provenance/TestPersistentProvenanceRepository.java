@@ -63,6 +63,7 @@ import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -80,6 +81,7 @@ import java.util.zip.GZIPOutputStream;
 
 import static org.apache.nifi.provenance.TestUtil.createFlowFile;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -139,7 +141,9 @@ public class TestPersistentProvenanceRepository {
         // Delete all of the storage files. We do this in order to clean up the tons of files that
         // we create but also to ensure that we have closed all of the file handles. If we leave any
         // streams open, for instance, this will throw an IOException, causing our unit test to fail.
-        for (final File storageDir : config.getStorageDirectories()) {
+        final List<File> directories = new ArrayList<>(config.getStorageDirectories());
+        directories.addAll(config.getColdStorageDirectories());
+        for (final File storageDir : directories) {
             int i;
             for (i = 0; i < 3; i++) {
                 try {
@@ -284,6 +288,112 @@ public class TestPersistentProvenanceRepository {
         }
     }
 
+    @Test
+    public void testGetEventsUsingEventLocationIndex() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        final ProvenanceEventRecord record = builder.build();
+
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 10; i++) {
+                repo.registerEvent(record);
+            }
+            repo.waitForRollover();
+        }
+
+        assertTrue(new File(config.getStorageDirectories().get(0), "toc/event-locations.idx").exists());
+
+        final List<ProvenanceEventRecord> events = repo.getEvents(15L, 10);
+        assertEquals(10, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(15L + i, events.get(i).getEventId());
+        }
+        assertEquals(29L, repo.getEvent(29L).getEventId());
+
+        repo.close();
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+        assertEquals(30, repo.getEvents(0L, 100).size());
+
+        final List<ProvenanceEventRecord> recovered = repo.getEvents(21L, 3);
+        assertEquals(3, recovered.size());
+        assertEquals(21L, recovered.get(0).getEventId());
+        assertEquals(23L, recovered.get(2).getEventId());
+    }
+
+    @Test
+    @Ignore("For local testing of performance only")
+    public void testSequentialReadPerformance() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileCapacity(1024 * 1024L);
+        config.setMaxEventFileLife(5, TimeUnit.SECONDS);
+        config.setCompressionBlockBytes(1024 * 1024);
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("abc", "xyz");
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        final ProvenanceEventRecord record = builder.build();
+
+        final int numEvents = 500000;
+        for (int i = 0; i < numEvents; i++) {
+            repo.registerEvent(record);
+        }
+
+        repo.rolloverWithLock(true);
+        while (repo.getMaxEventId() == null || repo.getMaxEventId() < numEvents - 1) {
+            Thread.sleep(100L);
+        }
+
+        // read the events in the same way that the Site-to-Site Provenance Reporting Task does: in batches,
+        // each starting with the event after the last one that was read
+        for (int iteration = 0; iteration < 3; iteration++) {
+            final long start = System.nanoTime();
+            long nextId = 0L;
+            int batches = 0;
+            List<ProvenanceEventRecord> batch;
+            while (!(batch = repo.getEvents(nextId, 1000)).isEmpty()) {
+                nextId = batch.get(batch.size() - 1).getEventId() + 1;
+                batches++;
+            }
+
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(numEvents, nextId);
+            System.out.println(millis + " millis to read " + numEvents + " events in " + batches + " batches");
+        }
+
+        // random access, as when viewing the details of an event
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            final long eventId = (i * 7919L) % numEvents;
+            assertEquals(eventId, repo.getEvent(eventId).getEventId());
+        }
+        System.out.println(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " millis to retrieve 10000 events by ID");
+    }
+
     @Test
     public void testAddToMultipleLogsAndRecover() throws IOException, InterruptedException {
         final List<SearchableField> searchableFields = new ArrayList<>();
@@ -479,6 +589,247 @@ public class TestPersistentProvenanceRepository {
         assertTrue(newRecordSet.getMatchingEvents().isEmpty());
     }
 
+    @Test
+    public void testColumnarEventFiles() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        config.setColumnarEventFiles(true);
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("abc", "xyz");
+        attributes.put("filename", "file-1");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        for (int i = 0; i < 10; i++) {
+            attributes.put("uuid", "00000000-0000-0000-0000-00000000000" + i);
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+        }
+
+        repo.waitForRollover();
+
+        // the merged file is not given a .gz extension because its blocks are compressed individually
+        final File eventFile = new File(config.getStorageDirectories().get(0), "0.prov");
+        assertTrue(eventFile.exists());
+        assertTrue(ColumnarRecordReader.isColumnarFile(eventFile));
+
+        final List<ProvenanceEventRecord> events = repo.getEvents(0L, 100);
+        assertEquals(10, events.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, events.get(i).getEventId());
+            assertEquals("00000000-0000-0000-0000-00000000000" + i, events.get(i).getFlowFileUuid());
+            assertEquals("xyz", events.get(i).getAttributes().get("abc"));
+        }
+
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.FlowFileUUID, "00000000-0000-0000-0000-000000000007"));
+        query.setMaxResults(100);
+
+        final QueryResult result = repo.queryEvents(query, createUser());
+        assertEquals(1, result.getMatchingEvents().size());
+        assertEquals(7L, result.getMatchingEvents().get(0).getEventId());
+        assertEquals("nifi://unit-test", result.getMatchingEvents().get(0).getTransitUri());
+    }
+
+    @Test
+    public void testMoveToColdStorage() throws IOException, InterruptedException {
+        verifyMoveToColdStorage(false);
+    }
+
+    @Test
+    public void testMoveColumnarEventFilesToColdStorage() throws IOException, InterruptedException {
+        verifyMoveToColdStorage(true);
+    }
+
+    private void verifyMoveToColdStorage(final boolean columnar) throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.addColdStorageDirectory(new File("target/storage/" + UUID.randomUUID().toString() + "-cold"));
+        config.setColdStorageAge(1L, TimeUnit.MILLISECONDS);
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        config.setColumnarEventFiles(columnar);
+        config.setDesiredIndexSize(1L);
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("abc", "xyz");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        // each file is written to its own index, because the desired index size is so small
+        for (int j = 0; j < 3; j++) {
+            builder.setEventTime(System.currentTimeMillis());
+            for (int i = 0; i < 10; i++) {
+                attributes.put("uuid", "00000000-0000-0000-0000-0000000000" + j + i);
+                builder.fromFlowFile(createFlowFile(j * 10 + i, 3000L, attributes));
+                repo.registerEvent(builder.build());
+            }
+            repo.waitForRollover();
+        }
+
+        Thread.sleep(10L);
+        repo.purgeOldEvents();
+
+        final File hotDir = config.getStorageDirectories().get(0);
+        final File coldDir = config.getColdStorageDirectories().get(0);
+        final String eventFileName = columnar ? "0.prov" : "0.prov.gz";
+        assertTrue(new File(coldDir, eventFileName).exists());
+        assertTrue(new File(new File(coldDir, "toc"), "0.toc").exists());
+        assertTrue(new File(new File(coldDir, "lineage"), "0.adj").exists());
+        assertFalse(new File(hotDir, eventFileName).exists());
+        assertFalse(new File(new File(hotDir, "toc"), "0.toc").exists());
+
+        // all but the most recent index, which may still be written to, are moved as well
+        final FileFilter indexFilter = new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isDirectory() && file.getName().matches("index-\\d+");
+            }
+        };
+        assertEquals(2, coldDir.listFiles(indexFilter).length);
+        assertEquals(1, hotDir.listFiles(indexFilter).length);
+
+        for (int restarts = 0; restarts < 2; restarts++) {
+            final List<ProvenanceEventRecord> events = repo.getEvents(0L, 100);
+            assertEquals(30, events.size());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i, events.get(i).getEventId());
+                assertEquals("xyz", events.get(i).getAttributes().get("abc"));
+            }
+            assertEquals("00000000-0000-0000-0000-000000000015", repo.getEvent(15L).getFlowFileUuid());
+
+            final Query query = new Query(UUID.randomUUID().toString());
+            query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.FlowFileUUID, "00000000-0000-0000-0000-000000000007"));
+            query.setMaxResults(100);
+
+            final QueryResult result = repo.queryEvents(query, createUser());
+            assertEquals(1, result.getMatchingEvents().size());
+            assertEquals(7L, result.getMatchingEvents().get(0).getEventId());
+
+            // the files in cold storage are found when the repository is recovered
+            repo.close();
+            repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+            repo.initialize(getEventReporter(), null, null);
+        }
+    }
+
+    @Test
+    public void testQueryReturnsNewestEventsFirst() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        config.setDesiredIndexSize(1L);
+        config.setQueryThreadPoolSize(1);
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-1");
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        // each file is written to its own index, because the desired index size is so small
+        for (int j = 0; j < 3; j++) {
+            builder.setEventTime(System.currentTimeMillis());
+            for (int i = 0; i < 10; i++) {
+                attributes.put("uuid", UUID.randomUUID().toString());
+                builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+                attributes.put("uuid", UUID.randomUUID().toString());
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+            }
+            repo.waitForRollover();
+        }
+
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.ComponentID, "1234"));
+        query.setMaxResults(10);
+
+        final List<ProvenanceEventRecord> matches = repo.queryEvents(query, createUser()).getMatchingEvents();
+        assertEquals(10, matches.size());
+        for (final ProvenanceEventRecord match : matches) {
+            assertTrue(match.getEventId() >= 20L);
+        }
+    }
+
+    @Test
+    public void testQueryResultsCachedUntilRollover() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-1");
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        for (int i = 0; i < 10; i++) {
+            attributes.put("uuid", UUID.randomUUID().toString());
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+        }
+        repo.waitForRollover();
+
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.Filename, "file-*"));
+        query.setMaxResults(100);
+        assertEquals(10, repo.queryEvents(query, createUser()).getMatchingEvents().size());
+
+        // an identical query is answered from the cache without searching the indices
+        final Query identicalQuery = new Query(UUID.randomUUID().toString());
+        identicalQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.Filename, "file-*"));
+        identicalQuery.setMaxResults(100);
+        final QuerySubmission submission = repo.submitQuery(identicalQuery, createUser());
+        assertTrue(submission.getResult().isFinished());
+        assertEquals(10, submission.getResult().getMatchingEvents().size());
+
+        // once more events have been indexed, the cached results are no longer used
+        for (int i = 0; i < 5; i++) {
+            attributes.put("uuid", UUID.randomUUID().toString());
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+        }
+        repo.waitForRollover();
+
+        final Query laterQuery = new Query(UUID.randomUUID().toString());
+        laterQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.Filename, "file-*"));
+        laterQuery.setMaxResults(100);
+        assertEquals(15, repo.queryEvents(laterQuery, createUser()).getMatchingEvents().size());
+    }
+
     @Test
     public void testIndexAndCompressOnRolloverAndSubsequentSearchMultipleStorageDirs() throws IOException, InterruptedException, ParseException {
         final RepositoryConfiguration config = createConfiguration();
@@ -787,6 +1138,72 @@ public class TestPersistentProvenanceRepository {
         assertEquals(1, edges.size());
     }
 
+    @Test
+    public void testLineageWithAndWithoutAdjacencyFiles() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        final String parentId = "00000000-0000-0000-0000-000000000001";
+        final String childId = "00000000-0000-0000-0000-000000000002";
+        final String otherId = "00000000-0000-0000-0000-000000000003";
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", parentId);
+
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        builder.setTransitUri("nifi://unit-test");
+
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.fromFlowFile(createFlowFile(1L, 3000L, attributes));
+        repo.registerEvent(builder.build());
+
+        builder.setEventType(ProvenanceEventType.FORK);
+        builder.addParentUuid(parentId);
+        builder.addChildUuid(childId);
+        repo.registerEvent(builder.build());
+
+        for (final String uuid : Arrays.asList(otherId, childId)) {
+            final StandardProvenanceEventRecord.Builder dropBuilder = new StandardProvenanceEventRecord.Builder();
+            dropBuilder.setEventTime(System.currentTimeMillis());
+            dropBuilder.setComponentId("1234");
+            dropBuilder.setComponentType("dummy processor");
+            dropBuilder.setEventType(ProvenanceEventType.DROP);
+            attributes.put("uuid", uuid);
+            dropBuilder.fromFlowFile(createFlowFile(2L, 3000L, attributes));
+            repo.registerEvent(dropBuilder.build());
+        }
+
+        repo.waitForRollover();
+
+        final File adjacencyDir = new File(config.getStorageDirectories().get(0), "lineage");
+        assertTrue(new File(adjacencyDir, "0.adj").exists());
+
+        final Lineage parentLineage = repo.computeLineage(parentId, createUser());
+        final Lineage childLineage = repo.computeLineage(childId, createUser());
+
+        // RECEIVE and FORK events for the parent; FORK and DROP events for the child; plus a node for the FlowFile itself
+        assertEquals(3, parentLineage.getNodes().size());
+        assertEquals(3, childLineage.getNodes().size());
+
+        repo.close();
+        FileUtils.deleteFile(adjacencyDir, true);
+
+        // without the adjacency files, lineage is computed by searching the indices
+        repo = new PersistentProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(getEventReporter(), null, null);
+
+        assertEquals(parentLineage.getNodes().size(), repo.computeLineage(parentId, createUser()).getNodes().size());
+        assertEquals(childLineage.getNodes().size(), repo.computeLineage(childId, createUser()).getNodes().size());
+        assertEquals(childLineage.getEdges().size(), repo.computeLineage(childId, createUser()).getEdges().size());
+    }
+
     @Test
     public void testLineageManyToOneSpawnAsync() throws IOException, InterruptedException, ParseException {
         final RepositoryConfiguration config = createConfiguration();
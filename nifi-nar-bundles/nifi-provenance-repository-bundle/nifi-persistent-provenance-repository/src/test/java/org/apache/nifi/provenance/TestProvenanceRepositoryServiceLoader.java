@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.nifi.util.NiFiProperties;
+import org.apache.nifi.util.file.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestProvenanceRepositoryServiceLoader {
+
+    private File baseDir;
+
+    @Before
+    public void setup() throws Exception {
+        baseDir = new File("target/service-loader/" + UUID.randomUUID().toString());
+        baseDir.mkdirs();
+
+        final File propertiesFile = new File(baseDir, "nifi.properties");
+        final String properties = NiFiProperties.PROVENANCE_REPO_DIRECTORY_PREFIX + "default=" + new File(baseDir, "provenance").getAbsolutePath().replace('\\', '/') + "\n";
+        try (final OutputStream out = new FileOutputStream(propertiesFile)) {
+            out.write(properties.getBytes(StandardCharsets.UTF_8));
+        }
+
+        System.setProperty(NiFiProperties.PROPERTIES_FILE_PATH, propertiesFile.getAbsolutePath());
+        resetNiFiProperties();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        System.clearProperty(NiFiProperties.PROPERTIES_FILE_PATH);
+        resetNiFiProperties();
+        FileUtils.deleteFile(baseDir, true);
+    }
+
+    private void resetNiFiProperties() throws Exception {
+        final Field instanceField = NiFiProperties.class.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+    }
+
+    @Test
+    public void testAllRepositoriesLoaded() throws IOException {
+        final Set<String> classNames = new HashSet<>();
+        for (final ProvenanceRepository repository : ServiceLoader.load(ProvenanceRepository.class)) {
+            classNames.add(repository.getClass().getName());
+            ((PersistentProvenanceRepository) repository).close();
+        }
+
+        final Set<String> expected = new HashSet<>();
+        expected.add(PersistentProvenanceRepository.class.getName());
+        expected.add(WriteThroughProvenanceRepository.class.getName());
+        assertEquals(expected, classNames);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.search.Query;
+import org.apache.nifi.provenance.search.SearchTerms;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestQueryResultCache {
+
+    private Query createQuery(final String filename) {
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.Filename, filename));
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.ComponentID, "1234"));
+        query.setMaxResults(100);
+        return query;
+    }
+
+    private List<ProvenanceEventRecord> createEvents() {
+        return Collections.singletonList(Mockito.mock(ProvenanceEventRecord.class));
+    }
+
+    @Test
+    public void testKey() {
+        final String key = QueryResultCache.createKey(createQuery("file-1"), "user");
+        assertEquals(key, QueryResultCache.createKey(createQuery("file-1"), "user"));
+        assertNotEquals(key, QueryResultCache.createKey(createQuery("file-1"), "other-user"));
+        assertNotEquals(key, QueryResultCache.createKey(createQuery("file-2"), "user"));
+
+        final Query limited = createQuery("file-1");
+        limited.setMaxResults(10);
+        assertNotEquals(key, QueryResultCache.createKey(limited, "user"));
+
+        final Query bounded = createQuery("file-1");
+        bounded.setEndDate(new Date());
+        assertNotEquals(key, QueryResultCache.createKey(bounded, "user"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final QueryResultCache cache = new QueryResultCache(10);
+        final List<ProvenanceEventRecord> events = createEvents();
+
+        cache.cache("a", cache.getGeneration(), events);
+        assertEquals(events, cache.get("a"));
+
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testResultsFromBeforeInvalidationNotCached() {
+        final QueryResultCache cache = new QueryResultCache(10);
+        final long generation = cache.getGeneration();
+
+        cache.invalidate();
+        cache.cache("a", generation, createEvents());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        final QueryResultCache cache = new QueryResultCache(2);
+        cache.cache("a", cache.getGeneration(), createEvents());
+        cache.cache("b", cache.getGeneration(), createEvents());
+        cache.get("a");
+        cache.cache("c", cache.getGeneration(), createEvents());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("a").size());
+        assertEquals(1, cache.get("c").size());
+    }
+}
@@ -20,11 +20,14 @@ import static org.apache.nifi.provenance.TestUtil.createFlowFile;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -87,6 +90,36 @@ public class TestStandardRecordReaderWriter {
         FileUtils.deleteFile(journalFile.getParentFile(), true);
     }
 
+    @Test
+    public void testLastRecordOffsetMatchesReader() throws IOException {
+        final File journalFile = new File("target/storage/" + UUID.randomUUID().toString() + "/testLastRecordOffset");
+        final File tocFile = TocUtil.getTocFile(journalFile);
+        final TocWriter tocWriter = new StandardTocWriter(tocFile, false, false);
+        final StandardRecordWriter writer = new StandardRecordWriter(journalFile, tocWriter, false, 1024 * 1024);
+
+        writer.writeHeader(1L);
+        assertEquals(-1L, writer.getLastRecordOffset());
+
+        final List<Long> offsets = new ArrayList<>();
+        for (long id = 1L; id <= 3L; id++) {
+            writer.writeRecord(createEvent(), id);
+            offsets.add(writer.getLastRecordOffset());
+        }
+        writer.close();
+
+        // offsets are positions in the stream, so the first record is positioned after the header
+        assertTrue(offsets.get(0) > 0L);
+
+        final TocReader tocReader = new StandardTocReader(tocFile);
+        try (final FileInputStream fis = new FileInputStream(journalFile);
+            final StandardRecordReader reader = new StandardRecordReader(fis, journalFile.getName(), tocReader, 2048)) {
+            for (final Long offset : offsets) {
+                assertEquals(offset.longValue(), reader.nextRecord().getStorageByteOffset());
+            }
+        }
+
+        FileUtils.deleteFile(journalFile.getParentFile(), true);
+    }
 
     @Test
     public void testSingleRecordCompressed() throws IOException {
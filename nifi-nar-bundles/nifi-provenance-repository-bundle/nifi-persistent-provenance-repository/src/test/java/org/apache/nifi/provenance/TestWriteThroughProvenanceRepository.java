@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.apache.nifi.provenance.TestUtil.createFlowFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.authorization.user.NiFiUser;
+import org.apache.nifi.events.EventReporter;
+import org.apache.nifi.provenance.search.Query;
+import org.apache.nifi.provenance.search.QueryResult;
+import org.apache.nifi.provenance.search.SearchTerms;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.serialization.RecordWriters;
+import org.apache.nifi.reporting.Severity;
+import org.apache.nifi.util.file.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestWriteThroughProvenanceRepository {
+
+    private static final int DEFAULT_ROLLOVER_MILLIS = 2000;
+
+    private WriteThroughProvenanceRepository repo;
+    private RepositoryConfiguration config;
+
+    private final EventReporter eventReporter = new EventReporter() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void reportEvent(Severity severity, String category, String message) {
+            System.out.println(severity + " : " + category + " : " + message);
+        }
+    };
+
+    private RepositoryConfiguration createConfiguration() {
+        config = new RepositoryConfiguration();
+        config.addStorageDirectory(new File("target/storage/" + UUID.randomUUID().toString()));
+        config.setMaxEventFileLife(2000L, TimeUnit.SECONDS);
+        config.setCompressionBlockBytes(100);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        return config;
+    }
+
+    @After
+    public void closeRepo() throws IOException {
+        if (repo != null) {
+            try {
+                repo.close();
+            } catch (final IOException ioe) {
+            }
+        }
+
+        for (final File storageDir : config.getStorageDirectories()) {
+            FileUtils.deleteFile(storageDir, true);
+        }
+    }
+
+    private ProvenanceEventRecord createEvent(final int index) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-" + index);
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(index, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        return builder.build();
+    }
+
+    private Query createQuery() {
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.Filename, "file-*"));
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.ComponentID, "12?4"));
+        query.setMaxResults(100);
+        return query;
+    }
+
+    @Test
+    public void testEventsSearchableWithoutRollover() throws IOException {
+        repo = new WriteThroughProvenanceRepository(createConfiguration(), DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        for (int i = 0; i < 10; i++) {
+            repo.registerEvent(createEvent(i));
+        }
+
+        final QueryResult result = repo.queryEvents(createQuery(), createUser());
+        assertEquals(10, result.getMatchingEvents().size());
+        assertEquals(9L, repo.getMaxEventId().longValue());
+
+        // files that are being written to are not aged off
+        config.setMaxStorageCapacity(1L);
+        repo.purgeOldEvents();
+        assertEquals(10, repo.getEvents(0L, 100).size());
+    }
+
+    @Test
+    public void testGetEventsMergesPartitions() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setJournalCount(4);
+        config.setMaxEventFileCapacity(2048L);
+        repo = new WriteThroughProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50; i++) {
+                        repo.registerEvent(createEvent(i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final List<ProvenanceEventRecord> events = repo.getEvents(0L, 1000);
+        assertEquals(200, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i, events.get(i).getEventId());
+        }
+
+        final List<ProvenanceEventRecord> range = repo.getEvents(95L, 10);
+        assertEquals(10, range.size());
+        for (int i = 0; i < range.size(); i++) {
+            assertEquals(95L + i, range.get(i).getEventId());
+        }
+
+        assertEquals(150L, repo.getEvent(150L).getEventId());
+    }
+
+    @Test
+    public void testRecoverAfterClose() throws IOException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setJournalCount(3);
+        repo = new WriteThroughProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        for (int i = 0; i < 10; i++) {
+            repo.registerEvent(createEvent(i));
+        }
+
+        repo.close();
+
+        for (final File file : config.getStorageDirectories().get(0).listFiles()) {
+            assertFalse(file.getName().endsWith(WriteThroughProvenanceRepository.ACTIVE_FILE_SUFFIX));
+        }
+
+        repo = new WriteThroughProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        assertEquals(10, repo.queryEvents(createQuery(), createUser()).getMatchingEvents().size());
+
+        repo.registerEvent(createEvent(10));
+        final List<ProvenanceEventRecord> events = repo.getEvents(0L, 100);
+        assertEquals(11, events.size());
+        assertEquals(10L, events.get(10).getEventId());
+    }
+
+    @Test
+    public void testRecoverFileThatWasBeingWritten() throws IOException {
+        final RepositoryConfiguration config = createConfiguration();
+        final File storageDir = config.getStorageDirectories().get(0);
+        storageDir.mkdirs();
+
+        // simulate a file that was being written to when NiFi was stopped without shutting down the repository
+        final File activeFile = new File(storageDir, "0" + WriteThroughProvenanceRepository.ACTIVE_FILE_SUFFIX);
+        try (final RecordWriter writer = RecordWriters.newRecordWriter(activeFile, false, true, 100)) {
+            writer.writeHeader(0L);
+            for (int i = 0; i < 5; i++) {
+                writer.writeRecord(createEvent(i), i);
+            }
+        }
+
+        repo = new WriteThroughProvenanceRepository(config, DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        assertFalse(activeFile.exists());
+        assertTrue(new File(storageDir, "0.prov").exists());
+        assertEquals(5, repo.queryEvents(createQuery(), createUser()).getMatchingEvents().size());
+
+        repo.registerEvent(createEvent(5));
+        assertEquals(5L, repo.getMaxEventId().longValue());
+        assertEquals(6, repo.getEvents(0L, 100).size());
+    }
+
+    @Test
+    public void testEventsWrittenBeforeFailureAreIndexed() throws IOException {
+        repo = new WriteThroughProvenanceRepository(createConfiguration(), DEFAULT_ROLLOVER_MILLIS);
+        repo.initialize(eventReporter, null, null);
+
+        // a Component ID that is too long to serialize makes the write fail partway through the batch
+        final StringBuilder componentId = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            componentId.append('x');
+        }
+
+        final List<ProvenanceEventRecord> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            events.add(createEvent(i));
+        }
+        events.add(new StandardProvenanceEventRecord.Builder().fromEvent(createEvent(3)).setComponentId(componentId.toString()).build());
+        events.add(createEvent(4));
+        repo.registerEvents(events);
+
+        // the events that were written before the failure can be queried and retrieved
+        assertEquals(3, repo.queryEvents(createQuery(), createUser()).getMatchingEvents().size());
+        final List<ProvenanceEventRecord> stored = repo.getEvents(0L, 100);
+        assertEquals(3, stored.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, stored.get(i).getEventId());
+            assertEquals("file-" + i, stored.get(i).getAttributes().get("filename"));
+            assertEquals(stored.get(i), repo.getEvent(i));
+        }
+
+        // the partition was rolled over, so further events are written to a new file
+        repo.registerEvent(createEvent(5));
+        assertEquals(4, repo.queryEvents(createQuery(), createUser()).getMatchingEvents().size());
+    }
+
+    private NiFiUser createUser() {
+        return new NiFiUser() {
+            @Override
+            public String getIdentity() {
+                return "unit-test";
+            }
+
+            @Override
+            public NiFiUser getChain() {
+                return null;
+            }
+
+            @Override
+            public boolean isAnonymous() {
+                return false;
+            }
+
+            @Override
+            public String getClientAddress() {
+                return null;
+            }
+        };
+    }
+}
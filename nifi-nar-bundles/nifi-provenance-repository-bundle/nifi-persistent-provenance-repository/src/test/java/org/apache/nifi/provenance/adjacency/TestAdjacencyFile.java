@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.adjacency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.file.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestAdjacencyFile {
+
+    private File storageDir;
+
+    @Before
+    public void setup() {
+        storageDir = new File("target/storage/" + UUID.randomUUID().toString());
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        if (storageDir.exists()) {
+            FileUtils.deleteFile(storageDir, true);
+        }
+    }
+
+    private ProvenanceEventRecord createEvent(final long eventId, final ProvenanceEventType eventType, final String uuid, final String... childUuids) {
+        final ProvenanceEventRecord event = Mockito.mock(ProvenanceEventRecord.class);
+        Mockito.when(event.getEventId()).thenReturn(eventId);
+        Mockito.when(event.getEventType()).thenReturn(eventType);
+        Mockito.when(event.getFlowFileUuid()).thenReturn(uuid);
+        Mockito.when(event.getSourceSystemFlowFileIdentifier()).thenReturn("urn:nifi:source-" + uuid);
+        Mockito.when(event.getParentUuids()).thenReturn(Collections.singletonList(uuid));
+        Mockito.when(event.getChildUuids()).thenReturn(Arrays.asList(childUuids));
+        return event;
+    }
+
+    @Test
+    public void testLinkedUuids() {
+        final String parent = UUID.randomUUID().toString();
+        final String child = UUID.randomUUID().toString().toUpperCase();
+
+        assertEquals(Collections.singleton(parent), AdjacencyUtil.getLinkedUuids(createEvent(0L, ProvenanceEventType.DROP, parent)));
+        assertEquals(new HashSet<>(Arrays.asList(parent, child.toLowerCase())),
+            AdjacencyUtil.getLinkedUuids(createEvent(1L, ProvenanceEventType.FORK, parent, child)));
+        assertEquals(new HashSet<>(Arrays.asList(parent, "source-" + parent)),
+            AdjacencyUtil.getLinkedUuids(createEvent(2L, ProvenanceEventType.RECEIVE, parent)));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final File eventFile = new File(storageDir, "10.prov.gz");
+        final File adjacencyFile = AdjacencyUtil.getAdjacencyFile(eventFile);
+        assertEquals(new File(new File(storageDir, "lineage"), "10.adj"), adjacencyFile);
+
+        final String parent = UUID.randomUUID().toString();
+        final String child1 = UUID.randomUUID().toString();
+        final String child2 = UUID.randomUUID().toString();
+        final String other = UUID.randomUUID().toString();
+
+        final AdjacencyFileWriter writer = new AdjacencyFileWriter(adjacencyFile);
+        writer.addEvent(createEvent(10L, ProvenanceEventType.RECEIVE, parent));
+        writer.addEvent(createEvent(11L, ProvenanceEventType.DROP, other));
+        writer.addEvent(createEvent(12L, ProvenanceEventType.FORK, parent, child1, child2));
+        writer.addEvent(createEvent(13L, ProvenanceEventType.DROP, child2));
+        writer.addEvent(createEvent(14L, ProvenanceEventType.DROP, parent));
+        assertFalse(adjacencyFile.exists());
+
+        writer.finish();
+        assertTrue(adjacencyFile.exists());
+
+        try (final AdjacencyFileReader reader = new AdjacencyFileReader(adjacencyFile)) {
+            assertEquals(writer.getEntryCount(), reader.getEntryCount());
+            assertEquals(Arrays.asList(10L, 12L, 14L), reader.getEventIds(parent, 100));
+            assertEquals(Arrays.asList(10L, 12L), reader.getEventIds(parent.toUpperCase(), 2));
+            assertEquals(Arrays.asList(12L), reader.getEventIds(child1, 100));
+            assertEquals(Arrays.asList(12L, 13L), reader.getEventIds(child2, 100));
+            assertEquals(Arrays.asList(10L), reader.getEventIds("source-" + parent, 100));
+            assertTrue(reader.getEventIds(UUID.randomUUID().toString(), 100).isEmpty());
+        }
+
+        final AdjacencyIndex index = new AdjacencyIndex();
+        assertFalse(index.addFile(20L, new File(storageDir, "20.prov")));
+        assertTrue(index.addFile(10L, eventFile));
+        assertTrue(index.isComplete(Arrays.asList(10L)));
+        assertFalse(index.isComplete(Arrays.asList(10L, 20L)));
+
+        final Map<Long, SortedSet<Long>> eventIds = index.getEventIds(Arrays.asList(child1, child2), Arrays.asList(10L), 100);
+        assertEquals(Collections.singleton(10L), eventIds.keySet());
+        assertEquals(Arrays.asList(12L, 13L), Arrays.asList(eventIds.get(10L).toArray()));
+
+        index.retainFiles(Collections.<Long> emptyList());
+        assertEquals(0, index.getFileCount());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.nifi.util.file.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestIndexManager {
+
+    private File indexRoot;
+    private IndexManager indexManager;
+
+    @Before
+    public void setup() {
+        indexRoot = new File("target/indices/" + UUID.randomUUID().toString());
+        indexManager = new IndexManager(2);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        indexManager.close();
+        FileUtils.deleteFile(indexRoot, true);
+    }
+
+    private void addDocuments(final File indexDir, final int count) throws IOException {
+        final IndexWriter writer = indexManager.borrowIndexWriter(indexDir);
+        try {
+            for (int i = 0; i < count; i++) {
+                final Document document = new Document();
+                document.add(new StringField("id", UUID.randomUUID().toString(), Store.YES));
+                writer.addDocument(document);
+            }
+        } finally {
+            indexManager.returnIndexWriter(indexDir, writer);
+        }
+    }
+
+    private int count(final File indexDir) throws IOException {
+        final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDir);
+        try {
+            return searcher.search(new MatchAllDocsQuery(), 1).totalHits;
+        } finally {
+            indexManager.returnIndexSearcher(indexDir, searcher);
+        }
+    }
+
+    private void waitForWarming(final long expectedWarmings) throws InterruptedException {
+        final long stopTime = System.currentTimeMillis() + 10000L;
+        while (indexManager.getSearcherWarmingCount() < expectedWarmings && System.currentTimeMillis() < stopTime) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expectedWarmings, indexManager.getSearcherWarmingCount());
+    }
+
+    @Test
+    public void testSearcherIsSharedUntilIndexChanges() throws IOException, InterruptedException {
+        final File indexDir = new File(indexRoot, "index-1");
+        addDocuments(indexDir, 10);
+        waitForWarming(1L);
+
+        final IndexSearcher first = indexManager.borrowIndexSearcher(indexDir);
+        final IndexSearcher second = indexManager.borrowIndexSearcher(indexDir);
+        assertSame(first, second);
+        assertEquals(10, first.search(new MatchAllDocsQuery(), 1).totalHits);
+        assertEquals(2L, indexManager.getSearcherHitCount());
+        assertEquals(0L, indexManager.getSearcherMissCount());
+
+        indexManager.returnIndexSearcher(indexDir, first);
+        indexManager.returnIndexSearcher(indexDir, second);
+
+        // once the writer has been returned and closed, the refreshed searcher sees the new documents
+        addDocuments(indexDir, 5);
+        waitForWarming(2L);
+        assertEquals(15, count(indexDir));
+        assertEquals(3L, indexManager.getSearcherHitCount());
+        assertEquals(0L, indexManager.getSearcherMissCount());
+        assertTrue(indexManager.getSearcherRefreshCount() >= 1L);
+    }
+
+    @Test
+    public void testNearRealTimeSearcherSeesUncommittedDocuments() throws IOException {
+        final File indexDir = new File(indexRoot, "index-1");
+        final IndexWriter writer = indexManager.borrowIndexWriter(indexDir);
+        try {
+            final Document document = new Document();
+            document.add(new StringField("id", "1", Store.YES));
+            writer.addDocument(document);
+
+            final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDir);
+            try {
+                assertEquals(1, searcher.search(new TermQuery(new Term("id", "1")), 1).totalHits);
+            } finally {
+                indexManager.returnIndexSearcher(indexDir, searcher);
+            }
+
+            final Document another = new Document();
+            another.add(new StringField("id", "2", Store.YES));
+            writer.addDocument(another);
+
+            final IndexSearcher refreshed = indexManager.borrowIndexSearcher(indexDir);
+            try {
+                assertNotSame(searcher, refreshed);
+                assertEquals(2, refreshed.search(new MatchAllDocsQuery(), 1).totalHits);
+            } finally {
+                indexManager.returnIndexSearcher(indexDir, refreshed);
+            }
+
+            assertEquals(1L, indexManager.getSearcherMissCount());
+            assertEquals(1L, indexManager.getSearcherRefreshCount());
+        } finally {
+            indexManager.returnIndexWriter(indexDir, writer);
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSearcherIsEvicted() throws IOException, InterruptedException {
+        final File first = new File(indexRoot, "index-1");
+        final File second = new File(indexRoot, "index-2");
+        final File third = new File(indexRoot, "index-3");
+        addDocuments(first, 1);
+        addDocuments(second, 2);
+        addDocuments(third, 3);
+        waitForWarming(3L);
+
+        // warming the third index evicted the first one
+        assertEquals(2, indexManager.getCachedSearcherCount());
+        assertEquals(1L, indexManager.getSearcherEvictionCount());
+
+        // a searcher that is in use remains usable after it has been evicted
+        final IndexSearcher secondSearcher = indexManager.borrowIndexSearcher(second);
+        assertEquals(0L, indexManager.getSearcherMissCount());
+        assertEquals(1, count(first));
+        assertEquals(1L, indexManager.getSearcherMissCount());
+        assertEquals(1, count(first));
+        assertEquals(3, count(third));
+        assertEquals(2L, indexManager.getSearcherMissCount());
+        assertEquals(3L, indexManager.getSearcherEvictionCount());
+
+        try {
+            assertEquals(2, secondSearcher.search(new MatchAllDocsQuery(), 1).totalHits);
+        } finally {
+            indexManager.returnIndexSearcher(second, secondSearcher);
+        }
+    }
+}
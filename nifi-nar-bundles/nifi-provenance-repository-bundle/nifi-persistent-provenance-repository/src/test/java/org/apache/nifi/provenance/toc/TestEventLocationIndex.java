@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.toc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.toc.EventLocationIndex.EventLocation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestEventLocationIndex {
+
+    private File indexFile;
+    private File tocFile;
+
+    @Before
+    public void setup() {
+        indexFile = new File("target/" + UUID.randomUUID().toString());
+        tocFile = new File("target/" + UUID.randomUUID().toString());
+    }
+
+    @After
+    public void cleanup() {
+        indexFile.delete();
+        tocFile.delete();
+    }
+
+    private void addFile(final EventLocationIndex index, final long firstEventId, final int numBlocks, final int eventsPerBlock, final boolean compressed) throws IOException {
+        try (final StandardTocWriter writer = new StandardTocWriter(tocFile, compressed, false)) {
+            for (int i = 0; i < numBlocks; i++) {
+                writer.addBlockOffset(100L * (i + 1), firstEventId + (long) i * eventsPerBlock);
+            }
+        }
+
+        try (final TocReader reader = new StandardTocReader(tocFile)) {
+            index.addFile(firstEventId, reader);
+        }
+    }
+
+    @Test
+    public void testLocateEvents() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 5L, 3, 10, true);
+            addFile(index, 35L, 2, 10, false);
+
+            assertNull(index.getLocation(4L));
+
+            final EventLocation first = index.getLocation(5L);
+            assertEquals(5L, first.getFileFirstEventId());
+            assertEquals(0, first.getBlockIndex());
+
+            final EventLocation location = index.getLocation(27L);
+            assertEquals(5L, location.getFileFirstEventId());
+            assertEquals(2, location.getBlockIndex());
+            assertTrue(location.getTocReader().isCompressed());
+            assertEquals(300L, location.getTocReader().getBlockOffset(2));
+            assertEquals(-1L, location.getTocReader().getBlockOffset(3));
+            assertEquals(2, location.getTocReader().getBlockIndexForEventId(27L).intValue());
+
+            final EventLocation last = index.getLocation(1000L);
+            assertEquals(35L, last.getFileFirstEventId());
+            assertEquals(1, last.getBlockIndex());
+            assertFalse(last.getTocReader().isCompressed());
+            assertEquals(200L, last.getTocReader().getLastBlockOffset());
+        }
+    }
+
+    @Test
+    public void testFilesAddedOutOfOrderAreRecovered() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 100L, 2, 50, false);
+            addFile(index, 0L, 4, 25, false);
+            assertEquals(6, index.getEntryCount());
+        }
+
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            assertEquals(6, index.getEntryCount());
+            assertEquals(new HashSet<>(Arrays.asList(0L, 100L)), index.getIndexedFiles());
+
+            assertEquals(0L, index.getLocation(99L).getFileFirstEventId());
+            assertEquals(3, index.getLocation(99L).getBlockIndex());
+            assertEquals(100L, index.getLocation(100L).getFileFirstEventId());
+            assertEquals(1, index.getLocation(175L).getBlockIndex());
+        }
+    }
+
+    @Test
+    public void testFirstBlockStartsWithFile() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 0L, 2, 25, true);
+
+            // merged files record their first block as starting with Event ID 0
+            try (final StandardTocWriter writer = new StandardTocWriter(tocFile, true, false)) {
+                writer.addBlockOffset(100L, 0L);
+                writer.addBlockOffset(200L, 60L);
+            }
+
+            try (final TocReader reader = new StandardTocReader(tocFile)) {
+                index.addFile(50L, reader);
+            }
+
+            assertEquals(0L, index.getLocation(49L).getFileFirstEventId());
+            assertEquals(50L, index.getLocation(50L).getFileFirstEventId());
+            assertEquals(0, index.getLocation(59L).getBlockIndex());
+            assertEquals(1, index.getLocation(60L).getBlockIndex());
+        }
+    }
+
+    @Test
+    public void testRetainFiles() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 0L, 2, 10, false);
+            addFile(index, 20L, 2, 10, false);
+            addFile(index, 40L, 2, 10, false);
+
+            index.retainFiles(Arrays.asList(20L, 40L));
+            assertEquals(4, index.getEntryCount());
+            assertNull(index.getLocation(5L));
+            assertEquals(20L, index.getLocation(25L).getFileFirstEventId());
+
+            index.retainFiles(Collections.<Long> emptyList());
+            assertEquals(0, index.getEntryCount());
+            assertNull(index.getLocation(45L));
+        }
+    }
+
+    @Test
+    public void testRemoveFiles() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 0L, 2, 10, false);
+            addFile(index, 20L, 2, 10, false);
+            addFile(index, 40L, 2, 10, false);
+
+            index.removeFiles(Collections.singleton(20L));
+            assertEquals(4, index.getEntryCount());
+            assertEquals(new HashSet<>(Arrays.asList(0L, 40L)), index.getIndexedFiles());
+            assertEquals(0L, index.getLocation(5L).getFileFirstEventId());
+            assertEquals(40L, index.getLocation(45L).getFileFirstEventId());
+
+            // the removed file can be added back, for instance once it has been moved to cold storage
+            addFile(index, 20L, 2, 10, true);
+            assertEquals(6, index.getEntryCount());
+            assertEquals(20L, index.getLocation(25L).getFileFirstEventId());
+            assertTrue(index.getLocation(25L).getTocReader().isCompressed());
+        }
+    }
+
+    @Test
+    public void testIndexGrows() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            for (int i = 0; i < 10; i++) {
+                addFile(index, i * 10000L, 500, 20, false);
+            }
+
+            assertEquals(5000, index.getEntryCount());
+            final EventLocation location = index.getLocation(54321L);
+            assertEquals(50000L, location.getFileFirstEventId());
+            assertEquals(216, location.getBlockIndex());
+        }
+    }
+
+    @Test
+    public void testInvalidIndexIsReset() throws IOException {
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            addFile(index, 0L, 2, 10, false);
+        }
+
+        try (final RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.writeInt(EventLocationIndex.VERSION + 1);
+        }
+
+        try (final EventLocationIndex index = new EventLocationIndex(indexFile)) {
+            assertEquals(0, index.getEntryCount());
+            assertNull(index.getLocation(5L));
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.nifi.util.RingBuffer.ForEachEvaluator;
+
+/**
+ * <p>
+ * A fixed-size buffer of Provenance Events that is keyed by Event ID. The slot that an event occupies is determined by
+ * its Event ID, so events are added without a lock: a slot is claimed with a compare-and-set, and the event that
+ * previously occupied the slot is evicted. Because the slot is known, looking up an event by its ID requires no scan.
+ * </p>
+ *
+ * <p>
+ * The buffer also maintains small in-memory indexes of the events that it holds, by Component ID, by FlowFile UUID
+ * (including parent and child UUIDs) and by Event Type, so that queries for those fields need not scan every event.
+ * The indexes are split into stripes, each guarded by its own lock, and an event is indexed in the stripe chosen by its
+ * Event ID. Threads that register events concurrently therefore rarely contend for the same lock, and evicting an event
+ * only touches the stripe that indexed it.
+ * </p>
+ */
+class StripedEventBuffer {
+
+    private static final long[] EMPTY_IDS = new long[0];
+
+    private final AtomicReferenceArray<ProvenanceEventRecord> slots;
+    private final IndexStripe[] stripes;
+    private final AtomicLong maxEventId = new AtomicLong(-1L);
+
+    StripedEventBuffer(final int capacity, final int stripeCount) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be at least 1");
+        }
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be at least 1");
+        }
+
+        slots = new AtomicReferenceArray<>(capacity);
+        stripes = new IndexStripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new IndexStripe();
+        }
+    }
+
+    int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Adds the given event to the buffer, evicting the event whose ID is <code>capacity</code> less than the given event's ID.
+     * The event must already have been assigned a unique, non-negative Event ID.
+     *
+     * @param event the event to add
+     */
+    void add(final ProvenanceEventRecord event) {
+        final long eventId = event.getEventId();
+        final IndexStripe stripe = getStripe(eventId);
+
+        // Index the event before it becomes visible in its slot, so that whichever thread later evicts the event
+        // always finds it in the index.
+        stripe.index(event);
+
+        final int slot = (int) (eventId % slots.length());
+        while (true) {
+            final ProvenanceEventRecord current = slots.get(slot);
+            if (current != null && current.getEventId() > eventId) {
+                // a newer event already claimed this slot, so this event was evicted before it was ever visible.
+                stripe.unindex(event);
+                return;
+            }
+
+            if (slots.compareAndSet(slot, current, event)) {
+                if (current != null) {
+                    getStripe(current.getEventId()).unindex(current);
+                }
+                break;
+            }
+        }
+
+        long max = maxEventId.get();
+        while (eventId > max && !maxEventId.compareAndSet(max, eventId)) {
+            max = maxEventId.get();
+        }
+    }
+
+    /**
+     * @param eventId the ID of the event
+     * @return the event with the given ID, or <code>null</code> if it is not, or is no longer, in the buffer
+     */
+    ProvenanceEventRecord get(final long eventId) {
+        if (eventId < 0) {
+            return null;
+        }
+
+        final ProvenanceEventRecord event = slots.get((int) (eventId % slots.length()));
+        return (event == null || event.getEventId() != eventId) ? null : event;
+    }
+
+    /**
+     * @return the largest Event ID in the buffer, or <code>null</code> if no event has been added
+     */
+    Long getMaxEventId() {
+        final long max = maxEventId.get();
+        return max < 0 ? null : max;
+    }
+
+    /**
+     * @return the smallest Event ID that may still be in the buffer
+     */
+    long getMinEventId() {
+        return Math.max(0L, maxEventId.get() - slots.length() + 1);
+    }
+
+    /**
+     * Evaluates each event in the buffer, from newest to oldest, until the evaluator returns <code>false</code>
+     *
+     * @param evaluator the evaluator to call for each event
+     */
+    void forEachNewestFirst(final ForEachEvaluator<ProvenanceEventRecord> evaluator) {
+        final long max = maxEventId.get();
+        final long min = Math.max(0L, max - slots.length() + 1);
+        for (long eventId = max; eventId >= min; eventId--) {
+            final ProvenanceEventRecord event = get(eventId);
+            if (event != null && !evaluator.evaluate(event)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param componentId the Component ID, compared case-insensitively
+     * @return the IDs, in ascending order, of the events in the buffer that were generated by the given component
+     */
+    long[] getEventIdsForComponent(final String componentId) {
+        final String key = componentKey(componentId);
+        int count = 0;
+        final EventIdList[] lists = new EventIdList[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                final EventIdList list = stripes[i].byComponentId.get(key);
+                if (list != null) {
+                    lists[i] = list.copy();
+                    count += list.size();
+                }
+            }
+        }
+        return merge(lists, count);
+    }
+
+    /**
+     * @param flowFileUuid the UUID of the FlowFile
+     * @return the IDs, in ascending order, of the events in the buffer whose FlowFile UUID, parent UUIDs or child UUIDs
+     *         contain the given UUID
+     */
+    long[] getEventIdsForFlowFile(final String flowFileUuid) {
+        int count = 0;
+        final EventIdList[] lists = new EventIdList[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                final EventIdList list = stripes[i].byFlowFileUuid.get(flowFileUuid);
+                if (list != null) {
+                    lists[i] = list.copy();
+                    count += list.size();
+                }
+            }
+        }
+        return merge(lists, count);
+    }
+
+    /**
+     * @param eventType the type of event
+     * @return the IDs, in ascending order, of the events in the buffer that have the given type
+     */
+    long[] getEventIdsForEventType(final ProvenanceEventType eventType) {
+        int count = 0;
+        final EventIdList[] lists = new EventIdList[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                final EventIdList list = stripes[i].byEventType.get(eventType);
+                if (list != null) {
+                    lists[i] = list.copy();
+                    count += list.size();
+                }
+            }
+        }
+        return merge(lists, count);
+    }
+
+    /**
+     * @return the number of distinct keys held across all of the indexes. Used to verify that evicted events are removed from the indexes.
+     */
+    int getIndexedKeyCount() {
+        int count = 0;
+        for (final IndexStripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.byComponentId.size() + stripe.byFlowFileUuid.size() + stripe.byEventType.size();
+            }
+        }
+        return count;
+    }
+
+    private IndexStripe getStripe(final long eventId) {
+        return stripes[(int) (eventId % stripes.length)];
+    }
+
+    private static String componentKey(final String componentId) {
+        return componentId == null ? null : componentId.toLowerCase();
+    }
+
+    private static long[] merge(final EventIdList[] lists, final int count) {
+        if (count == 0) {
+            return EMPTY_IDS;
+        }
+
+        final long[] ids = new long[count];
+        int offset = 0;
+        for (final EventIdList list : lists) {
+            if (list != null) {
+                offset = list.copyTo(ids, offset);
+            }
+        }
+
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * The indexes for the events whose Event IDs map to a single stripe. All access must be synchronized on the stripe.
+     */
+    private static class IndexStripe {
+        private final Map<String, EventIdList> byComponentId = new HashMap<>();
+        private final Map<String, EventIdList> byFlowFileUuid = new HashMap<>();
+        private final Map<ProvenanceEventType, EventIdList> byEventType = new EnumMap<>(ProvenanceEventType.class);
+
+        synchronized void index(final ProvenanceEventRecord event) {
+            final long eventId = event.getEventId();
+            add(byComponentId, componentKey(event.getComponentId()), eventId);
+            add(byEventType, event.getEventType(), eventId);
+
+            final String flowFileUuid = event.getFlowFileUuid();
+            add(byFlowFileUuid, flowFileUuid, eventId);
+            for (final String parentUuid : event.getParentUuids()) {
+                if (!parentUuid.equals(flowFileUuid)) {
+                    add(byFlowFileUuid, parentUuid, eventId);
+                }
+            }
+            for (final String childUuid : event.getChildUuids()) {
+                if (!childUuid.equals(flowFileUuid)) {
+                    add(byFlowFileUuid, childUuid, eventId);
+                }
+            }
+        }
+
+        synchronized void unindex(final ProvenanceEventRecord event) {
+            final long eventId = event.getEventId();
+            remove(byComponentId, componentKey(event.getComponentId()), eventId);
+            remove(byEventType, event.getEventType(), eventId);
+
+            final String flowFileUuid = event.getFlowFileUuid();
+            remove(byFlowFileUuid, flowFileUuid, eventId);
+            for (final String parentUuid : event.getParentUuids()) {
+                remove(byFlowFileUuid, parentUuid, eventId);
+            }
+            for (final String childUuid : event.getChildUuids()) {
+                remove(byFlowFileUuid, childUuid, eventId);
+            }
+        }
+
+        private static <K> void add(final Map<K, EventIdList> map, final K key, final long eventId) {
+            if (key == null) {
+                return;
+            }
+
+            EventIdList list = map.get(key);
+            if (list == null) {
+                list = new EventIdList();
+                map.put(key, list);
+            }
+            list.add(eventId);
+        }
+
+        private static <K> void remove(final Map<K, EventIdList> map, final K key, final long eventId) {
+            if (key == null) {
+                return;
+            }
+
+            final EventIdList list = map.get(key);
+            if (list != null && list.remove(eventId) && list.size() == 0) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A list of primitive Event IDs. IDs are added in nearly ascending order and evicted oldest-first, so removal
+     * almost always takes the ID at the head of the list.
+     */
+    private static class EventIdList {
+        private long[] ids = new long[2];
+        private int head = 0;
+        private int tail = 0;
+
+        int size() {
+            return tail - head;
+        }
+
+        void add(final long eventId) {
+            if (tail == ids.length) {
+                final int size = size();
+                if (head > 0 && size < ids.length / 2) {
+                    System.arraycopy(ids, head, ids, 0, size);
+                } else {
+                    ids = Arrays.copyOfRange(ids, head, head + Math.max(2, size * 2));
+                }
+                head = 0;
+                tail = size;
+            }
+
+            ids[tail++] = eventId;
+        }
+
+        boolean remove(final long eventId) {
+            if (head < tail && ids[head] == eventId) {
+                head++;
+                if (head == tail) {
+                    head = 0;
+                    tail = 0;
+                }
+                return true;
+            }
+
+            for (int i = head + 1; i < tail; i++) {
+                if (ids[i] == eventId) {
+                    System.arraycopy(ids, i + 1, ids, i, tail - i - 1);
+                    tail--;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        EventIdList copy() {
+            final EventIdList copy = new EventIdList();
+            copy.ids = Arrays.copyOfRange(ids, head, tail);
+            copy.tail = copy.ids.length;
+            return copy;
+        }
+
+        int copyTo(final long[] destination, final int offset) {
+            System.arraycopy(ids, head, destination, offset, size());
+            return offset + size();
+        }
+    }
+}
@@ -36,10 +36,8 @@ import org.apache.nifi.provenance.search.QuerySubmission;
 import org.apache.nifi.provenance.search.SearchTerm;
 import org.apache.nifi.provenance.search.SearchableField;
 import org.apache.nifi.util.NiFiProperties;
-import org.apache.nifi.util.RingBuffer;
 import org.apache.nifi.util.RingBuffer.Filter;
 import org.apache.nifi.util.RingBuffer.ForEachEvaluator;
-import org.apache.nifi.util.RingBuffer.IterationDirection;
 import org.apache.nifi.web.ResourceNotFoundException;
 
 import java.io.IOException;
@@ -50,6 +48,8 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
@@ -70,7 +70,7 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
     // default property values
     public static final int DEFAULT_BUFFER_SIZE = 10000;
 
-    private final RingBuffer<ProvenanceEventRecord> ringBuffer;
+    private final StripedEventBuffer eventBuffer;
     private final List<SearchableField> searchableFields;
     private final List<SearchableField> searchableAttributes;
     private final ExecutorService queryExecService;
@@ -88,7 +88,8 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
         final NiFiProperties properties = NiFiProperties.getInstance();
 
         final int bufferSize = properties.getIntegerProperty(BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
-        ringBuffer = new RingBuffer<>(bufferSize);
+        final int stripeCount = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        eventBuffer = new StripedEventBuffer(bufferSize, stripeCount);
 
         final String indexedFieldString = properties.getProperty(NiFiProperties.PROVENANCE_INDEXED_FIELDS);
         final String indexedAttrString = properties.getProperty(NiFiProperties.PROVENANCE_INDEXED_ATTRIBUTES);
@@ -136,7 +137,7 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
     @Override
     public void registerEvent(final ProvenanceEventRecord event) {
         final long id = idGenerator.getAndIncrement();
-        ringBuffer.add(new IdEnrichedProvEvent(event, id));
+        eventBuffer.add(new IdEnrichedProvEvent(event, id));
     }
 
     @Override
@@ -153,43 +154,47 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
 
     @Override
     public List<ProvenanceEventRecord> getEvents(final long firstRecordId, final int maxRecords, final NiFiUser user) throws IOException {
-        return ringBuffer.getSelectedElements(new Filter<ProvenanceEventRecord>() {
-            @Override
-            public boolean select(final ProvenanceEventRecord value) {
-                if (user != null && !isAuthorized(value, user)) {
-                    return false;
-                }
+        final Long maxEventId = eventBuffer.getMaxEventId();
+        if (maxEventId == null) {
+            return Collections.emptyList();
+        }
+
+        // events occupy the slot given by their ID, so we can go straight to the first requested event rather than scanning the buffer
+        final List<ProvenanceEventRecord> selected = new ArrayList<>(Math.min(maxRecords, eventBuffer.getCapacity()));
+        for (long eventId = Math.max(firstRecordId, eventBuffer.getMinEventId()); eventId <= maxEventId && selected.size() < maxRecords; eventId++) {
+            final ProvenanceEventRecord event = eventBuffer.get(eventId);
+            if (event == null) {
+                continue;
+            }
 
-                return value.getEventId() >= firstRecordId;
+            if (user != null && !isAuthorized(event, user)) {
+                continue;
             }
-        }, maxRecords);
+
+            selected.add(event);
+        }
+
+        return selected;
     }
 
     @Override
     public Long getMaxEventId() {
-        final ProvenanceEventRecord newest = ringBuffer.getNewestElement();
-        return (newest == null) ? null : newest.getEventId();
+        return eventBuffer.getMaxEventId();
     }
 
     public ProvenanceEventRecord getEvent(final String identifier) throws IOException {
-        final List<ProvenanceEventRecord> records = ringBuffer.getSelectedElements(new Filter<ProvenanceEventRecord>() {
-            @Override
-            public boolean select(final ProvenanceEventRecord event) {
-                return identifier.equals(event.getFlowFileUuid());
+        for (final long eventId : eventBuffer.getEventIdsForFlowFile(identifier)) {
+            final ProvenanceEventRecord event = eventBuffer.get(eventId);
+            if (event != null && identifier.equals(event.getFlowFileUuid())) {
+                return event;
             }
-        }, 1);
-        return records.isEmpty() ? null : records.get(0);
+        }
+
+        return null;
     }
 
     public ProvenanceEventRecord getEvent(final long id) {
-        final List<ProvenanceEventRecord> records = ringBuffer.getSelectedElements(new Filter<ProvenanceEventRecord>() {
-            @Override
-            public boolean select(final ProvenanceEventRecord event) {
-                return event.getEventId() == id;
-            }
-        }, 1);
-
-        return records.isEmpty() ? null : records.get(0);
+        return eventBuffer.get(id);
     }
 
     public ProvenanceEventRecord getEvent(final long id, final NiFiUser user) {
@@ -420,18 +425,66 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
 
         if (query.getSearchTerms().isEmpty() && query.getStartDate() == null && query.getEndDate() == null) {
             final AsyncQuerySubmission result = new AsyncQuerySubmission(query, 1, user.getIdentity());
-            queryExecService.submit(new QueryRunnable(ringBuffer, createFilter(query, user), query.getMaxResults(), result));
+            queryExecService.submit(new QueryRunnable(eventBuffer, null, createFilter(query, user), query.getMaxResults(), result));
             querySubmissionMap.put(query.getIdentifier(), result);
             return result;
         }
 
         final AsyncQuerySubmission result = new AsyncQuerySubmission(query, 1, user.getIdentity());
         querySubmissionMap.put(query.getIdentifier(), result);
-        queryExecService.submit(new QueryRunnable(ringBuffer, createFilter(query, user), query.getMaxResults(), result));
+        queryExecService.submit(new QueryRunnable(eventBuffer, getCandidateEventIds(query), createFilter(query, user), query.getMaxResults(), result));
 
         return result;
     }
 
+    /**
+     * Uses the in-memory indexes to determine which events can possibly match the given query. Only search terms for
+     * the Component ID, FlowFile UUID and Event Type that do not contain wildcards can be answered from the indexes.
+     *
+     * @param query the query
+     * @return the IDs, in ascending order, of the events that may match the query, or <code>null</code> if the query
+     *         has no search term that can be answered from the indexes, in which case every event must be evaluated
+     */
+    private long[] getCandidateEventIds(final Query query) {
+        long[] candidates = null;
+        for (final SearchTerm searchTerm : query.getSearchTerms()) {
+            final SearchableField searchableField = searchTerm.getSearchableField();
+            final String searchValue = searchTerm.getValue();
+            if (searchableField.isAttribute() || searchValue.contains("?") || searchValue.contains("*")) {
+                continue;
+            }
+
+            final long[] eventIds;
+            if (SearchableFields.ComponentID.equals(searchableField)) {
+                eventIds = eventBuffer.getEventIdsForComponent(searchValue);
+            } else if (SearchableFields.FlowFileUUID.equals(searchableField)) {
+                eventIds = eventBuffer.getEventIdsForFlowFile(searchValue);
+            } else if (SearchableFields.EventType.equals(searchableField)) {
+                final ProvenanceEventType eventType = getEventType(searchValue);
+                eventIds = eventType == null ? new long[0] : eventBuffer.getEventIdsForEventType(eventType);
+            } else {
+                continue;
+            }
+
+            // every term must match, so the smallest set of candidates is sufficient
+            if (candidates == null || eventIds.length < candidates.length) {
+                candidates = eventIds;
+            }
+        }
+
+        return candidates;
+    }
+
+    private static ProvenanceEventType getEventType(final String searchValue) {
+        for (final ProvenanceEventType eventType : ProvenanceEventType.values()) {
+            if (eventType.name().equalsIgnoreCase(searchValue)) {
+                return eventType;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public QuerySubmission retrieveQuerySubmission(final String queryIdentifier, final NiFiUser user) {
         final QuerySubmission submission = querySubmissionMap.get(queryIdentifier);
@@ -592,20 +645,23 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
             }
         };
 
-        queryExecService.submit(new ComputeLineageRunnable(ringBuffer, filter, result));
+        queryExecService.submit(new ComputeLineageRunnable(eventBuffer, flowFileUuids, filter, result));
 
         return result;
     }
 
     private static class QueryRunnable implements Runnable {
 
-        private final RingBuffer<ProvenanceEventRecord> ringBuffer;
+        private final StripedEventBuffer eventBuffer;
+        private final long[] candidateEventIds;
         private final Filter<ProvenanceEventRecord> filter;
         private final AsyncQuerySubmission submission;
         private final int maxRecords;
 
-        public QueryRunnable(final RingBuffer<ProvenanceEventRecord> ringBuffer, final Filter<ProvenanceEventRecord> filter, final int maxRecords, final AsyncQuerySubmission submission) {
-            this.ringBuffer = ringBuffer;
+        public QueryRunnable(final StripedEventBuffer eventBuffer, final long[] candidateEventIds, final Filter<ProvenanceEventRecord> filter, final int maxRecords,
+            final AsyncQuerySubmission submission) {
+            this.eventBuffer = eventBuffer;
+            this.candidateEventIds = candidateEventIds;
             this.filter = filter;
             this.submission = submission;
             this.maxRecords = maxRecords;
@@ -616,7 +672,7 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
             // Retrieve the most recent results and count the total number of matches
             final AtomicInteger matchingCount = new AtomicInteger(0);
             final List<ProvenanceEventRecord> matchingRecords = new ArrayList<>(maxRecords);
-            ringBuffer.forEach(new ForEachEvaluator<ProvenanceEventRecord>() {
+            final ForEachEvaluator<ProvenanceEventRecord> evaluator = new ForEachEvaluator<ProvenanceEventRecord>() {
                 @Override
                 public boolean evaluate(final ProvenanceEventRecord record) {
                     if (filter.select(record)) {
@@ -627,8 +683,18 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
 
                     return true;
                 }
-
-            }, IterationDirection.BACKWARD);
+            };
+
+            if (candidateEventIds == null) {
+                eventBuffer.forEachNewestFirst(evaluator);
+            } else {
+                for (int i = candidateEventIds.length - 1; i >= 0; i--) {
+                    final ProvenanceEventRecord record = eventBuffer.get(candidateEventIds[i]);
+                    if (record != null) {
+                        evaluator.evaluate(record);
+                    }
+                }
+            }
 
             submission.getResult().update(matchingRecords, matchingCount.get());
         }
@@ -636,19 +702,36 @@ public class VolatileProvenanceRepository implements ProvenanceRepository {
 
     private static class ComputeLineageRunnable implements Runnable {
 
-        private final RingBuffer<ProvenanceEventRecord> ringBuffer;
+        private final StripedEventBuffer eventBuffer;
+        private final Collection<String> flowFileUuids;
         private final Filter<ProvenanceEventRecord> filter;
         private final AsyncLineageSubmission submission;
 
-        public ComputeLineageRunnable(final RingBuffer<ProvenanceEventRecord> ringBuffer, final Filter<ProvenanceEventRecord> filter, final AsyncLineageSubmission submission) {
-            this.ringBuffer = ringBuffer;
+        public ComputeLineageRunnable(final StripedEventBuffer eventBuffer, final Collection<String> flowFileUuids, final Filter<ProvenanceEventRecord> filter,
+            final AsyncLineageSubmission submission) {
+            this.eventBuffer = eventBuffer;
+            this.flowFileUuids = flowFileUuids;
             this.filter = filter;
             this.submission = submission;
         }
 
         @Override
         public void run() {
-            final List<ProvenanceEventRecord> records = ringBuffer.getSelectedElements(filter);
+            final SortedSet<Long> eventIds = new TreeSet<>();
+            for (final String flowFileUuid : flowFileUuids) {
+                for (final long eventId : eventBuffer.getEventIdsForFlowFile(flowFileUuid)) {
+                    eventIds.add(eventId);
+                }
+            }
+
+            final List<ProvenanceEventRecord> records = new ArrayList<>(eventIds.size());
+            for (final Long eventId : eventIds) {
+                final ProvenanceEventRecord record = eventBuffer.get(eventId);
+                if (record != null && filter.select(record)) {
+                    records.add(record);
+                }
+            }
+
             submission.getResult().update(records);
         }
     }
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.nifi.util.RingBuffer.ForEachEvaluator;
+import org.junit.Test;
+
+public class TestStripedEventBuffer {
+
+    @Test
+    public void testEvictionRemovesEventsFromIndexes() {
+        final StripedEventBuffer buffer = new StripedEventBuffer(10, 3);
+        for (long i = 0; i < 25; i++) {
+            buffer.add(createEvent(i, "uuid-" + i, "component-" + (i % 2), i % 2 == 0 ? ProvenanceEventType.CREATE : ProvenanceEventType.DROP));
+        }
+
+        assertEquals(Long.valueOf(24L), buffer.getMaxEventId());
+        assertEquals(15L, buffer.getMinEventId());
+        assertNull(buffer.get(14L));
+        assertEquals(15L, buffer.get(15L).getEventId());
+
+        assertArrayEquals(new long[0], buffer.getEventIdsForFlowFile("uuid-3"));
+        assertArrayEquals(new long[] {20L}, buffer.getEventIdsForFlowFile("uuid-20"));
+        assertArrayEquals(new long[] {16L, 18L, 20L, 22L, 24L}, buffer.getEventIdsForComponent("COMPONENT-0"));
+        assertArrayEquals(new long[] {15L, 17L, 19L, 21L, 23L}, buffer.getEventIdsForEventType(ProvenanceEventType.DROP));
+
+        // 10 FlowFile UUIDs, 2 components and 2 event types, each indexed in each of the 3 stripes that holds one of its events
+        assertEquals(10 + 2 * 3 + 2 * 3, buffer.getIndexedKeyCount());
+    }
+
+    @Test
+    public void testEventIndexedByParentAndChildUuids() {
+        final StripedEventBuffer buffer = new StripedEventBuffer(10, 2);
+        final StandardProvenanceEventRecord.Builder builder = createBuilder("parent", "component", ProvenanceEventType.FORK);
+        builder.addParentUuid("parent");
+        builder.addChildUuid("child-1");
+        builder.addChildUuid("child-2");
+        final StandardProvenanceEventRecord fork = builder.build();
+        fork.setEventId(0L);
+        buffer.add(fork);
+
+        assertArrayEquals(new long[] {0L}, buffer.getEventIdsForFlowFile("parent"));
+        assertArrayEquals(new long[] {0L}, buffer.getEventIdsForFlowFile("child-2"));
+
+        for (long i = 1; i <= 10; i++) {
+            buffer.add(createEvent(i, "other", "component", ProvenanceEventType.DROP));
+        }
+
+        assertArrayEquals(new long[0], buffer.getEventIdsForFlowFile("child-1"));
+        // only the FlowFile UUID, component and event type of the remaining events, each indexed in both stripes
+        assertEquals(3 * 2, buffer.getIndexedKeyCount());
+    }
+
+    @Test
+    public void testOutOfOrderAddDoesNotReplaceNewerEvent() {
+        final StripedEventBuffer buffer = new StripedEventBuffer(4, 2);
+        final ProvenanceEventRecord newer = createEvent(6L, "newer", "component", ProvenanceEventType.CREATE);
+        buffer.add(newer);
+        buffer.add(createEvent(2L, "older", "component", ProvenanceEventType.CREATE));
+
+        assertSame(newer, buffer.get(6L));
+        assertNull(buffer.get(2L));
+        assertArrayEquals(new long[0], buffer.getEventIdsForFlowFile("older"));
+        assertArrayEquals(new long[] {6L}, buffer.getEventIdsForComponent("component"));
+    }
+
+    @Test
+    public void testForEachNewestFirst() {
+        final StripedEventBuffer buffer = new StripedEventBuffer(5, 4);
+        for (long i = 0; i < 8; i++) {
+            buffer.add(createEvent(i, "uuid-" + i, "component", ProvenanceEventType.CREATE));
+        }
+
+        final List<Long> eventIds = new ArrayList<>();
+        buffer.forEachNewestFirst(new ForEachEvaluator<ProvenanceEventRecord>() {
+            @Override
+            public boolean evaluate(final ProvenanceEventRecord value) {
+                eventIds.add(value.getEventId());
+                return eventIds.size() < 4;
+            }
+        });
+
+        final List<Long> expected = new ArrayList<>();
+        Collections.addAll(expected, 7L, 6L, 5L, 4L);
+        assertEquals(expected, eventIds);
+    }
+
+    private ProvenanceEventRecord createEvent(final long eventId, final String flowFileUuid, final String componentId, final ProvenanceEventType eventType) {
+        final StandardProvenanceEventRecord event = createBuilder(flowFileUuid, componentId, eventType).build();
+        event.setEventId(eventId);
+        return event;
+    }
+
+    private StandardProvenanceEventRecord.Builder createBuilder(final String flowFileUuid, final String componentId, final ProvenanceEventType eventType) {
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(eventType);
+        builder.setFlowFileUUID(flowFileUuid);
+        builder.setComponentId(componentId);
+        builder.setComponentType("dummy processor");
+        builder.setCurrentContentClaim(null, null, null, null, 0L);
+        return builder;
+    }
+}
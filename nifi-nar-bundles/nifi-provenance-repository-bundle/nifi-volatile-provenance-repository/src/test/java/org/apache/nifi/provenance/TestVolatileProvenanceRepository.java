@@ -19,6 +19,7 @@ package org.apache.nifi.provenance;
 import org.apache.nifi.authorization.user.NiFiUser;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.provenance.search.Query;
+import org.apache.nifi.provenance.search.QueryResult;
 import org.apache.nifi.provenance.search.QuerySubmission;
 import org.apache.nifi.provenance.search.SearchTerms;
 import org.apache.nifi.util.NiFiProperties;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestVolatileProvenanceRepository {
 
@@ -117,6 +119,104 @@ public class TestVolatileProvenanceRepository {
         }
     }
 
+    @Test
+    public void testIndexedSearchAfterBufferWraps() throws InterruptedException {
+        repo = new VolatileProvenanceRepository();
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("abc", "xyz");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentType("dummy processor");
+
+        // default buffer size is 10,000 so the first 2,000 events are evicted
+        for (int i = 0; i < 12000; i++) {
+            attributes.put("uuid", new UUID(0L, i).toString());
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            builder.setComponentId("Component-" + (i % 4));
+            builder.setEventType(i % 2 == 0 ? ProvenanceEventType.RECEIVE : ProvenanceEventType.SEND);
+            repo.registerEvent(builder.build());
+        }
+
+        assertEquals(Long.valueOf(11999L), repo.getMaxEventId());
+        assertNull(repo.getEvent(1999L));
+        assertEquals(2000L, repo.getEvent(2000L).getEventId());
+
+        final Query componentQuery = new Query(UUID.randomUUID().toString());
+        componentQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.ComponentID, "component-2"));
+        componentQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.EventType, "receive"));
+        componentQuery.setMaxResults(5000);
+
+        final QueryResult componentResult = submitAndWait(componentQuery);
+        assertEquals(2500, componentResult.getMatchingEvents().size());
+        assertEquals(11998L, componentResult.getMatchingEvents().get(0).getEventId());
+        for (final ProvenanceEventRecord match : componentResult.getMatchingEvents()) {
+            assertEquals("Component-2", match.getComponentId());
+            assertEquals(ProvenanceEventType.RECEIVE, match.getEventType());
+        }
+
+        final Query evictedQuery = new Query(UUID.randomUUID().toString());
+        evictedQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.FlowFileUUID, new UUID(0L, 5L).toString()));
+        assertEquals(0L, submitAndWait(evictedQuery).getTotalHitCount());
+
+        final Query retainedQuery = new Query(UUID.randomUUID().toString());
+        retainedQuery.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.FlowFileUUID, new UUID(0L, 5005L).toString()));
+        final QueryResult retainedResult = submitAndWait(retainedQuery);
+        assertEquals(1L, retainedResult.getTotalHitCount());
+        assertEquals(5005L, retainedResult.getMatchingEvents().get(0).getEventId());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws IOException, InterruptedException {
+        repo = new VolatileProvenanceRepository();
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        final ProvenanceEventRecord event = builder.build();
+
+        final int threadCount = 8;
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        repo.registerEvent(event);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final List<ProvenanceEventRecord> retrieved = repo.getEvents(0L, 10000);
+        assertEquals(threadCount * 1000, retrieved.size());
+        for (int i = 0; i < retrieved.size(); i++) {
+            assertEquals(i, retrieved.get(i).getEventId());
+        }
+    }
+
+    private QueryResult submitAndWait(final Query query) throws InterruptedException {
+        final QuerySubmission submission = repo.submitQuery(query, createUser());
+        while (!submission.getResult().isFinished()) {
+            Thread.sleep(10L);
+        }
+        return submission.getResult();
+    }
+
     private FlowFile createFlowFile(final long id, final long fileSize, final Map<String, String> attributes) {
         final Map<String, String> attrCopy = new HashMap<>(attributes);
 